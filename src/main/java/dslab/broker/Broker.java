@@ -3,18 +3,32 @@ package dslab.broker;
 import dslab.ComponentFactory;
 import dslab.broker.enums.ElectionState;
 import dslab.broker.enums.ElectionType;
+import dslab.broker.enums.TransportType;
 import dslab.config.BrokerConfig;
+import dslab.config.ListenerConfig;
 import dslab.dns.DNSServer;
 import dslab.entity.BrokerStateManager;
 import dslab.entity.Exchange;
 import dslab.entity.Queue;
+import dslab.entity.QueueFactory;
+import dslab.entity.RoutingOptions;
+import dslab.thread.ConnectionRegistry;
 import dslab.thread.ListenerThread;
 import dslab.thread.LepTcpThread;
+import dslab.thread.NioListenerThread;
+import dslab.thread.ServerListener;
+import dslab.thread.SmqpChannelHandler;
 import dslab.thread.SmqpTcpThread;
 import dslab.util.ExchangeType;
+import dslab.util.FlushPolicy;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.*;
 import java.util.logging.Level;
@@ -23,9 +37,11 @@ import java.util.logging.Logger;
 public class Broker implements IBroker {
     public static final Logger LOG = Logger.getLogger(DNSServer.class.getName());
     private final BrokerConfig brokerConfig;
-    private ListenerThread smqpListenerThread;
+    private ServerListener smqpListener;
     private final ConcurrentHashMap<String, Exchange> exchanges = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, Queue> queues = new ConcurrentHashMap<>();
+    private final QueueFactory queueFactory;
+    private final RoutingOptions routingOptions;
 
     private ListenerThread lepListenerThread;
     private final BrokerService brokerService;
@@ -38,6 +54,10 @@ public class Broker implements IBroker {
         this.brokerConfig = config;
         this.brokerState = new BrokerStateManager(ElectionType.fromString(config.electionType()));
         this.brokerService = new BrokerService(brokerConfig, brokerState);
+        this.queueFactory = new QueueFactory(config.queue().options(),
+                config.queue().logSettings(config.componentId()), config.queue().payloadArena(), exchanges::get,
+                this::removeQueue, TransportType.fromString(config.listener().transport()) != TransportType.NIO);
+        this.routingOptions = config.routing().options();
 
     }
 
@@ -45,20 +65,19 @@ public class Broker implements IBroker {
     public void run() {
         try {
             //build listener
-            smqpListenerThread = ListenerThread.builder()
-                    .componentId("SMQP-Listener")
-                    .serverSocket(new ServerSocket(brokerConfig.port()))
-                    .clientConnectionRunnable(socket -> new SmqpTcpThread(exchanges, queues, socket))
-                    .build();
+            smqpListener = createSmqpListener();
 
             lepListenerThread = ListenerThread.builder()
                     .componentId("LEP-Listener")
-                    .serverSocket(new ServerSocket(brokerConfig.electionPort()))
+                    .serverSocket(new ServerSocket(brokerConfig.electionPort(), brokerConfig.listener().acceptBacklog()))
+                    .connectionRegistry(new ConnectionRegistry(brokerConfig.listener().maxConnections()))
+                    .acceptWorkers(brokerConfig.listener().acceptWorkers())
                     .clientConnectionRunnable(socket -> new LepTcpThread(socket, brokerConfig, brokerState))
                     .build();
 
-            exchanges.put("default", new Exchange(ExchangeType.DEFAULT, "default"));
-            smqpListenerThread.start();
+            exchanges.put("default", new Exchange(ExchangeType.DEFAULT, "default", routingOptions));
+            recoverDurableQueues();
+            smqpListener.start();
             lepListenerThread.start();
 
             //startHeartbeatMonitoring ;
@@ -101,11 +120,70 @@ public class Broker implements IBroker {
     public void shutdown() {
         Optional.ofNullable(heartbeatMonitorThread).ifPresent(Thread::interrupt);
         brokerService.shutdown();
-        smqpListenerThread.shutdown();
+        smqpListener.shutdown();
         lepListenerThread.shutdown();
+        queues.values().forEach(Queue::close);
+        exchanges.values().forEach(exchange -> Optional.ofNullable(exchange.routeCacheStats()).ifPresent(stats ->
+                LOG.info(String.format("Exchange %s route cache: %s", exchange.getName(), stats))));
         LOG.info(String.format("Broker %s shutdown complete.", brokerConfig.componentId()));
     }
 
+    private ServerListener createSmqpListener() throws IOException {
+        return switch (TransportType.fromString(brokerConfig.listener().transport())) {
+            case THREAD -> ListenerThread.builder()
+                    .componentId("SMQP-Listener")
+                    .serverSocket(new ServerSocket(brokerConfig.port(), brokerConfig.listener().acceptBacklog()))
+                    .connectionRegistry(new ConnectionRegistry(brokerConfig.listener().maxConnections()))
+                    .acceptWorkers(brokerConfig.listener().acceptWorkers())
+                    .clientConnectionRunnable(socket -> new SmqpTcpThread(exchanges, queues,
+                            queueFactory, routingOptions, socket, smqpFlushPolicy(),
+                            brokerConfig.listener().readTimeouts(), brokerConfig.listener().frameLimits()))
+                    .build();
+            case NIO -> {
+                ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()
+                        .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                        .bind(new InetSocketAddress(brokerConfig.port()), brokerConfig.listener().acceptBacklog());
+                int eventLoops = brokerConfig.listener().eventLoops();
+                yield NioListenerThread.builder()
+                        .componentId("SMQP-Listener")
+                        .serverSocketChannel(serverSocketChannel)
+                        .eventLoops(eventLoops > 0 ? eventLoops : Runtime.getRuntime().availableProcessors())
+                        .channelHandler(connection -> new SmqpChannelHandler(exchanges, queues,
+                                queueFactory, routingOptions, connection))
+                        .connectionRegistry(new ConnectionRegistry(brokerConfig.listener().maxConnections()))
+                        .acceptWorkers(brokerConfig.listener().acceptWorkers())
+                        .frameLimits(brokerConfig.listener().frameLimits())
+                        .build();
+            }
+        };
+    }
+
+    /**
+     * Restores the durable queues with the messages they held when the broker stopped. Like every queue, they are
+     * bound to the default exchange by their name, bindings to other exchanges have to be declared again.
+     */
+    private void recoverDurableQueues() {
+        Map<String, Queue> recovered = new LinkedHashMap<>();
+        for (Queue queue : queueFactory.recover()) {
+            queues.put(queue.getName(), queue);
+            recovered.put(queue.getName(), queue);
+        }
+        exchanges.get("default").getBindingStorage().addBindings(recovered);
+    }
+
+    /**
+     * Forgets a deleted queue and removes it from the bindings of every exchange, so no more messages are routed to it.
+     */
+    private void removeQueue(Queue queue) {
+        queues.remove(queue.getName(), queue);
+        exchanges.values().forEach(exchange -> exchange.getBindingStorage().removeQueue(queue));
+    }
+
+    private FlushPolicy smqpFlushPolicy() {
+        ListenerConfig listener = brokerConfig.listener();
+        return new FlushPolicy(FlushPolicy.Mode.fromString(listener.flushMode()), listener.flushMaxBytes(), listener.flushMaxDelayMs());
+    }
+
     private void initiateRingElection(String electionMessage) {
         LOG.info(String.format("Broker %d initiating RING election", getId()));
         brokerService.forwardToPeersAndAwaitResponse(electionMessage, "ok");
@@ -4,6 +4,7 @@ import dslab.broker.enums.ElectionState;
 import dslab.broker.enums.ElectionType;
 import dslab.config.BrokerConfig;
 import dslab.entity.BrokerStateManager;
+import dslab.util.FlushPolicy;
 import dslab.util.IOReadWrite;
 
 import java.io.IOException;
@@ -57,14 +58,17 @@ public class BrokerService {
         int boundedLength = Math.min(peerHosts.length, peerPorts.length);
 
         List<IOReadWrite> peerConnections = IntStream.range(0, boundedLength)
-                .mapToObj(i -> IOReadWrite.createConnection(peerHosts[i], peerPorts[i]))
+                .mapToObj(i -> IOReadWrite.createConnection(peerHosts[i], peerPorts[i], FlushPolicy.BATCH))
                 .flatMap(Optional::stream)
                 .toList();
 
         heartbeatThread = Thread.ofVirtual().start(() -> {
             try {
                 while (!Thread.currentThread().isInterrupted() && brokerState.getElectionState() == ElectionState.LEADER) {
-                    peerConnections.forEach(io -> io.writeSocketResponse("ping"));
+                    peerConnections.forEach(io -> {
+                        io.writeSocketResponse("ping");
+                        io.flush();
+                    });
                     Thread.sleep(brokerConfig.electionHeartbeatTimeoutMs());
                 }
             } catch (InterruptedException e) {
@@ -0,0 +1,14 @@
+package dslab.broker.enums;
+
+public enum TransportType {
+    THREAD,
+    NIO;
+
+    public static TransportType fromString(String transportType) {
+        try {
+            return TransportType.valueOf(transportType.toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return THREAD;
+        }
+    }
+}
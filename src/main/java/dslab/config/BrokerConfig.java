@@ -1,5 +1,7 @@
 package dslab.config;
 
+import lombok.With;
+
 import java.util.Objects;
 
 public record BrokerConfig(
@@ -18,8 +20,24 @@ public record BrokerConfig(
         int[] electionPeerIds,
         long electionHeartbeatTimeoutMs,
         String monitoringHost,
-        int monitoringPort
+        int monitoringPort,
+        @With ListenerConfig listener,
+        @With QueueConfig queue,
+        @With RoutingConfig routing
 ) {
+    /**
+     * Creates the configuration of a broker with the default listener, queue and routing settings, which the
+     * {@code with} methods of these components replace.
+     */
+    public BrokerConfig(String componentId, String host, int port, String dnsHost, int dnsPort, String domain,
+                        int electionId, String electionType, int electionPort, String electionDomain,
+                        String[] electionPeerHosts, int[] electionPeerPorts, int[] electionPeerIds,
+                        long electionHeartbeatTimeoutMs, String monitoringHost, int monitoringPort) {
+        this(componentId, host, port, dnsHost, dnsPort, domain, electionId, electionType, electionPort, electionDomain,
+                electionPeerHosts, electionPeerPorts, electionPeerIds, electionHeartbeatTimeoutMs, monitoringHost,
+                monitoringPort, ListenerConfig.defaults(), QueueConfig.defaults(), RoutingConfig.defaults());
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -38,6 +56,9 @@ public record BrokerConfig(
                 Objects.equals(electionType, that.electionType) &&
                 Objects.equals(electionDomain, that.electionDomain) &&
                 Objects.equals(monitoringHost, that.monitoringHost) &&
+                Objects.equals(listener, that.listener) &&
+                Objects.equals(queue, that.queue) &&
+                Objects.equals(routing, that.routing) &&
                 Objects.deepEquals(electionPeerIds, that.electionPeerIds) &&
                 Objects.deepEquals(electionPeerPorts, that.electionPeerPorts) &&
                 Objects.deepEquals(electionPeerHosts, that.electionPeerHosts);
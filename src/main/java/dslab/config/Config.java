@@ -39,6 +39,17 @@ public final class Config {
         return (String) properties.get(key);
     }
 
+    /**
+     * Returns the value as String for the given key, or the given default if the key is not present.
+     *
+     * @param key the property's key
+     * @param defaultValue the value returned if the property is not set
+     * @return String value of the property
+     */
+    public String getString(String key, String defaultValue) {
+        return containsKey(key) ? getString(key) : defaultValue;
+    }
+
     public String[] getStringArr(String key) {
         if (!properties.containsKey(key)) {
             String[] val = bundle.getString(key).split(",");
@@ -74,6 +85,34 @@ public final class Config {
         return (int) properties.get(key);
     }
 
+    /**
+     * Returns the value as {@code int} for the given key, or the given default if the key is not present.
+     *
+     * @param key the property's key
+     * @param defaultValue the value returned if the property is not set
+     * @return int value of the property
+     * @throws NumberFormatException if the String cannot be parsed to an Integer
+     */
+    public int getInt(String key, int defaultValue) {
+        return containsKey(key) ? getInt(key) : defaultValue;
+    }
+
+    /**
+     * Returns the value as {@code long} for the given key, or the given default if the key is not present.
+     *
+     * @param key the property's key
+     * @param defaultValue the value returned if the property is not set
+     * @return long value of the property
+     * @throws NumberFormatException if the String cannot be parsed to a Long
+     */
+    public long getLong(String key, long defaultValue) {
+        if (!containsKey(key)) return defaultValue;
+        if (!properties.containsKey(key)) {
+            properties.put(key, Long.parseLong(bundle.getString(key)));
+        }
+        return ((Number) properties.get(key)).longValue();
+    }
+
     public boolean containsKey(String key) {
         return properties.containsKey(key) || bundle.containsKey(key);
     }
@@ -27,12 +27,61 @@ public class ConfigParser {
                 config.getIntArr("election.peer.ids"),
                 config.getInt("election.heartbeat.timeout.ms"),
                 config.getString("monitoring.host"),
-                config.getInt("monitoring.port")
+                config.getInt("monitoring.port"),
+                toListenerConfig("broker"),
+                toQueueConfig(),
+                toRoutingConfig()
+        );
+    }
+
+    private QueueConfig toQueueConfig() {
+        QueueConfig defaults = QueueConfig.defaults();
+        return new QueueConfig(
+                config.getInt("queue.max.length", defaults.maxLength()),
+                config.getLong("queue.max.bytes", defaults.maxBytes()),
+                config.getString("queue.overflow", defaults.overflow()),
+                config.getString("queue.store", defaults.store()),
+                config.getString("queue.dispatch", defaults.dispatch()),
+                config.getInt("queue.prefetch", defaults.prefetch()),
+                config.getString("queue.data.dir", defaults.dataDir()),
+                config.getInt("queue.segment.bytes", defaults.segmentBytes()),
+                config.getString("queue.fsync", defaults.fsync()),
+                config.getInt("queue.fsync.messages", defaults.fsyncMessages()),
+                config.getLong("queue.fsync.interval.ms", defaults.fsyncIntervalMs()),
+                config.getInt("queue.lazy.window", defaults.lazyWindow()),
+                config.getLong("queue.arena.bytes", defaults.arenaBytes())
+        );
+    }
+
+    private RoutingConfig toRoutingConfig() {
+        RoutingConfig defaults = RoutingConfig.defaults();
+        return new RoutingConfig(
+                config.getString("routing.topic.matcher", defaults.topicMatcher()),
+                config.getInt("routing.cache.size", defaults.cacheSize()),
+                config.getString("routing.table", defaults.table())
+        );
+    }
+
+    private ListenerConfig toListenerConfig(String prefix) {
+        ListenerConfig defaults = ListenerConfig.defaults();
+        return new ListenerConfig(
+                config.getString(prefix + ".transport", defaults.transport()),
+                config.getInt(prefix + ".event.loops", defaults.eventLoops()),
+                config.getString(prefix + ".flush.mode", defaults.flushMode()),
+                config.getInt(prefix + ".flush.max.bytes", defaults.flushMaxBytes()),
+                config.getLong(prefix + ".flush.max.delay.ms", defaults.flushMaxDelayMs()),
+                config.getInt(prefix + ".max.connections", defaults.maxConnections()),
+                config.getLong(prefix + ".idle.timeout.ms", defaults.idleTimeoutMs()),
+                config.getLong(prefix + ".request.timeout.ms", defaults.requestTimeoutMs()),
+                config.getInt(prefix + ".accept.backlog", defaults.acceptBacklog()),
+                config.getInt(prefix + ".accept.workers", defaults.acceptWorkers()),
+                config.getInt(prefix + ".max.frame.bytes", defaults.maxFrameBytes()),
+                config.getLong(prefix + ".max.spooled.bytes", defaults.maxSpooledBytes())
         );
     }
 
     public DNSServerConfig toDNSServerConfig() {
-        return new DNSServerConfig(componentId, config.getInt("dns.port"));
+        return new DNSServerConfig(componentId, config.getInt("dns.port"), toListenerConfig("dns"));
     }
 
     public MonitoringServerConfig toMonitoringServerConfig() {
@@ -4,8 +4,12 @@ import java.util.Objects;
 
 public record DNSServerConfig(
         String componentId,
-        int port
+        int port,
+        ListenerConfig listener
 ) {
+    public DNSServerConfig(String componentId, int port) {
+        this(componentId, port, ListenerConfig.defaults());
+    }
 
     @Override
     public boolean equals(Object o) {
@@ -13,6 +17,7 @@ public record DNSServerConfig(
         if (o == null || getClass() != o.getClass()) return false;
         DNSServerConfig that = (DNSServerConfig) o;
         return port == that.port &&
-                Objects.equals(componentId, that.componentId);
+                Objects.equals(componentId, that.componentId) &&
+                Objects.equals(listener, that.listener);
     }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package dslab.config;
+
+import dslab.util.FrameLimits;
+import dslab.util.ReadTimeouts;
+import lombok.With;
+
+/**
+ * Settings of the TCP listeners of a server.
+ *
+ * @param transport       the transport used for client connections ({@code thread} or {@code nio})
+ * @param eventLoops      the number of selector event loops of the {@code nio} transport, {@code 0} means one per core
+ * @param flushMode       when buffered responses are written ({@code immediate}, {@code batch}, {@code idle} or {@code threshold})
+ * @param flushMaxBytes   the number of pending bytes that trigger a flush in {@code threshold} mode
+ * @param flushMaxDelayMs the maximum age of pending bytes in {@code threshold} mode
+ * @param maxConnections  the maximum number of simultaneously open client connections, {@code 0} means no limit
+ * @param idleTimeoutMs   the time after which a connection without any traffic is closed, {@code 0} (the default)
+ *                        to disable; only enforced by the {@code thread} transport
+ * @param requestTimeoutMs the time a client has to complete a started request, {@code 0} (the default) to disable;
+ *                        only enforced by the {@code thread} transport
+ * @param acceptBacklog   the length of the kernel queue of connections that have not been accepted yet
+ * @param acceptWorkers   the number of threads accepting connections on the server socket
+ * @param maxFrameBytes   the maximum size of a request line or frame held in memory
+ * @param maxSpooledBytes the maximum size of a binary publish payload spooled to disk, {@code 0} to disable spooling
+ */
+@With
+public record ListenerConfig(
+        String transport,
+        int eventLoops,
+        String flushMode,
+        int flushMaxBytes,
+        long flushMaxDelayMs,
+        int maxConnections,
+        long idleTimeoutMs,
+        long requestTimeoutMs,
+        int acceptBacklog,
+        int acceptWorkers,
+        int maxFrameBytes,
+        long maxSpooledBytes
+) {
+    public ListenerConfig(String transport, int eventLoops) {
+        this(transport, eventLoops, defaults().flushMode(), defaults().flushMaxBytes(), defaults().flushMaxDelayMs(),
+                defaults().maxConnections(), defaults().idleTimeoutMs(), defaults().requestTimeoutMs(),
+                defaults().acceptBacklog(), defaults().acceptWorkers(), defaults().maxFrameBytes(),
+                defaults().maxSpooledBytes());
+    }
+
+    public ListenerConfig withTimeouts(long idleTimeoutMs, long requestTimeoutMs) {
+        return withIdleTimeoutMs(idleTimeoutMs).withRequestTimeoutMs(requestTimeoutMs);
+    }
+
+    public ListenerConfig withAccept(int acceptBacklog, int acceptWorkers) {
+        return withAcceptBacklog(acceptBacklog).withAcceptWorkers(acceptWorkers);
+    }
+
+    public ListenerConfig withFrameLimits(int maxFrameBytes, long maxSpooledBytes) {
+        return withMaxFrameBytes(maxFrameBytes).withMaxSpooledBytes(maxSpooledBytes);
+    }
+
+    public ReadTimeouts readTimeouts() {
+        return new ReadTimeouts(idleTimeoutMs, requestTimeoutMs);
+    }
+
+    public FrameLimits frameLimits() {
+        return new FrameLimits(maxFrameBytes, maxSpooledBytes);
+    }
+
+    public static ListenerConfig defaults() {
+        return new ListenerConfig("thread", 0, "idle", 8192, 5, 0, 0, 0, 1024, 1, 1 << 20, 64L << 20);
+    }
+}
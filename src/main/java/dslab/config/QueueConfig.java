@@ -0,0 +1,95 @@
+package dslab.config;
+
+import dslab.entity.DispatchPolicy;
+import dslab.entity.OverflowPolicy;
+import dslab.entity.PayloadArena;
+import dslab.entity.QueueOptions;
+import dslab.entity.storage.FsyncPolicy;
+import dslab.entity.storage.LogSettings;
+import dslab.entity.storage.MessageStore;
+import lombok.With;
+
+import java.nio.file.Path;
+
+/**
+ * Default options of the queues of a broker, used for every option a {@code queue} command does not specify.
+ *
+ * @param maxLength the maximum number of messages per queue, {@code 0} means no limit
+ * @param maxBytes  the maximum total payload size per queue, {@code 0} means no limit
+ * @param overflow  the overflow policy ({@code block}, {@code reject}, {@code drop-head} or {@code drop-new});
+ *                  {@code block} is refused by the {@code nio} transport
+ * @param store           the message store ({@code deque}, {@code ring}, {@code chunked}, {@code durable} or
+ *                        {@code lazy})
+ * @param dispatch        the dispatch policy ({@code round-robin} or {@code least-outstanding})
+ * @param prefetch        the default prefetch count of the subscribers
+ * @param dataDir         the directory holding the logs of durable queues, in a subdirectory per broker
+ * @param segmentBytes    the size of a log segment of a durable queue
+ * @param fsync           when durable queues force their logs to disk ({@code always}, {@code messages},
+ *                        {@code interval} or {@code never})
+ * @param fsyncMessages   the number of messages after which a log is forced in {@code messages} mode
+ * @param fsyncIntervalMs the time after which a log is forced in {@code interval} mode
+ * @param lazyWindow      the number of messages a lazy queue keeps on the heap before it spills to disk
+ * @param arenaBytes      the off-heap memory for the payloads of queued messages, {@code 0} (the default) keeps them
+ *                        on the heap
+ */
+@With
+public record QueueConfig(
+        int maxLength,
+        long maxBytes,
+        String overflow,
+        String store,
+        String dispatch,
+        int prefetch,
+        String dataDir,
+        int segmentBytes,
+        String fsync,
+        int fsyncMessages,
+        long fsyncIntervalMs,
+        int lazyWindow,
+        long arenaBytes
+) {
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    public QueueConfig(int maxLength, long maxBytes, String overflow, String store) {
+        this(maxLength, maxBytes, overflow, store, "round-robin", QueueOptions.DEFAULT_PREFETCH);
+    }
+
+    public QueueConfig(int maxLength, long maxBytes, String overflow, String store, String dispatch, int prefetch) {
+        this(maxLength, maxBytes, overflow, store, dispatch, prefetch, "data", DEFAULT_SEGMENT_BYTES, "interval", 1000,
+                100, LogSettings.DEFAULT_LAZY_WINDOW, 0);
+    }
+
+    public QueueOptions options() {
+        OverflowPolicy policy = OverflowPolicy.fromString(overflow);
+        MessageStore.Type type = MessageStore.Type.fromString(store);
+        DispatchPolicy dispatchPolicy = DispatchPolicy.fromString(dispatch);
+        return new QueueOptions(maxLength, maxBytes,
+                policy != null ? policy : QueueOptions.UNBOUNDED.overflow(),
+                type != null ? type : QueueOptions.UNBOUNDED.store(),
+                dispatchPolicy != null ? dispatchPolicy : QueueOptions.UNBOUNDED.dispatch(),
+                prefetch > 0 && prefetch <= QueueOptions.MAX_PREFETCH ? prefetch : QueueOptions.DEFAULT_PREFETCH);
+    }
+
+    /**
+     * @param componentId the id of the broker, which names its subdirectory of the data directory
+     */
+    public LogSettings logSettings(String componentId) {
+        FsyncPolicy policy = switch (FsyncPolicy.Mode.fromString(fsync)) {
+            case ALWAYS -> FsyncPolicy.ALWAYS;
+            case MESSAGES -> FsyncPolicy.everyMessages(fsyncMessages);
+            case INTERVAL -> FsyncPolicy.interval(fsyncIntervalMs);
+            case NEVER -> FsyncPolicy.NEVER;
+        };
+        return new LogSettings(Path.of(dataDir, componentId),
+                segmentBytes > 0 ? segmentBytes : DEFAULT_SEGMENT_BYTES, policy,
+                lazyWindow > 0 ? lazyWindow : LogSettings.DEFAULT_LAZY_WINDOW);
+    }
+
+    public PayloadArena payloadArena() {
+        return arenaBytes > 0 ? new PayloadArena(arenaBytes) : PayloadArena.DISABLED;
+    }
+
+    public static QueueConfig defaults() {
+        return new QueueConfig(0, 0, "reject", "deque", "round-robin", QueueOptions.DEFAULT_PREFETCH);
+    }
+}
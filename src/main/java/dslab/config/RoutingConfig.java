@@ -0,0 +1,32 @@
+package dslab.config;
+
+import dslab.entity.RoutingOptions;
+
+/**
+ * How the exchanges of a broker route messages.
+ *
+ * @param topicMatcher how topic exchanges match routing keys against their bindings ({@code trie} or
+ *                     {@code compiled})
+ * @param cacheSize    the number of routing keys every exchange caches the matched queues of, {@code 0} disables the
+ *                     cache
+ * @param table        how exchanges keep their bindings ({@code concurrent}, changed in place, or {@code snapshot},
+ *                     replaced by an immutable copy on every change)
+ */
+public record RoutingConfig(
+        String topicMatcher,
+        int cacheSize,
+        String table
+) {
+    public RoutingConfig(String topicMatcher, int cacheSize) {
+        this(topicMatcher, cacheSize, defaults().table());
+    }
+
+    public RoutingOptions options() {
+        return new RoutingOptions("compiled".equalsIgnoreCase(topicMatcher), cacheSize,
+                "snapshot".equalsIgnoreCase(table));
+    }
+
+    public static RoutingConfig defaults() {
+        return new RoutingConfig("trie", 0, "concurrent");
+    }
+}
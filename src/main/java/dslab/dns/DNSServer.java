@@ -26,8 +26,10 @@ public class DNSServer implements IDNSServer {
         try {
             listenerThread = ListenerThread.builder()
                     .componentId("SDP-Listener")
-                    .serverSocket(new ServerSocket(config.port()))
-                    .clientConnectionRunnable(socket -> new SdpTcpThread(dnsEntries, socket))
+                    .serverSocket(new ServerSocket(config.port(), config.listener().acceptBacklog()))
+                    .acceptWorkers(config.listener().acceptWorkers())
+                    .clientConnectionRunnable(socket -> new SdpTcpThread(dnsEntries, socket,
+                            config.listener().readTimeouts(), config.listener().frameLimits()))
                     .build();
 
             listenerThread.start();
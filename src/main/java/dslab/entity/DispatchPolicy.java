@@ -0,0 +1,32 @@
+package dslab.entity;
+
+/**
+ * Decides which subscriber of a {@link Queue} receives the next message. Only subscribers that have not reached
+ * their prefetch count are considered.
+ * <ul>
+ *     <li>{@link #ROUND_ROBIN} - subscribers take turns in the order they subscribed.</li>
+ *     <li>{@link #LEAST_OUTSTANDING} - the subscriber with the fewest messages not yet written to it, so that a slow
+ *     subscriber receives fewer messages than a fast one.</li>
+ * </ul>
+ */
+public enum DispatchPolicy {
+    ROUND_ROBIN,
+    LEAST_OUTSTANDING;
+
+    @Override
+    public String toString() {
+        return name().toLowerCase().replace('_', '-');
+    }
+
+    /**
+     * @param policy the policy as written in commands and configuration, e.g. {@code least-outstanding}
+     * @return the policy, or {@code null} if it is unknown
+     */
+    public static DispatchPolicy fromString(String policy) {
+        try {
+            return DispatchPolicy.valueOf(policy.toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package dslab.entity;
+
+import dslab.entity.storage.MessageStore;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Spreads the messages of a {@link Queue} across its subscribers.
+ *
+ * <p>A single dispatcher thread per queue takes the messages from the {@link MessageStore} and hands each one to a
+ * subscriber chosen by the {@link DispatchPolicy} of the queue. A subscriber is only chosen while it has fewer
+ * outstanding messages than its prefetch count, i.e. messages handed to it that have not been written to its connection
+ * yet, or not been acknowledged yet if it acknowledges its messages. A slow subscriber therefore stops receiving
+ * messages once its window is full, while the others keep going, and the messages it cannot take stay in the queue. The
+ * dispatcher waits while no subscriber has room, and it only runs while the queue has subscribers.</p>
+ *
+ * <p>Messages handed to a subscriber that unsubscribes before they were written, or before they were acknowledged
+ * if the subscriber acknowledges its messages, are given to the remaining subscribers first, ahead of the messages
+ * still in the store. The same applies to messages a subscriber rejects.</p>
+ *
+ * <p>Messages that have expired by the time they are taken are handed to the {@link ExpirySweeper} of the queue
+ * instead of a subscriber.</p>
+ *
+ * <p>When the queue is deleted, the dispatcher is {@link #cancel() cancelled}: every subscription is ended by
+ * interrupting the thread running it, and the messages still held are released instead of being dispatched again.
+ * Unsubscribing the last subscriber is reported to the caller, so an auto-delete queue can delete itself.</p>
+ */
+class Dispatcher {
+    private final String queueName;
+    private final MessageStore store;
+    private final DispatchPolicy policy;
+    private final ExpirySweeper expiry;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition creditAvailable = lock.newCondition();
+    private final List<Subscriber> subscribers = new ArrayList<>();
+    private final ArrayDeque<Message> redeliveries = new ArrayDeque<>();
+    private int nextSubscriber;
+    private Thread thread;
+    private boolean waitingForStore;
+    private boolean cancelled;
+
+    Dispatcher(String queueName, MessageStore store, DispatchPolicy policy, ExpirySweeper expiry) {
+        this.queueName = queueName;
+        this.store = store;
+        this.policy = policy;
+        this.expiry = expiry;
+    }
+
+    /**
+     * @return a new subscriber, which is cancelled right away if the dispatcher has been cancelled
+     */
+    Subscriber subscribe(int prefetch) {
+        lock.lock();
+        try {
+            Subscriber subscriber = new Subscriber(prefetch);
+            if (cancelled) {
+                subscriber.cancelled = true;
+                return subscriber;
+            }
+            subscribers.add(subscriber);
+            if (thread == null) {
+                thread = Thread.ofVirtual().name("dispatcher-" + queueName).start(this::run);
+            }
+            creditAvailable.signal();
+            return subscriber;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers the thread running the subscription, which is interrupted if the subscriber is cancelled.
+     */
+    void attach(Subscriber subscriber) {
+        lock.lock();
+        try {
+            subscriber.thread = Thread.currentThread();
+            if (subscriber.cancelled) subscriber.thread.interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param unacknowledged messages written to the subscriber but not acknowledged, in the order of delivery
+     * @return whether this was the last subscriber of a dispatcher that has not been cancelled
+     */
+    boolean unsubscribe(Subscriber subscriber, List<Message> unacknowledged) {
+        lock.lock();
+        try {
+            if (!subscribers.remove(subscriber)) {
+                unacknowledged.forEach(Message::release);
+                return false;
+            }
+            List<Message> undelivered = new ArrayList<>(unacknowledged);
+            undelivered.addAll(subscriber.pending);
+            subscriber.pending.clear();
+            if (cancelled) {
+                undelivered.forEach(Message::release);
+            } else {
+                addRedeliveries(undelivered);
+            }
+            if (subscribers.isEmpty()) {
+                if (thread != null) thread.interrupt();
+                thread = null;
+                return !cancelled;
+            }
+            creditAvailable.signal();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends every subscription and releases the messages waiting to be dispatched again. Subscribers that come later
+     * are cancelled right away.
+     */
+    void cancel() {
+        lock.lock();
+        try {
+            cancelled = true;
+            for (Subscriber subscriber : subscribers) {
+                subscriber.cancelled = true;
+                if (subscriber.thread != null) subscriber.thread.interrupt();
+            }
+            redeliveries.forEach(Message::release);
+            redeliveries.clear();
+            if (thread != null) thread.interrupt();
+            thread = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called once messages handed to the subscriber have been written, or acknowledged if the subscriber
+     * acknowledges its messages, which frees slots of its prefetch window.
+     */
+    void delivered(Subscriber subscriber, int count) {
+        lock.lock();
+        try {
+            subscriber.outstanding -= count;
+            creditAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes back messages the subscriber rejected, which are dispatched again ahead of the messages in the store.
+     *
+     * @param messages the rejected messages, in the order of delivery
+     */
+    void requeue(Subscriber subscriber, List<Message> messages) {
+        lock.lock();
+        try {
+            subscriber.outstanding -= messages.size();
+            if (cancelled) {
+                messages.forEach(Message::release);
+                return;
+            }
+            addRedeliveries(messages);
+            creditAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of messages taken from the store that wait for a subscriber with room
+     */
+    int held() {
+        lock.lock();
+        try {
+            return redeliveries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the total payload size of the messages that wait for a subscriber with room
+     */
+    long heldBytes() {
+        lock.lock();
+        try {
+            long bytes = 0;
+            for (Message message : redeliveries) {
+                bytes += message.length();
+            }
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        Thread current = Thread.currentThread();
+        while (true) {
+            try {
+                if (!awaitCredit(current)) return;
+                Message message = pollRedelivery();
+                if (message == null) {
+                    message = takeFromStore();
+                }
+                if (!expiry.discardIfExpired(message)) handOff(message);
+            } catch (InterruptedException e) {
+                // woken up for redeliveries, unless the last subscriber is gone
+                if (!isDispatcher(current)) return;
+            }
+        }
+    }
+
+    private boolean isDispatcher(Thread current) {
+        lock.lock();
+        try {
+            return thread == current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return {@code false} if this thread is no longer the dispatcher of the queue
+     */
+    private boolean awaitCredit(Thread current) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (thread == current && select(false) == null) {
+                creditAvailable.await();
+            }
+            return thread == current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addRedeliveries(List<Message> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            redeliveries.addFirst(messages.get(i));
+        }
+        if (waitingForStore && thread != null && !messages.isEmpty()) {
+            // the dispatcher would not see the redeliveries before the next message is stored
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * @return the next redelivery, or {@code null} if there is none, in which case the dispatcher is marked as waiting
+     * for the store until {@link #takeFromStore()} returns
+     */
+    private Message pollRedelivery() {
+        lock.lock();
+        try {
+            Message message = redeliveries.poll();
+            waitingForStore = message == null;
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the next stored message. Redeliveries added in the meantime interrupt the wait.
+     */
+    private Message takeFromStore() throws InterruptedException {
+        try {
+            return store.take();
+        } finally {
+            lock.lock();
+            try {
+                waitingForStore = false;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void handOff(Message message) {
+        lock.lock();
+        try {
+            if (cancelled) {
+                message.release();
+                return;
+            }
+            Subscriber subscriber = select(true);
+            if (subscriber == null) {
+                // the chosen subscriber left while the message was taken
+                redeliveries.addFirst(message);
+                return;
+            }
+            subscriber.outstanding++;
+            subscriber.pending.add(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param advance whether the subscriber is going to receive a message, so that the next turn starts after it
+     * @return the subscriber to receive the next message, or {@code null} if no subscriber has room
+     */
+    private Subscriber select(boolean advance) {
+        int count = subscribers.size();
+        int selectedIndex = -1;
+        for (int i = 0; i < count; i++) {
+            int index = (nextSubscriber + i) % count;
+            Subscriber candidate = subscribers.get(index);
+            if (candidate.outstanding >= candidate.prefetch) continue;
+            if (selectedIndex < 0 || candidate.outstanding < subscribers.get(selectedIndex).outstanding) {
+                selectedIndex = index;
+            }
+            if (policy == DispatchPolicy.ROUND_ROBIN) break;
+        }
+        if (selectedIndex < 0) return null;
+        if (advance) {
+            nextSubscriber = (selectedIndex + 1) % count;
+        }
+        return subscribers.get(selectedIndex);
+    }
+
+    /**
+     * A subscriber of the queue with the messages handed to it. Its outstanding count, thread and cancellation are
+     * guarded by the dispatcher.
+     */
+    static final class Subscriber {
+        private final int prefetch;
+        private final ArrayBlockingQueue<Message> pending;
+        private int outstanding;
+        private Thread thread;
+        private boolean cancelled;
+
+        private Subscriber(int prefetch) {
+            this.prefetch = prefetch;
+            this.pending = new ArrayBlockingQueue<>(prefetch);
+        }
+
+        /**
+         * Waits for the next message handed to this subscriber.
+         */
+        Message take() throws InterruptedException {
+            return pending.take();
+        }
+
+        /**
+         * @return whether every message handed to this subscriber has been taken
+         */
+        boolean isIdle() {
+            return pending.isEmpty();
+        }
+    }
+}
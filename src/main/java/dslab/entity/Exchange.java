@@ -1,8 +1,11 @@
 package dslab.entity;
 
 import dslab.entity.binding.BindingStorage;
+import dslab.entity.binding.CachingBindingStorage;
+import dslab.entity.binding.CachingBindingStorage.RouteCacheStats;
 import dslab.entity.binding.DirectBindingStorage;
 import dslab.entity.binding.FanoutBindingStorage;
+import dslab.entity.binding.SnapshotBindingStorage;
 import dslab.entity.binding.TopicBindingStorage;
 import dslab.util.ExchangeType;
 import lombok.AllArgsConstructor;
@@ -23,6 +26,11 @@ import lombok.ToString;
  *     <li>Support for different exchange types: {@link ExchangeType#FANOUT}, {@link ExchangeType#TOPIC}, {@link ExchangeType#DIRECT}, and a default exchange.</li>
  * </ul>
  *
+ * <p>With a route cache size in its {@link RoutingOptions}, the bindings of the exchange are wrapped in a
+ * {@link CachingBindingStorage}, which answers lookups of recently published routing keys without asking the
+ * bindings. With snapshot tables, the bindings are kept in a {@link SnapshotBindingStorage}, which routes with an
+ * immutable copy of them.</p>
+ *
  * @see BindingStorage
  * @see TopicBindingStorage
  * @see DirectBindingStorage
@@ -39,13 +47,31 @@ public class Exchange {
     private BindingStorage bindingStorage;
 
     public Exchange(ExchangeType type, String name) {
+        this(type, name, RoutingOptions.DEFAULT);
+    }
+
+    public Exchange(ExchangeType type, String name, RoutingOptions routing) {
         this.type = type;
         this.name = name;
-        this.bindingStorage = switch (type) {
+        BindingStorage bindings = routing.snapshotTables() ? switch (type) {
+            case FANOUT -> SnapshotBindingStorage.fanout();
+            case TOPIC -> SnapshotBindingStorage.topic(routing.compiledTopics());
+            case DIRECT, DEFAULT -> SnapshotBindingStorage.direct();
+        } : switch (type) {
             case FANOUT -> new FanoutBindingStorage();
-            case TOPIC -> new TopicBindingStorage();
+            case TOPIC -> new TopicBindingStorage(routing.compiledTopics());
             case DIRECT, DEFAULT -> new DirectBindingStorage();
         };
+        this.bindingStorage = routing.routeCacheSize() > 0
+                ? new CachingBindingStorage(bindings, routing.routeCacheSize())
+                : bindings;
+    }
+
+    /**
+     * @return the counters of the route cache of the exchange, or {@code null} if it routes without one
+     */
+    public RouteCacheStats routeCacheStats() {
+        return bindingStorage instanceof CachingBindingStorage cache ? cache.stats() : null;
     }
 }
 
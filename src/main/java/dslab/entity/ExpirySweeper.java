@@ -0,0 +1,194 @@
+package dslab.entity;
+
+import dslab.entity.storage.MessageStore;
+import dslab.util.HashedWheelTimer;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Removes the expired messages of a {@link Queue} and hands them to the dead-letter exchange of the queue.
+ *
+ * <p>A message expires at the earlier of its own expiry and its publish time plus the time to live of the queue, see
+ * {@link QueueOptions#ttl()}. Once the queue holds a message that may expire, a task on the shared
+ * {@link HashedWheelTimer} sweeps it every {@value #SWEEP_INTERVAL_MS} ms, so expired messages are removed even if
+ * nobody subscribes to the queue. The task hands the sweep to a virtual thread, so the timer never waits for the lock
+ * of a store. A sweep removes expired messages from the head of the store until it finds one that has not expired.
+ * With the time to live of the queue, messages expire in the order they are stored, so nothing expired is left
+ * behind.</p>
+ *
+ * <p>A message with a time to live of its own may expire before the messages ahead of it. Such messages are indexed
+ * in buckets of {@value #SWEEP_INTERVAL_MS} ms by the time they expire, and a sweep removes the messages of every
+ * bucket that is due from wherever they are in the store, see {@link MessageStore#remove(Message)}. The index only
+ * holds weak references, so a message that has been taken from the queue in the meantime is not kept alive by it.
+ * Stores that cannot remove single messages do not accept messages with a time to live of their own, see
+ * {@link Queue#supportsMessageTtl()}. The {@link Dispatcher} drops messages that expire while it holds them instead of
+ * handing them out.</p>
+ *
+ * <p>Expired messages are published to the dead-letter exchange with the dead-letter routing key of the queue, or
+ * the name of the queue, through the bindings of the exchange, as copies that do not expire. They are dropped if the
+ * queue has no dead-letter exchange, the exchange does not exist, or it routes them back to the queue itself.</p>
+ */
+class ExpirySweeper {
+    static final long SWEEP_INTERVAL_MS = 100;
+    private static final Logger LOG = Logger.getLogger(ExpirySweeper.class.getName());
+
+    private final String queueName;
+    private final QueueOptions options;
+    private final MessageStore store;
+    private final long ttl;
+    private final Function<String, Exchange> exchanges;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final TreeMap<Long, List<WeakReference<Message>>> deadlines = new TreeMap<>();
+    private volatile HashedWheelTimer.Timeout sweepTask;
+    private volatile boolean closed;
+
+    /**
+     * @param exchanges looks up the dead-letter exchange by its name, returns {@code null} if it does not exist
+     */
+    ExpirySweeper(String queueName, QueueOptions options, MessageStore store, Function<String, Exchange> exchanges) {
+        this.queueName = queueName;
+        this.options = options;
+        this.store = store;
+        this.ttl = options.ttl();
+        this.exchanges = exchanges;
+        if (ttl > 0) start();
+    }
+
+    /**
+     * Starts sweeping the queue once a message that may expire is stored, unless it is swept already.
+     */
+    void stored(Message message) {
+        if (message.expiresAt() == 0) return;
+        if (store.supportsRemoval() && (ttl == 0 || message.expiresAt() < message.timestamp() + ttl)) {
+            long bucket = Math.ceilDiv(message.expiresAt(), SWEEP_INTERVAL_MS);
+            synchronized (deadlines) {
+                deadlines.computeIfAbsent(bucket, b -> new ArrayList<>()).add(new WeakReference<>(message));
+            }
+        }
+        if (!scheduled.get()) start();
+    }
+
+    /**
+     * Removes the message if it has expired.
+     *
+     * @return whether the message has expired and has been removed
+     */
+    boolean discardIfExpired(Message message) {
+        if (ttl == 0 && message.expiresAt() == 0 || !isExpired(message, System.currentTimeMillis())) return false;
+        expire(message);
+        return true;
+    }
+
+    long expired() {
+        return expired.sum();
+    }
+
+    long deadLettered() {
+        return deadLettered.sum();
+    }
+
+    void close() {
+        closed = true;
+        HashedWheelTimer.Timeout task = sweepTask;
+        if (task != null) task.cancel();
+        synchronized (deadlines) {
+            deadlines.clear();
+        }
+    }
+
+    private void start() {
+        if (!scheduled.compareAndSet(false, true)) return;
+        sweepTask = HashedWheelTimer.shared().scheduleAtFixedRate(this::scheduleSweep, SWEEP_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+        // closed while the task was scheduled
+        if (closed) sweepTask.cancel();
+    }
+
+    private void scheduleSweep() {
+        if (!sweeping.compareAndSet(false, true)) return;
+        Thread.ofVirtual().name("expiry-" + queueName).start(() -> {
+            try {
+                sweep();
+            } finally {
+                sweeping.set(false);
+            }
+        });
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        Message message;
+        while ((message = store.pollIf(head -> isExpired(head, now))) != null) {
+            expire(message);
+        }
+        for (WeakReference<Message> reference : takeDue(now)) {
+            message = reference.get();
+            if (message != null && store.remove(message)) expire(message);
+        }
+    }
+
+    /**
+     * Takes the indexed messages of the buckets whose messages have all expired by the given time.
+     */
+    private List<WeakReference<Message>> takeDue(long now) {
+        List<WeakReference<Message>> due = new ArrayList<>();
+        synchronized (deadlines) {
+            Map<Long, List<WeakReference<Message>>> buckets = deadlines.headMap(now / SWEEP_INTERVAL_MS, true);
+            buckets.values().forEach(due::addAll);
+            buckets.clear();
+        }
+        return due;
+    }
+
+    private boolean isExpired(Message message, long now) {
+        long deadline = message.expiresAt();
+        if (ttl > 0 && (deadline == 0 || message.timestamp() + ttl < deadline)) {
+            deadline = message.timestamp() + ttl;
+        }
+        return deadline != 0 && deadline <= now;
+    }
+
+    private void expire(Message message) {
+        expired.increment();
+        try {
+            deadLetter(message);
+        } finally {
+            message.release();
+        }
+    }
+
+    private void deadLetter(Message message) {
+        String exchangeName = options.deadLetterExchange();
+        if (exchangeName.isEmpty()) return;
+        Exchange exchange = exchanges.apply(exchangeName);
+        if (exchange == null) {
+            LOG.fine("Dropping expired message of queue %s, dead-letter exchange %s does not exist".formatted(
+                    queueName, exchangeName));
+            return;
+        }
+
+        String routingKey = options.deadLetterRoutingKey();
+        List<Queue> matched = exchange.getBindingStorage().getQueuesByRoutingKey(
+                routingKey.isEmpty() ? queueName : routingKey);
+        Message copy = null;
+        for (Queue target : matched) {
+            // queue names are unique within a broker
+            if (target.getName().equals(queueName)) continue;
+            if (copy == null) copy = message.deadLettered();
+            target.publishMessage(copy);
+        }
+        if (copy != null) deadLettered.increment();
+    }
+}
@@ -0,0 +1,275 @@
+package dslab.entity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A message published to an exchange and stored in one or more {@link Queue}s.
+ *
+ * <p>The payload is kept as the raw bytes received from the publisher, so a message published over binary framing
+ * is handed to subscribers without ever being decoded. The same instance is shared by all queues it is routed to.</p>
+ *
+ * <p>Payloads too large to be held in memory are spooled to a file while they are received, see
+ * {@link #spooled(Path, long)}, and payloads routed to queues may be moved off the heap into a {@link PayloadArena},
+ * see {@link #toArena(PayloadArena)}. Such a message is reference counted: every queue it is routed to
+ * {@link #retain()}s it, and every delivery {@link #release()}s it again. The file is deleted, or the arena slot freed,
+ * with the last reference. For messages held on the heap, both are no-ops.</p>
+ *
+ * <p>A message carries the time it was published and may carry a time to live of its own, see
+ * {@link #expireAfter(long)}. Queues with a time to live of their own measure it from the publish time. Queues with
+ * priority levels also take the priority of a message into account, see {@link #prioritize(int)}.</p>
+ */
+public final class Message {
+    private static final Logger LOG = Logger.getLogger(Message.class.getName());
+    private static final int TRANSFER_CHUNK_SIZE = 64 * 1024;
+
+    private final byte[] payload;
+    private final Path spoolFile;
+    private final PayloadArena.Slot slot;
+    private final long length;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private long timestamp = System.currentTimeMillis();
+    private long expiresAt;
+    private int priority;
+
+    public Message(byte[] payload) {
+        this.payload = payload;
+        this.spoolFile = null;
+        this.slot = null;
+        this.length = payload.length;
+    }
+
+    private Message(byte[] payload, long timestamp, long expiresAt) {
+        this(payload);
+        this.timestamp = timestamp;
+        this.expiresAt = expiresAt;
+    }
+
+    private Message(Path spoolFile, long length) {
+        this.payload = null;
+        this.spoolFile = spoolFile;
+        this.slot = null;
+        this.length = length;
+    }
+
+    private Message(PayloadArena.Slot slot, int length) {
+        this.payload = null;
+        this.spoolFile = null;
+        this.slot = slot;
+        this.length = length;
+    }
+
+    public static Message of(String text) {
+        return new Message(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a message whose payload has been written to the given file. The message takes ownership of the file
+     * and starts with a single reference held by the caller.
+     */
+    public static Message spooled(Path spoolFile, long length) {
+        return new Message(spoolFile, length);
+    }
+
+    /**
+     * Recreates a message read back from a log with the publish time and expiry it was written with.
+     */
+    public static Message restored(byte[] payload, long timestamp, long expiresAt) {
+        return new Message(payload, timestamp, expiresAt);
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public boolean isSpooled() {
+        return spoolFile != null;
+    }
+
+    public boolean isOffHeap() {
+        return slot != null;
+    }
+
+    /**
+     * @return the time the message was published, in milliseconds since the epoch
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the time the message expires, in milliseconds since the epoch, or {@code 0} if it does not expire
+     */
+    public long expiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Lets the message expire the given time after it was published. Must be called before the message is routed.
+     *
+     * @param ttlMs the time to live in milliseconds, {@code 0} means the message does not expire
+     * @return this message
+     */
+    public Message expireAfter(long ttlMs) {
+        this.expiresAt = ttlMs > 0 ? timestamp + ttlMs : 0;
+        return this;
+    }
+
+    /**
+     * @return the priority of the message, {@code 0} unless it has been given one
+     */
+    public int priority() {
+        return priority;
+    }
+
+    /**
+     * Gives the message a priority, higher priorities are dispatched first by queues with priority levels. Must be
+     * called before the message is routed.
+     *
+     * @return this message
+     */
+    public Message prioritize(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * @return a copy of this message that is published anew and does not expire, for the dead-letter exchange of a
+     * queue it expired in. A payload held on the heap is shared, any other payload is copied onto the heap, so the
+     * copy holds no reference on this message.
+     */
+    public Message deadLettered() {
+        return new Message(getPayload()).prioritize(priority);
+    }
+
+    /**
+     * Copies a payload held on the heap into the arena, so that queues holding the message keep it off the heap.
+     *
+     * @return a copy of this message holding a single reference, which the caller has to release once it has been
+     * routed, or this message if its payload is not held on the heap, or the arena does not take it
+     */
+    public Message toArena(PayloadArena arena) {
+        if (payload == null || !arena.accepts(length)) return this;
+        PayloadArena.Slot allocated = arena.allocate(payload.length);
+        if (allocated == null) return this;
+        allocated.buffer.put(0, payload);
+        Message copy = new Message(allocated, payload.length);
+        copy.timestamp = timestamp;
+        copy.expiresAt = expiresAt;
+        copy.priority = priority;
+        return copy;
+    }
+
+    /**
+     * @return the payload, copied from the arena or read from the spool file if it is not held on the heap
+     */
+    public byte[] getPayload() {
+        if (payload != null) return payload;
+        if (slot != null) {
+            byte[] copy = new byte[(int) length];
+            slot.buffer.get(0, copy);
+            return copy;
+        }
+        try {
+            return Files.readAllBytes(spoolFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String getText() {
+        return new String(getPayload(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the payload to the stream. A spooled payload is copied in chunks and never held in memory as a whole.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (payload != null) {
+            out.write(payload);
+            return;
+        }
+        if (slot != null) {
+            byte[] chunk = new byte[(int) Math.min(TRANSFER_CHUNK_SIZE, length)];
+            for (int offset = 0; offset < length; offset += chunk.length) {
+                int chunkLength = (int) Math.min(chunk.length, length - offset);
+                slot.buffer.get(offset, chunk, 0, chunkLength);
+                out.write(chunk, 0, chunkLength);
+            }
+            return;
+        }
+        try (InputStream in = Files.newInputStream(spoolFile)) {
+            byte[] chunk = new byte[(int) Math.min(TRANSFER_CHUNK_SIZE, Math.max(1, length))];
+            int read;
+            while ((read = in.read(chunk)) >= 0) {
+                out.write(chunk, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Copies the payload into the buffer, which must have room for {@link #length()} bytes.
+     */
+    public void copyTo(ByteBuffer target) throws IOException {
+        if (payload != null) {
+            target.put(payload);
+            return;
+        }
+        if (slot != null) {
+            target.put(target.position(), slot.buffer, 0, (int) length);
+            target.position(target.position() + (int) length);
+            return;
+        }
+        try (FileChannel in = FileChannel.open(spoolFile)) {
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(target);
+                if (read < 0) throw new IOException("Spool file %s is truncated".formatted(spoolFile));
+                remaining -= read;
+            }
+        }
+    }
+
+    /**
+     * Opens the spool file of a spooled payload for reading, so it can be transferred to a channel without passing
+     * through the heap.
+     *
+     * @throws IllegalStateException if the payload is not spooled
+     */
+    public FileChannel openSpoolFile() throws IOException {
+        if (spoolFile == null) throw new IllegalStateException("Payload is not spooled");
+        return FileChannel.open(spoolFile);
+    }
+
+    public void retain() {
+        if (payload == null) references.incrementAndGet();
+    }
+
+    public void release() {
+        if (payload != null || references.decrementAndGet() > 0) return;
+        if (slot != null) {
+            slot.free();
+            return;
+        }
+        try {
+            Files.deleteIfExists(spoolFile);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error deleting spool file " + spoolFile, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return spoolFile != null ? "Message[spooled, %d bytes]".formatted(length) : getText();
+    }
+}
@@ -0,0 +1,36 @@
+package dslab.entity;
+
+/**
+ * Decides what happens to a message published to a {@link Queue} that has reached the limits of its {@link QueueOptions}.
+ * <ul>
+ *     <li>{@link #BLOCK} - the publisher waits until a subscriber has made room, and the message is rejected if no room
+ *     becomes available within {@link Queue#BLOCK_TIMEOUT_MS}. Not supported by the nio transport, since waiting
+ *     would stall every connection of the event loop serving the publisher.</li>
+ *     <li>{@link #REJECT} - the message is rejected and the publisher receives an error.</li>
+ *     <li>{@link #DROP_HEAD} - the oldest messages are discarded to make room for the new one.</li>
+ *     <li>{@link #DROP_NEW} - the new message is discarded silently.</li>
+ * </ul>
+ */
+public enum OverflowPolicy {
+    BLOCK,
+    REJECT,
+    DROP_HEAD,
+    DROP_NEW;
+
+    @Override
+    public String toString() {
+        return name().toLowerCase().replace('_', '-');
+    }
+
+    /**
+     * @param policy the policy as written in commands and configuration, e.g. {@code drop-head}
+     * @return the policy, or {@code null} if it is unknown
+     */
+    public static OverflowPolicy fromString(String policy) {
+        try {
+            return OverflowPolicy.valueOf(policy.toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package dslab.entity;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Off-heap memory for the payloads of queued messages, so that deep backlogs do not add to the heap the garbage
+ * collector has to trace.
+ *
+ * <p>The arena hands out slots of power-of-two size classes from {@value #MIN_SLOT_BYTES} bytes up to
+ * {@value #PAGE_BYTES} bytes. Every class carves its slots from direct {@link ByteBuffer} pages of
+ * {@value #PAGE_BYTES} bytes, which are allocated on demand up to the capacity of the arena and never returned, and
+ * keeps its free slots on a stack, so allocating and freeing a slot does not allocate. A payload that is smaller than
+ * the smallest class, larger than the largest one, or does not fit into the arena anymore stays on the heap.</p>
+ *
+ * <p>A payload is copied into the arena once per publish and shared by every queue it is routed to, see
+ * {@link Message#toArena(PayloadArena)}. Its slot is freed when the last reference on the message is released.</p>
+ */
+public final class PayloadArena {
+    public static final int MIN_SLOT_BYTES = 256;
+    public static final int PAGE_BYTES = 1 << 20;
+    public static final PayloadArena DISABLED = new PayloadArena(0);
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SLOT_BYTES);
+
+    private final long capacity;
+    private final SizeClass[] classes;
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of bytes of the pages of the arena, {@code 0} disables the arena
+     */
+    public PayloadArena(long capacity) {
+        this.capacity = capacity;
+        this.classes = new SizeClass[Integer.numberOfTrailingZeros(PAGE_BYTES) - MIN_SHIFT + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new SizeClass(MIN_SLOT_BYTES << i);
+        }
+    }
+
+    /**
+     * @return whether a payload of the given size is held in the arena, as long as it has room
+     */
+    public boolean accepts(long length) {
+        return capacity > 0 && length >= MIN_SLOT_BYTES && length <= PAGE_BYTES;
+    }
+
+    /**
+     * @return a slot of at least the given size, or {@code null} if the arena is full or does not take the size
+     */
+    Slot allocate(int length) {
+        if (!accepts(length)) return null;
+        int index = 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_SHIFT;
+        return classes[Math.max(0, index)].allocate();
+    }
+
+    /**
+     * @return the number of bytes of the pages allocated so far
+     */
+    public long reservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * @return the number of bytes of the slots in use
+     */
+    public long usedBytes() {
+        long used = 0;
+        for (SizeClass sizeClass : classes) {
+            used += sizeClass.usedBytes();
+        }
+        return used;
+    }
+
+    private boolean reservePage() {
+        long reserved;
+        do {
+            reserved = reservedBytes.get();
+            if (reserved + PAGE_BYTES > capacity) return false;
+        } while (!reservedBytes.compareAndSet(reserved, reserved + PAGE_BYTES));
+        return true;
+    }
+
+    /**
+     * A slot of a size class, reused for payload after payload.
+     */
+    static final class Slot {
+        final ByteBuffer buffer;
+        private final SizeClass owner;
+
+        private Slot(ByteBuffer buffer, SizeClass owner) {
+            this.buffer = buffer;
+            this.owner = owner;
+        }
+
+        void free() {
+            owner.free(this);
+        }
+    }
+
+    private final class SizeClass {
+        private final int slotBytes;
+        private final ArrayDeque<Slot> free = new ArrayDeque<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private int slots;
+
+        private SizeClass(int slotBytes) {
+            this.slotBytes = slotBytes;
+        }
+
+        private Slot allocate() {
+            lock.lock();
+            try {
+                if (free.isEmpty() && !addPage()) return null;
+                return free.pop();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void free(Slot slot) {
+            lock.lock();
+            try {
+                free.push(slot);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private long usedBytes() {
+            lock.lock();
+            try {
+                return (long) (slots - free.size()) * slotBytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean addPage() {
+            if (!reservePage()) return false;
+            ByteBuffer page = ByteBuffer.allocateDirect(PAGE_BYTES);
+            for (int offset = 0; offset < PAGE_BYTES; offset += slotBytes) {
+                free.push(new Slot(page.slice(offset, slotBytes), this));
+            }
+            slots += PAGE_BYTES / slotBytes;
+            return true;
+        }
+    }
+}
@@ -1,12 +1,19 @@
 package dslab.entity;
 
-import dslab.util.IOReadWrite;
+import dslab.entity.storage.MessageStore;
+import dslab.util.ClientConnection;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -14,36 +21,287 @@ import java.util.concurrent.LinkedBlockingQueue;
  * Subscribers receive messages in the order they are published until the connection is closed
  * or a "stop" command is received.
  *
- * <p>The queue is thread-safe and supports concurrent access using a {@link LinkedBlockingQueue} to store messages.
- * Messages are published into the queue and will be consumed by subscribers one at a time in the order they were received.
- * Each message can only be consumed by a single subscriber. Once a message is taken from the queue, it is no longer available to
- * other subscribers.</p>
+ * <p>The queue is thread-safe. Messages are held in a {@link MessageStore} chosen by the {@link QueueOptions} of the
+ * queue until its {@link Dispatcher} hands them to a subscriber. Messages are published into the queue and will be
+ * consumed by subscribers in the order they were received. Each message can only be consumed by a single subscriber,
+ * which is chosen by the {@link DispatchPolicy} of the queue among the subscribers with room in their prefetch window.
+ * Once a message is taken from the queue, it is no longer available to other subscribers.</p>
+ *
+ * <p>The number and total payload size of the stored messages are bounded by the {@link QueueOptions} of the queue,
+ * so a stalled subscriber cannot exhaust the memory of the broker. Messages published to a full queue are handled
+ * according to its {@link OverflowPolicy}, and every outcome is counted, see {@link #stats()}.</p>
+ *
+ * <p>Messages that outlive the time to live of the queue, or their own, are removed by an {@link ExpirySweeper} and
+ * published to the dead-letter exchange of the queue, if it has one.</p>
+ *
+ * <p>Every stored message holds a reference on its payload, which is released once the message has been written to
+ * a subscriber or dropped, see {@link Message#release()}.</p>
+ *
+ * <p>A queue lives until it is {@link #delete() deleted}, which ends its subscriptions and drops its messages. An
+ * auto-delete queue deletes itself once its last subscriber is gone, and an exclusive queue is only accessible by the
+ * connection that declared it, see {@link #isAccessibleBy(Object)}. Messages published to a deleted queue by a
+ * publisher that routed them before the queue was unbound are dropped.</p>
  */
-@ToString
-@EqualsAndHashCode
-@Getter
-@RequiredArgsConstructor
+@ToString(onlyExplicitlyIncluded = true)
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
 public class Queue {
+    /**
+     * How long a publisher waits for room in a full queue with {@link OverflowPolicy#BLOCK} before the message is
+     * rejected, so a publisher is not stuck once the subscribers of the queue are gone.
+     */
+    public static final long BLOCK_TIMEOUT_MS = 5_000;
+    private static final Logger LOG = Logger.getLogger(Queue.class.getName());
+
+    @Getter
+    @ToString.Include
+    @EqualsAndHashCode.Include
     private final String name;
-    private final LinkedBlockingQueue<String> messages = new LinkedBlockingQueue<>();
+    @Getter
+    @ToString.Include
+    private final QueueOptions options;
+    private final MessageStore store;
+    private final Dispatcher dispatcher;
+    private final ExpirySweeper expiry;
+    private final Object owner;
+    private final Consumer<Queue> deleter;
+    private final AtomicBoolean deleted = new AtomicBoolean();
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder droppedHead = new LongAdder();
+    private final LongAdder droppedNew = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+
+    public Queue(String name) {
+        this(name, QueueOptions.UNBOUNDED);
+    }
+
+    public Queue(String name, QueueOptions options) {
+        this(name, options, MessageStore.create(options), exchange -> null, null, null);
+    }
 
-    public void publishMessage(String message) {
+    /**
+     * @param exchanges looks up the dead-letter exchange of the queue by its name
+     * @param owner     the connection that declared the queue, or {@code null}
+     * @param deleter   removes the queue from the broker when it is deleted, or {@code null} if it is not registered
+     */
+    Queue(String name, QueueOptions options, MessageStore store, Function<String, Exchange> exchanges, Object owner,
+          Consumer<Queue> deleter) {
+        this.name = name;
+        this.options = options;
+        this.store = store;
+        this.owner = owner;
+        this.deleter = deleter;
+        this.expiry = new ExpirySweeper(name, options, store, exchanges);
+        this.dispatcher = new Dispatcher(name, store, options.dispatch(), expiry);
+    }
+
+    /**
+     * @return whether messages with a time to live of their own can be removed once they expire, even behind messages
+     * that have not expired, which the deque based stores can do, see {@link ExpirySweeper}
+     */
+    public boolean supportsMessageTtl() {
+        return store.supportsRemoval();
+    }
+
+    /**
+     * @return {@code false} if the queue is full and the message has been rejected
+     */
+    public boolean publishMessage(Message message) {
         try {
-            messages.put(message);
+            return offer(message);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+            return false;
         }
     }
 
-    public void startMessageDispatch(IOReadWrite ioReadWrite) {
+    public void startMessageDispatch(ClientConnection connection) {
+        startMessageDispatch(connection, options.prefetch());
+    }
+
+    /**
+     * Subscribes the connection to this queue and writes the messages dispatched to it until the connection is
+     * closed or the calling thread is interrupted.
+     *
+     * @param prefetch the maximum number of messages handed to this subscriber and not yet written to it
+     */
+    public void startMessageDispatch(ClientConnection connection, int prefetch) {
+        subscribe(connection, prefetch, false).run();
+    }
+
+    /**
+     * Subscribes the connection to this queue. Messages are dispatched to it once the returned subscription runs.
+     *
+     * @param prefetch     the maximum number of messages handed to this subscriber and not yet written to it, or not
+     *                     yet acknowledged
+     * @param acknowledged whether the subscriber acknowledges its messages
+     */
+    public Subscription subscribe(ClientConnection connection, int prefetch, boolean acknowledged) {
+        return new Subscription(dispatcher, connection, prefetch, acknowledged,
+                options.autoDelete() ? this::delete : null);
+    }
+
+    /**
+     * @return whether the connection may use the queue, which is only the connection that declared an exclusive queue
+     */
+    public boolean isAccessibleBy(Object connection) {
+        return !options.exclusive() || owner == connection;
+    }
+
+    public boolean isDeleted() {
+        return deleted.get();
+    }
+
+    /**
+     * Deletes the queue: its subscriptions end, its messages are dropped and it is removed from the broker and the
+     * bindings of every exchange. Deleting a queue again has no effect.
+     */
+    public void delete() {
+        if (deleter != null) {
+            deleter.accept(this);
+        } else {
+            discard();
+        }
+    }
+
+    /**
+     * Ends the subscriptions of the queue and drops its messages, leaving the log of a durable queue to be removed by
+     * the caller.
+     *
+     * @return {@code false} if the queue has been deleted already
+     */
+    boolean discard() {
+        if (!deleted.compareAndSet(false, true)) return false;
+        expiry.close();
+        dispatcher.cancel();
+        if (options.store() != MessageStore.Type.DURABLE) drain();
+        store.close();
+        return true;
+    }
+
+    public QueueStats stats() {
+        return new QueueStats(store.size() + dispatcher.held(), store.bytes() + dispatcher.heldBytes(), enqueued.sum(),
+                rejected.sum(), droppedHead.sum(), droppedNew.sum(), blocked.sum(), expiry.expired(),
+                expiry.deadLettered());
+    }
+
+    /**
+     * Closes the store of the queue when the broker shuts down. Messages published afterwards are rejected.
+     */
+    public void close() {
+        expiry.close();
+        store.close();
+    }
+
+    /**
+     * Stores the message, applying the overflow policy while the store is full.
+     *
+     * @return {@code false} if the message has been rejected
+     */
+    private boolean offer(Message message) throws InterruptedException {
+        if (deleted.get()) return true;
+        long messageBytes = message.length();
+        if (options.exceedsMaxBytes(messageBytes)) {
+            return overflowWithoutRoom();
+        }
+
+        // retained before it is visible to subscribers, which release it after the delivery
+        message.retain();
+        expiry.stored(message);
         try {
-            ioReadWrite.writeSocketResponse("ok");
-            while (!Thread.currentThread().isInterrupted() && !ioReadWrite.getSocket().isClosed()) {
-                String message = messages.take();
-                ioReadWrite.writeSocketResponse(message);
+            boolean stored = offerRetained(message, messageBytes);
+            // deleted while the message was stored, after the store had been drained
+            if (deleted.get() && options.store() != MessageStore.Type.DURABLE) drain();
+            return stored;
+        } catch (UncheckedIOException e) {
+            LOG.log(Level.WARNING, "Error storing message in queue " + name, e);
+            message.release();
+            rejected.increment();
+            return false;
+        }
+    }
+
+    /**
+     * @throws UncheckedIOException if the store failed to store the message
+     */
+    private boolean offerRetained(Message message, long messageBytes) throws InterruptedException {
+        boolean waited = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BLOCK_TIMEOUT_MS);
+        while (!store.offer(message)) {
+            switch (options.overflow()) {
+                case REJECT -> {
+                    message.release();
+                    rejected.increment();
+                    return false;
+                }
+                case DROP_NEW -> {
+                    message.release();
+                    droppedNew.increment();
+                    return true;
+                }
+                case DROP_HEAD -> {
+                    Message head = store.poll();
+                    if (head != null) {
+                        head.release();
+                        droppedHead.increment();
+                    }
+                }
+                case BLOCK -> {
+                    if (!waited) blocked.increment();
+                    waited = true;
+                    if (!store.awaitSpace(messageBytes, deadline - System.nanoTime())) {
+                        message.release();
+                        rejected.increment();
+                        return false;
+                    }
+                }
             }
-        }  catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
         }
+        enqueued.increment();
+        return true;
     }
+
+    private void drain() {
+        Message message;
+        while ((message = store.poll()) != null) {
+            message.release();
+        }
+    }
+
+    /**
+     * Handles a message that exceeds the byte limit on its own, so that no amount of waiting or dropping makes room.
+     */
+    private boolean overflowWithoutRoom() {
+        if (options.overflow() == OverflowPolicy.DROP_NEW || options.overflow() == OverflowPolicy.DROP_HEAD) {
+            droppedNew.increment();
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * A snapshot of the contents and counters of a queue.
+     *
+     * @param length       the number of stored messages
+     * @param bytes        the total payload size of the stored messages
+     * @param enqueued     the number of messages stored so far
+     * @param rejected     the number of messages rejected because the queue was full
+     * @param droppedHead  the number of stored messages dropped to make room for new ones
+     * @param droppedNew   the number of published messages dropped because the queue was full
+     * @param blocked      the number of publishes that had to wait for room
+     * @param expired      the number of messages removed because their time to live passed
+     * @param deadLettered the number of expired messages published to the dead-letter exchange
+     */
+    public record QueueStats(
+            int length,
+            long bytes,
+            long enqueued,
+            long rejected,
+            long droppedHead,
+            long droppedNew,
+            long blocked,
+            long expired,
+            long deadLettered
+    ) {}
 }
@@ -0,0 +1,205 @@
+package dslab.entity;
+
+import dslab.entity.storage.DurableMessageStore;
+import dslab.entity.storage.LazyMessageStore;
+import dslab.entity.storage.LogSettings;
+import dslab.entity.storage.MessageStore;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Creates the {@link Queue}s of a broker and holds the {@link PayloadArena} their messages share.
+ *
+ * <p>A durable queue keeps its messages in a {@link dslab.entity.storage.SegmentLog} in a directory of its own below
+ * the log directory of the broker, named after the URL-encoded queue name. The options the queue was declared with are
+ * written next to the log, so that {@link #recover()} can restore the queue with the messages that had not been
+ * dispatched when the broker stopped.</p>
+ *
+ * <p>Lazy queues spill their backlogs to a directory of their own below {@code .lazy} in the log
+ * directory, a name no durable queue can have. Whatever a previous run of the broker left there is discarded when the
+ * queue is created.</p>
+ *
+ * <p>Deleting a queue created here drops its messages, removes it from the broker through the callback the factory
+ * was created with and, for a durable queue, removes its directory, so it is not recovered again.</p>
+ *
+ * <p>Brokers whose publishers run on event loops, which must never wait, create queues with
+ * {@link OverflowPolicy#BLOCK} refused.</p>
+ */
+public class QueueFactory {
+    private static final Logger LOG = Logger.getLogger(QueueFactory.class.getName());
+    private static final String OPTIONS_FILE = "queue.options";
+    private static final String SPILL_DIRECTORY = ".lazy";
+
+    @Getter
+    private final QueueOptions defaultOptions;
+    private final LogSettings logSettings;
+    @Getter
+    private final PayloadArena payloadArena;
+    private final Function<String, Exchange> exchanges;
+    private final Consumer<Queue> onDelete;
+    private final boolean blockingAllowed;
+
+    public QueueFactory(QueueOptions defaultOptions, LogSettings logSettings) {
+        this(defaultOptions, logSettings, PayloadArena.DISABLED, exchange -> null);
+    }
+
+    public QueueFactory(QueueOptions defaultOptions, LogSettings logSettings, PayloadArena payloadArena,
+                        Function<String, Exchange> exchanges) {
+        this(defaultOptions, logSettings, payloadArena, exchanges, queue -> {});
+    }
+
+    /**
+     * @param defaultOptions the options of a queue declared without options
+     * @param logSettings    where and how the logs of durable and lazy queues are written
+     * @param payloadArena   the off-heap memory for the payloads of published messages
+     * @param exchanges      looks up the dead-letter exchanges of queues by their name, returns {@code null} for an
+     *                       exchange that does not exist
+     * @param onDelete       removes a deleted queue from the queues and bindings of the broker
+     */
+    public QueueFactory(QueueOptions defaultOptions, LogSettings logSettings, PayloadArena payloadArena,
+                        Function<String, Exchange> exchanges, Consumer<Queue> onDelete) {
+        this(defaultOptions, logSettings, payloadArena, exchanges, onDelete, true);
+    }
+
+    /**
+     * @param blockingAllowed whether publishers may wait for room in a full queue, i.e. queues may use
+     *                        {@link OverflowPolicy#BLOCK}
+     */
+    public QueueFactory(QueueOptions defaultOptions, LogSettings logSettings, PayloadArena payloadArena,
+                        Function<String, Exchange> exchanges, Consumer<Queue> onDelete, boolean blockingAllowed) {
+        this.defaultOptions = defaultOptions;
+        this.logSettings = logSettings;
+        this.payloadArena = payloadArena;
+        this.exchanges = exchanges;
+        this.onDelete = onDelete;
+        this.blockingAllowed = blockingAllowed;
+    }
+
+    public Queue create(String name, QueueOptions options) {
+        return create(name, options, null);
+    }
+
+    /**
+     * @param owner the connection declaring the queue, the only one that may use it if the queue is exclusive
+     * @throws UncheckedIOException     if the log of a durable queue could not be created
+     * @throws IllegalArgumentException if the options combine priority levels with a store that cannot keep them, or
+     *                                  an exclusive queue with a durable store, or block publishers that must not
+     *                                  wait
+     */
+    public Queue create(String name, QueueOptions options, Object owner) {
+        checkOverflow(options);
+        if (options.exclusive() && options.store() == MessageStore.Type.DURABLE) {
+            throw new IllegalArgumentException("exclusive queues cannot be durable");
+        }
+        if (options.store() == MessageStore.Type.LAZY && options.priority() == 0) {
+            return createLazy(name, options, owner);
+        }
+        if (options.store() != MessageStore.Type.DURABLE || options.priority() > 0) {
+            return new Queue(name, options, MessageStore.create(options), exchanges, owner, this::delete);
+        }
+
+        Path directory = logSettings.directory().resolve(directoryName(name));
+        try {
+            Files.createDirectories(directory);
+            Files.writeString(directory.resolve(OPTIONS_FILE), options.format());
+            return new Queue(name, options, DurableMessageStore.open(directory, options, logSettings), exchanges,
+                    owner, this::delete);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error creating the log of queue " + name, e);
+        }
+    }
+
+    private Queue createLazy(String name, QueueOptions options, Object owner) {
+        Path spillDirectory = logSettings.directory().resolve(SPILL_DIRECTORY).resolve(directoryName(name));
+        try {
+            deleteRecursively(spillDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error discarding the spilled messages of queue " + name, e);
+        }
+        return new Queue(name, options, new LazyMessageStore(options, spillDirectory, logSettings), exchanges,
+                owner, this::delete);
+    }
+
+    /**
+     * Deletes a queue created by this factory, see {@link Queue#delete()}.
+     */
+    private void delete(Queue queue) {
+        if (!queue.discard()) return;
+        onDelete.accept(queue);
+        if (queue.getOptions().store() != MessageStore.Type.DURABLE) return;
+
+        try {
+            deleteRecursively(logSettings.directory().resolve(directoryName(queue.getName())));
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error deleting the log of queue " + queue.getName(), e);
+        }
+    }
+
+    /**
+     * Opens the durable queues found in the log directory. A queue whose log cannot be opened is skipped.
+     */
+    public List<Queue> recover() {
+        if (!Files.isDirectory(logSettings.directory())) return List.of();
+
+        List<Path> directories;
+        try (Stream<Path> listing = Files.list(logSettings.directory())) {
+            directories = listing.filter(directory -> Files.isRegularFile(directory.resolve(OPTIONS_FILE))).toList();
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Error listing durable queues in " + logSettings.directory(), e);
+            return List.of();
+        }
+
+        List<Queue> queues = new ArrayList<>();
+        for (Path directory : directories) {
+            String name = URLDecoder.decode(directory.getFileName().toString(), StandardCharsets.UTF_8);
+            try {
+                QueueOptions options = defaultOptions.withAll(Files.readString(directory.resolve(OPTIONS_FILE)));
+                checkOverflow(options);
+                Queue queue = new Queue(name, options, DurableMessageStore.open(directory, options, logSettings),
+                        exchanges, null, this::delete);
+                LOG.info("Recovered queue %s with %d messages".formatted(name, queue.stats().length()));
+                queues.add(queue);
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.log(Level.SEVERE, "Error recovering queue " + name, e);
+            }
+        }
+        return queues;
+    }
+
+    private void checkOverflow(QueueOptions options) {
+        if (options.overflow() == OverflowPolicy.BLOCK && !blockingAllowed) {
+            throw new IllegalArgumentException("overflow=block is not supported by the nio transport");
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) return;
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * @return the name as a single path segment that cannot be {@code .} or {@code ..}
+     */
+    private static String directoryName(String queueName) {
+        return URLEncoder.encode(queueName, StandardCharsets.UTF_8).replace(".", "%2E").replace("*", "%2A");
+    }
+}
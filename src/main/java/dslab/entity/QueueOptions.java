@@ -0,0 +1,188 @@
+package dslab.entity;
+
+import dslab.entity.storage.MessageStore;
+import lombok.With;
+
+/**
+ * The options of a {@link Queue}: the bounds of the messages it holds until they are dispatched, the
+ * {@link MessageStore} that holds them, and how long they may wait.
+ *
+ * <p>Options are given when a queue is declared with {@code queue <name> [max-length=<n>] [max-bytes=<n>]
+ * [overflow=<policy>] [store=<type>] [dispatch=<policy>] [prefetch=<n>] [ttl=<ms>] [dead-letter-exchange=<name>]
+ * [dead-letter-routing-key=<key>] [priority=<levels>] [auto-delete] [exclusive]}. Options that are left out are
+ * taken from the broker's defaults.</p>
+ *
+ * @param maxLength            the maximum number of stored messages, {@code 0} means no limit
+ * @param maxBytes             the maximum total payload size of the stored messages, {@code 0} means no limit
+ * @param overflow             what happens to messages published while the queue is full
+ * @param store                the kind of store holding the messages
+ * @param dispatch             how messages are spread across the subscribers
+ * @param prefetch             the default number of messages handed to a subscriber before it has to catch up, a
+ *                             subscriber may ask for a different window with {@code subscribe prefetch=<n>}
+ * @param ttl                  the time in milliseconds a message may wait after it was published, {@code 0} means no
+ *                             limit. A message published with a shorter time to live of its own expires earlier.
+ * @param deadLetterExchange   the exchange expired messages are published to, empty if they are dropped
+ * @param deadLetterRoutingKey the routing key of expired messages published to the dead-letter exchange, empty for
+ *                             the name of the queue
+ * @param priority             the number of priority levels, up to {@link #MAX_PRIORITY_LEVELS}, {@code 0} means the
+ *                             queue ignores the priority of messages, see
+ *                             {@link dslab.entity.storage.PriorityMessageStore}
+ * @param autoDelete           whether the queue is deleted once its last subscriber is gone
+ * @param exclusive            whether the queue belongs to the connection that declared it, which is the only one that
+ *                             may use it, and is deleted when that connection is closed
+ */
+@With
+public record QueueOptions(
+        int maxLength,
+        long maxBytes,
+        OverflowPolicy overflow,
+        MessageStore.Type store,
+        DispatchPolicy dispatch,
+        int prefetch,
+        long ttl,
+        String deadLetterExchange,
+        String deadLetterRoutingKey,
+        int priority,
+        boolean autoDelete,
+        boolean exclusive
+) {
+    public static final int DEFAULT_PREFETCH = 64;
+    public static final int MAX_PREFETCH = 65_536;
+    public static final int MAX_PRIORITY_LEVELS = 64;
+    public static final QueueOptions UNBOUNDED = new QueueOptions(0, 0, OverflowPolicy.REJECT, MessageStore.Type.DEQUE);
+
+    public QueueOptions(int maxLength, long maxBytes, OverflowPolicy overflow, MessageStore.Type store) {
+        this(maxLength, maxBytes, overflow, store, DispatchPolicy.ROUND_ROBIN, DEFAULT_PREFETCH);
+    }
+
+    public QueueOptions(int maxLength, long maxBytes, OverflowPolicy overflow, MessageStore.Type store,
+                        DispatchPolicy dispatch, int prefetch) {
+        this(maxLength, maxBytes, overflow, store, dispatch, prefetch, 0, "", "", 0, false, false);
+    }
+
+    public boolean isBounded() {
+        return maxLength > 0 || maxBytes > 0;
+    }
+
+    /**
+     * @return whether a message of the given size can never be stored, not even in an empty queue
+     */
+    public boolean exceedsMaxBytes(long messageBytes) {
+        return maxBytes > 0 && messageBytes > maxBytes;
+    }
+
+    public boolean isFull(int length, long bytes, long messageBytes) {
+        return maxLength > 0 && length >= maxLength || maxBytes > 0 && bytes + messageBytes > maxBytes;
+    }
+
+    /**
+     * Applies a queue option of the form {@code <name>=<value>}.
+     *
+     * @return options with the option applied
+     * @throws IllegalArgumentException if the option is unknown or its value is invalid
+     */
+    public QueueOptions with(String option) {
+        int separator = option.indexOf('=');
+        String name = separator < 0 ? option : option.substring(0, separator);
+        String value = separator < 0 ? "" : option.substring(separator + 1);
+        return switch (name) {
+            case "max-length" -> withMaxLength((int) parseLimit(name, value, Integer.MAX_VALUE));
+            case "max-bytes" -> withMaxBytes(parseLimit(name, value, Long.MAX_VALUE));
+            case "overflow" -> {
+                OverflowPolicy policy = OverflowPolicy.fromString(value);
+                if (policy == null) throw new IllegalArgumentException("invalid overflow policy " + value);
+                yield withOverflow(policy);
+            }
+            case "store" -> {
+                MessageStore.Type type = MessageStore.Type.fromString(value);
+                if (type == null) throw new IllegalArgumentException("invalid store " + value);
+                yield withStore(type);
+            }
+            case "dispatch" -> {
+                DispatchPolicy policy = DispatchPolicy.fromString(value);
+                if (policy == null) throw new IllegalArgumentException("invalid dispatch policy " + value);
+                yield withDispatch(policy);
+            }
+            case "prefetch" -> withPrefetch(parsePrefetch(value));
+            case "ttl" -> withTtl(parseTtl(value));
+            case "dead-letter-exchange" -> withDeadLetterExchange(value);
+            case "dead-letter-routing-key" -> withDeadLetterRoutingKey(value);
+            case "priority" -> withPriority((int) parseLimit(name, value, MAX_PRIORITY_LEVELS));
+            case "auto-delete" -> withAutoDelete(parseFlag(name, value));
+            case "exclusive" -> withExclusive(parseFlag(name, value));
+            default -> throw new IllegalArgumentException("unknown queue option " + name);
+        };
+    }
+
+    /**
+     * @return every option in the form accepted by {@link #with(String)}, separated by spaces
+     */
+    public String format() {
+        String formatted = "max-length=%d max-bytes=%d overflow=%s store=%s dispatch=%s prefetch=%d ttl=%d".formatted(
+                maxLength, maxBytes, overflow, store, dispatch, prefetch, ttl);
+        if (!deadLetterExchange.isEmpty()) formatted += " dead-letter-exchange=" + deadLetterExchange;
+        if (!deadLetterRoutingKey.isEmpty()) formatted += " dead-letter-routing-key=" + deadLetterRoutingKey;
+        if (priority > 0) formatted += " priority=" + priority;
+        if (autoDelete) formatted += " auto-delete=true";
+        if (exclusive) formatted += " exclusive=true";
+        return formatted;
+    }
+
+    /**
+     * Applies the options of a string created by {@link #format()}.
+     *
+     * @throws IllegalArgumentException if an option is unknown or its value is invalid
+     */
+    public QueueOptions withAll(String options) {
+        QueueOptions result = this;
+        for (String option : options.trim().split("\\s+")) {
+            if (!option.isEmpty()) result = result.with(option);
+        }
+        return result;
+    }
+
+    /**
+     * @return the prefetch count, between {@code 1} and {@link #MAX_PREFETCH}
+     * @throws IllegalArgumentException if the value is not a valid prefetch count
+     */
+    public static int parsePrefetch(String value) {
+        long prefetch = parseLimit("prefetch", value, MAX_PREFETCH);
+        if (prefetch == 0) throw new IllegalArgumentException("invalid value for prefetch");
+        return (int) prefetch;
+    }
+
+    /**
+     * @return the time to live in milliseconds, {@code 0} means no limit
+     * @throws IllegalArgumentException if the value is not a valid time to live
+     */
+    public static long parseTtl(String value) {
+        return parseLimit("ttl", value, Long.MAX_VALUE / 2);
+    }
+
+    /**
+     * @return the priority of a message, between {@code 0} and {@link #MAX_PRIORITY_LEVELS} - 1
+     * @throws IllegalArgumentException if the value is not a valid priority
+     */
+    public static int parsePriority(String value) {
+        return (int) parseLimit("priority", value, MAX_PRIORITY_LEVELS - 1);
+    }
+
+    /**
+     * @return {@code true} for a flag given without a value or as {@code true}, {@code false} for {@code false}
+     */
+    private static boolean parseFlag(String name, String value) {
+        return switch (value) {
+            case "", "true" -> true;
+            case "false" -> false;
+            default -> throw new IllegalArgumentException("invalid value for " + name);
+        };
+    }
+
+    private static long parseLimit(String name, String value, long max) {
+        try {
+            long limit = Long.parseLong(value);
+            if (limit >= 0 && limit <= max) return limit;
+        } catch (NumberFormatException ignored) {}
+        throw new IllegalArgumentException("invalid value for " + name);
+    }
+}
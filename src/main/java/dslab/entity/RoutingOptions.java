@@ -0,0 +1,23 @@
+package dslab.entity;
+
+import dslab.entity.binding.CachingBindingStorage;
+import dslab.entity.binding.SnapshotBindingStorage;
+import dslab.entity.binding.TopicBindingStorage;
+
+/**
+ * How the {@link Exchange}s of a broker look up the queues a routing key is bound to.
+ *
+ * @param compiledTopics whether topic exchanges match routing keys with an automaton compiled from their bindings
+ *                       instead of walking the trie of binding keys, see {@link TopicBindingStorage}
+ * @param routeCacheSize the number of routing keys every exchange remembers the matched queues of, {@code 0} to
+ *                       look up every routing key in the bindings, see {@link CachingBindingStorage}
+ * @param snapshotTables whether exchanges route with immutable snapshots of their bindings that are replaced on
+ *                       every change, see {@link SnapshotBindingStorage}
+ */
+public record RoutingOptions(
+        boolean compiledTopics,
+        int routeCacheSize,
+        boolean snapshotTables
+) {
+    public static final RoutingOptions DEFAULT = new RoutingOptions(false, 0, false);
+}
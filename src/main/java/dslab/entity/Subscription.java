@@ -0,0 +1,140 @@
+package dslab.entity;
+
+import dslab.util.ClientConnection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A subscriber of a {@link Queue}, which writes the messages dispatched to it to the connection of its client until
+ * the connection is closed or the thread running it is interrupted.
+ *
+ * <p>Without acknowledgements, a message is consumed once it has been written. With acknowledgements, every message
+ * is delivered with a delivery tag, counting up from {@code 1}, and stays unacknowledged until the client confirms it
+ * with {@code ack <tag>} or rejects it with {@code nack <tag>}. Adding {@code multiple} applies either to every
+ * unacknowledged message up to and including the tag. Rejected messages, and the messages still unacknowledged when
+ * the subscription ends, are put back into the queue ahead of the stored messages, so a message is only lost if the
+ * client acknowledged it. Unacknowledged messages count towards the prefetch window of the subscriber.</p>
+ */
+public class Subscription implements Runnable {
+    private final Dispatcher dispatcher;
+    private final Dispatcher.Subscriber subscriber;
+    private final ClientConnection connection;
+    private final UnackedTable unacked;
+    private final Runnable onUnused;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long lastDeliveryTag;
+    private boolean ended;
+
+    /**
+     * @param onUnused called once this was the last subscriber of the queue, for an auto-delete queue, or
+     *                 {@code null}
+     */
+    Subscription(Dispatcher dispatcher, ClientConnection connection, int prefetch, boolean acknowledged,
+                 Runnable onUnused) {
+        this.dispatcher = dispatcher;
+        this.subscriber = dispatcher.subscribe(prefetch);
+        this.connection = connection;
+        this.unacked = acknowledged ? new UnackedTable(prefetch) : null;
+        this.onUnused = onUnused;
+    }
+
+    public boolean isAcknowledged() {
+        return unacked != null;
+    }
+
+    @Override
+    public void run() {
+        dispatcher.attach(subscriber);
+        try {
+            connection.writeSocketResponse("ok");
+            connection.flush();
+            while (!Thread.currentThread().isInterrupted() && !connection.isClosed()) {
+                Message message = subscriber.take();
+                if (unacked == null) {
+                    try {
+                        connection.writeMessage(message);
+                    } finally {
+                        message.release();
+                        dispatcher.delivered(subscriber, 1);
+                    }
+                } else {
+                    // tracked before the write, so that a message written to a dead connection is requeued
+                    connection.writeMessage(message, track(message));
+                }
+                if (subscriber.isIdle()) {
+                    connection.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Acknowledges the message with the tag, or with {@code multiple} every message up to and including it.
+     * Unknown tags are ignored.
+     */
+    public void ack(long deliveryTag, boolean multiple) {
+        List<Message> acknowledged = remove(deliveryTag, multiple);
+        if (acknowledged.isEmpty()) return;
+        acknowledged.forEach(Message::release);
+        dispatcher.delivered(subscriber, acknowledged.size());
+    }
+
+    /**
+     * Rejects the message with the tag, or with {@code multiple} every message up to and including it, which puts
+     * them back into the queue. Unknown tags are ignored.
+     */
+    public void nack(long deliveryTag, boolean multiple) {
+        List<Message> rejected = remove(deliveryTag, multiple);
+        if (rejected.isEmpty()) return;
+        dispatcher.requeue(subscriber, rejected);
+    }
+
+    private long track(Message message) {
+        lock.lock();
+        try {
+            long deliveryTag = ++lastDeliveryTag;
+            unacked.put(deliveryTag, message);
+            return deliveryTag;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Message> remove(long deliveryTag, boolean multiple) {
+        if (unacked == null) return List.of();
+        lock.lock();
+        try {
+            if (ended) return List.of();
+            List<Message> removed = new ArrayList<>();
+            if (multiple) {
+                unacked.removeUpTo(deliveryTag, removed::add);
+            } else {
+                Message message = unacked.remove(deliveryTag);
+                if (message != null) removed.add(message);
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void end() {
+        List<Message> unacknowledged = new ArrayList<>();
+        if (unacked != null) {
+            lock.lock();
+            try {
+                ended = true;
+                unacked.removeAll(unacknowledged::add);
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (dispatcher.unsubscribe(subscriber, unacknowledged) && onUnused != null) onUnused.run();
+    }
+}
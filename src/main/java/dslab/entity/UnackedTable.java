@@ -0,0 +1,133 @@
+package dslab.entity;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * The messages delivered to a {@link Subscription} that have not been acknowledged yet, by delivery tag.
+ *
+ * <p>An open-addressing hash table with primitive {@code long} keys, so that tracking a delivery allocates nothing.
+ * Delivery tags are consecutive, so the low bits of a tag are used as its slot and collisions only occur once tags
+ * lap the table. Removed entries are closed by shifting the following entries back, which keeps lookups free of
+ * tombstones. The table grows when it is half full, which with a prefetch window only happens if the window is
+ * larger than the initial capacity.</p>
+ *
+ * <p>Not thread-safe, the subscription guards it.</p>
+ */
+class UnackedTable {
+    private static final long EMPTY = 0;
+
+    private long[] tags;
+    private Message[] messages;
+    private int mask;
+    private int size;
+
+    /**
+     * @param expectedSize the expected maximum number of unacknowledged messages
+     */
+    UnackedTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, expectedSize) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param tag a delivery tag, greater than zero
+     */
+    void put(long tag, Message message) {
+        if ((size + 1) * 2 > tags.length) {
+            resize(tags.length * 2);
+        }
+        int slot = (int) tag & mask;
+        while (tags[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        tags[slot] = tag;
+        messages[slot] = message;
+        size++;
+    }
+
+    /**
+     * @return the message with the tag, or {@code null} if it is not in the table
+     */
+    Message remove(long tag) {
+        if (tag <= EMPTY) return null;
+        int slot = (int) tag & mask;
+        while (tags[slot] != EMPTY) {
+            if (tags[slot] == tag) {
+                Message message = messages[slot];
+                removeSlot(slot);
+                return message;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Removes every message with a tag up to and including the given one, passing them in the order of their tags.
+     *
+     * @return the number of removed messages
+     */
+    int removeUpTo(long tag, Consumer<Message> removed) {
+        long[] matching = new long[size];
+        int count = 0;
+        for (long candidate : tags) {
+            if (candidate != EMPTY && candidate <= tag) {
+                matching[count++] = candidate;
+            }
+        }
+        Arrays.sort(matching, 0, count);
+        for (int i = 0; i < count; i++) {
+            removed.accept(remove(matching[i]));
+        }
+        return count;
+    }
+
+    /**
+     * Removes every message, passing them in the order of their tags.
+     */
+    int removeAll(Consumer<Message> removed) {
+        return removeUpTo(Long.MAX_VALUE, removed);
+    }
+
+    private void removeSlot(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (tags[next] != EMPTY) {
+            int home = (int) tags[next] & mask;
+            // an entry may fill the hole unless its home slot lies cyclically after the hole and up to its slot
+            boolean movable = hole <= next ? home <= hole || home > next : home <= hole && home > next;
+            if (movable) {
+                tags[hole] = tags[next];
+                messages[hole] = messages[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        tags[hole] = EMPTY;
+        messages[hole] = null;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldTags = tags;
+        Message[] oldMessages = messages;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldTags.length; i++) {
+            if (oldTags[i] != EMPTY) {
+                put(oldTags[i], oldMessages[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        tags = new long[capacity];
+        messages = new Message[capacity];
+        mask = capacity - 1;
+    }
+}
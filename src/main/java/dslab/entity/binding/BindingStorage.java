@@ -4,6 +4,8 @@ import dslab.entity.Queue;
 import dslab.util.ExchangeType;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * The {@code BindingStorage} interface defines the methods for managing the relationships between
@@ -26,6 +28,16 @@ public interface BindingStorage {
      */
     Queue addBinding(String key, Queue queue);
 
+    /**
+     * Adds a binding for every entry, e.g. when many queues are restored at once. Implementations that copy their
+     * bindings on every change may add them all with a single copy.
+     *
+     * @param bindings The {@link Queue}s to bind, by their routing keys.
+     */
+    default void addBindings(Map<String, Queue> bindings) {
+        bindings.forEach(this::addBinding);
+    }
+
     /**
      * Retrieves a list of queues associated with the given routing key for the specified exchange type.
      * The routing key could be used with a variety of exchange types (e.g., FANOUT, DIRECT, TOPIC).
@@ -35,4 +47,32 @@ public interface BindingStorage {
      */
     List<Queue> getQueuesByRoutingKey(String routingKey);
 
+    /**
+     * Hands every queue associated with the given routing key to the action, for callers that route a message
+     * without keeping the matched queues. Implementations may do so without allocating a list.
+     *
+     * @param routingKey The routing key for which to retrieve the associated queues.
+     * @param action The action called with each {@link Queue}.
+     */
+    default void forEachQueue(String routingKey, Consumer<? super Queue> action) {
+        getQueuesByRoutingKey(routingKey).forEach(action);
+    }
+
+    /**
+     * Removes the binding between the given routing key and the specified queue, together with any index entries
+     * that only existed for it. Queues are compared by identity, so a new queue of the same name keeps its bindings.
+     *
+     * @param key The routing key the queue was bound with.
+     * @param queue The {@link Queue} to unbind.
+     * @return {@code true} if the binding existed.
+     */
+    boolean removeBinding(String key, Queue queue);
+
+    /**
+     * Removes every binding of the specified queue, e.g. once the queue has been deleted.
+     *
+     * @param queue The {@link Queue} to unbind.
+     */
+    void removeQueue(Queue queue);
+
 }
@@ -0,0 +1,189 @@
+package dslab.entity.binding;
+
+import dslab.entity.Queue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Remembers the queues routing keys were last routed to, in front of the {@link BindingStorage} of an exchange.
+ *
+ * <p>Publishers tend to reuse a small set of routing keys, so a lookup is answered from a bounded table of routes
+ * keyed by the routing key, and only a miss asks the wrapped storage. A route holds the matched queues as an immutable
+ * array, so a hit neither walks the bindings nor allocates. The table is two-way set-associative: a routing key may
+ * live in either of the two slots of its set, and a new route replaces the slot that was not hit since the set last
+ * filled up. Slots are written without synchronization; a route is immutable, so a racing lookup sees either the
+ * previous route of the slot or a complete new one.</p>
+ *
+ * <p>Every route belongs to the generation of the bindings it was looked up in. Adding or removing a binding starts a
+ * new generation, which turns every cached route stale at once, and routes are looked up again as they are
+ * published to. The generation is read before the wrapped storage is asked, so a route looked up while the bindings
+ * change belongs to the older generation and is never served afterwards.</p>
+ */
+public class CachingBindingStorage implements BindingStorage {
+    private static final Queue[] NO_QUEUES = new Queue[0];
+    private final BindingStorage bindings;
+    private final Route[] routes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile long generation;
+
+    /**
+     * @param bindings the storage to route with on a miss
+     * @param size     the number of routes to keep at most, rounded up to a power of two
+     */
+    public CachingBindingStorage(BindingStorage bindings, int size) {
+        if (size < 1) throw new IllegalArgumentException("route cache size must be positive");
+        this.bindings = bindings;
+        this.routes = new Route[Math.max(2, Integer.highestOneBit(size * 2 - 1))];
+    }
+
+    /**
+     * Bindings change under the lock of this storage, so the generation advances only once a change is complete.
+     */
+    @Override
+    public synchronized Queue addBinding(String key, Queue queue) {
+        bindings.addBinding(key, queue);
+        invalidate();
+        return queue;
+    }
+
+    @Override
+    public synchronized void addBindings(Map<String, Queue> bindings) {
+        this.bindings.addBindings(bindings);
+        invalidate();
+    }
+
+    @Override
+    public List<Queue> getQueuesByRoutingKey(String routingKey) {
+        return route(routingKey).queueList;
+    }
+
+    @Override
+    public void forEachQueue(String routingKey, Consumer<? super Queue> action) {
+        for (Queue queue : route(routingKey).queues) {
+            action.accept(queue);
+        }
+    }
+
+    @Override
+    public synchronized boolean removeBinding(String key, Queue queue) {
+        boolean removed = bindings.removeBinding(key, queue);
+        if (removed) invalidate();
+        return removed;
+    }
+
+    @Override
+    public synchronized void removeQueue(Queue queue) {
+        bindings.removeQueue(queue);
+        invalidate();
+    }
+
+    /**
+     * @return the storage this one caches the routes of
+     */
+    public BindingStorage bindings() {
+        return bindings;
+    }
+
+    public RouteCacheStats stats() {
+        long current = generation;
+        int cached = 0;
+        for (Route route : routes) {
+            if (route != null && route.generation == current) cached++;
+        }
+        return new RouteCacheStats(hits.sum(), misses.sum(), cached, routes.length);
+    }
+
+    private Route route(String routingKey) {
+        long current = generation;
+        int hash = routingKey.hashCode();
+        int first = (hash ^ (hash >>> 16)) & (routes.length - 2);
+        Route route = routes[first];
+        if (route != null && route.generation == current && route.key.equals(routingKey)) {
+            return hit(route);
+        }
+        Route other = routes[first + 1];
+        if (other != null && other.generation == current && other.key.equals(routingKey)) {
+            return hit(other);
+        }
+
+        misses.increment();
+        Queue[] queues = bindings.getQueuesByRoutingKey(routingKey).toArray(NO_QUEUES);
+        Route looked = new Route(routingKey, current, queues.length == 0 ? NO_QUEUES : queues);
+        routes[first + replaced(route, other, current)] = looked;
+        return looked;
+    }
+
+    private Route hit(Route route) {
+        hits.increment();
+        // only written while unset, so hot routes do not keep writing to the cache line of the route
+        if (!route.hit) route.hit = true;
+        return route;
+    }
+
+    /**
+     * @return which slot of the set a new route takes: an empty or stale one, else the one not hit since the set last
+     * filled up, else the first
+     */
+    private static int replaced(Route first, Route second, long generation) {
+        if (first == null || first.generation != generation) return 0;
+        if (second == null || second.generation != generation) return 1;
+        boolean firstHit = first.hit;
+        first.hit = false;
+        second.hit = false;
+        return firstHit && !second.hit ? 1 : 0;
+    }
+
+    private void invalidate() {
+        generation++;
+        // drops the stale routes, so they do not keep deleted queues reachable
+        Arrays.fill(routes, null);
+    }
+
+    /**
+     * The queues a routing key was routed to in one generation of the bindings.
+     */
+    private static final class Route {
+        private final String key;
+        private final long generation;
+        private final Queue[] queues;
+        private final List<Queue> queueList;
+        private boolean hit;
+
+        private Route(String key, long generation, Queue[] queues) {
+            this.key = key;
+            this.generation = generation;
+            this.queues = queues;
+            this.queueList = List.of(queues);
+        }
+    }
+
+    /**
+     * A snapshot of the counters of a {@link CachingBindingStorage}.
+     *
+     * @param hits     the number of lookups answered from the cache
+     * @param misses   the number of lookups that asked the wrapped storage
+     * @param size     the number of routes of the current generation in the cache
+     * @param capacity the number of routes the cache keeps at most
+     */
+    public record RouteCacheStats(long hits, long misses, int size, int capacity) {
+
+        /**
+         * @return the share of lookups answered from the cache, {@code 0} before the first lookup
+         */
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=%d misses=%d hit rate=%.1f%% routes=%d/%d"
+                    .formatted(hits, misses, hitRate() * 100, size, capacity);
+        }
+    }
+}
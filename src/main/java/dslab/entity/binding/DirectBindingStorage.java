@@ -11,8 +11,12 @@ public class DirectBindingStorage implements BindingStorage {
 
     @Override
     public Queue addBinding(String key, Queue queue) {
-        bindings.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>())
-            .add(queue);
+        // added within the mapping function, so a concurrent removal cannot drop the list it is added to
+        bindings.compute(key, (k, queues) -> {
+            List<Queue> bound = queues != null ? queues : new CopyOnWriteArrayList<>();
+            bound.add(queue);
+            return bound;
+        });
         return queue;
     }
 
@@ -21,4 +25,21 @@ public class DirectBindingStorage implements BindingStorage {
         return Optional.ofNullable(bindings.get(routingKey))
             .orElseGet(List::of);
     }
+
+    @Override
+    public boolean removeBinding(String key, Queue queue) {
+        boolean[] removed = new boolean[1];
+        bindings.computeIfPresent(key, (k, queues) -> {
+            removed[0] = queues.removeIf(bound -> bound == queue);
+            return queues.isEmpty() ? null : queues;
+        });
+        return removed[0];
+    }
+
+    @Override
+    public void removeQueue(Queue queue) {
+        for (String key : bindings.keySet()) {
+            removeBinding(key, queue);
+        }
+    }
 }
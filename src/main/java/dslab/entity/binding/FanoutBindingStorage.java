@@ -18,4 +18,17 @@ public class FanoutBindingStorage implements BindingStorage {
     public List<Queue> getQueuesByRoutingKey(String routingKey) {
         return queues;
     }
+
+    /**
+     * A fanout exchange ignores binding keys, so this removes every binding of the queue.
+     */
+    @Override
+    public boolean removeBinding(String key, Queue queue) {
+        return queues.removeIf(bound -> bound == queue);
+    }
+
+    @Override
+    public void removeQueue(Queue queue) {
+        queues.removeIf(bound -> bound == queue);
+    }
 }
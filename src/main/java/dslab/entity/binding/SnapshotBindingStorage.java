@@ -0,0 +1,296 @@
+package dslab.entity.binding;
+
+import dslab.entity.Queue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Routes with an immutable snapshot of the bindings that is replaced as a whole whenever they change, for exchanges
+ * that route far more often than their bindings change.
+ *
+ * <p>A snapshot holds the bindings as a flat array, and the routes built from them: an open-addressing table of
+ * queue arrays for direct exchanges, a single queue array for fanout exchanges and a trie of their own for topic
+ * exchanges. For direct and fanout exchanges, a lookup reads the snapshot field once and then only final arrays,
+ * without locks and without racing with binds.</p>
+ *
+ * <p>Topic snapshots do not go that far: their trie is a {@link TopicBindingStorage} that is no longer bound to once
+ * the snapshot is published, but a lookup still reads the volatile fields of every node it visits and matches with
+ * the scratch state of its thread. In compiled mode, lookups also read the automaton of the trie and build its states
+ * as they need them. Since the trie of a snapshot never changes, its automaton is never started anew, which is what
+ * topic exchanges gain from snapshots.</p>
+ *
+ * <p>Changes are applied to a copy of the bindings, from which the next snapshot is built. Changes are batched:
+ * every change is queued, and the thread that takes the lock of the storage applies every queued change to one new
+ * snapshot, so changes made concurrently pay for a single copy. A change returns once a snapshot containing it has
+ * been published, so a message published after a bind is routed with it.</p>
+ */
+public class SnapshotBindingStorage implements BindingStorage {
+    private static final Binding[] NO_BINDINGS = new Binding[0];
+    private final UnaryOperator<String> keys;
+    private final Function<Binding[], Routes> routes;
+    private final ConcurrentLinkedQueue<Change> pending = new ConcurrentLinkedQueue<>();
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param keys   normalizes binding keys, so that keys matching the same routing keys are removed together
+     * @param routes builds the routes of a snapshot from its bindings
+     */
+    private SnapshotBindingStorage(UnaryOperator<String> keys, Function<Binding[], Routes> routes) {
+        this.keys = keys;
+        this.routes = routes;
+        this.snapshot = new Snapshot(NO_BINDINGS, routes.apply(NO_BINDINGS));
+    }
+
+    /**
+     * @return a storage routing a message to the queues bound with exactly its routing key
+     */
+    public static SnapshotBindingStorage direct() {
+        return new SnapshotBindingStorage(UnaryOperator.identity(), DirectRoutes::new);
+    }
+
+    /**
+     * @return a storage routing every message to every bound queue, whatever their keys
+     */
+    public static SnapshotBindingStorage fanout() {
+        return new SnapshotBindingStorage(key -> "", FanoutRoutes::new);
+    }
+
+    /**
+     * @param compiled whether the routes match routing keys with an automaton, see {@link TopicBindingStorage}
+     * @return a storage routing messages with topic patterns
+     */
+    public static SnapshotBindingStorage topic(boolean compiled) {
+        return new SnapshotBindingStorage(key -> String.join(".", TopicBindingStorage.words(key)),
+                bindings -> new TopicRoutes(bindings, compiled));
+    }
+
+    @Override
+    public Queue addBinding(String key, Queue queue) {
+        apply(new Change(keys.apply(key), queue, true));
+        return queue;
+    }
+
+    /**
+     * Binds every queue with its key in a single new snapshot.
+     */
+    @Override
+    public void addBindings(Map<String, Queue> bindings) {
+        List<Change> changes = new ArrayList<>();
+        bindings.forEach((key, queue) -> {
+            Change change = new Change(keys.apply(key), queue, true);
+            change.queued = true;
+            changes.add(change);
+        });
+        pending.addAll(changes);
+        if (!changes.isEmpty()) apply(changes.getLast());
+    }
+
+    @Override
+    public List<Queue> getQueuesByRoutingKey(String routingKey) {
+        return snapshot.routes.queues(routingKey);
+    }
+
+    @Override
+    public void forEachQueue(String routingKey, Consumer<? super Queue> action) {
+        snapshot.routes.forEachQueue(routingKey, action);
+    }
+
+    @Override
+    public boolean removeBinding(String key, Queue queue) {
+        return apply(new Change(keys.apply(key), queue, false)).removed;
+    }
+
+    @Override
+    public void removeQueue(Queue queue) {
+        apply(new Change(null, queue, false));
+    }
+
+    /**
+     * @return the number of bindings of the current snapshot
+     */
+    public int bindingCount() {
+        return snapshot.bindings.length;
+    }
+
+    /**
+     * Queues the change unless it is queued already, and returns once it has been applied, by this thread or by the
+     * one holding the lock.
+     */
+    private Change apply(Change change) {
+        if (!change.queued) pending.add(change);
+        synchronized (this) {
+            if (change.applied) return change;
+            List<Binding> bindings = new ArrayList<>(List.of(snapshot.bindings));
+            for (Change next; (next = pending.poll()) != null; ) {
+                next.applyTo(bindings);
+            }
+            Binding[] flat = bindings.toArray(NO_BINDINGS);
+            snapshot = new Snapshot(flat, routes.apply(flat));
+            return change;
+        }
+    }
+
+    /**
+     * A binding of a queue with a normalized key.
+     */
+    private record Binding(String key, Queue queue) {}
+
+    private record Snapshot(Binding[] bindings, Routes routes) {}
+
+    /**
+     * A queued change of the bindings. Its outcome is only read and written under the lock of the storage;
+     * {@link #queued} is set before the change is queued, by the thread making it.
+     */
+    private static final class Change {
+        private final String key;
+        private final Queue queue;
+        private final boolean add;
+        private boolean queued;
+        private boolean applied;
+        private boolean removed;
+
+        /**
+         * @param key the normalized key, or {@code null} to remove every binding of the queue
+         */
+        private Change(String key, Queue queue, boolean add) {
+            this.key = key;
+            this.queue = queue;
+            this.add = add;
+        }
+
+        private void applyTo(List<Binding> bindings) {
+            if (add) {
+                bindings.add(new Binding(key, queue));
+            } else {
+                removed = bindings.removeIf(binding -> binding.queue() == queue
+                        && (key == null || key.equals(binding.key())));
+            }
+            applied = true;
+        }
+    }
+
+    /**
+     * The immutable routes of a snapshot.
+     */
+    private interface Routes {
+        List<Queue> queues(String routingKey);
+
+        void forEachQueue(String routingKey, Consumer<? super Queue> action);
+    }
+
+    /**
+     * The queues of each binding key in an open-addressing table, in the order they were bound.
+     */
+    private static final class DirectRoutes implements Routes {
+        private final String[] keys;
+        private final Queue[][] queues;
+        private final List<Queue>[] queueLists;
+
+        @SuppressWarnings("unchecked")
+        private DirectRoutes(Binding[] bindings) {
+            Map<String, List<Queue>> byKey = new LinkedHashMap<>();
+            for (Binding binding : bindings) {
+                byKey.computeIfAbsent(binding.key(), key -> new ArrayList<>()).add(binding.queue());
+            }
+            int capacity = TopicBindingStorage.Children.capacity(byKey.size());
+            this.keys = new String[capacity];
+            this.queues = new Queue[capacity][];
+            this.queueLists = (List<Queue>[]) new List<?>[capacity];
+            byKey.forEach((key, bound) -> {
+                int slot = slot(key);
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & (keys.length - 1);
+                }
+                keys[slot] = key;
+                queues[slot] = bound.toArray(TopicBindingStorage.NO_QUEUES);
+                queueLists[slot] = List.of(queues[slot]);
+            });
+        }
+
+        @Override
+        public List<Queue> queues(String routingKey) {
+            int slot = find(routingKey);
+            return slot < 0 ? List.of() : queueLists[slot];
+        }
+
+        @Override
+        public void forEachQueue(String routingKey, Consumer<? super Queue> action) {
+            int slot = find(routingKey);
+            if (slot < 0) return;
+            for (Queue queue : queues[slot]) {
+                action.accept(queue);
+            }
+        }
+
+        private int find(String routingKey) {
+            for (int slot = slot(routingKey); keys[slot] != null; slot = (slot + 1) & (keys.length - 1)) {
+                if (keys[slot].equals(routingKey)) return slot;
+            }
+            return -1;
+        }
+
+        private int slot(String key) {
+            return TopicBindingStorage.Children.spread(key.hashCode()) & (keys.length - 1);
+        }
+    }
+
+    /**
+     * Every bound queue, whatever the routing key.
+     */
+    private static final class FanoutRoutes implements Routes {
+        private final Queue[] queues;
+        private final List<Queue> queueList;
+
+        private FanoutRoutes(Binding[] bindings) {
+            this.queues = new Queue[bindings.length];
+            for (int i = 0; i < bindings.length; i++) {
+                queues[i] = bindings[i].queue();
+            }
+            this.queueList = List.of(queues);
+        }
+
+        @Override
+        public List<Queue> queues(String routingKey) {
+            return queueList;
+        }
+
+        @Override
+        public void forEachQueue(String routingKey, Consumer<? super Queue> action) {
+            for (Queue queue : queues) {
+                action.accept(queue);
+            }
+        }
+    }
+
+    /**
+     * A trie built from the bindings of the snapshot and never bound to afterwards. Lookups walk it like those of any
+     * {@link TopicBindingStorage}, reading its volatile node fields and, if compiled, building automaton states.
+     */
+    private static final class TopicRoutes implements Routes {
+        private final TopicBindingStorage trie;
+
+        private TopicRoutes(Binding[] bindings, boolean compiled) {
+            this.trie = new TopicBindingStorage(compiled);
+            for (Binding binding : bindings) {
+                trie.addBinding(binding.key(), binding.queue());
+            }
+        }
+
+        @Override
+        public List<Queue> queues(String routingKey) {
+            return trie.getQueuesByRoutingKey(routingKey);
+        }
+
+        @Override
+        public void forEachQueue(String routingKey, Consumer<? super Queue> action) {
+            trie.forEachQueue(routingKey, action);
+        }
+    }
+}
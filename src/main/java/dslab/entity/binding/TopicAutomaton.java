@@ -0,0 +1,220 @@
+package dslab.entity.binding;
+
+import dslab.entity.Queue;
+import dslab.entity.binding.TopicBindingStorage.Children;
+import dslab.entity.binding.TopicBindingStorage.TrieNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A deterministic automaton over the words of routing keys, compiled from the trie of a {@link TopicBindingStorage}.
+ *
+ * <p>The trie is a nondeterministic automaton: a word may lead from a node to its child of the same word, to its
+ * {@code *} child, and from a {@code #} node back to itself, while a {@code #} child is entered without consuming a
+ * word. A state of this automaton stands for the set of trie nodes a routing key can have led to, and carries the
+ * deduplicated queues bound to them, so a lookup takes a single transition per word and ends with the matched queues
+ * at hand, no matter how many wildcards are bound.</p>
+ *
+ * <p>States and transitions are built lazily by the lookups that need them, so only the states reachable by the
+ * routing keys actually published are ever built. A state knows the words of the literal children of its trie nodes;
+ * every other word takes the same transition, which only follows {@code *} and {@code #}. Transitions are cached in
+ * the state once built. Racing lookups may build the same transition twice, the states they find are the same.
+ * Since the number of states can grow exponentially with overlapping {@code #} patterns, at most
+ * {@value #MAX_STATES} states are built, after which lookups fall back to walking the trie.</p>
+ *
+ * <p>An automaton belongs to a generation of the bindings and is replaced by the storage once they change, see
+ * {@link #generation()}.</p>
+ */
+final class TopicAutomaton {
+    static final int MAX_STATES = 4096;
+    private final long generation;
+    private final ConcurrentHashMap<StateKey, State> states = new ConcurrentHashMap<>();
+    private final State start;
+    private volatile boolean exhausted;
+
+    TopicAutomaton(TrieNode root, long generation) {
+        this.generation = generation;
+        Set<TrieNode> nodes = new LinkedHashSet<>();
+        nodes.add(root);
+        this.start = state(nodes);
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    int stateCount() {
+        return states.size();
+    }
+
+    /**
+     * Follows the words of the routing key, split like {@link String#split(String)} on dots does it.
+     *
+     * @return the state the routing key leads to, or {@code null} if that needs more than {@value #MAX_STATES}
+     * states
+     */
+    State match(String routingKey) {
+        if (exhausted) return null;
+        int end = routingKey.length();
+        if (end == 0) return start.next(routingKey, 0, 0, this);
+        // empty trailing words are dropped
+        while (end > 0 && routingKey.charAt(end - 1) == '.') {
+            end--;
+        }
+        if (end == 0) return start;
+
+        State state = start;
+        int from = 0;
+        while (state != null) {
+            int to = routingKey.indexOf('.', from);
+            if (to < 0 || to > end) to = end;
+            state = state.next(routingKey, from, to, this);
+            if (to == end) break;
+            from = to + 1;
+        }
+        return state;
+    }
+
+    /**
+     * @param word the word to follow, or {@code null} for a word that no trie node of the state has a child for
+     * @return the state the word leads to, or {@code null} if the automaton is exhausted
+     */
+    private State step(State state, String word) {
+        Set<TrieNode> next = new LinkedHashSet<>();
+        for (TrieNode node : state.nodes) {
+            Children children = node.children;
+            if (word != null) add(next, children.get(word));
+            add(next, children.get("*"));
+            if (node.wildcard) next.add(node);
+        }
+        return state(next);
+    }
+
+    /**
+     * @return the state of the nodes and the {@code #} nodes they lead to without consuming a word
+     */
+    private State state(Set<TrieNode> nodes) {
+        List<TrieNode> closure = new ArrayList<>(nodes);
+        for (int i = 0; i < closure.size(); i++) {
+            TrieNode wildcardNode = closure.get(i).children.get("#");
+            if (wildcardNode != null && nodes.add(wildcardNode)) closure.add(wildcardNode);
+        }
+        closure.sort(Comparator.comparingInt(node -> node.id));
+        StateKey key = new StateKey(closure.stream().mapToInt(node -> node.id).toArray());
+        State state = states.get(key);
+        if (state != null) return state;
+        if (states.size() >= MAX_STATES) {
+            exhausted = true;
+            return null;
+        }
+        return states.computeIfAbsent(key, k -> new State(closure.toArray(TrieNode[]::new)));
+    }
+
+    private static void add(Set<TrieNode> nodes, TrieNode node) {
+        if (node != null) nodes.add(node);
+    }
+
+    /**
+     * The ids of the trie nodes of a state, in ascending order.
+     */
+    private record StateKey(int[] ids) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateKey other && Arrays.equals(ids, other.ids);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(ids);
+        }
+    }
+
+    /**
+     * A state with the queues bound to its trie nodes and the transitions built so far. The transitions of the
+     * literal words live in an open-addressing table whose words are fixed when the state is built. Its targets, and
+     * the transition of every other word, are filled in by the first lookup taking them. They are written without
+     * synchronization: a state is immutable apart from its transitions, so a racing lookup sees either no transition
+     * and builds it again, or a complete state.
+     */
+    static final class State {
+        private final TrieNode[] nodes;
+        private final Queue[] queues;
+        private final List<Queue> queueList;
+        private final String[] words;
+        private final State[] targets;
+        private State otherTarget;
+
+        private State(TrieNode[] nodes) {
+            this.nodes = nodes;
+            Set<Queue> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<Queue> queues = new ArrayList<>();
+            Set<String> literals = new HashSet<>();
+            for (TrieNode node : nodes) {
+                for (Queue queue : node.queues) {
+                    if (matched.add(queue)) queues.add(queue);
+                }
+                for (String word : node.children.keys) {
+                    if (word != null && !word.equals("*") && !word.equals("#")) literals.add(word);
+                }
+            }
+            this.queues = queues.toArray(TopicBindingStorage.NO_QUEUES);
+            this.queueList = List.of(this.queues);
+            this.words = new String[Children.capacity(literals.size())];
+            this.targets = new State[words.length];
+            for (String word : literals) {
+                int mask = words.length - 1;
+                int slot = Children.spread(word.hashCode()) & mask;
+                while (words[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                words[slot] = word;
+            }
+        }
+
+        Queue[] queues() {
+            return queues;
+        }
+
+        /**
+         * @return the matched queues as an immutable list, shared by every lookup ending in this state
+         */
+        List<Queue> queueList() {
+            return queueList;
+        }
+
+        /**
+         * @return the state the word between {@code from} and {@code to} in the key leads to, or {@code null} if the
+         * automaton is exhausted
+         */
+        private State next(String key, int from, int to, TopicAutomaton automaton) {
+            int length = to - from;
+            int mask = words.length - 1;
+            int slot = Children.spread(Children.regionHash(key, from, to)) & mask;
+            for (; words[slot] != null; slot = (slot + 1) & mask) {
+                String word = words[slot];
+                if (word.length() != length || !key.regionMatches(from, word, 0, length)) continue;
+                State target = targets[slot];
+                if (target == null) {
+                    target = automaton.step(this, word);
+                    targets[slot] = target;
+                }
+                return target;
+            }
+            State target = otherTarget;
+            if (target == null) {
+                target = automaton.step(this, null);
+                otherTarget = target;
+            }
+            return target;
+        }
+    }
+}
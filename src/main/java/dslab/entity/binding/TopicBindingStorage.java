@@ -2,61 +2,474 @@ package dslab.entity.binding;
 
 import dslab.entity.Queue;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
+/**
+ * Binds queues with topic patterns: binding keys of dot-separated words, where {@code *} matches exactly one word
+ * and {@code #} matches zero or more words.
+ *
+ * <p>The binding keys form a trie with a node per word. A node holds its children and bound queues in immutable
+ * arrays that are replaced when a binding changes, so lookups read them without locking. Children are kept in an
+ * open-addressing table probed with the hash of a region of the routing key, so a lookup never splits the routing key
+ * into strings. The trie is walked iteratively with an explicit stack, and the matches are collected and deduplicated
+ * in scratch state that every thread reuses, so {@link #forEachQueue(String, Consumer)} does not allocate once the
+ * scratch arrays have grown to the depth and fan-out of the bindings. A queue matched by several patterns, such as
+ * {@code a.*} and {@code a.#}, is returned once.</p>
+ *
+ * <p>Walking the trie visits every split point of the routing key for each {@code #} node, so with many
+ * {@code #}-heavy bindings a lookup grows with the number of patterns and the depth of the key. A storage created as
+ * compiled matches with a {@link TopicAutomaton} built from the trie instead, which takes a single transition per
+ * word no matter how many wildcards are bound. Every binding change starts a new automaton, whose states are built
+ * again as lookups need them.</p>
+ */
 public class TopicBindingStorage implements BindingStorage {
-    private final TrieNode root = new TrieNode();
+    static final Queue[] NO_QUEUES = new Queue[0];
+    private static final ThreadLocal<MatchState> MATCH_STATES = ThreadLocal.withInitial(MatchState::new);
+    private final TrieNode root = new TrieNode(0, false);
+    private final boolean compiled;
+    private int nextNodeId = 1;
+    private volatile long generation;
+    private volatile TopicAutomaton automaton;
 
+    public TopicBindingStorage() {
+        this(false);
+    }
+
+    /**
+     * @param compiled whether lookups use an automaton compiled from the bindings instead of walking the trie
+     */
+    public TopicBindingStorage(boolean compiled) {
+        this.compiled = compiled;
+    }
+
+    /**
+     * Bindings are added and removed under the lock of the storage, so that pruning a node never races with a binding
+     * being added to it. Lookups do not take the lock.
+     */
     @Override
-    public Queue addBinding(String key, Queue queue) {
+    public synchronized Queue addBinding(String key, Queue queue) {
         TrieNode currentNode = root;
-        String[] parts = key.split("\\.");
-        for (String part : parts) {
-            currentNode = currentNode.children.computeIfAbsent(part, k -> new TrieNode());
+        for (String part : words(key)) {
+            TrieNode child = currentNode.children.get(part);
+            if (child == null) {
+                child = new TrieNode(nextNodeId++, part.equals("#"));
+                currentNode.children = currentNode.children.with(part, child);
+            }
+            currentNode = child;
         }
-        currentNode.queues.add(queue);
+        Queue[] queues = Arrays.copyOf(currentNode.queues, currentNode.queues.length + 1);
+        queues[queues.length - 1] = queue;
+        currentNode.queues = queues;
+        generation++;
         return queue;
     }
 
     @Override
     public List<Queue> getQueuesByRoutingKey(String routingKey) {
-        List<Queue> result = new LinkedList<>();
-        String[] parts = routingKey.split("\\.");
-        searchTopicMatches(root, parts, 0, result);
-        return result;
-    }
+        TopicAutomaton.State accepted = compiled ? automaton().match(routingKey) : null;
+        if (accepted != null) return accepted.queueList();
 
-    private void searchTopicMatches(TrieNode node, String[] parts, int index, List<Queue> result) {
-        if (index == parts.length) {
-            result.addAll(node.queues);
+        MatchState state = MatchState.acquire();
+        try {
+            state.match(root, routingKey);
+            return state.size == 0 ? List.of() : List.of(Arrays.copyOf(state.matches, state.size));
+        } finally {
+            state.release();
+        }
+    }
 
-            Optional.ofNullable(node.children.get("#"))
-                .ifPresent(wildcardNode -> searchTopicMatches(wildcardNode, parts, index, result));
+    /**
+     * Hands every matched queue to the action without allocating. The action may route other keys, which then use
+     * scratch state of their own.
+     */
+    @Override
+    public void forEachQueue(String routingKey, Consumer<? super Queue> action) {
+        TopicAutomaton.State accepted = compiled ? automaton().match(routingKey) : null;
+        if (accepted != null) {
+            for (Queue queue : accepted.queues()) {
+                action.accept(queue);
+            }
             return;
         }
 
-        Optional.ofNullable(node.children.get("#"))
-            .ifPresent(wildcardNode -> {
-                for (int i = index; i <= parts.length; i++) {
-                    searchTopicMatches(wildcardNode, parts, i, result);
-                }
-            });
+        MatchState state = MatchState.acquire();
+        try {
+            state.match(root, routingKey);
+            for (int i = 0; i < state.size; i++) {
+                action.accept(state.matches[i]);
+            }
+        } finally {
+            state.release();
+        }
+    }
+
+    @Override
+    public synchronized boolean removeBinding(String key, Queue queue) {
+        String[] parts = words(key);
+        TrieNode[] path = new TrieNode[parts.length + 1];
+        path[0] = root;
+        for (int i = 0; i < parts.length; i++) {
+            path[i + 1] = path[i].children.get(parts[i]);
+            if (path[i + 1] == null) return false;
+        }
+        TrieNode bound = path[parts.length];
+        Queue[] remaining = without(bound.queues, queue);
+        if (remaining == bound.queues) return false;
+        bound.queues = remaining;
+        generation++;
+
+        // prune the nodes that only led to the binding, bottom-up
+        for (int i = parts.length; i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].children = path[i - 1].children.without(parts[i - 1]);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void removeQueue(Queue queue) {
+        removeQueue(root, queue);
+        generation++;
+    }
+
+    /**
+     * @return the number of nodes of the trie below its root, which only grows with the distinct binding keys
+     */
+    public int nodeCount() {
+        return nodeCount(root) - 1;
+    }
+
+    /**
+     * @return the number of states the automaton of the current bindings has built so far, {@code 0} unless the
+     * storage is compiled
+     */
+    public int compiledStates() {
+        TopicAutomaton current = automaton;
+        return current != null && current.generation() == generation ? current.stateCount() : 0;
+    }
+
+    /**
+     * @return the automaton of the current bindings, started anew after they have changed
+     */
+    private TopicAutomaton automaton() {
+        long current = generation;
+        TopicAutomaton compiledBindings = automaton;
+        if (compiledBindings == null || compiledBindings.generation() != current) {
+            // racing lookups may each start one, the last one is kept
+            compiledBindings = new TopicAutomaton(root, current);
+            automaton = compiledBindings;
+        }
+        return compiledBindings;
+    }
+
+    /**
+     * Removes the queue from the node and its descendants and prunes the descendants left empty.
+     */
+    private void removeQueue(TrieNode node, Queue queue) {
+        node.queues = without(node.queues, queue);
+        Children children = node.children;
+        for (int i = 0; i < children.keys.length; i++) {
+            if (children.keys[i] == null) continue;
+            removeQueue(children.nodes[i], queue);
+            if (children.nodes[i].isEmpty()) node.children = node.children.without(children.keys[i]);
+        }
+    }
+
+    private int nodeCount(TrieNode node) {
+        int count = 1;
+        for (TrieNode child : node.children.nodes) {
+            if (child != null) count += nodeCount(child);
+        }
+        return count;
+    }
+
+    /**
+     * @return the queues without the queue, or the same array if it does not hold the queue
+     */
+    private static Queue[] without(Queue[] queues, Queue queue) {
+        int count = 0;
+        for (Queue bound : queues) {
+            if (bound != queue) count++;
+        }
+        if (count == queues.length) return queues;
+        if (count == 0) return NO_QUEUES;
+        Queue[] remaining = new Queue[count];
+        int i = 0;
+        for (Queue bound : queues) {
+            if (bound != queue) remaining[i++] = bound;
+        }
+        return remaining;
+    }
+
+    /**
+     * Splits a binding key into its words like {@code key.split("\\.")} does, dropping empty trailing words unless
+     * the key is empty, the same way routing keys are tokenized by {@link MatchState#tokenize(String)}.
+     */
+    static String[] words(String key) {
+        List<String> words = new ArrayList<>();
+        int start = 0;
+        for (int end; (end = key.indexOf('.', start)) >= 0; start = end + 1) {
+            words.add(key.substring(start, end));
+        }
+        words.add(key.substring(start));
+        while (!key.isEmpty() && !words.isEmpty() && words.getLast().isEmpty()) {
+            words.removeLast();
+        }
+        return words.toArray(String[]::new);
+    }
+
+    /**
+     * A node of the trie, identified by an id that is unique within its storage, so the automaton can tell sets of
+     * nodes apart.
+     */
+    static final class TrieNode {
+        final int id;
+        /**
+         * Whether the node is reached with {@code #}, so it matches any number of words.
+         */
+        final boolean wildcard;
+        volatile Children children = Children.EMPTY;
+        volatile Queue[] queues = NO_QUEUES;
+
+        private TrieNode(int id, boolean wildcard) {
+            this.id = id;
+            this.wildcard = wildcard;
+        }
 
-        Optional.ofNullable(node.children.get("*"))
-            .filter(starNode -> index < parts.length)
-            .ifPresent(starNode -> searchTopicMatches(starNode, parts, index + 1, result));
+        private boolean isEmpty() {
+            return queues.length == 0 && children.size == 0;
+        }
+    }
+
+    /**
+     * An immutable open-addressing table of the children of a node, keyed by their word and probed linearly. Its
+     * capacity is a power of two of at least twice the number of children.
+     */
+    static final class Children {
+        private static final Children EMPTY = new Children(new String[1], new TrieNode[1], 0);
+        final String[] keys;
+        final TrieNode[] nodes;
+        private final int size;
+
+        private Children(String[] keys, TrieNode[] nodes, int size) {
+            this.keys = keys;
+            this.nodes = nodes;
+            this.size = size;
+        }
+
+        TrieNode get(String word) {
+            return get(word, 0, word.length());
+        }
+
+        /**
+         * Looks up the child of the word between {@code from} and {@code to} in the key.
+         */
+        private TrieNode get(String key, int from, int to) {
+            if (size == 0) return null;
+            int hash = regionHash(key, from, to);
+            int length = to - from;
+            int mask = keys.length - 1;
+            for (int slot = spread(hash) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+                String word = keys[slot];
+                if (word.length() == length && key.regionMatches(from, word, 0, length)) return nodes[slot];
+            }
+            return null;
+        }
+
+        private Children with(String word, TrieNode node) {
+            Children children = new Children(new String[capacity(size + 1)], new TrieNode[capacity(size + 1)],
+                    size + 1);
+            children.putAll(this, null);
+            children.put(word, node);
+            return children;
+        }
 
-        Optional.ofNullable(node.children.get(parts[index]))
-            .ifPresent(partNode -> searchTopicMatches(partNode, parts, index + 1, result));
+        private Children without(String word) {
+            if (size == 1) return EMPTY;
+            Children children = new Children(new String[capacity(size - 1)], new TrieNode[capacity(size - 1)],
+                    size - 1);
+            children.putAll(this, word);
+            return children;
+        }
+
+        private void putAll(Children children, String except) {
+            for (int i = 0; i < children.keys.length; i++) {
+                String word = children.keys[i];
+                if (word != null && !word.equals(except)) put(word, children.nodes[i]);
+            }
+        }
+
+        private void put(String word, TrieNode node) {
+            int mask = keys.length - 1;
+            int slot = spread(word.hashCode()) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = word;
+            nodes[slot] = node;
+        }
+
+        static int capacity(int size) {
+            return Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1;
+        }
+
+        /**
+         * @return the {@link String#hashCode()} of the region of the key, computed without creating the substring
+         */
+        static int regionHash(String key, int from, int to) {
+            int hash = 0;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + key.charAt(i);
+            }
+            return hash;
+        }
+
+        static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
     }
 
-    private static class TrieNode {
-        private final Map<String, TrieNode> children = new ConcurrentHashMap<>();
-        private final List<Queue> queues = new CopyOnWriteArrayList<>();
+    /**
+     * The scratch state of a lookup: the word boundaries of the routing key, the stack of nodes still to visit with
+     * the index of the next word, and the matched queues with an identity hash set that deduplicates them. The arrays
+     * grow as needed and are kept for the next lookup of the thread.
+     */
+    private static final class MatchState {
+        private int[] starts = new int[8];
+        private int[] ends = new int[8];
+        private int words;
+        private TrieNode[] stackNodes = new TrieNode[16];
+        private int[] stackIndexes = new int[16];
+        private int depth;
+        private Queue[] matches = new Queue[8];
+        private int[] seenSlots = new int[8];
+        private int size;
+        private Queue[] seen = new Queue[16];
+        private boolean inUse;
+
+        /**
+         * @return the scratch state of the thread, or a new one if the thread is in the middle of a lookup already
+         */
+        private static MatchState acquire() {
+            MatchState state = MATCH_STATES.get();
+            if (state.inUse) return new MatchState();
+            state.inUse = true;
+            return state;
+        }
+
+        /**
+         * Clears the matches, so the scratch state does not keep deleted queues reachable.
+         */
+        private void release() {
+            for (int i = 0; i < size; i++) {
+                matches[i] = null;
+                seen[seenSlots[i]] = null;
+            }
+            size = 0;
+            // left behind if a lookup failed
+            Arrays.fill(stackNodes, 0, depth, null);
+            depth = 0;
+            inUse = false;
+        }
+
+        private void match(TrieNode root, String routingKey) {
+            tokenize(routingKey);
+            push(root, 0);
+            while (depth > 0) {
+                depth--;
+                TrieNode node = stackNodes[depth];
+                int index = stackIndexes[depth];
+                stackNodes[depth] = null;
+
+                Children children = node.children;
+                TrieNode wildcardNode = children.get("#");
+                if (index == words) {
+                    addAll(node.queues);
+                    if (wildcardNode != null) push(wildcardNode, index);
+                    continue;
+                }
+                if (wildcardNode != null) {
+                    for (int i = index; i <= words; i++) {
+                        push(wildcardNode, i);
+                    }
+                }
+                TrieNode starNode = children.get("*");
+                if (starNode != null) push(starNode, index + 1);
+                TrieNode partNode = children.get(routingKey, starts[index], ends[index]);
+                if (partNode != null) push(partNode, index + 1);
+            }
+        }
+
+        private void tokenize(String routingKey) {
+            words = 0;
+            int start = 0;
+            for (int end; (end = routingKey.indexOf('.', start)) >= 0; start = end + 1) {
+                addWord(start, end);
+            }
+            addWord(start, routingKey.length());
+            // dropped like String#split drops them
+            while (!routingKey.isEmpty() && words > 0 && starts[words - 1] == ends[words - 1]) {
+                words--;
+            }
+        }
+
+        private void addWord(int start, int end) {
+            if (words == starts.length) {
+                starts = Arrays.copyOf(starts, words * 2);
+                ends = Arrays.copyOf(ends, words * 2);
+            }
+            starts[words] = start;
+            ends[words] = end;
+            words++;
+        }
+
+        private void push(TrieNode node, int index) {
+            if (depth == stackNodes.length) {
+                stackNodes = Arrays.copyOf(stackNodes, depth * 2);
+                stackIndexes = Arrays.copyOf(stackIndexes, depth * 2);
+            }
+            stackNodes[depth] = node;
+            stackIndexes[depth] = index;
+            depth++;
+        }
+
+        private void addAll(Queue[] queues) {
+            for (Queue queue : queues) {
+                if ((size + 1) * 2 > seen.length) growSeen();
+                int slot = insert(queue);
+                if (slot < 0) continue;
+                if (size == matches.length) {
+                    matches = Arrays.copyOf(matches, size * 2);
+                    seenSlots = Arrays.copyOf(seenSlots, size * 2);
+                }
+                seenSlots[size] = slot;
+                matches[size++] = queue;
+            }
+        }
+
+        /**
+         * Doubles the set of matched queues, rehashing them from the matches, which hold every queue of the set.
+         */
+        private void growSeen() {
+            seen = new Queue[seen.length * 2];
+            for (int i = 0; i < size; i++) {
+                seenSlots[i] = insert(matches[i]);
+            }
+        }
+
+        /**
+         * @return the slot of the queue in the set, or {@code -1} if it has been matched already
+         */
+        private int insert(Queue queue) {
+            int mask = seen.length - 1;
+            int slot = Children.spread(System.identityHashCode(queue)) & mask;
+            for (; seen[slot] != null; slot = (slot + 1) & mask) {
+                if (seen[slot] == queue) return -1;
+            }
+            seen[slot] = queue;
+            return slot;
+        }
     }
 }
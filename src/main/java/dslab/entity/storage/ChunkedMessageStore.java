@@ -0,0 +1,186 @@
+package dslab.entity.storage;
+
+import dslab.entity.Message;
+import dslab.entity.QueueOptions;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A {@link MessageStore} for queues that build up deep backlogs, made of linked fixed-size array chunks.
+ *
+ * <p>Publishers append to the tail chunk and subscribers consume from the head chunk, so every stored message costs a
+ * single array slot and nothing is copied when the queue grows. Chunks are unlinked as soon as they are consumed,
+ * which hands the memory of a drained backlog back, unlike an {@link java.util.ArrayDeque} that keeps its largest
+ * array. Consumed chunks are recycled through the shared {@link ChunkPool}, so a queue that keeps a steady depth
+ * allocates no new chunks.</p>
+ *
+ * <p>Like {@link DequeMessageStore}, the store is guarded by a single lock and only bounded by the options.</p>
+ */
+public class ChunkedMessageStore implements MessageStore {
+    private final QueueOptions options;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private Chunk head;
+    private Chunk tail;
+    private int readIndex;
+    private int writeIndex;
+    private int size;
+    private long bytes;
+
+    public ChunkedMessageStore(QueueOptions options) {
+        this.options = options;
+        this.head = this.tail = ChunkPool.SHARED.acquire();
+    }
+
+    @Override
+    public boolean offer(Message message) {
+        lock.lock();
+        try {
+            if (options.isFull(size, bytes, message.length())) return false;
+            if (writeIndex == Chunk.SIZE) {
+                Chunk next = ChunkPool.SHARED.acquire();
+                tail.next = next;
+                tail = next;
+                writeIndex = 0;
+            }
+            tail.messages[writeIndex++] = message;
+            size++;
+            bytes += message.length();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message poll() {
+        lock.lock();
+        try {
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message pollIf(Predicate<Message> condition) {
+        lock.lock();
+        try {
+            Message oldest = peekFirst();
+            return oldest != null && condition.test(oldest) ? removeFirst() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean awaitSpace(long messageBytes, long timeoutNanos) throws InterruptedException {
+        long remainingNanos = timeoutNanos;
+        lock.lockInterruptibly();
+        try {
+            while (options.isFull(size, bytes, messageBytes)) {
+                if (remainingNanos <= 0) return false;
+                remainingNanos = notFull.awaitNanos(remainingNanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long bytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Message peekFirst() {
+        if (size == 0) return null;
+        return readIndex == Chunk.SIZE ? head.next.messages[0] : head.messages[readIndex];
+    }
+
+    private Message removeFirst() {
+        if (size == 0) return null;
+        if (readIndex == Chunk.SIZE) {
+            Chunk consumed = head;
+            head = consumed.next;
+            readIndex = 0;
+            ChunkPool.SHARED.release(consumed);
+        }
+        Message message = head.messages[readIndex];
+        head.messages[readIndex++] = null;
+        size--;
+        bytes -= message.length();
+        if (size == 0) {
+            // restart at the beginning of the chunk instead of moving on to a new one
+            readIndex = writeIndex = 0;
+        }
+        notFull.signal();
+        return message;
+    }
+
+    static final class Chunk {
+        static final int SIZE = 1024;
+
+        final Message[] messages = new Message[SIZE];
+        Chunk next;
+    }
+
+    /**
+     * A bounded pool of empty chunks shared by all chunked stores, so that one queue draining its backlog provides
+     * the chunks for another one filling up. Chunks beyond {@link #MAX_POOLED_CHUNKS} are left to the garbage
+     * collector.
+     */
+    static final class ChunkPool {
+        static final int MAX_POOLED_CHUNKS = 256;
+        static final ChunkPool SHARED = new ChunkPool();
+
+        private final Chunk[] chunks = new Chunk[MAX_POOLED_CHUNKS];
+        private int pooled;
+
+        synchronized Chunk acquire() {
+            if (pooled == 0) return new Chunk();
+            Chunk chunk = chunks[--pooled];
+            chunks[pooled] = null;
+            return chunk;
+        }
+
+        synchronized void release(Chunk chunk) {
+            chunk.next = null;
+            if (pooled < MAX_POOLED_CHUNKS) {
+                chunks[pooled++] = chunk;
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package dslab.entity.storage;
+
+import dslab.entity.Message;
+import dslab.entity.QueueOptions;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * The default {@link MessageStore}: an {@link ArrayDeque} guarded by a single lock, with conditions for waiting
+ * subscribers and publishers.
+ */
+public class DequeMessageStore implements MessageStore {
+    private final QueueOptions options;
+    private final ArrayDeque<Message> messages = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private long bytes;
+
+    public DequeMessageStore(QueueOptions options) {
+        this.options = options;
+    }
+
+    @Override
+    public boolean offer(Message message) {
+        lock.lock();
+        try {
+            if (options.isFull(messages.size(), bytes, message.length())) return false;
+            messages.add(message);
+            bytes += message.length();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message poll() {
+        lock.lock();
+        try {
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message pollIf(Predicate<Message> condition) {
+        lock.lock();
+        try {
+            Message oldest = messages.peek();
+            return oldest != null && condition.test(oldest) ? removeFirst() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Message message) {
+        lock.lock();
+        try {
+            for (Iterator<Message> iterator = messages.iterator(); iterator.hasNext(); ) {
+                if (iterator.next() != message) continue;
+                iterator.remove();
+                bytes -= message.length();
+                notFull.signal();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean supportsRemoval() {
+        return true;
+    }
+
+    @Override
+    public Message take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (messages.isEmpty()) {
+                notEmpty.await();
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean awaitSpace(long messageBytes, long timeoutNanos) throws InterruptedException {
+        long remainingNanos = timeoutNanos;
+        lock.lockInterruptibly();
+        try {
+            while (options.isFull(messages.size(), bytes, messageBytes)) {
+                if (remainingNanos <= 0) return false;
+                remainingNanos = notFull.awaitNanos(remainingNanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long bytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Message removeFirst() {
+        Message message = messages.poll();
+        if (message != null) {
+            bytes -= message.length();
+            notFull.signal();
+        }
+        return message;
+    }
+}
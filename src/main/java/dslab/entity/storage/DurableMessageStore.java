@@ -0,0 +1,186 @@
+package dslab.entity.storage;
+
+import dslab.entity.Message;
+import dslab.entity.QueueOptions;
+import dslab.util.HashedWheelTimer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A {@link MessageStore} that appends its messages to a {@link SegmentLog}, so they survive a restart of the broker.
+ *
+ * <p>A message is copied into the log when it is offered, which releases the reference the queue holds on it, and
+ * is read back onto the heap when it is taken. Like the {@link DequeMessageStore}, the store is guarded by a single
+ * lock. With {@link FsyncPolicy.Mode#INTERVAL}, the log is forced to the storage device by a task on the shared
+ * {@link HashedWheelTimer}, which hands the write to a virtual thread so the timer never waits for the device.</p>
+ */
+public class DurableMessageStore implements MessageStore {
+    private final QueueOptions options;
+    private final SegmentLog log;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicBoolean syncing = new AtomicBoolean();
+    private final HashedWheelTimer.Timeout syncTask;
+    private boolean closed;
+
+    private DurableMessageStore(QueueOptions options, SegmentLog log, LogSettings settings) {
+        this.options = options;
+        this.log = log;
+        this.syncTask = settings.fsync().mode() == FsyncPolicy.Mode.INTERVAL
+                ? HashedWheelTimer.shared().scheduleAtFixedRate(this::scheduleSync, settings.fsync().intervalMs(),
+                        TimeUnit.MILLISECONDS)
+                : null;
+    }
+
+    /**
+     * Opens the store in the given directory, recovering the messages it held when the broker stopped.
+     */
+    public static DurableMessageStore open(Path directory, QueueOptions options, LogSettings settings)
+            throws IOException {
+        return new DurableMessageStore(options, SegmentLog.open(directory, settings), settings);
+    }
+
+    /**
+     * @throws UncheckedIOException if the message could not be written to the log, or the store has been closed
+     */
+    @Override
+    public boolean offer(Message message) {
+        lock.lock();
+        try {
+            if (closed) throw new ClosedChannelException();
+            if (options.isFull(size(), log.bytes(), message.length())) return false;
+            log.append(message);
+            notEmpty.signal();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+        // the log holds a copy of the payload now
+        message.release();
+        return true;
+    }
+
+    @Override
+    public Message poll() {
+        lock.lock();
+        try {
+            return read();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message pollIf(Predicate<Message> condition) {
+        lock.lock();
+        try {
+            if (closed) return null;
+            Message message = log.readIf(condition);
+            if (message != null) notFull.signal();
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (closed || log.size() == 0) {
+                notEmpty.await();
+            }
+            return read();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean awaitSpace(long messageBytes, long timeoutNanos) throws InterruptedException {
+        long remainingNanos = timeoutNanos;
+        lock.lockInterruptibly();
+        try {
+            while (options.isFull(size(), log.bytes(), messageBytes)) {
+                if (remainingNanos <= 0) return false;
+                remainingNanos = notFull.awaitNanos(remainingNanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return (int) Math.min(log.size(), Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long bytes() {
+        lock.lock();
+        try {
+            return log.bytes();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of segment files of the log
+     */
+    public int segmentCount() {
+        lock.lock();
+        try {
+            return log.segmentCount();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (syncTask != null) syncTask.cancel();
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            log.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Message read() {
+        if (closed) return null;
+        Message message = log.read();
+        if (message != null) notFull.signal();
+        return message;
+    }
+
+    private void scheduleSync() {
+        if (!syncing.compareAndSet(false, true)) return;
+        Thread.ofVirtual().name("log-sync").start(() -> {
+            try {
+                log.sync();
+            } finally {
+                syncing.set(false);
+            }
+        });
+    }
+}
@@ -0,0 +1,52 @@
+package dslab.entity.storage;
+
+/**
+ * Decides when appended messages of a {@link SegmentLog} are forced to the storage device, which bounds how many
+ * acknowledged publishes a crash of the machine can lose. A crash of the broker alone loses nothing, since the
+ * segments are memory-mapped and the operating system writes them back anyway.
+ *
+ * <p>The supported {@link Mode}s are:
+ * <ul>
+ *     <li>{@link Mode#ALWAYS} - every message is forced before the publish is acknowledged.</li>
+ *     <li>{@link Mode#MESSAGES} - the log is forced after every {@code everyMessages} appended messages.</li>
+ *     <li>{@link Mode#INTERVAL} - the log is forced every {@code intervalMs} while messages have been appended.</li>
+ *     <li>{@link Mode#NEVER} - the log is left to the operating system, e.g. for logs that are not meant to survive
+ *     a restart.</li>
+ * </ul>
+ * In every mode but {@link Mode#NEVER}, a segment is forced when it is full and the log is forced when it is closed.
+ *
+ * @param mode          the fsync mode
+ * @param everyMessages the number of messages after which the log is forced in {@link Mode#MESSAGES} mode
+ * @param intervalMs    the time after which appended messages are forced in {@link Mode#INTERVAL} mode
+ */
+public record FsyncPolicy(
+        Mode mode,
+        int everyMessages,
+        long intervalMs
+) {
+    public static final FsyncPolicy ALWAYS = new FsyncPolicy(Mode.ALWAYS, 1, 0);
+    public static final FsyncPolicy NEVER = new FsyncPolicy(Mode.NEVER, 0, 0);
+
+    public static FsyncPolicy everyMessages(int everyMessages) {
+        return new FsyncPolicy(Mode.MESSAGES, Math.max(1, everyMessages), 0);
+    }
+
+    public static FsyncPolicy interval(long intervalMs) {
+        return new FsyncPolicy(Mode.INTERVAL, 0, Math.max(1, intervalMs));
+    }
+
+    public enum Mode {
+        ALWAYS,
+        MESSAGES,
+        INTERVAL,
+        NEVER;
+
+        public static Mode fromString(String mode) {
+            try {
+                return Mode.valueOf(mode.toUpperCase());
+            } catch (IllegalArgumentException | NullPointerException e) {
+                return INTERVAL;
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package dslab.entity.storage;
+
+import dslab.entity.Message;
+import dslab.entity.QueueOptions;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A {@link MessageStore} that keeps only a window of the oldest messages on the heap and spills the rest of a backlog
+ * to a {@link SegmentLog} on disk, so a queue holding millions of messages barely uses any heap.
+ *
+ * <p>Messages stay on the heap while the window has room and nothing has been spilled. Once the window is full, every
+ * new message is appended to the spill log until the log has been drained again, which keeps the messages in order.
+ * Whenever the window is down to half its size, it is refilled from the log in one go. Appending costs a copy into a
+ * memory-mapped segment and reading back a copy onto the heap, so enqueueing stays close to in-memory latency. The
+ * spill log is never forced to disk and is deleted when the store is closed: a lazy queue does not survive a restart,
+ * use a {@link DurableMessageStore} for that.</p>
+ */
+public class LazyMessageStore implements MessageStore {
+    private final QueueOptions options;
+    private final Path spillDirectory;
+    private final LogSettings settings;
+    private final int window;
+    private final ArrayDeque<Message> head = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private SegmentLog spill;
+    private long headBytes;
+    private boolean closed;
+
+    /**
+     * @param spillDirectory the directory of the spill log, which is created once the first message is spilled
+     */
+    public LazyMessageStore(QueueOptions options, Path spillDirectory, LogSettings settings) {
+        this.options = options;
+        this.spillDirectory = spillDirectory;
+        this.settings = new LogSettings(spillDirectory, settings.segmentBytes(), FsyncPolicy.NEVER,
+                settings.lazyWindow());
+        this.window = Math.max(1, settings.lazyWindow());
+    }
+
+    /**
+     * @throws UncheckedIOException if the message could not be spilled to disk, or the store has been closed
+     */
+    @Override
+    public boolean offer(Message message) {
+        lock.lock();
+        try {
+            if (closed) throw new ClosedChannelException();
+            if (options.isFull(length(), storedBytes(), message.length())) return false;
+            if ((spill == null || spill.size() == 0) && head.size() < window) {
+                head.add(message);
+                headBytes += message.length();
+                notEmpty.signal();
+                return true;
+            }
+            spill().append(message);
+            notEmpty.signal();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+        // the spill log holds a copy of the payload now
+        message.release();
+        return true;
+    }
+
+    @Override
+    public Message poll() {
+        lock.lock();
+        try {
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message pollIf(Predicate<Message> condition) {
+        lock.lock();
+        try {
+            Message oldest = head.peek();
+            return oldest != null && condition.test(oldest) ? removeFirst() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (head.isEmpty()) {
+                notEmpty.await();
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean awaitSpace(long messageBytes, long timeoutNanos) throws InterruptedException {
+        long remainingNanos = timeoutNanos;
+        lock.lockInterruptibly();
+        try {
+            while (options.isFull(length(), storedBytes(), messageBytes)) {
+                if (remainingNanos <= 0) return false;
+                remainingNanos = notFull.awaitNanos(remainingNanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return length();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long bytes() {
+        lock.lock();
+        try {
+            return storedBytes();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of messages held on disk
+     */
+    public long spilled() {
+        lock.lock();
+        try {
+            return spill != null ? spill.size() : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            if (spill != null) spill.delete();
+            spill = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int length() {
+        return (int) Math.min(head.size() + (spill != null ? spill.size() : 0), Integer.MAX_VALUE);
+    }
+
+    private long storedBytes() {
+        return headBytes + (spill != null ? spill.bytes() : 0);
+    }
+
+    private Message removeFirst() {
+        Message message = head.poll();
+        if (message == null) return null;
+        headBytes -= message.length();
+        if (head.size() <= window / 2 && spilled() > 0) {
+            pageIn();
+        }
+        notFull.signal();
+        return message;
+    }
+
+    /**
+     * Refills the window from the spill log.
+     */
+    private void pageIn() {
+        while (head.size() < window) {
+            Message message = spill.read();
+            if (message == null) break;
+            head.add(message);
+            headBytes += message.length();
+        }
+    }
+
+    private SegmentLog spill() throws IOException {
+        if (spill == null) {
+            spill = SegmentLog.open(spillDirectory, settings);
+        }
+        return spill;
+    }
+}
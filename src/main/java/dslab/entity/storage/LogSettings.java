@@ -0,0 +1,24 @@
+package dslab.entity.storage;
+
+import java.nio.file.Path;
+
+/**
+ * Where and how the {@link SegmentLog}s of durable and lazy queues are written.
+ *
+ * @param directory    the directory holding one subdirectory per durable queue
+ * @param segmentBytes the size of a log segment, a message larger than that gets a segment of its own
+ * @param fsync        when appended messages of durable queues are forced to the storage device
+ * @param lazyWindow   the number of messages a lazy queue keeps on the heap, see {@link LazyMessageStore}
+ */
+public record LogSettings(
+        Path directory,
+        int segmentBytes,
+        FsyncPolicy fsync,
+        int lazyWindow
+) {
+    public static final int DEFAULT_LAZY_WINDOW = 1024;
+
+    public LogSettings(Path directory, int segmentBytes, FsyncPolicy fsync) {
+        this(directory, segmentBytes, fsync, DEFAULT_LAZY_WINDOW);
+    }
+}
@@ -0,0 +1,140 @@
+package dslab.entity.storage;
+
+import dslab.entity.Message;
+import dslab.entity.QueueOptions;
+
+import java.util.function.Predicate;
+
+/**
+ * Holds the messages of a {@link dslab.entity.Queue} until they are dispatched.
+ *
+ * <p>A store enforces the length and byte limits of its {@link QueueOptions}: {@link #offer(Message)} fails instead
+ * of exceeding them, and the queue decides what to do about it according to its overflow policy. Stores are safe for
+ * any number of concurrent publishers and subscribers and deliver messages in the order they were offered.</p>
+ *
+ * <p>The available stores are:
+ * <ul>
+ *     <li>{@link Type#DEQUE} - a lock-guarded deque, unbounded unless limited by the options. This is the default.</li>
+ *     <li>{@link Type#RING} - a preallocated lock-free ring buffer, see {@link RingBufferMessageStore}.</li>
+ *     <li>{@link Type#CHUNKED} - linked array chunks for deep backlogs, see {@link ChunkedMessageStore}.</li>
+ *     <li>{@link Type#DURABLE} - an append log on disk that survives a restart, see {@link DurableMessageStore}.
+ *     Durable stores are opened by the {@link dslab.entity.QueueFactory}, which knows where their logs live.</li>
+ *     <li>{@link Type#LAZY} - a small window on the heap that spills the backlog to disk, see
+ *     {@link LazyMessageStore}. Like durable stores, lazy stores are created by the queue factory.</li>
+ * </ul>
+ *
+ * <p>A queue with priority levels keeps its messages in a {@link PriorityMessageStore}, a deque per level.</p>
+ */
+public interface MessageStore {
+
+    /**
+     * Stores the message if it fits within the limits.
+     *
+     * @return {@code false} if the store is full
+     */
+    boolean offer(Message message);
+
+    /**
+     * @return the oldest message, or {@code null} if the store is empty
+     */
+    Message poll();
+
+    /**
+     * Removes the oldest message if it satisfies the condition, which is how expired messages are removed from the
+     * head of a queue without taking a live message along.
+     *
+     * @return the oldest message, or {@code null} if the store is empty or the oldest message does not satisfy the
+     * condition
+     */
+    Message pollIf(Predicate<Message> condition);
+
+    /**
+     * Removes the given message wherever it is in the store, which is how a message that expires before the messages
+     * ahead of it is removed early. Only supported by stores that {@link #supportsRemoval()}.
+     *
+     * @return {@code false} if the message is not stored, e.g. because it has been taken already
+     * @throws UnsupportedOperationException if the store does not support the removal of single messages
+     */
+    default boolean remove(Message message) {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * @return whether single messages can be removed with {@link #remove(Message)}, which only the deque based stores
+     * can do without scanning a ring, a chain of chunks or a log
+     */
+    default boolean supportsRemoval() {
+        return false;
+    }
+
+    /**
+     * Removes the oldest message, waiting until one is available.
+     */
+    Message take() throws InterruptedException;
+
+    /**
+     * Waits until a message of the given size might fit, which is the case once another message has been removed.
+     *
+     * @return {@code false} if the timeout elapsed first
+     */
+    boolean awaitSpace(long messageBytes, long timeoutNanos) throws InterruptedException;
+
+    int size();
+
+    /**
+     * @return the total payload size of the stored messages
+     */
+    long bytes();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Releases the resources of the store, e.g. the files of a durable store. The messages it holds are kept.
+     */
+    default void close() {}
+
+    /**
+     * @throws IllegalArgumentException for durable and lazy stores, and for priority levels in any store but a deque
+     */
+    static MessageStore create(QueueOptions options) {
+        if (options.priority() > 0) {
+            if (options.store() != Type.DEQUE) {
+                throw new IllegalArgumentException("priority levels require store=%s".formatted(Type.DEQUE));
+            }
+            return new PriorityMessageStore(options);
+        }
+        return switch (options.store()) {
+            case DEQUE -> new DequeMessageStore(options);
+            case RING -> new RingBufferMessageStore(options);
+            case CHUNKED -> new ChunkedMessageStore(options);
+            case DURABLE, LAZY -> throw new IllegalArgumentException(
+                    "%s stores are created by the queue factory".formatted(options.store()));
+        };
+    }
+
+    enum Type {
+        DEQUE,
+        RING,
+        CHUNKED,
+        DURABLE,
+        LAZY;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+
+        /**
+         * @return the type, or {@code null} if it is unknown
+         */
+        public static Type fromString(String type) {
+            try {
+                return Type.valueOf(type.toUpperCase());
+            } catch (IllegalArgumentException | NullPointerException e) {
+                return null;
+            }
+        }
+    }
+}
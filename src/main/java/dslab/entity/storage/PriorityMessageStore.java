@@ -0,0 +1,182 @@
+package dslab.entity.storage;
+
+import dslab.entity.Message;
+import dslab.entity.QueueOptions;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A {@link MessageStore} for queues with priority levels, which dispatches the messages of higher priorities first,
+ * so urgent messages do not wait behind a backlog of bulk traffic.
+ *
+ * <p>Every level has a deque of its own, and a bitmap marks the levels holding messages. A message is appended to the
+ * deque of its priority, capped at the highest level, and the next message is taken from the deque of the highest bit
+ * set in the bitmap, so both take constant time no matter how many messages or levels there are, unlike a heap.
+ * Messages of the same priority are delivered in the order they were offered. Like the {@link DequeMessageStore}, the
+ * store is guarded by a single lock, and the limits of the options apply to all levels together.</p>
+ */
+public class PriorityMessageStore implements MessageStore {
+    private final QueueOptions options;
+    private final ArrayDeque<Message>[] levels;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private long nonEmptyLevels;
+    private int size;
+    private long bytes;
+
+    @SuppressWarnings("unchecked")
+    public PriorityMessageStore(QueueOptions options) {
+        this.options = options;
+        int count = Math.min(Math.max(1, options.priority()), Long.SIZE);
+        this.levels = (ArrayDeque<Message>[]) new ArrayDeque<?>[count];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new ArrayDeque<>();
+        }
+    }
+
+    @Override
+    public boolean offer(Message message) {
+        lock.lock();
+        try {
+            if (options.isFull(size, bytes, message.length())) return false;
+            int level = levelOf(message);
+            levels[level].add(message);
+            nonEmptyLevels |= 1L << level;
+            size++;
+            bytes += message.length();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message poll() {
+        lock.lock();
+        try {
+            return nonEmptyLevels == 0 ? null : removeFirst(highestLevel(nonEmptyLevels));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tests the next message of every level, from the highest to the lowest, and removes the first one that satisfies
+     * the condition, so expired messages are removed from lower levels while higher ones hold live messages.
+     */
+    @Override
+    public Message pollIf(Predicate<Message> condition) {
+        lock.lock();
+        try {
+            for (long remaining = nonEmptyLevels; remaining != 0; ) {
+                int level = highestLevel(remaining);
+                if (condition.test(levels[level].peek())) return removeFirst(level);
+                remaining &= ~(1L << level);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the message from the deque of its priority.
+     */
+    @Override
+    public boolean remove(Message message) {
+        lock.lock();
+        try {
+            int level = levelOf(message);
+            ArrayDeque<Message> messages = levels[level];
+            for (Iterator<Message> iterator = messages.iterator(); iterator.hasNext(); ) {
+                if (iterator.next() != message) continue;
+                iterator.remove();
+                if (messages.isEmpty()) nonEmptyLevels &= ~(1L << level);
+                size--;
+                bytes -= message.length();
+                notFull.signal();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean supportsRemoval() {
+        return true;
+    }
+
+    @Override
+    public Message take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (nonEmptyLevels == 0) {
+                notEmpty.await();
+            }
+            return removeFirst(highestLevel(nonEmptyLevels));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean awaitSpace(long messageBytes, long timeoutNanos) throws InterruptedException {
+        long remainingNanos = timeoutNanos;
+        lock.lockInterruptibly();
+        try {
+            while (options.isFull(size, bytes, messageBytes)) {
+                if (remainingNanos <= 0) return false;
+                remainingNanos = notFull.awaitNanos(remainingNanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long bytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int levelOf(Message message) {
+        return Math.min(Math.max(0, message.priority()), levels.length - 1);
+    }
+
+    private static int highestLevel(long levelBits) {
+        return Long.SIZE - 1 - Long.numberOfLeadingZeros(levelBits);
+    }
+
+    private Message removeFirst(int level) {
+        ArrayDeque<Message> messages = levels[level];
+        Message message = messages.poll();
+        if (messages.isEmpty()) nonEmptyLevels &= ~(1L << level);
+        size--;
+        bytes -= message.length();
+        notFull.signal();
+        return message;
+    }
+}
@@ -0,0 +1,214 @@
+package dslab.entity.storage;
+
+import dslab.entity.Message;
+import dslab.entity.QueueOptions;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * A lock-free {@link MessageStore} for hot queues with many publishers and subscribers.
+ *
+ * <p>Messages are kept in a preallocated array used as a bounded multi-producer, multi-consumer ring buffer. Every
+ * slot carries a sequence number that tells publishers and subscribers whether the slot is free for the lap they are
+ * in, so both sides only contend on a single compare-and-set of their position and no node is allocated per
+ * message. The capacity is the {@code max-length} of the queue, or {@link #DEFAULT_CAPACITY} for a queue without
+ * a length limit, so this store is always bounded.</p>
+ *
+ * <p>Subscribers waiting for a message and publishers waiting for room spin briefly and are then parked. They
+ * register before they re-check the ring, and the opposite side wakes one registered thread after every change,
+ * so no wakeup is lost.</p>
+ */
+public class RingBufferMessageStore implements MessageStore {
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final int SPINS = 64;
+
+    private final int capacity;
+    private final long maxBytes;
+    private final Message[] slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private final AtomicLong dequeuePosition = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final ConcurrentLinkedQueue<Thread> waitingSubscribers = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Thread> waitingPublishers = new ConcurrentLinkedQueue<>();
+
+    public RingBufferMessageStore(QueueOptions options) {
+        // a single slot cannot tell a full lap from an empty one
+        this.capacity = options.maxLength() > 0 ? Math.max(2, options.maxLength()) : DEFAULT_CAPACITY;
+        this.maxBytes = options.maxBytes();
+        this.slots = new Message[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    @Override
+    public boolean offer(Message message) {
+        long length = message.length();
+        if (!reserveBytes(length)) return false;
+
+        long position = enqueuePosition.get();
+        int index;
+        while (true) {
+            index = index(position);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) break;
+                position = enqueuePosition.get();
+            } else if (difference < 0) {
+                bytes.addAndGet(-length);
+                return false;
+            } else {
+                position = enqueuePosition.get();
+            }
+        }
+
+        slots[index] = message;
+        sequences.set(index, position + 1);
+        wakeOne(waitingSubscribers);
+        return true;
+    }
+
+    @Override
+    public Message poll() {
+        return pollIf(null);
+    }
+
+    /**
+     * A slot is not reused before its position has been claimed, so the message tested is the one that is claimed if
+     * the compare-and-set of the position succeeds.
+     */
+    @Override
+    public Message pollIf(Predicate<Message> condition) {
+        long position = dequeuePosition.get();
+        while (true) {
+            int index = index(position);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (condition != null) {
+                    Message head = slots[index];
+                    if (head == null) {
+                        // claimed by another subscriber in the meantime
+                        position = dequeuePosition.get();
+                        continue;
+                    }
+                    if (!condition.test(head)) return null;
+                }
+                if (dequeuePosition.compareAndSet(position, position + 1)) {
+                    Message message = slots[index];
+                    slots[index] = null;
+                    bytes.addAndGet(-message.length());
+                    sequences.set(index, position + capacity);
+                    wakeOne(waitingPublishers);
+                    return message;
+                }
+                position = dequeuePosition.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = dequeuePosition.get();
+            }
+        }
+    }
+
+    @Override
+    public Message take() throws InterruptedException {
+        Thread current = Thread.currentThread();
+        while (true) {
+            for (int i = 0; i < SPINS; i++) {
+                Message message = poll();
+                if (message != null) return passOnWakeup(message);
+                Thread.onSpinWait();
+            }
+
+            waitingSubscribers.add(current);
+            Message message = poll();
+            if (message == null) {
+                LockSupport.park(this);
+            }
+            waitingSubscribers.remove(current);
+            if (message != null) return passOnWakeup(message);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    /**
+     * A subscriber may have taken a message offered before the one it was woken for. Waking the next subscriber
+     * while messages remain keeps that message from waiting for the next publish.
+     */
+    private Message passOnWakeup(Message message) {
+        if (!waitingSubscribers.isEmpty() && !isEmpty()) {
+            wakeOne(waitingSubscribers);
+        }
+        return message;
+    }
+
+    @Override
+    public boolean awaitSpace(long messageBytes, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        Thread current = Thread.currentThread();
+        while (!hasSpace(messageBytes)) {
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) return false;
+
+            waitingPublishers.add(current);
+            if (!hasSpace(messageBytes)) {
+                LockSupport.parkNanos(this, remainingNanos);
+            }
+            waitingPublishers.remove(current);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+        if (!waitingPublishers.isEmpty()) {
+            wakeOne(waitingPublishers);
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        long size = enqueuePosition.get() - dequeuePosition.get();
+        return (int) Math.max(0, Math.min(capacity, size));
+    }
+
+    @Override
+    public long bytes() {
+        return bytes.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private int index(long position) {
+        return (int) (position % capacity);
+    }
+
+    private boolean hasSpace(long messageBytes) {
+        return size() < capacity && (maxBytes == 0 || bytes.get() + messageBytes <= maxBytes);
+    }
+
+    private boolean reserveBytes(long length) {
+        if (maxBytes == 0) {
+            bytes.addAndGet(length);
+            return true;
+        }
+        long current;
+        do {
+            current = bytes.get();
+            if (current + length > maxBytes) return false;
+        } while (!bytes.compareAndSet(current, current + length));
+        return true;
+    }
+
+    private static void wakeOne(ConcurrentLinkedQueue<Thread> waiters) {
+        Thread waiter = waiters.poll();
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package dslab.entity.storage;
+
+import dslab.entity.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only log of messages on disk, split into segment files of a fixed size that are written and read through
+ * {@link MappedByteBuffer}s.
+ *
+ * <p>Every message is stored as a record of its payload length, a CRC32C checksum, the publish time and expiry of the
+ * message, and the payload itself. The checksum covers the times and the payload. The length is stored plus one, so
+ * that an empty message is a valid record and a stored zero marks the end of the records in a segment. A segment is
+ * named after the sequence number of its first message. Messages are read in the order they were appended, and the
+ * sequence number of the next message to read is kept in a small memory-mapped offset file, so reading costs no system
+ * call. A segment is deleted as soon as all of its messages have been read.</p>
+ *
+ * <p>When a log is opened, its segments are recovered in a single sequential pass that follows the record lengths and
+ * verifies every record against its hardware-accelerated checksum, so a log of tens of millions of messages is
+ * recovered in seconds. A record torn by a crash of the machine ends its segment and is discarded. Writes are forced
+ * to the storage device according to the {@link FsyncPolicy}.</p>
+ *
+ * <p>Not thread-safe, except for {@link #sync()}, which may be called from any thread.</p>
+ */
+public class SegmentLog implements Closeable {
+    private static final Logger LOG = Logger.getLogger(SegmentLog.class.getName());
+    private static final int RECORD_HEADER_BYTES = 24;
+    private static final int END_OF_RECORDS = 0;
+    private static final int CHECKSUM_OFFSET = Integer.BYTES;
+    private static final int TIMES_OFFSET = 2 * Integer.BYTES;
+    private static final int TIMES_BYTES = 2 * Long.BYTES;
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String OFFSET_FILE = "consumer.offset";
+
+    private final Path directory;
+    private final LogSettings settings;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final FileChannel offsetChannel;
+    private final MappedByteBuffer offset;
+    private final CRC32C checksum = new CRC32C();
+    private final ByteBuffer times = ByteBuffer.allocate(TIMES_BYTES);
+    private volatile Segment activeSegment;
+    private int readPosition;
+    private long readSequence;
+    private long writeSequence;
+    private long bytes;
+    private int unsyncedMessages;
+    private volatile boolean dirty;
+
+    private SegmentLog(Path directory, LogSettings settings) throws IOException {
+        this.directory = directory;
+        this.settings = settings;
+        Files.createDirectories(directory);
+        this.offsetChannel = FileChannel.open(directory.resolve(OFFSET_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.offset = offsetChannel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+    }
+
+    /**
+     * Opens the log in the given directory, recovering the messages that have not been read yet.
+     */
+    public static SegmentLog open(Path directory, LogSettings settings) throws IOException {
+        SegmentLog log = new SegmentLog(directory, settings);
+        try {
+            log.recover();
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+        return log;
+    }
+
+    /**
+     * Appends a message to the log and forces it to the storage device if the fsync policy requires it.
+     */
+    public void append(Message message) throws IOException {
+        int length = Math.toIntExact(message.length());
+        Segment segment = activeSegment;
+        if (segment.writePosition + RECORD_HEADER_BYTES + length > segment.capacity()) {
+            segment = roll(length);
+        }
+
+        int position = segment.writePosition;
+        times.putLong(0, message.timestamp()).putLong(Long.BYTES, message.expiresAt());
+        segment.buffer.put(position + TIMES_OFFSET, times.array());
+        checksum.reset();
+        checksum.update(times.array());
+        if (message.isSpooled() || message.isOffHeap()) {
+            message.copyTo(segment.buffer.slice(position + RECORD_HEADER_BYTES, length));
+            checksum.update(segment.buffer.slice(position + RECORD_HEADER_BYTES, length));
+        } else {
+            byte[] payload = message.getPayload();
+            segment.buffer.put(position + RECORD_HEADER_BYTES, payload);
+            checksum.update(payload);
+        }
+        segment.buffer.putInt(position + CHECKSUM_OFFSET, (int) checksum.getValue());
+        // the length makes the record visible to recovery, so it is written last
+        putLength(segment.buffer, position, length);
+        segment.writePosition = position + RECORD_HEADER_BYTES + length;
+        segment.count++;
+        writeSequence++;
+        bytes += length;
+        dirty = true;
+
+        switch (settings.fsync().mode()) {
+            case ALWAYS -> segment.buffer.force(position, RECORD_HEADER_BYTES + length);
+            case MESSAGES -> {
+                if (++unsyncedMessages >= settings.fsync().everyMessages()) {
+                    sync();
+                }
+            }
+            case INTERVAL, NEVER -> {}
+        }
+    }
+
+    /**
+     * Removes the oldest message from the log. Its payload is copied to the heap, so the message stays valid once
+     * its segment has been deleted.
+     *
+     * @return the oldest message, or {@code null} if every message has been read
+     */
+    public Message read() {
+        return readIf(null);
+    }
+
+    /**
+     * Removes the oldest message from the log if it satisfies the condition, like {@link #read()}.
+     *
+     * @param condition the condition, or {@code null} to remove the oldest message in any case
+     * @return the oldest message, or {@code null} if every message has been read or the oldest message does not
+     * satisfy the condition
+     */
+    public Message readIf(Predicate<Message> condition) {
+        if (readSequence == writeSequence) return null;
+
+        Segment segment = segments.getFirst();
+        if (readSequence == segment.endSequence()) {
+            // the segment was still being appended to when it was read completely
+            segments.removeFirst();
+            segment.delete();
+            segment = segments.getFirst();
+            readPosition = 0;
+        }
+        int length = getLength(segment.buffer, readPosition);
+        byte[] payload = new byte[length];
+        segment.buffer.get(readPosition + RECORD_HEADER_BYTES, payload);
+        Message message = Message.restored(payload, segment.buffer.getLong(readPosition + TIMES_OFFSET),
+                segment.buffer.getLong(readPosition + TIMES_OFFSET + Long.BYTES));
+        if (condition != null && !condition.test(message)) return null;
+        readPosition += RECORD_HEADER_BYTES + length;
+        readSequence++;
+        bytes -= length;
+        offset.putLong(0, readSequence);
+
+        if (readSequence == segment.endSequence() && segment != activeSegment) {
+            segments.removeFirst();
+            segment.delete();
+            readPosition = 0;
+        }
+        return message;
+    }
+
+    /**
+     * @return the number of messages that have not been read
+     */
+    public long size() {
+        return writeSequence - readSequence;
+    }
+
+    /**
+     * @return the total payload size of the messages that have not been read
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of segment files of the log
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Forces the messages appended so far and the read offset to the storage device.
+     */
+    public void sync() {
+        if (!dirty || settings.fsync().mode() == FsyncPolicy.Mode.NEVER) return;
+        dirty = false;
+        unsyncedMessages = 0;
+        activeSegment.buffer.force();
+        offset.force();
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (activeSegment != null) sync();
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Error syncing log " + directory, e);
+        }
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        try {
+            offsetChannel.close();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error closing offset file of " + directory, e);
+        }
+    }
+
+    /**
+     * Closes the log and deletes its files and directory, for logs that do not outlive their store.
+     */
+    public void delete() {
+        close();
+        for (Segment segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+        try {
+            Files.deleteIfExists(directory.resolve(OFFSET_FILE));
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error deleting log " + directory, e);
+        }
+    }
+
+    private void recover() throws IOException {
+        readSequence = offset.getLong(0);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = new ArrayList<>(listing.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList());
+        }
+
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            String name = file.getFileName().toString();
+            long baseSequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = Segment.open(file, baseSequence, (int) Files.size(file));
+            scan(segment);
+            if (segment.endSequence() <= readSequence && i < files.size() - 1) {
+                // consumed before the broker stopped, but not deleted yet
+                segment.delete();
+                continue;
+            }
+            segments.addLast(segment);
+        }
+
+        if (segments.isEmpty()) {
+            segments.addLast(Segment.create(segmentPath(readSequence), readSequence, settings.segmentBytes()));
+        }
+        Segment first = segments.getFirst();
+        activeSegment = segments.getLast();
+        writeSequence = activeSegment.endSequence();
+        readSequence = Math.min(Math.max(readSequence, first.baseSequence), writeSequence);
+        offset.putLong(0, readSequence);
+
+        // skip the messages of the first segment that have already been read
+        readPosition = 0;
+        bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.payloadBytes;
+        }
+        for (long sequence = first.baseSequence; sequence < readSequence; sequence++) {
+            int length = getLength(first.buffer, readPosition);
+            readPosition += RECORD_HEADER_BYTES + length;
+            bytes -= length;
+        }
+        LOG.fine("Recovered %d messages from %s".formatted(size(), directory));
+    }
+
+    /**
+     * Follows the records of a segment to find its end, verifying each one against its checksum. Whatever follows
+     * the last valid record, e.g. a record torn by a crash of the machine, is overwritten by the next append.
+     */
+    private void scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + RECORD_HEADER_BYTES <= segment.capacity()) {
+            int length = getLength(buffer, position);
+            if (length < 0 || length > segment.capacity() - position - RECORD_HEADER_BYTES) break;
+            checksum.reset();
+            checksum.update(buffer.slice(position + TIMES_OFFSET, TIMES_BYTES + length));
+            if ((int) checksum.getValue() != buffer.getInt(position + CHECKSUM_OFFSET)) break;
+            position += RECORD_HEADER_BYTES + length;
+            segment.count++;
+            segment.payloadBytes += length;
+        }
+        segment.writePosition = position;
+        if (position + RECORD_HEADER_BYTES <= segment.capacity() && buffer.getInt(position) != END_OF_RECORDS) {
+            LOG.warning("Discarding invalid record at position %d of %s".formatted(position, segment.file));
+            buffer.putInt(position, END_OF_RECORDS);
+        }
+    }
+
+    private static void putLength(ByteBuffer buffer, int position, int length) {
+        buffer.putInt(position, length + 1);
+    }
+
+    /**
+     * @return the payload length of the record at the position, or {@code -1} at the end of the records
+     */
+    private static int getLength(ByteBuffer buffer, int position) {
+        return buffer.getInt(position) - 1;
+    }
+
+    private Segment roll(int length) throws IOException {
+        if (settings.fsync().mode() != FsyncPolicy.Mode.NEVER) activeSegment.buffer.force();
+        int capacity = Math.max(settings.segmentBytes(), RECORD_HEADER_BYTES + length);
+        Segment segment = Segment.create(segmentPath(writeSequence), writeSequence, capacity);
+        segments.addLast(segment);
+        activeSegment = segment;
+        return segment;
+    }
+
+    private Path segmentPath(long baseSequence) {
+        return directory.resolve("%020d%s".formatted(baseSequence, SEGMENT_SUFFIX));
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final long baseSequence;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private int count;
+        private long payloadBytes;
+
+        private Segment(Path file, long baseSequence, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.baseSequence = baseSequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path file, long baseSequence, int capacity) throws IOException {
+            FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(file, baseSequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        }
+
+        static Segment open(Path file, long baseSequence, int capacity) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(file, baseSequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+
+        long endSequence() {
+            return baseSequence + count;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Error closing segment " + file, e);
+            }
+        }
+
+        void delete() {
+            close();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Error deleting segment " + file, e);
+            }
+        }
+    }
+}
@@ -27,14 +27,26 @@ public class MonitoringServer implements IMonitoringServer {
                 DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                 datagramSocket.receive(packet);
                 String[] parts = new String(packet.getData(), 0, packet.getLength()).split(" ");
-                if (parts.length == 2) {
+                int count = parts.length == 3 ? parseCount(parts[2]) : 1;
+                if ((parts.length == 2 || parts.length == 3) && count > 0) {
                     statistics.computeIfAbsent(parts[0], k -> new HashMap<>())
-                            .merge(parts[1], 1, Integer::sum);
+                            .merge(parts[1], count, Integer::sum);
                 }
             }
         } catch (IOException ignored) {}
     }
 
+    /**
+     * @return the number of messages of an aggregated record, or {@code 0} if it is invalid
+     */
+    private static int parseCount(String count) {
+        try {
+            return Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     @Override
     public void shutdown() {
         datagramSocket.close();
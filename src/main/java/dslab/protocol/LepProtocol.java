@@ -5,6 +5,7 @@ import dslab.broker.BrokerService;
 import dslab.broker.enums.ElectionType;
 import dslab.config.BrokerConfig;
 import dslab.entity.BrokerStateManager;
+import dslab.util.CommandLine;
 import dslab.util.IOReadWrite;
 
 import java.io.Closeable;
@@ -12,6 +13,7 @@ import java.util.Optional;
 
 
 public class LepProtocol implements Protocol, Closeable {
+    private static final String[] OPCODES = {"ping", "elect", "declare"};
     private final BrokerConfig brokerConfig;
     private final BrokerService brokerService;
     private final BrokerStateManager brokerState;
@@ -24,8 +26,8 @@ public class LepProtocol implements Protocol, Closeable {
     }
 
     @Override
-    public Optional<String> processCommand(String[] command, Object... additionalParams) {
-        String returner = switch (command[0]) {
+    public Optional<String> processCommand(CommandLine command, Object... additionalParams) {
+        String returner = switch (command.opcode(OPCODES)) {
             case "ping" -> handlePingCommand();
             case "elect" -> handleElectCommand(command, (IOReadWrite) additionalParams[0]);
             case "declare" -> handleDeclareCommand(command);
@@ -39,9 +41,9 @@ public class LepProtocol implements Protocol, Closeable {
         return "pong";
     }
 
-    private String handleElectCommand(String[] parts, IOReadWrite ioReadWrite) {
-        if (parts.length != 2) return "error usage: elect <id>";
-        int senderId = Integer.parseInt(parts[1]);
+    private String handleElectCommand(CommandLine parts, IOReadWrite ioReadWrite) {
+        if (parts.size() != 2) return "error usage: elect <id>";
+        int senderId = parts.getInt(1);
         brokerState.setCurrentLeaderId(-1);
 
         return switch (brokerState.getElectionType()) {
@@ -52,10 +54,10 @@ public class LepProtocol implements Protocol, Closeable {
         };
     }
 
-    private String handleDeclareCommand(String[] parts) {
-        if (parts.length != 2) return "error usage: declare <id>";
+    private String handleDeclareCommand(CommandLine parts) {
+        if (parts.size() != 2) return "error usage: declare <id>";
 
-        int leaderId = Integer.parseInt(parts[1]);
+        int leaderId = parts.getInt(1);
 
         switch (brokerState.getElectionType()) {
             case RAFT -> {
@@ -83,9 +85,11 @@ public class LepProtocol implements Protocol, Closeable {
             brokerState.setElectionState(ElectionState.LEADER);
             brokerState.setCurrentLeaderId(brokerConfig.electionId());
             ioReadWrite.writeSocketResponse("ok");
+            ioReadWrite.flush();
             brokerService.declareLeader();
         } else {
             ioReadWrite.writeSocketResponse("ok");
+            ioReadWrite.flush();
             int max = Math.max(senderId, brokerConfig.electionId());
             brokerState.setElectionState(max == senderId ? ElectionState.FOLLOWER : ElectionState.CANDIDATE);
             brokerService.forwardToPeersAndAwaitResponse(
@@ -98,6 +102,7 @@ public class LepProtocol implements Protocol, Closeable {
 
     private String handleBullyElection(int senderId, IOReadWrite ioReadWrite) {
         ioReadWrite.writeSocketResponse("ok");
+        ioReadWrite.flush();
         brokerState.setElectionState(ElectionState.CANDIDATE);
         if (brokerConfig.electionId() > senderId) {
             boolean receivedResponse = brokerService.forwardToHigherIdPeersAndAwaitResponse(
@@ -1,5 +1,7 @@
 package dslab.protocol;
 
+import dslab.util.CommandLine;
+
 import java.util.Optional;
 
 /**
@@ -7,18 +9,18 @@ import java.util.Optional;
  * Implementations of this interface are responsible for processing
  * commands and generating an appropriate response.
  *
- * <p>The {@link #processCommand(String[], Object...)} method is used to process
- * a command passed as a String array. Optional additional parameters can also
- * be provided.</p>
+ * <p>The {@link #processCommand(CommandLine, Object...)} method is used to process
+ * a command passed as a {@link CommandLine} view of the read buffer. Optional additional
+ * parameters can also be provided.</p>
  */
 public interface Protocol {
     /**
      * Processes a command and returns a response.
      *
-     * @param command An array of strings containing the command and its arguments.
+     * @param command The command line. It is only valid for the duration of the call.
      * @param additionalParams Optional additional parameters that may be used
      *                        during command processing.
      * @return An Optional containing the result of the command processing, or an empty Optional if no result.
      */
-    Optional<String> processCommand(String[] command, Object... additionalParams);
+    Optional<String> processCommand(CommandLine command, Object... additionalParams);
 }
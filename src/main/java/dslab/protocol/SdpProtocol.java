@@ -1,5 +1,6 @@
 package dslab.protocol;
 
+import dslab.util.CommandLine;
 import lombok.RequiredArgsConstructor;
 
 import java.util.Optional;
@@ -7,11 +8,12 @@ import java.util.concurrent.ConcurrentHashMap;
 
 @RequiredArgsConstructor
 public class SdpProtocol implements Protocol {
+    private static final String[] OPCODES = {"register", "unregister", "resolve", "exit"};
     private final ConcurrentHashMap<String, String> dnsEntries;
 
     @Override
-    public Optional<String> processCommand(String[] command, Object... additionalParams) {
-        String returner = switch (command[0]) {
+    public Optional<String> processCommand(CommandLine command, Object... additionalParams) {
+        String returner = switch (command.opcode(OPCODES)) {
             case "register" -> handleRegisterCommand(command);
             case "unregister" -> handleUnregisterCommand(command);
             case "resolve" -> handleResolveCommand(command);
@@ -21,24 +23,24 @@ public class SdpProtocol implements Protocol {
         return Optional.of(returner);
     }
 
-    private String handleRegisterCommand(String[] parts) {
-        if (parts.length != 3) return "error usage: register <name> <ip:port>";
+    private String handleRegisterCommand(CommandLine parts) {
+        if (parts.size() != 3) return "error usage: register <name> <ip:port>";
 
-        dnsEntries.put(parts[1], parts[2]);
+        dnsEntries.put(parts.get(1), parts.get(2));
         return "ok";
     }
 
-    private String handleResolveCommand(String[] parts) {
-        if (parts.length != 2) return "error usage: resolve <name>";
+    private String handleResolveCommand(CommandLine parts) {
+        if (parts.size() != 2) return "error usage: resolve <name>";
 
-        String result = dnsEntries.get(parts[1]);
+        String result = dnsEntries.get(parts.get(1));
         return result != null ? result : "error domain not found";
     }
 
-    private String handleUnregisterCommand(String[] parts) {
-        if (parts.length != 2) return "error usage: unregister <name>";
+    private String handleUnregisterCommand(CommandLine parts) {
+        if (parts.size() != 2) return "error usage: unregister <name>";
 
-        dnsEntries.remove(parts[1]);
+        dnsEntries.remove(parts.get(1));
         return "ok";
     }
 
@@ -1,104 +1,506 @@
 package dslab.protocol;
 
 import dslab.entity.Exchange;
+import dslab.entity.Message;
 import dslab.entity.Queue;
+import dslab.entity.QueueFactory;
+import dslab.entity.QueueOptions;
+import dslab.entity.RoutingOptions;
+import dslab.entity.Subscription;
+import dslab.entity.binding.BindingStorage;
+import dslab.util.ClientConnection;
+import dslab.util.CommandLine;
 import dslab.util.ExchangeType;
-import dslab.util.IOReadWrite;
 import lombok.RequiredArgsConstructor;
 
 import java.io.Closeable;
-import java.util.Arrays;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjIntConsumer;
 
+/**
+ * Processes the SMQP commands of a single client.
+ *
+ * <p>Besides {@code publish}, messages can be published in batches with {@code mpublish <routing-key> <count>},
+ * followed by {@code count} lines that are each published as a message with the given routing key, or with
+ * {@code mpublish <count>}, followed by {@code count} lines of the form {@code <routing-key> <message>}. A batch is
+ * collected completely before it is routed, so the queues of every distinct routing key are looked up once, each
+ * queue receives its messages in one pass, and the whole batch is acknowledged with a single {@code ok}.</p>
+ *
+ * <p>A message may be given a time to live and a priority with {@code publish [ttl=<ms>] [priority=<n>] --
+ * <routing-key> <message>}, and every message of a batch with {@code mpublish [ttl=<ms>] [priority=<n>] -- ...}. The
+ * {@code --} ends the properties, without it every token is taken as an argument as before. A message expires in every
+ * queue it is routed to once the time has passed since it was published, or earlier if the time to live of the queue
+ * is shorter. A message with a time to live is rejected if it is routed to a queue that cannot remove it early, see
+ * {@link Queue#supportsMessageTtl()}. Queues declared with priority levels dispatch messages of higher priorities
+ * first.</p>
+ *
+ * <p>Queues are declared with {@code queue <name> [<option>=<value> ...]}, see {@link QueueOptions}. Options that
+ * are left out are taken from the default queue options of the broker, and the queue is created by the
+ * {@link QueueFactory} of the broker, which keeps the messages of durable queues on disk. A publish is
+ * answered with an error if a full queue rejected the message, while the other queues still receive it, so the error
+ * names the number of queues that did store it. Retrying such a publish stores the message again in those queues.
+ * The payload of a message routed to any queue is copied once into the {@link dslab.entity.PayloadArena} of the
+ * broker, which every matched queue shares.</p>
+ *
+ * <p>Subscribers of the same queue compete for its messages, see {@link Queue}. A subscriber may limit the number of
+ * messages handed to it ahead of being written with {@code subscribe prefetch=<n>}, otherwise the prefetch count of
+ * the queue applies. With {@code subscribe ack}, the subscriber has to acknowledge every message, see
+ * {@link Subscription}.</p>
+ *
+ * <p>{@code unbind <binding-key>} removes a binding of the current queue to the current exchange, and
+ * {@code queue.delete <name>} deletes a queue, which ends its subscriptions and removes it from every exchange. A queue
+ * declared with {@code auto-delete} is deleted once its last subscriber is gone, and one declared with
+ * {@code exclusive} is only accessible by the connection that declared it and is deleted when that connection
+ * closes.</p>
+ *
+ * <p>Every publish that stored the message in at least one queue, or that matched no queue at all, is reported to the
+ * publish listener with the routing key and the number of messages, once per distinct routing key of a batch.
+ * Messages rejected by every queue they were routed to are not reported.</p>
+ */
 @RequiredArgsConstructor
 public class SmqpProtocol implements Protocol, Closeable {
+    static final int MAX_BATCH_SIZE = 1000;
+    private static final String[] OPCODES =
+            {"exchange", "queue", "bind", "unbind", "queue.delete", "publish", "mpublish", "subscribe", "exit"};
     private final ConcurrentHashMap<String, Exchange> exchanges;
     private final ConcurrentHashMap<String, Queue> queues;
+    private final ObjIntConsumer<String> publishListener;
+    private final QueueFactory queueFactory;
+    private final RoutingOptions routingOptions;
     private Exchange currentExchange;
     private Queue currentQueue;
     private Thread subscription;
+    private Subscription currentSubscription;
+    private Batch batch;
+    private final List<Queue> exclusiveQueues = new ArrayList<>();
 
     @Override
-    public Optional<String> processCommand(String[] command, Object... additionalParams) {
-        if(subscription != null && !subscription.isInterrupted()) {
-            if ("stop".equals(command[0])) {
+    public Optional<String> processCommand(CommandLine command, Object... additionalParams) {
+        if (batch != null) {
+            return Optional.ofNullable(handleBatchLine(command));
+        }
+        if (isSubscribed()) {
+            if (command.is(0, "stop")) {
                 this.subscription.interrupt();
+            } else if (command.is(0, "ack") || command.is(0, "nack")) {
+                handleAcknowledgement(command);
             }
             return Optional.empty();
         }
-        String returner = switch (command[0]) {
+        String returner = switch (command.opcode(OPCODES)) {
             case "exchange" -> handleExchangeCommand(command);
             case "queue" -> handleQueueCommand(command);
             case "bind" -> handleBindCommand(command);
+            case "unbind" -> handleUnbindCommand(command);
+            case "queue.delete" -> handleQueueDeleteCommand(command);
             case "publish" -> handlePublishCommand(command);
-            case "subscribe" -> handleSubscribeCommand((IOReadWrite) additionalParams[0]);
+            case "mpublish" -> handleMultiPublishCommand(command);
+            case "subscribe" -> handleSubscribeCommand(command, (ClientConnection) additionalParams[0]);
             case "exit" -> handleExitCommand();
             default -> "error usage: <command> <args>";
         };
         return Optional.ofNullable(returner);
     }
 
-    private String handleExchangeCommand(String[] parts) {
-        if (parts.length != 3) return "error usage: exchange <type> <name>";
-        ExchangeType type = ExchangeType.validType(parts[1]);
+    /**
+     * @return whether the following lines are the messages of an {@code mpublish} batch rather than commands
+     */
+    public boolean isCollectingBatch() {
+        return batch != null;
+    }
+
+    /**
+     * Publishes a message received as a {@link dslab.util.BinaryFrame#PUBLISH} frame on the current exchange.
+     * The reference the caller holds on the message is released once it has been routed.
+     *
+     * @param routingKey the routing key of the message
+     * @param message    the message
+     * @return the response, or an empty Optional while subscribed
+     */
+    public Optional<String> processPublish(String routingKey, Message message) {
+        try {
+            if (isSubscribed()) return Optional.empty();
+            return Optional.of(publish(routingKey, message));
+        } finally {
+            message.release();
+        }
+    }
+
+    private String handleExchangeCommand(CommandLine parts) {
+        if (parts.size() != 3) return "error usage: exchange <type> <name>";
+        ExchangeType type = ExchangeType.validType(parts.get(1));
         if(type == null) return "error invalid exchange type. Valid types: %s".formatted(ExchangeType.validTypes());
 
-        currentExchange = exchanges.computeIfAbsent(parts[2], routingKey -> new Exchange(type, routingKey));
+        currentExchange = exchanges.computeIfAbsent(parts.get(2), exchangeName -> new Exchange(type, exchangeName, routingOptions));
 
         return currentExchange.getType().equals(type)
             ? "ok"
             : "error exchange already exists with a different type";
     }
 
-    private String handleQueueCommand(String[] parts) {
-        if (parts.length != 2)
-            return "error usage: queue <name>";
+    private String handleQueueCommand(CommandLine parts) {
+        if (parts.size() < 2)
+            return "error usage: queue <name> [max-length=<n>] [max-bytes=<n>] [overflow=<policy>] [store=<type>] "
+                    + "[dispatch=<policy>] [prefetch=<n>] [ttl=<ms>] [dead-letter-exchange=<name>] "
+                    + "[dead-letter-routing-key=<key>] [priority=<levels>] [auto-delete] [exclusive]";
 
-        currentQueue = queues.computeIfAbsent(parts[1], queueName ->
-            exchanges.get("default")
-                .getBindingStorage()
-                .addBinding(queueName, new Queue(queueName))
-        );
+        QueueOptions options = queueFactory.getDefaultOptions();
+        try {
+            for (int i = 2; i < parts.size(); i++) {
+                options = options.with(parts.get(i));
+            }
+        } catch (IllegalArgumentException e) {
+            return "error " + e.getMessage();
+        }
+
+        QueueOptions declaredOptions = options;
+        Queue queue;
+        try {
+            queue = queues.computeIfAbsent(parts.get(1), queueName ->
+                exchanges.get("default")
+                    .getBindingStorage()
+                    .addBinding(queueName, queueFactory.create(queueName, declaredOptions, this))
+            );
+        } catch (UncheckedIOException e) {
+            return "error could not create queue";
+        } catch (IllegalArgumentException e) {
+            return "error " + e.getMessage();
+        }
+        if (!queue.isAccessibleBy(this))
+            return "error queue %s is exclusive to another connection".formatted(queue.getName());
+        if (parts.size() > 2 && !queue.getOptions().equals(options))
+            return "error queue already exists with different options";
 
+        if (queue.getOptions().exclusive() && !exclusiveQueues.contains(queue)) exclusiveQueues.add(queue);
+        currentQueue = queue;
         return "ok";
     }
 
-    private String handleBindCommand(String[] parts) {
-        if (parts.length != 2) return "error usage: bind <binding-key>";
+    private String handleBindCommand(CommandLine parts) {
+        if (parts.size() != 2) return "error usage: bind <binding-key>";
         if (currentExchange == null) return "error no exchange declared";
         if (currentQueue == null) return "error no queue declared";
+        if (currentQueue.isDeleted()) return "error queue %s has been deleted".formatted(currentQueue.getName());
 
-        currentExchange.getBindingStorage()
-            .addBinding(parts[1], currentQueue);
+        BindingStorage bindingStorage = currentExchange.getBindingStorage();
+        bindingStorage.addBinding(parts.get(1), currentQueue);
+        // deleted while it was bound, after it had been removed from the bindings
+        if (currentQueue.isDeleted()) {
+            bindingStorage.removeBinding(parts.get(1), currentQueue);
+            return "error queue %s has been deleted".formatted(currentQueue.getName());
+        }
         return "ok";
     }
 
-    private String handlePublishCommand(String[] parts) {
-        if (parts.length < 3) return "error usage: publish <routing-key> <message>";
+    private String handleUnbindCommand(CommandLine parts) {
+        if (parts.size() != 2) return "error usage: unbind <binding-key>";
         if (currentExchange == null) return "error no exchange declared";
-        String message = String.join(" ", Arrays.copyOfRange(parts, 2, parts.length));
+        if (currentQueue == null) return "error no queue declared";
+
+        return currentExchange.getBindingStorage().removeBinding(parts.get(1), currentQueue)
+            ? "ok"
+            : "error queue %s is not bound with %s".formatted(currentQueue.getName(), parts.get(1));
+    }
 
-        currentExchange.getBindingStorage()
-            .getQueuesByRoutingKey(parts[1])
-            .forEach(queue -> queue.publishMessage(message));
+    private String handleQueueDeleteCommand(CommandLine parts) {
+        if (parts.size() != 2) return "error usage: queue.delete <name>";
+        Queue queue = queues.get(parts.get(1));
+        if (queue == null) return "error queue %s does not exist".formatted(parts.get(1));
+        if (!queue.isAccessibleBy(this))
+            return "error queue %s is exclusive to another connection".formatted(queue.getName());
 
+        queue.delete();
+        exclusiveQueues.remove(queue);
+        if (currentQueue == queue) currentQueue = null;
         return "ok";
     }
 
-    private String handleSubscribeCommand(IOReadWrite ioReadWrite) {
+    private String handlePublishCommand(CommandLine parts) {
+        String usage = "error usage: publish [[ttl=<ms>] [priority=<n>] --] <routing-key> <message>";
+        MessageProperties properties;
+        try {
+            properties = MessageProperties.parse(parts);
+        } catch (IllegalArgumentException e) {
+            return "error " + e.getMessage();
+        }
+        int index = properties.end;
+        if (parts.size() < index + 2) return usage;
+        return publish(parts.get(index), properties.apply(new Message(parts.copyFrom(index + 1))));
+    }
+
+    private String publish(String routingKey, Message message) {
+        if (currentExchange == null) return "error no exchange declared";
+
+        Queue fullQueue = null;
+        int delivered = 0;
+        List<Queue> matched = currentExchange.getBindingStorage().getQueuesByRoutingKey(routingKey);
+        String unsupported = checkMessageTtl(message, matched);
+        if (unsupported != null) return unsupported;
+        Message stored = matched.isEmpty() ? message : message.toArena(queueFactory.getPayloadArena());
+        for (Queue queue : matched) {
+            if (queue.publishMessage(stored)) {
+                delivered++;
+            } else if (fullQueue == null) {
+                fullQueue = queue;
+            }
+        }
+        if (stored != message) stored.release();
+
+        if (fullQueue == null) {
+            publishListener.accept(routingKey, 1);
+            return "ok";
+        }
+        if (delivered == 0) return "error queue %s is full".formatted(fullQueue.getName());
+        publishListener.accept(routingKey, 1);
+        return "error queue %s is full, delivered to %d of %d queues"
+                .formatted(fullQueue.getName(), delivered, matched.size());
+    }
+
+    /**
+     * Rejects a message with a time to live of its own if a matched queue could not remove it once it expires.
+     *
+     * @return the error response, or {@code null} if every matched queue accepts the message
+     */
+    private static String checkMessageTtl(Message message, List<Queue> matched) {
+        if (message.expiresAt() == 0) return null;
+        for (Queue queue : matched) {
+            if (!queue.supportsMessageTtl()) {
+                return "error queue %s does not support message ttl with store=%s".formatted(queue.getName(),
+                        queue.getOptions().store());
+            }
+        }
+        return null;
+    }
+
+    private String handleMultiPublishCommand(CommandLine parts) {
+        String usage = "error usage: mpublish [[ttl=<ms>] [priority=<n>] --] [<routing-key>] <count>";
+        MessageProperties properties;
+        try {
+            properties = MessageProperties.parse(parts);
+        } catch (IllegalArgumentException e) {
+            return "error " + e.getMessage();
+        }
+        int index = properties.end;
+        if (parts.size() != index + 1 && parts.size() != index + 2) return usage;
+        int count;
+        try {
+            count = parts.getInt(parts.size() - 1);
+        } catch (NumberFormatException e) {
+            return usage;
+        }
+        if (count < 1 || count > MAX_BATCH_SIZE) return "error batch size must be between 1 and %d".formatted(MAX_BATCH_SIZE);
+
+        batch = new Batch(parts.size() == index + 2 ? parts.get(index) : null, count, properties);
+        return null;
+    }
+
+    /**
+     * Adds a line to the pending batch and publishes the batch once it is complete.
+     *
+     * @return the response to the batch, or {@code null} while more lines are expected
+     */
+    private String handleBatchLine(CommandLine line) {
+        if (batch.routingKey != null) {
+            batch.add(batch.routingKey, new Message(line.copyFrom(0)));
+        } else if (line.size() < 2) {
+            batch.invalid = true;
+            batch.add(null, null);
+        } else {
+            batch.add(line.get(0), new Message(line.copyFrom(1)));
+        }
+        if (!batch.isComplete()) return null;
+
+        Batch completed = batch;
+        batch = null;
+        if (completed.invalid) return "error usage: mpublish <count> requires lines of <routing-key> <message>";
+        return publishBatch(completed);
+    }
+
+    private String publishBatch(Batch batch) {
+        if (currentExchange == null) return "error no exchange declared";
+
+        BindingStorage bindingStorage = currentExchange.getBindingStorage();
+        Map<String, List<Queue>> routes = new HashMap<>();
+        Map<Queue, List<Integer>> deliveries = new LinkedHashMap<>();
+        Message[] messages = new Message[batch.messages.size()];
+        List<Message> arenaCopies = new ArrayList<>();
+        for (int i = 0; i < messages.length; i++) {
+            String routingKey = batch.routingKeys.get(i);
+            List<Queue> matched = routes.computeIfAbsent(routingKey, bindingStorage::getQueuesByRoutingKey);
+            String unsupported = checkMessageTtl(batch.messages.get(i), matched);
+            if (unsupported != null) {
+                arenaCopies.forEach(Message::release);
+                return unsupported;
+            }
+            messages[i] = batch.messages.get(i);
+            if (!matched.isEmpty()) {
+                messages[i] = messages[i].toArena(queueFactory.getPayloadArena());
+                if (messages[i] != batch.messages.get(i)) arenaCopies.add(messages[i]);
+            }
+            for (Queue queue : matched) {
+                deliveries.computeIfAbsent(queue, q -> new ArrayList<>()).add(i);
+            }
+        }
+
+        boolean[] delivered = new boolean[messages.length];
+        int rejected = 0;
+        int total = 0;
+        for (Map.Entry<Queue, List<Integer>> delivery : deliveries.entrySet()) {
+            for (int i : delivery.getValue()) {
+                if (delivery.getKey().publishMessage(messages[i])) {
+                    delivered[i] = true;
+                } else {
+                    rejected++;
+                }
+            }
+            total += delivery.getValue().size();
+        }
+        arenaCopies.forEach(Message::release);
+
+        Map<String, Integer> published = new LinkedHashMap<>();
+        for (int i = 0; i < messages.length; i++) {
+            String routingKey = batch.routingKeys.get(i);
+            if (delivered[i] || routes.get(routingKey).isEmpty()) published.merge(routingKey, 1, Integer::sum);
+        }
+        published.forEach(publishListener::accept);
+        return rejected == 0 ? "ok" : "error queue full, rejected %d of %d deliveries".formatted(rejected, total);
+    }
+
+    private String handleSubscribeCommand(CommandLine parts, ClientConnection connection) {
         if (currentQueue == null) return "error no queue declared";
-        this.subscription = Thread.ofVirtual()
-            .start(() -> currentQueue.startMessageDispatch(ioReadWrite));
+        if (currentQueue.isDeleted()) return "error queue %s has been deleted".formatted(currentQueue.getName());
+
+        int prefetch = currentQueue.getOptions().prefetch();
+        boolean acknowledged = false;
+        for (int i = 1; i < parts.size(); i++) {
+            String option = parts.get(i);
+            if (option.equals("ack")) {
+                acknowledged = true;
+            } else if (option.startsWith("prefetch=")) {
+                try {
+                    prefetch = QueueOptions.parsePrefetch(option.substring("prefetch=".length()));
+                } catch (IllegalArgumentException e) {
+                    return "error " + e.getMessage();
+                }
+            } else {
+                return "error usage: subscribe [prefetch=<n>] [ack]";
+            }
+        }
+        this.currentSubscription = currentQueue.subscribe(connection, prefetch, acknowledged);
+        this.subscription = Thread.ofVirtual().start(currentSubscription);
         return null;
     }
 
+    /**
+     * Handles {@code ack <tag> [multiple]} and {@code nack <tag> [multiple]} while subscribed with acknowledgements.
+     * Neither is answered, so that responses never interleave with deliveries, and malformed ones are ignored.
+     */
+    private void handleAcknowledgement(CommandLine parts) {
+        if (!currentSubscription.isAcknowledged() || parts.size() < 2 || parts.size() > 3) return;
+        boolean multiple = parts.size() == 3;
+        if (multiple && !parts.is(2, "multiple")) return;
+        long deliveryTag;
+        try {
+            deliveryTag = parts.getLong(1);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (parts.is(0, "ack")) {
+            currentSubscription.ack(deliveryTag, multiple);
+        } else {
+            currentSubscription.nack(deliveryTag, multiple);
+        }
+    }
+
     private String handleExitCommand() { return "ok bye"; }
 
+    /**
+     * @return whether a subscription is running, which ends when it is stopped or its queue is deleted
+     */
+    private boolean isSubscribed() {
+        return subscription != null && !subscription.isInterrupted() && subscription.isAlive();
+    }
+
+    /**
+     * Ends the subscription of the connection and deletes the exclusive queues it declared.
+     */
     @Override
     public void close() {
         Optional.ofNullable(subscription).ifPresent(Thread::interrupt);
+        exclusiveQueues.forEach(Queue::delete);
+        exclusiveQueues.clear();
     }
 
+    /**
+     * The messages of an {@code mpublish} batch received so far.
+     */
+    private static final class Batch {
+        private final String routingKey;
+        private final int size;
+        private final List<String> routingKeys;
+        private final List<Message> messages;
+        private final MessageProperties properties;
+        private boolean invalid;
 
+        private Batch(String routingKey, int size, MessageProperties properties) {
+            this.routingKey = routingKey;
+            this.size = size;
+            this.properties = properties;
+            this.routingKeys = new ArrayList<>(size);
+            this.messages = new ArrayList<>(size);
+        }
+
+        private void add(String routingKey, Message message) {
+            routingKeys.add(routingKey);
+            messages.add(message != null ? properties.apply(message) : null);
+        }
+
+        private boolean isComplete() {
+            return messages.size() == size;
+        }
+    }
+
+    /**
+     * The properties given to the messages of a {@code publish} or {@code mpublish} command ahead of its arguments.
+     * They only count as properties if a {@code --} token ends them, so that a routing key which merely starts like a
+     * property, e.g. {@code publish ttl=5 key message}, is still routed as before.
+     */
+    private static final class MessageProperties {
+        private static final String TTL = "ttl=";
+        private static final String PRIORITY = "priority=";
+        private long ttl;
+        private int priority;
+        private int end = 1;
+
+        /**
+         * @throws IllegalArgumentException if the value of a property is invalid
+         */
+        private static MessageProperties parse(CommandLine parts) {
+            MessageProperties properties = new MessageProperties();
+            int marker = 1;
+            while (parts.startsWith(marker, TTL) || parts.startsWith(marker, PRIORITY)) marker++;
+            if (marker == 1 || !parts.is(marker, "--")) return properties;
+
+            for (int i = 1; i < marker; i++) {
+                if (parts.startsWith(i, TTL)) {
+                    properties.ttl = QueueOptions.parseTtl(parts.get(i).substring(TTL.length()));
+                } else {
+                    properties.priority = QueueOptions.parsePriority(parts.get(i).substring(PRIORITY.length()));
+                }
+            }
+            properties.end = marker + 1;
+            return properties;
+        }
+
+        private Message apply(Message message) {
+            return message.expireAfter(ttl).prioritize(priority);
+        }
+    }
 }
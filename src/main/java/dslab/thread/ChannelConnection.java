@@ -0,0 +1,577 @@
+package dslab.thread;
+
+import dslab.entity.Message;
+import dslab.util.BinaryFrame;
+import dslab.util.ClientConnection;
+import dslab.util.CommandLine;
+import dslab.util.FrameLimits;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking counterpart of {@link dslab.util.IOReadWrite} for connections served by an {@link EventLoop}.
+ *
+ * <p>Incoming bytes are collected in a per-connection {@link ByteBuffer} and split into lines, or after
+ * {@link #switchToBinary()} into {@link BinaryFrame}s, directly from that buffer. Responses are appended to an output
+ * buffer that is written to the channel once all lines of a read have been processed, so several responses share a
+ * single write. Responses written from other threads (e.g. a queue dispatching to a subscriber) are handed to the event
+ * loop for flushing. Such writers are held back while more than {@link #HIGH_WATER_MARK} bytes are pending, which
+ * bounds the memory of slow readers.</p>
+ *
+ * <p>Lines and frames exceeding the {@link FrameLimits} are discarded while they arrive and answered with an error.
+ * Large publish payloads are written to a spool file chunk by chunk as they are read, so the read buffer never has to
+ * hold them as a whole. Likewise, spooled payloads written to the connection are queued behind the buffered output
+ * and transferred from their files to the channel as it accepts them, without passing through the output buffer.</p>
+ *
+ * <p>Both buffers start at {@value #INITIAL_BUFFER_SIZE} bytes and grow for a large line, frame or response. Once a
+ * grown buffer has been drained, it is replaced by a buffer of the initial size again, so a connection that carried
+ * a large frame once does not keep a large buffer while it is idle.</p>
+ */
+public class ChannelConnection implements ClientConnection, Closeable {
+    private static final Logger LOG = Logger.getLogger(ChannelConnection.class.getName());
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int HIGH_WATER_MARK = 1 << 20;
+
+    private final SocketChannel channel;
+    private final SelectionKey selectionKey;
+    private final EventLoop eventLoop;
+    private final ConnectionRegistry connectionRegistry;
+    private final FrameLimits frameLimits;
+    private final ReentrantLock outputLock = new ReentrantLock();
+    private final Condition outputDrained = outputLock.newCondition();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final CommandLine commandLine = new CommandLine();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    // output ahead of the write buffer, only used while a spooled payload is written
+    private final ArrayDeque<QueuedOutput> queuedOutput = new ArrayDeque<>();
+    private long queuedBytes;
+    private ChannelHandler handler;
+    private boolean closeAfterFlush;
+    private boolean discardingLine;
+    private long discardRemaining;
+    private SpoolingFrame spooling;
+    private volatile boolean binary;
+
+    ChannelConnection(SocketChannel channel, SelectionKey selectionKey, EventLoop eventLoop,
+                      ConnectionRegistry connectionRegistry, FrameLimits frameLimits) {
+        this.channel = channel;
+        this.selectionKey = selectionKey;
+        this.eventLoop = eventLoop;
+        this.connectionRegistry = connectionRegistry;
+        this.frameLimits = frameLimits;
+    }
+
+    void setHandler(ChannelHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void writeSocketResponse(String response) {
+        write(BinaryFrame.RESPONSE, null, Message.of(response));
+    }
+
+    @Override
+    public void writeMessage(Message message) {
+        write(BinaryFrame.DELIVER, null, message);
+    }
+
+    @Override
+    public void writeMessage(Message message, long deliveryTag) {
+        write(BinaryFrame.DELIVER, Long.toString(deliveryTag).getBytes(StandardCharsets.US_ASCII), message);
+    }
+
+    /**
+     * Switches this connection to {@link BinaryFrame}s. Bytes received after the current line are decoded as
+     * frames, and responses and messages written afterward are sent as frames.
+     */
+    @Override
+    public void switchToBinary() {
+        outputLock.lock();
+        try {
+            binary = true;
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    /**
+     * @param tag the delivery tag, or {@code null} if the payload does not have to be acknowledged
+     */
+    private void write(byte opcode, byte[] tag, Message payload) {
+        if (isClosed()) return;
+        boolean inEventLoop = eventLoop.inEventLoop();
+        boolean failed = false;
+        outputLock.lock();
+        try {
+            while (!inEventLoop && writeBuffer.position() + queuedBytes > HIGH_WATER_MARK && !isClosed()) {
+                outputDrained.await(100, TimeUnit.MILLISECONDS);
+            }
+            // closed while waiting, queued output would no longer be released
+            if (isClosed()) return;
+            int tagLength = tag == null ? 0 : tag.length;
+            if (binary) {
+                ensureWriteCapacity(BinaryFrame.HEADER_LENGTH + tagLength);
+                writeBuffer.put(BinaryFrame.header(opcode, tagLength, payload.length()));
+                if (tag != null) writeBuffer.put(tag);
+                writePayload(payload);
+            } else {
+                ensureWriteCapacity(tagLength + 1);
+                if (tag != null) writeBuffer.put(tag).put((byte) ' ');
+                writePayload(payload);
+                ensureWriteCapacity(1);
+                writeBuffer.put((byte) '\n');
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error reading payload", e);
+            failed = true;
+        } finally {
+            outputLock.unlock();
+        }
+        if (failed) {
+            close();
+            return;
+        }
+        if (!inEventLoop && flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::writePending);
+        }
+    }
+
+    /**
+     * Appends the payload to the output. A spooled payload is queued behind the buffered output instead and retained
+     * until it has been transferred to the channel.
+     */
+    private void writePayload(Message payload) throws IOException {
+        if (!payload.isSpooled()) {
+            ensureWriteCapacity(Math.toIntExact(payload.length()));
+            payload.copyTo(writeBuffer);
+            return;
+        }
+        if (writeBuffer.position() > 0) {
+            queue(new BufferedOutput(writeBuffer.flip()));
+            writeBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+        payload.retain();
+        queue(new SpooledOutput(payload));
+    }
+
+    private void queue(QueuedOutput output) {
+        queuedOutput.add(output);
+        queuedBytes += output.remaining();
+    }
+
+    /**
+     * Responses written on the event loop are flushed once the current read has been processed and responses
+     * written from other threads as soon as the event loop picks them up. On the event loop, this writes the
+     * pending responses right away.
+     */
+    @Override
+    public void flush() {
+        if (eventLoop.inEventLoop()) {
+            writePending();
+        }
+    }
+
+    /**
+     * Closes the connection as soon as all pending responses have been written.
+     */
+    public void closeAfterFlush() {
+        closeAfterFlush = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return channel.socket().getLocalAddress();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * @return the capacity of the read and write buffers, which every connection holds on the heap while it is open
+     */
+    public int bufferCapacity() {
+        outputLock.lock();
+        try {
+            return readBuffer.capacity() + writeBuffer.capacity();
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the available bytes, passes every complete line or frame to the handler and flushes the responses.
+     */
+    void handleRead() {
+        try {
+            if (channel.read(readBuffer) < 0) {
+                close();
+                return;
+            }
+        } catch (IOException e) {
+            close();
+            return;
+        }
+
+        readBuffer.flip();
+        int required = 0;
+        try {
+            while (!closeAfterFlush && !isClosed()) {
+                required = binary ? nextFrame() : nextLine();
+                if (required > 0) break;
+            }
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Closing connection after invalid input", e);
+            close();
+            return;
+        }
+        readBuffer.compact();
+        if (readBuffer.capacity() < required || !readBuffer.hasRemaining()) {
+            int capacity = Math.max(required, readBuffer.capacity() * 2);
+            readBuffer = ByteBuffer.allocate(capacity).put(readBuffer.flip());
+        } else if (readBuffer.position() == 0 && readBuffer.capacity() > INITIAL_BUFFER_SIZE
+                && required <= INITIAL_BUFFER_SIZE) {
+            readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+        writePending();
+    }
+
+    /**
+     * Passes the next complete line to the handler.
+     *
+     * @return {@code 0} if a line was consumed, otherwise the number of bytes the buffer has to hold
+     */
+    private int nextLine() {
+        byte[] buffer = readBuffer.array();
+        int lineStart = readBuffer.position();
+        for (int i = lineStart; i < readBuffer.limit(); i++) {
+            if (buffer[i] != '\n') continue;
+            readBuffer.position(i + 1);
+            if (discardingLine || i - lineStart > frameLimits.maxFrameBytes()) {
+                discardingLine = false;
+                rejectOversizedRequest();
+                return 0;
+            }
+            int lineEnd = i > lineStart && buffer[i - 1] == '\r' ? i - 1 : i;
+            handler.onLine(commandLine.parse(buffer, lineStart, lineEnd - lineStart));
+            return 0;
+        }
+        if (discardingLine || readBuffer.remaining() > frameLimits.maxFrameBytes()) {
+            discardingLine = true;
+            readBuffer.position(readBuffer.limit());
+            return 1;
+        }
+        return readBuffer.remaining() + 1;
+    }
+
+    /**
+     * Passes the next complete frame to the handler.
+     *
+     * @return {@code 0} if a frame was consumed, otherwise the number of bytes the buffer has to hold
+     */
+    private int nextFrame() throws IOException {
+        if (spooling != null) return continueSpooling();
+        if (discardRemaining > 0) return continueDiscarding();
+
+        byte[] buffer = readBuffer.array();
+        int frameStart = readBuffer.position();
+        if (readBuffer.remaining() < BinaryFrame.HEADER_LENGTH) return BinaryFrame.HEADER_LENGTH;
+
+        byte opcode = buffer[frameStart];
+        int routingKeyLength = BinaryFrame.routingKeyLength(buffer, frameStart);
+        int payloadLength = BinaryFrame.payloadLength(buffer, frameStart);
+        int routingKeyStart = frameStart + BinaryFrame.HEADER_LENGTH;
+        int payloadStart = routingKeyStart + routingKeyLength;
+        long frameLength = (long) BinaryFrame.HEADER_LENGTH + routingKeyLength + payloadLength;
+
+        if (frameLength <= frameLimits.maxFrameBytes()) {
+            if (readBuffer.remaining() < frameLength) return (int) frameLength;
+            readBuffer.position(payloadStart + payloadLength);
+            handler.onFrame(new BinaryFrame(
+                    opcode,
+                    new String(buffer, routingKeyStart, routingKeyLength, StandardCharsets.UTF_8),
+                    new Message(Arrays.copyOfRange(buffer, payloadStart, payloadStart + payloadLength))));
+            return 0;
+        }
+
+        int headerAndKeyLength = BinaryFrame.HEADER_LENGTH + routingKeyLength;
+        if (opcode == BinaryFrame.PUBLISH && frameLimits.maySpool(payloadLength)
+                && headerAndKeyLength <= frameLimits.maxFrameBytes()) {
+            if (readBuffer.remaining() < headerAndKeyLength) return headerAndKeyLength;
+            readBuffer.position(payloadStart);
+            spooling = SpoolingFrame.open(
+                    new String(buffer, routingKeyStart, routingKeyLength, StandardCharsets.UTF_8), payloadLength);
+            return continueSpooling();
+        }
+
+        readBuffer.position(routingKeyStart);
+        discardRemaining = frameLength - BinaryFrame.HEADER_LENGTH;
+        return continueDiscarding();
+    }
+
+    /**
+     * Writes the buffered part of the payload that is being spooled to its file and passes the frame to the handler
+     * once the payload is complete.
+     *
+     * @return {@code 0} if the frame was completed, otherwise {@code 1} to wait for more bytes
+     */
+    private int continueSpooling() throws IOException {
+        int chunk = (int) Math.min(spooling.remaining, readBuffer.remaining());
+        ByteBuffer bytes = readBuffer.slice(readBuffer.position(), chunk);
+        while (bytes.hasRemaining()) {
+            spooling.file.write(bytes);
+        }
+        readBuffer.position(readBuffer.position() + chunk);
+        spooling.remaining -= chunk;
+        if (spooling.remaining > 0) return 1;
+
+        SpoolingFrame frame = spooling;
+        spooling = null;
+        frame.file.close();
+        handler.onFrame(new BinaryFrame(BinaryFrame.PUBLISH, frame.routingKey, Message.spooled(frame.path, frame.length)));
+        return 0;
+    }
+
+    /**
+     * Drops the buffered part of an oversized frame and answers it once it has been discarded completely.
+     *
+     * @return {@code 0} if the frame was discarded completely, otherwise {@code 1} to wait for more bytes
+     */
+    private int continueDiscarding() {
+        int chunk = (int) Math.min(discardRemaining, readBuffer.remaining());
+        readBuffer.position(readBuffer.position() + chunk);
+        discardRemaining -= chunk;
+        if (discardRemaining > 0) return 1;
+        rejectOversizedRequest();
+        return 0;
+    }
+
+    private void rejectOversizedRequest() {
+        LOG.log(Level.FINE, "Discarded oversized request from {0}", channel.socket().getRemoteSocketAddress());
+        writeSocketResponse(frameLimits.errorResponse());
+    }
+
+    /**
+     * Writes as much of the pending output as the channel accepts and waits for write readiness otherwise.
+     */
+    void writePending() {
+        flushScheduled.set(false);
+        if (isClosed()) return;
+        boolean drained;
+        outputLock.lock();
+        try {
+            drained = writeQueuedOutput();
+            if (drained) {
+                writeBuffer.flip();
+                channel.write(writeBuffer);
+                drained = !writeBuffer.hasRemaining();
+                writeBuffer.compact();
+                if (drained && writeBuffer.capacity() > INITIAL_BUFFER_SIZE) {
+                    writeBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+                }
+            }
+            outputDrained.signalAll();
+        } catch (IOException e) {
+            close();
+            return;
+        } finally {
+            outputLock.unlock();
+        }
+
+        if (drained && closeAfterFlush) {
+            close();
+        } else if (selectionKey.isValid()) {
+            selectionKey.interestOps(drained ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * @return whether all queued output has been written
+     */
+    private boolean writeQueuedOutput() throws IOException {
+        QueuedOutput output;
+        while ((output = queuedOutput.peek()) != null) {
+            queuedBytes -= output.writeTo(channel);
+            if (output.remaining() > 0) return false;
+            queuedOutput.remove().close();
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        selectionKey.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error closing the channel", e);
+        }
+        connectionRegistry.unregister(channel);
+        if (spooling != null) {
+            spooling.abort();
+            spooling = null;
+        }
+        outputLock.lock();
+        try {
+            queuedOutput.forEach(QueuedOutput::close);
+            queuedOutput.clear();
+            queuedBytes = 0;
+            outputDrained.signalAll();
+        } finally {
+            outputLock.unlock();
+        }
+        if (handler != null) {
+            try {
+                handler.onClose();
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Error while closing the handler of a connection", e);
+            }
+        }
+    }
+
+    private void ensureWriteCapacity(int length) {
+        if (writeBuffer.remaining() >= length) return;
+        int capacity = writeBuffer.capacity();
+        while (capacity - writeBuffer.position() < length) {
+            capacity *= 2;
+        }
+        writeBuffer = ByteBuffer.allocate(capacity).put(writeBuffer.flip());
+    }
+
+    /**
+     * A publish frame whose payload is being streamed to a spool file.
+     */
+    private static final class SpoolingFrame {
+        private final String routingKey;
+        private final Path path;
+        private final FileChannel file;
+        private final long length;
+        private long remaining;
+
+        private SpoolingFrame(String routingKey, Path path, FileChannel file, long length) {
+            this.routingKey = routingKey;
+            this.path = path;
+            this.file = file;
+            this.length = length;
+            this.remaining = length;
+        }
+
+        static SpoolingFrame open(String routingKey, long length) throws IOException {
+            Path path = Files.createTempFile("smqp-", ".spool");
+            try {
+                return new SpoolingFrame(routingKey, path, FileChannel.open(path, StandardOpenOption.WRITE), length);
+            } catch (IOException e) {
+                Files.deleteIfExists(path);
+                throw e;
+            }
+        }
+
+        void abort() {
+            try (file) {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Error deleting spool file " + path, e);
+            }
+        }
+    }
+
+    /**
+     * Output queued ahead of the write buffer.
+     */
+    private interface QueuedOutput {
+        /**
+         * @return the number of bytes written, which may be less than the remaining bytes if the channel is full
+         */
+        long writeTo(SocketChannel channel) throws IOException;
+
+        long remaining();
+
+        void close();
+    }
+
+    private record BufferedOutput(ByteBuffer bytes) implements QueuedOutput {
+        @Override
+        public long writeTo(SocketChannel channel) throws IOException {
+            return channel.write(bytes);
+        }
+
+        @Override
+        public long remaining() {
+            return bytes.remaining();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A spooled payload, transferred from its file to the channel without copying it to the heap.
+     */
+    private static final class SpooledOutput implements QueuedOutput {
+        private final Message payload;
+        private FileChannel file;
+        private long position;
+
+        private SpooledOutput(Message payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public long writeTo(SocketChannel channel) throws IOException {
+            if (file == null) file = payload.openSpoolFile();
+            long written = file.transferTo(position, payload.length() - position, channel);
+            if (written == 0 && position >= file.size()) {
+                throw new IOException("Spool file of %s is truncated".formatted(payload));
+            }
+            position += written;
+            return written;
+        }
+
+        @Override
+        public long remaining() {
+            return payload.length() - position;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (file != null) file.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Error closing spooled payload", e);
+            } finally {
+                payload.release();
+            }
+        }
+    }
+}
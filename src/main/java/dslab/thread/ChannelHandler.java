@@ -0,0 +1,35 @@
+package dslab.thread;
+
+import dslab.util.BinaryFrame;
+import dslab.util.CommandLine;
+
+/**
+ * Protocol callbacks of a {@link ChannelConnection}. All methods are invoked on the event loop that owns
+ * the connection and must therefore never block.
+ */
+public interface ChannelHandler {
+
+    /**
+     * Called once after the connection has been registered with its event loop.
+     */
+    default void onOpen() {}
+
+    /**
+     * Called for every complete line received from the client.
+     *
+     * @param line the received line without line terminator, only valid for the duration of the call
+     */
+    void onLine(CommandLine line);
+
+    /**
+     * Called for every complete frame received after {@link ChannelConnection#switchToBinary()}.
+     *
+     * @param frame the received frame
+     */
+    default void onFrame(BinaryFrame frame) {}
+
+    /**
+     * Called once after the connection has been closed.
+     */
+    default void onClose() {}
+}
@@ -0,0 +1,116 @@
+package dslab.thread;
+
+import dslab.util.RateMeter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the open client connections of a {@link ServerListener} and enforces its connection limit.
+ *
+ * <p>Connections are admitted with {@link #tryRegister(Closeable)} right after they have been accepted and have to be
+ * removed with {@link #unregister(Closeable)} once they are closed, so the registry only ever holds live connections.
+ * All operations are lock-free: the connections are kept in a concurrent set and the counters are atomics, so the
+ * accepting threads never wait for each other or for connection threads that come and go.</p>
+ *
+ * <p>Every accepted connection, admitted or not, is also counted by a {@link RateMeter}, which shows how quickly
+ * the listener recovers from a reconnect storm, e.g. after a failover.</p>
+ */
+public class ConnectionRegistry implements Closeable {
+    private static final Logger LOG = Logger.getLogger(ConnectionRegistry.class.getName());
+    private final int maxConnections;
+    private final Set<Closeable> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger live = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final RateMeter acceptRate = new RateMeter();
+
+    /**
+     * @param maxConnections the maximum number of simultaneously open connections, {@code 0} for no limit
+     */
+    public ConnectionRegistry(int maxConnections) {
+        this.maxConnections = maxConnections > 0 ? maxConnections : Integer.MAX_VALUE;
+    }
+
+    public static ConnectionRegistry unbounded() {
+        return new ConnectionRegistry(0);
+    }
+
+    /**
+     * Admits a new connection unless the connection limit has been reached.
+     *
+     * @return {@code false} if the connection was rejected and has to be closed by the caller
+     */
+    public boolean tryRegister(Closeable connection) {
+        acceptRate.mark();
+        int current;
+        do {
+            current = live.get();
+            if (current >= maxConnections) {
+                rejected.increment();
+                return false;
+            }
+        } while (!live.compareAndSet(current, current + 1));
+
+        connections.add(connection);
+        accepted.increment();
+        peak.accumulateAndGet(current + 1, Math::max);
+        return true;
+    }
+
+    /**
+     * Removes a closed connection. Removing a connection that is not registered has no effect.
+     */
+    public void unregister(Closeable connection) {
+        if (connections.remove(connection)) {
+            live.decrementAndGet();
+        }
+    }
+
+    /**
+     * Closes and removes all registered connections and stops the accept-rate meter.
+     */
+    @Override
+    public void close() {
+        acceptRate.close();
+        for (Closeable connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Error while closing client connection", e);
+            }
+            unregister(connection);
+        }
+    }
+
+    public ConnectionStats stats() {
+        return new ConnectionStats(live.get(), peak.get(), accepted.sum(), rejected.sum(),
+                acceptRate.rate(), acceptRate.peakRate());
+    }
+
+    /**
+     * A snapshot of the counters of a {@link ConnectionRegistry}.
+     *
+     * @param live     the number of currently open connections
+     * @param peak     the highest number of simultaneously open connections
+     * @param accepted the number of connections admitted so far
+     * @param rejected the number of connections rejected because of the connection limit
+     * @param acceptRate     the number of connections accepted in the last full second, admitted or not
+     * @param peakAcceptRate the highest number of connections accepted within one second
+     */
+    public record ConnectionStats(int live, int peak, long accepted, long rejected, long acceptRate, long peakAcceptRate) {
+
+        @Override
+        public String toString() {
+            return "live=%d peak=%d accepted=%d rejected=%d accepts/s=%d peak accepts/s=%d"
+                    .formatted(live, peak, accepted, rejected, acceptRate, peakAcceptRate);
+        }
+    }
+}
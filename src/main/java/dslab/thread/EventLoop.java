@@ -0,0 +1,128 @@
+package dslab.thread;
+
+import dslab.util.FrameLimits;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A single threaded selector loop serving any number of {@link ChannelConnection}s.
+ * Work from other threads is submitted through {@link #execute(Runnable)} and runs between two selections.
+ * A connection whose handler fails with an unexpected exception is closed, the loop keeps serving the others.
+ */
+class EventLoop implements Runnable {
+    private static final Logger LOG = Logger.getLogger(EventLoop.class.getName());
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile Thread thread;
+    private volatile boolean running = true;
+
+    EventLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    void register(SocketChannel channel, Function<ChannelConnection, ChannelHandler> channelHandler,
+                  ConnectionRegistry connectionRegistry, FrameLimits frameLimits) {
+        execute(() -> {
+            ChannelConnection connection = null;
+            try {
+                channel.configureBlocking(false);
+                SelectionKey selectionKey = channel.register(selector, SelectionKey.OP_READ);
+                connection = new ChannelConnection(channel, selectionKey, this, connectionRegistry, frameLimits);
+                ChannelHandler handler = channelHandler.apply(connection);
+                connection.setHandler(handler);
+                selectionKey.attach(connection);
+                handler.onOpen();
+                connection.writePending();
+            } catch (IOException | RuntimeException e) {
+                LOG.log(Level.WARNING, "Error while registering client channel", e);
+                if (connection != null) {
+                    connection.close();
+                } else {
+                    closeQuietly(channel);
+                    connectionRegistry.unregister(channel);
+                }
+            }
+        });
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "Error while selecting ready channels", e);
+                break;
+            }
+            runTasks();
+            for (SelectionKey selectionKey : selector.selectedKeys()) {
+                ChannelConnection connection = (ChannelConnection) selectionKey.attachment();
+                try {
+                    if (selectionKey.isValid() && selectionKey.isReadable()) {
+                        connection.handleRead();
+                    }
+                    if (selectionKey.isValid() && selectionKey.isWritable()) {
+                        connection.writePending();
+                    }
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Closing client connection after an unexpected error", e);
+                    connection.close();
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+
+        for (SelectionKey selectionKey : selector.keys()) {
+            if (selectionKey.attachment() instanceof ChannelConnection connection) {
+                connection.close();
+            } else {
+                closeQuietly((SocketChannel) selectionKey.channel());
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error while closing selector", e);
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Error while running event loop task", e);
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -4,6 +4,8 @@ package dslab.thread;
 import dslab.config.BrokerConfig;
 import dslab.entity.BrokerStateManager;
 import dslab.protocol.LepProtocol;
+import dslab.util.CommandLine;
+import dslab.util.FlushPolicy;
 import dslab.util.IOReadWrite;
 import lombok.RequiredArgsConstructor;
 
@@ -19,12 +21,13 @@ public class LepTcpThread implements Runnable  {
 
     @Override
     public void run() {
-        try (IOReadWrite io = new IOReadWrite(socket);
+        try (IOReadWrite io = new IOReadWrite(socket, FlushPolicy.IDLE, brokerConfig.listener().readTimeouts(),
+                brokerConfig.listener().frameLimits());
              LepProtocol lepProtocol = new LepProtocol(brokerConfig, brokerStateManager)) {
-            String message;
+            CommandLine command = new CommandLine();
             io.writeSocketResponse("ok LEP");
-            while ((message = io.readRequest()) != null){
-                String[] command = message.split(" ");
+            io.flush();
+            while (io.readCommand(command)){
                 Optional<String> response = lepProtocol.processCommand(command, io);
                 response.ifPresent(io::writeSocketResponse);
                 if (response.isPresent() && "error usage: <command> <args>".equals(response.get())) {
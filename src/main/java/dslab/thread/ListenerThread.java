@@ -8,8 +8,7 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Function;
@@ -26,7 +25,10 @@ import java.util.logging.Logger;
  *
  * <p>The class manages the lifecycle of client connections by performing the following tasks:
  * <ul>
- *     <li>Accepting client connections using a {@link ServerSocket}.</li>
+ *     <li>Accepting client connections using a {@link ServerSocket}, optionally on several accept workers so that
+ *     a reconnect storm does not pile up in the kernel's accept backlog.</li>
+ *     <li>Admitting connections through a {@link ConnectionRegistry}, which rejects them once the connection limit
+ *     is reached and forgets them again when their task ends.</li>
  *     <li>Delegating each connection to a task in a thread pool for processing.</li>
  *     <li>Handling client connections as virtual threads for lightweight, efficient management of concurrent connections.</li>
  *     <li>Gracefully shutting down and cleaning up resources, including closing client and server sockets.</li>
@@ -37,7 +39,9 @@ import java.util.logging.Logger;
  * ListenerThread listener = ListenerThread.builder()
  *     .componentId("MyServer")
  *     .serverSocket(new ServerSocket(8080))
- *     .clientConnectionRunnableProvider(socket -> () -> {
+ *     .connectionRegistry(new ConnectionRegistry(1000))
+ *     .acceptWorkers(4)
+ *     .clientConnectionRunnable(socket -> () -> {
  *         // Handle socket communication
  *     })
  *     .build();
@@ -49,22 +53,50 @@ import java.util.logging.Logger;
 
 @RequiredArgsConstructor
 @Builder
-public class ListenerThread extends Thread {
+public class ListenerThread extends Thread implements ServerListener {
     private static final Logger LOG = Logger.getLogger(ListenerThread.class.getName());
+    private static final byte[] REJECTION = "error too many connections\n".getBytes(StandardCharsets.UTF_8);
     private final String componentId;
     private final ServerSocket serverSocket;
     private final Function<Socket, Runnable> clientConnectionRunnable;
+    @lombok.Builder.Default
+    private final ConnectionRegistry connectionRegistry = ConnectionRegistry.unbounded();
+    @lombok.Builder.Default
+    private final int acceptWorkers = 1;
     private final ExecutorService threadPool = Executors.newCachedThreadPool(Thread.ofVirtual().factory());
-    private final List<Socket> activeClientConnections = new LinkedList<>();
 
+    /**
+     * Runs the first accept worker on this thread and starts the others on threads of their own.
+     * All workers accept on the same {@link ServerSocket}, so the admission and the hand-off of a connection
+     * overlap with the next {@code accept()}.
+     */
     @Override
     public void run() {
-        LOG.log(Level.INFO, String.format("%s started, now listening on port %d", componentId, serverSocket.getLocalPort()));
+        LOG.log(Level.INFO, String.format("%s started with %d accept workers, now listening on port %d",
+                componentId, Math.max(1, acceptWorkers), serverSocket.getLocalPort()));
+        for (int i = 1; i < acceptWorkers; i++) {
+            Thread.ofPlatform().name("%s-accept-%d".formatted(componentId, i)).start(this::acceptConnections);
+        }
+        acceptConnections();
+    }
+
+    private void acceptConnections() {
         while (!serverSocket.isClosed()) {
             try {
                 Socket socket = serverSocket.accept();
-                activeClientConnections.add(socket);
-                threadPool.execute(clientConnectionRunnable.apply(socket));
+                if (!connectionRegistry.tryRegister(socket)) {
+                    reject(socket);
+                    continue;
+                }
+                Runnable connection = clientConnectionRunnable.apply(socket);
+                threadPool.execute(() -> {
+                    try {
+                        connection.run();
+                    } finally {
+                        closeQuietly(socket);
+                        connectionRegistry.unregister(socket);
+                    }
+                });
             } catch (SocketException ignored) {
             } catch (IOException e) {
                 LOG.log(Level.SEVERE, "Error while accepting connection from client", e);
@@ -72,6 +104,7 @@ public class ListenerThread extends Thread {
         }
     }
 
+    @Override
     public void shutdown() {
         threadPool.shutdown();
         if (!serverSocket.isClosed()) {
@@ -82,17 +115,31 @@ public class ListenerThread extends Thread {
             }
         }
 
-        for (Socket clientSocket : activeClientConnections) {
-            if (!clientSocket.isClosed()) {
-                try {
-                    clientSocket.close();
-                } catch (IOException e) {
-                    LOG.log(Level.WARNING, "Error while closing client socket", e);
-                }
-            }
-        }
+        connectionRegistry.close();
 
-        LOG.info(String.format("%s shutdown complete",this.componentId));
+        LOG.info(String.format("%s shutdown complete, connections: %s", this.componentId, connectionRegistry.stats()));
+    }
+
+    @Override
+    public ConnectionRegistry.ConnectionStats connectionStats() {
+        return connectionRegistry.stats();
+    }
+
+    /**
+     * Tells the client that the connection limit has been reached and closes the connection right away.
+     */
+    private static void reject(Socket socket) {
+        try (socket) {
+            socket.getOutputStream().write(REJECTION);
+        } catch (IOException ignored) {}
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error while closing client socket", e);
+        }
     }
 
 }
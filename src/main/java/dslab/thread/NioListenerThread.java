@@ -0,0 +1,126 @@
+package dslab.thread;
+
+
+import dslab.util.FrameLimits;
+import lombok.Builder;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@code NioListenerThread} is the selector based alternative to {@link ListenerThread}.
+ * It accepts incoming connections on a {@link ServerSocketChannel} and distributes them round-robin
+ * over a fixed number of {@link EventLoop}s, each running on its own thread.
+ *
+ * <p>Instead of a thread per connection, every connection only costs its read and write buffers.
+ * This makes the transport suitable for a large number of mostly idle clients. As with {@link ListenerThread},
+ * connections beyond the limit of the {@link ConnectionRegistry} are rejected right after they are accepted.</p>
+ *
+ * <p>Usage example:</p>
+ * <pre>{@code
+ * NioListenerThread listener = NioListenerThread.builder()
+ *     .componentId("MyServer")
+ *     .serverSocketChannel(ServerSocketChannel.open().bind(new InetSocketAddress(8080)))
+ *     .eventLoops(4)
+ *     .channelHandler(connection -> line -> connection.writeSocketResponse(line.toString()))
+ *     .build();
+ * listener.start();
+ * }</pre>
+ */
+@RequiredArgsConstructor
+@Builder
+public class NioListenerThread extends Thread implements ServerListener {
+    private static final Logger LOG = Logger.getLogger(NioListenerThread.class.getName());
+    private static final byte[] REJECTION = "error too many connections\n".getBytes(StandardCharsets.UTF_8);
+    private final String componentId;
+    private final ServerSocketChannel serverSocketChannel;
+    private final int eventLoops;
+    private final Function<ChannelConnection, ChannelHandler> channelHandler;
+    @lombok.Builder.Default
+    private final ConnectionRegistry connectionRegistry = ConnectionRegistry.unbounded();
+    @lombok.Builder.Default
+    private final int acceptWorkers = 1;
+    @lombok.Builder.Default
+    private final FrameLimits frameLimits = FrameLimits.UNLIMITED;
+    private final List<EventLoop> loops = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    @Override
+    public void run() {
+        try {
+            for (int i = 0; i < Math.max(1, eventLoops); i++) {
+                EventLoop loop = new EventLoop();
+                loops.add(loop);
+                Thread.ofPlatform().name("%s-loop-%d".formatted(componentId, i)).start(loop);
+            }
+            LOG.log(Level.INFO, String.format("%s started with %d event loops and %d accept workers, now listening on port %d",
+                    componentId, loops.size(), Math.max(1, acceptWorkers), serverSocketChannel.socket().getLocalPort()));
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Error while opening event loops", e);
+            shutdown();
+            return;
+        }
+
+        for (int i = 1; i < acceptWorkers; i++) {
+            Thread.ofPlatform().name("%s-accept-%d".formatted(componentId, i)).start(this::acceptConnections);
+        }
+        acceptConnections();
+        loops.forEach(EventLoop::shutdown);
+    }
+
+    private void acceptConnections() {
+        while (serverSocketChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverSocketChannel.accept();
+                if (!connectionRegistry.tryRegister(channel)) {
+                    reject(channel);
+                    continue;
+                }
+                loops.get(Math.floorMod(nextLoop.getAndIncrement(), loops.size()))
+                        .register(channel, channelHandler, connectionRegistry, frameLimits);
+            } catch (AsynchronousCloseException ignored) {
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "Error while accepting connection from client", e);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            serverSocketChannel.close();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error while closing server socket channel", e);
+        }
+        loops.forEach(EventLoop::shutdown);
+        connectionRegistry.close();
+
+        LOG.info(String.format("%s shutdown complete, connections: %s", this.componentId, connectionRegistry.stats()));
+    }
+
+    @Override
+    public ConnectionRegistry.ConnectionStats connectionStats() {
+        return connectionRegistry.stats();
+    }
+
+    /**
+     * Tells the client that the connection limit has been reached and closes the connection right away.
+     * The freshly accepted channel is still blocking, and the rejection fits into its empty send buffer.
+     */
+    private static void reject(SocketChannel channel) {
+        try (channel) {
+            channel.write(ByteBuffer.wrap(REJECTION));
+        } catch (IOException ignored) {}
+    }
+}
@@ -3,7 +3,11 @@ package dslab.thread;
 
 import dslab.protocol.Protocol;
 import dslab.protocol.SdpProtocol;
+import dslab.util.CommandLine;
+import dslab.util.FlushPolicy;
+import dslab.util.FrameLimits;
 import dslab.util.IOReadWrite;
+import dslab.util.ReadTimeouts;
 import lombok.RequiredArgsConstructor;
 
 import java.io.IOException;
@@ -14,19 +18,21 @@ import java.util.concurrent.ConcurrentHashMap;
 public class SdpTcpThread implements Runnable {
     private final ConcurrentHashMap<String, String> dnsEntries;
     private final Socket socket;
+    private final ReadTimeouts readTimeouts;
+    private final FrameLimits frameLimits;
 
     @Override
     public void run() {
         Protocol protocol = new SdpProtocol(dnsEntries);
-        try (IOReadWrite ioReadWrite = new IOReadWrite(socket)) {
+        try (IOReadWrite ioReadWrite = new IOReadWrite(socket, FlushPolicy.IDLE, readTimeouts, frameLimits)) {
 
             ioReadWrite.writeSocketResponse("ok SDP");
-            String clientRequest;
-            while ((clientRequest = ioReadWrite.readRequest()) != null) {
-                String[] command = clientRequest.split(" ");
-                Optional<String> response = protocol.processCommand(command);
+            ioReadWrite.flush();
+            CommandLine clientRequest = new CommandLine();
+            while (ioReadWrite.readCommand(clientRequest)) {
+                Optional<String> response = protocol.processCommand(clientRequest);
                 response.ifPresent(ioReadWrite::writeSocketResponse);
-                if("exit".equals(clientRequest)) break;
+                if(clientRequest.isLine("exit")) break;
             }
 
         }  catch (IOException ignored) {}
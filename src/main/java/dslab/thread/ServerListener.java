@@ -0,0 +1,19 @@
+package dslab.thread;
+
+/**
+ * A listener that accepts client connections on a server port and hands them to their protocol handlers.
+ *
+ * @see ListenerThread
+ * @see NioListenerThread
+ */
+public interface ServerListener {
+
+    void start();
+
+    void shutdown();
+
+    /**
+     * @return a snapshot of the connection counters of this listener
+     */
+    ConnectionRegistry.ConnectionStats connectionStats();
+}
@@ -0,0 +1,44 @@
+package dslab.thread;
+
+import dslab.entity.Exchange;
+import dslab.entity.Queue;
+import dslab.entity.QueueFactory;
+import dslab.entity.RoutingOptions;
+import dslab.util.BinaryFrame;
+import dslab.util.CommandLine;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves the SMQP protocol on a {@link ChannelConnection}, the event loop counterpart of {@link SmqpTcpThread}.
+ */
+public class SmqpChannelHandler implements ChannelHandler {
+    private final ChannelConnection connection;
+    private final SmqpSession session;
+
+    public SmqpChannelHandler(ConcurrentHashMap<String, Exchange> exchanges, ConcurrentHashMap<String, Queue> queues,
+                              QueueFactory queueFactory, RoutingOptions routingOptions, ChannelConnection connection) {
+        this.connection = connection;
+        this.session = new SmqpSession(exchanges, queues, queueFactory, routingOptions, connection);
+    }
+
+    @Override
+    public void onOpen() {
+        connection.writeSocketResponse("ok SMQP");
+    }
+
+    @Override
+    public void onLine(CommandLine clientRequest) {
+        if (!session.handleLine(clientRequest)) connection.closeAfterFlush();
+    }
+
+    @Override
+    public void onFrame(BinaryFrame frame) {
+        if (!session.handleFrame(frame)) connection.closeAfterFlush();
+    }
+
+    @Override
+    public void onClose() {
+        session.close();
+    }
+}
@@ -0,0 +1,104 @@
+package dslab.thread;
+
+import dslab.config.Config;
+import dslab.entity.Exchange;
+import dslab.entity.Queue;
+import dslab.entity.QueueFactory;
+import dslab.entity.RoutingOptions;
+import dslab.protocol.SmqpProtocol;
+import dslab.util.BinaryFrame;
+import dslab.util.ClientConnection;
+import dslab.util.CommandLine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handles the requests of a single SMQP client, independent of the transport that carries them.
+ * Used by {@link SmqpTcpThread} and {@link SmqpChannelHandler}.
+ *
+ * <p>Besides the SMQP commands, the session handles the {@code binary} request which switches the
+ * connection to {@link BinaryFrame}s, and reports every successfully published message to the
+ * monitoring server. The messages of a batch are reported in one record per routing key.</p>
+ */
+class SmqpSession implements Closeable {
+    private final ClientConnection connection;
+    private final SmqpProtocol protocol;
+    private final CommandLine frameCommand = new CommandLine();
+
+    SmqpSession(ConcurrentHashMap<String, Exchange> exchanges, ConcurrentHashMap<String, Queue> queues,
+                QueueFactory queueFactory, RoutingOptions routingOptions, ClientConnection connection) {
+        this.connection = connection;
+        this.protocol = new SmqpProtocol(exchanges, queues, this::sendUdpMonitoringMessage, queueFactory,
+                routingOptions);
+    }
+
+    /**
+     * @param command the received request line
+     * @return {@code false} if the client ended the session
+     */
+    boolean handleLine(CommandLine command) {
+        if (protocol.isCollectingBatch()) {
+            protocol.processCommand(command, connection).ifPresent(connection::writeSocketResponse);
+            return true;
+        }
+        if (command.isLine("binary")) {
+            connection.writeSocketResponse("ok binary");
+            connection.switchToBinary();
+            return true;
+        }
+        protocol.processCommand(command, connection).ifPresent(connection::writeSocketResponse);
+        return !command.isLine("exit");
+    }
+
+    /**
+     * @param frame the received frame
+     * @return {@code false} if the client ended the session
+     */
+    boolean handleFrame(BinaryFrame frame) {
+        switch (frame.opcode()) {
+            case BinaryFrame.PUBLISH -> {
+                protocol.processPublish(frame.routingKey(), frame.payload()).ifPresent(connection::writeSocketResponse);
+            }
+            case BinaryFrame.COMMAND -> {
+                byte[] payload = frame.payload().getPayload();
+                return handleLine(frameCommand.parse(payload, 0, payload.length));
+            }
+            default -> connection.writeSocketResponse("error unknown opcode %d".formatted(frame.opcode()));
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        protocol.close();
+    }
+
+    /**
+     * Reports published messages as {@code <host>:<port> <routing-key>} for a single message, or as
+     * {@code <host>:<port> <routing-key> <count>} for several messages with the same routing key.
+     */
+    private void sendUdpMonitoringMessage(String routingKey, int count){
+        try (DatagramSocket datagramSocket = new DatagramSocket()) {
+            String udpMessage = String.format("%s:%d %s",
+                    connection.getLocalAddress().getHostAddress(),
+                    connection.getLocalPort(),
+                    routingKey);
+            if (count != 1) {
+                udpMessage += " " + count;
+            }
+            byte[] data = udpMessage.getBytes(StandardCharsets.UTF_8);
+            DatagramPacket packet = new DatagramPacket(
+                    data,
+                    data.length,
+                    InetAddress.getLocalHost(),
+                    new Config("monitoring-0.properties").getInt("monitoring.port"));
+            datagramSocket.send(packet);
+        } catch (IOException ignored) {}
+    }
+}
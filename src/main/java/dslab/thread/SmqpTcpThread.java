@@ -1,56 +1,57 @@
 package dslab.thread;
 
-import dslab.config.Config;
 import dslab.entity.Exchange;
 import dslab.entity.Queue;
-import dslab.protocol.SmqpProtocol;
+import dslab.entity.QueueFactory;
+import dslab.entity.RoutingOptions;
+import dslab.util.BinaryFrame;
+import dslab.util.CommandLine;
+import dslab.util.FlushPolicy;
+import dslab.util.FrameLimits;
 import dslab.util.IOReadWrite;
+import dslab.util.ReadTimeouts;
 import lombok.RequiredArgsConstructor;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
 import java.net.Socket;
-import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+/**
+ * Serves the SMQP protocol on a single client connection.
+ *
+ * <p>Clients may pipeline commands: requests are processed strictly in order, and their responses are
+ * buffered according to the given {@link FlushPolicy}. With {@link FlushPolicy#IDLE}, they are flushed
+ * together once no further request is waiting to be read. Idle and half-open connections are closed according
+ * to the given {@link ReadTimeouts}, and oversized requests are rejected according to the given {@link FrameLimits}.</p>
+ */
 @RequiredArgsConstructor
 public class SmqpTcpThread implements Runnable {
     private final ConcurrentHashMap<String, Exchange> exchanges;
     private final ConcurrentHashMap<String, Queue> queues;
+    private final QueueFactory queueFactory;
+    private final RoutingOptions routingOptions;
     private final Socket socket;
+    private final FlushPolicy flushPolicy;
+    private final ReadTimeouts readTimeouts;
+    private final FrameLimits frameLimits;
 
     @Override
     public void run() {
-        try (SmqpProtocol protocol = new SmqpProtocol(exchanges, queues);
-             IOReadWrite ioReadWrite = new IOReadWrite(socket)) {
+        try (IOReadWrite ioReadWrite = new IOReadWrite(socket, flushPolicy, readTimeouts, frameLimits);
+             SmqpSession session = new SmqpSession(exchanges, queues, queueFactory, routingOptions, ioReadWrite)) {
 
             ioReadWrite.writeSocketResponse("ok SMQP");
-            String clientRequest;
-            while ((clientRequest = ioReadWrite.readRequest()) != null) {
-                String[] command = clientRequest.split(" ");
-                Optional<String> response = protocol.processCommand(command, ioReadWrite);
-                response.ifPresent(ioReadWrite::writeSocketResponse);
-                if ("publish".equals(command[0]) && response.filter("ok"::equals).isPresent()) {
-                    sendUdpMonitoringMessage(ioReadWrite, command[1]);
+            ioReadWrite.flush();
+            CommandLine clientRequest = new CommandLine();
+            boolean proceed = true;
+            while (proceed) {
+                if (ioReadWrite.isBinary()) {
+                    BinaryFrame frame = ioReadWrite.readFrame();
+                    proceed = frame != null && session.handleFrame(frame);
+                } else {
+                    proceed = ioReadWrite.readCommand(clientRequest) && session.handleLine(clientRequest);
                 }
-                else if("exit".equals(clientRequest)) break;
             }
 
         } catch (IOException ignored){}
     }
-    private void sendUdpMonitoringMessage(IOReadWrite ioReadWrite, String routingKey){
-        try (DatagramSocket datagramSocket = new DatagramSocket()) {
-            String udpMessage = String.format("%s:%d %s",
-                    ioReadWrite.getSocket().getLocalAddress().getHostAddress(),
-                    ioReadWrite.getSocket().getLocalPort(),
-                    routingKey);
-            DatagramPacket packet = new DatagramPacket(
-                    udpMessage.getBytes(),
-                    udpMessage.length(),
-                    InetAddress.getLocalHost(),
-                    new Config("monitoring-0.properties").getInt("monitoring.port"));
-            datagramSocket.send(packet);
-        } catch (IOException ignored) {}
-    }
 }
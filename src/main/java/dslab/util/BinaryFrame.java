@@ -0,0 +1,105 @@
+package dslab.util;
+
+import dslab.entity.Message;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A frame of the binary SMQP framing, which a client can switch to by sending {@code binary} after the
+ * {@code ok SMQP} greeting. The broker confirms with {@code ok binary}; from then on both directions only
+ * exchange frames. The client must wait for the confirmation before sending its first frame.
+ *
+ * <pre>
+ * +--------+--------------------+----------------+-------------+---------+
+ * | opcode | routing-key length | payload length | routing-key | payload |
+ * | 1 byte | 2 bytes, unsigned  | 4 bytes        | UTF-8       | raw     |
+ * +--------+--------------------+----------------+-------------+---------+
+ * </pre>
+ * All numbers are big-endian.
+ *
+ * <ul>
+ *     <li>{@link #PUBLISH} - client to broker, publishes the payload with the routing key on the current exchange.</li>
+ *     <li>{@link #COMMAND} - client to broker, a text command such as {@code queue <name>} carried in the payload.</li>
+ *     <li>{@link #RESPONSE} - broker to client, the text response to a command carried in the payload.</li>
+ *     <li>{@link #DELIVER} - broker to client, a message of the subscribed queue.</li>
+ * </ul>
+ *
+ * <p>Frames are limited to the maximum frame size of the connection. Only the payload of a {@link #PUBLISH} frame
+ * may exceed it, in which case it is spooled to disk while it is received instead of being held in memory.</p>
+ *
+ * @param opcode     the kind of frame
+ * @param routingKey the routing key, empty if the frame has none
+ * @param payload    the payload, possibly spooled to disk
+ */
+public record BinaryFrame(
+        byte opcode,
+        String routingKey,
+        Message payload
+) {
+    public static final int HEADER_LENGTH = 7;
+    public static final byte PUBLISH = 1;
+    public static final byte COMMAND = 2;
+    public static final byte RESPONSE = 3;
+    public static final byte DELIVER = 4;
+
+    public static BinaryFrame of(byte opcode, String text) {
+        return new BinaryFrame(opcode, "", Message.of(text));
+    }
+
+    public String payloadText() {
+        return payload.getText();
+    }
+
+    /**
+     * @return the routing key length of the header starting at {@code offset}
+     */
+    public static int routingKeyLength(byte[] header, int offset) {
+        return (header[offset + 1] & 0xFF) << 8 | (header[offset + 2] & 0xFF);
+    }
+
+    /**
+     * @return the payload length of the header starting at {@code offset}
+     * @throws IOException if the length is negative
+     */
+    public static int payloadLength(byte[] header, int offset) throws IOException {
+        int payloadLength = (header[offset + 3] & 0xFF) << 24 | (header[offset + 4] & 0xFF) << 16
+                | (header[offset + 5] & 0xFF) << 8 | (header[offset + 6] & 0xFF);
+        if (payloadLength < 0) throw new IOException("Invalid payload length %d".formatted(payloadLength));
+        return payloadLength;
+    }
+
+    /**
+     * Writes a frame to the given stream.
+     *
+     * @return the number of bytes written
+     */
+    public static int write(OutputStream out, byte opcode, byte[] routingKey, byte[] payload) throws IOException {
+        out.write(header(opcode, routingKey.length, payload.length));
+        out.write(routingKey);
+        out.write(payload);
+        return HEADER_LENGTH + routingKey.length + payload.length;
+    }
+
+    /**
+     * Writes a frame to the given stream, copying a spooled payload in chunks.
+     *
+     * @return the number of bytes written
+     */
+    public static long write(OutputStream out, byte opcode, byte[] routingKey, Message payload) throws IOException {
+        out.write(header(opcode, routingKey.length, payload.length()));
+        out.write(routingKey);
+        payload.writeTo(out);
+        return HEADER_LENGTH + routingKey.length + payload.length();
+    }
+
+    public static byte[] header(byte opcode, int routingKeyLength, long payloadLength) {
+        if (routingKeyLength > 0xFFFF) throw new IllegalArgumentException("Routing key too long");
+        if (payloadLength > Integer.MAX_VALUE) throw new IllegalArgumentException("Payload too long");
+        return new byte[]{
+                opcode,
+                (byte) (routingKeyLength >>> 8), (byte) routingKeyLength,
+                (byte) (payloadLength >>> 24), (byte) (payloadLength >>> 16), (byte) (payloadLength >>> 8), (byte) payloadLength
+        };
+    }
+}
@@ -0,0 +1,52 @@
+package dslab.util;
+
+import dslab.entity.Message;
+
+import java.net.InetAddress;
+
+/**
+ * A line based connection to a client, independent of the transport that carries it.
+ * Implemented by the blocking {@link IOReadWrite} and the selector based {@link dslab.thread.ChannelConnection}.
+ */
+public interface ClientConnection {
+
+    /**
+     * Sends a single response line to the client. May be called from any thread.
+     *
+     * @param response the response without line terminator
+     */
+    void writeSocketResponse(String response);
+
+    /**
+     * Delivers a message to a subscribed client. May be called from any thread.
+     *
+     * @param message the message to deliver
+     */
+    void writeMessage(Message message);
+
+    /**
+     * Delivers a message that the client has to acknowledge. A line starts with the delivery tag followed by a
+     * space, a {@link BinaryFrame#DELIVER} frame carries the tag as its routing key. May be called from any thread.
+     *
+     * @param message     the message to deliver
+     * @param deliveryTag the tag the client acknowledges the message with
+     */
+    void writeMessage(Message message, long deliveryTag);
+
+    /**
+     * Pushes all responses written so far to the client.
+     */
+    void flush();
+
+    /**
+     * Switches the connection to {@link BinaryFrame}s once the current request has been handled.
+     * Responses and messages written afterward are sent as frames.
+     */
+    void switchToBinary();
+
+    boolean isClosed();
+
+    InetAddress getLocalAddress();
+
+    int getLocalPort();
+}
@@ -0,0 +1,221 @@
+package dslab.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A reusable, zero-copy view of a single request line split into space separated tokens.
+ *
+ * <p>Instead of splitting the line into strings, {@link #parse(byte[], int, int)} only records the offsets of the
+ * tokens within the given buffer. Opcodes and keywords are compared in place, and strings or byte arrays are only
+ * created for the tokens a protocol actually keeps, e.g. a queue name or a message payload. Tokens follow the rules
+ * of {@code line.split(" ")}: consecutive spaces produce empty tokens and trailing spaces are ignored.</p>
+ *
+ * <p>The view refers to the buffer it was parsed from and is only valid until that buffer is reused, typically
+ * when the next line is read. The payload of a {@code publish} command is available as one slice covering the rest
+ * of the line through {@link #copyFrom(int)}.</p>
+ *
+ * <p>Usage example:
+ * <pre>{@code
+ * CommandLine command = new CommandLine();
+ * while (io.readCommand(command)) {
+ *     if (command.is(0, "publish")) {
+ *         Message message = new Message(command.copyFrom(2));
+ *     }
+ * }
+ * }</pre>
+ */
+public final class CommandLine {
+    private byte[] buffer = new byte[0];
+    private int[] tokenStarts = new int[8];
+    private int[] tokenEnds = new int[8];
+    private int size;
+    private int start;
+    private int end;
+
+    public static CommandLine of(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return new CommandLine().parse(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Splits the given part of the buffer into tokens, replacing the previous contents of this view.
+     *
+     * @return this view
+     */
+    public CommandLine parse(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.start = offset;
+        int limit = offset + length;
+        while (limit > offset && buffer[limit - 1] == ' ') limit--;
+        this.end = limit;
+
+        size = 0;
+        int tokenStart = offset;
+        for (int i = offset; i < limit; i++) {
+            if (buffer[i] == ' ') {
+                addToken(tokenStart, i);
+                tokenStart = i + 1;
+            }
+        }
+        addToken(tokenStart, limit);
+        return this;
+    }
+
+    /**
+     * @return the number of tokens including the opcode, at least {@code 1}
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Compares a token with an ASCII keyword without decoding it.
+     *
+     * @return {@code true} if the token at {@code index} exists and equals the keyword
+     */
+    public boolean is(int index, String keyword) {
+        if (index >= size || tokenEnds[index] - tokenStarts[index] != keyword.length()) return false;
+        for (int i = 0, position = tokenStarts[index]; i < keyword.length(); i++, position++) {
+            if (buffer[position] != keyword.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compares the start of a token with an ASCII prefix without decoding it.
+     *
+     * @return {@code true} if the token at {@code index} exists and starts with the prefix
+     */
+    public boolean startsWith(int index, String prefix) {
+        if (index >= size || tokenEnds[index] - tokenStarts[index] < prefix.length()) return false;
+        for (int i = 0, position = tokenStarts[index]; i < prefix.length(); i++, position++) {
+            if (buffer[position] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the opcode among the known ones, so that protocols can {@code switch} on it without creating
+     * a string per request.
+     *
+     * @param opcodes the ASCII opcodes the protocol understands
+     * @return the matching element of {@code opcodes}, or an empty string if the opcode is unknown
+     */
+    public String opcode(String[] opcodes) {
+        for (String opcode : opcodes) {
+            if (is(0, opcode)) return opcode;
+        }
+        return "";
+    }
+
+    /**
+     * @return {@code true} if the whole line, ignoring trailing spaces, equals the given ASCII text
+     */
+    public boolean isLine(String text) {
+        if (end - start != text.length()) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer[start + i] != text.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the token at {@code index} decoded as UTF-8
+     */
+    public String get(int index) {
+        checkIndex(index);
+        return new String(buffer, tokenStarts[index], tokenEnds[index] - tokenStarts[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses the token at {@code index} as a decimal integer without decoding it.
+     *
+     * @throws NumberFormatException if the token is not a valid integer
+     */
+    public int getInt(int index) {
+        checkIndex(index);
+        int position = tokenStarts[index];
+        int tokenEnd = tokenEnds[index];
+        boolean negative = position < tokenEnd && buffer[position] == '-';
+        if (negative || position < tokenEnd && buffer[position] == '+') position++;
+        if (position == tokenEnd) throw new NumberFormatException("For input string: \"%s\"".formatted(get(index)));
+
+        long value = 0;
+        for (; position < tokenEnd; position++) {
+            int digit = buffer[position] - '0';
+            value = value * 10 + digit;
+            if (digit < 0 || digit > 9 || value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("For input string: \"%s\"".formatted(get(index)));
+            }
+        }
+        if (!negative && value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"%s\"".formatted(get(index)));
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Parses the token at {@code index} as a non-negative decimal long without decoding it, e.g. a delivery tag.
+     *
+     * @throws NumberFormatException if the token is not a valid non-negative long
+     */
+    public long getLong(int index) {
+        checkIndex(index);
+        int position = tokenStarts[index];
+        int tokenEnd = tokenEnds[index];
+        if (position == tokenEnd) throw new NumberFormatException("For input string: \"%s\"".formatted(get(index)));
+
+        long value = 0;
+        for (; position < tokenEnd; position++) {
+            int digit = buffer[position] - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                throw new NumberFormatException("For input string: \"%s\"".formatted(get(index)));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Copies the rest of the line starting with the token at {@code index}, including the spaces between the
+     * remaining tokens.
+     */
+    public byte[] copyFrom(int index) {
+        checkIndex(index);
+        return Arrays.copyOfRange(buffer, tokenStarts[index], end);
+    }
+
+    /**
+     * @return the tokens as strings, as returned by {@code line.split(" ")}
+     */
+    public String[] toArray() {
+        String[] tokens = new String[size];
+        for (int i = 0; i < size; i++) {
+            tokens[i] = get(i);
+        }
+        return tokens;
+    }
+
+    /**
+     * @return the whole line without trailing spaces
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private void addToken(int tokenStart, int tokenEnd) {
+        if (size == tokenStarts.length) {
+            tokenStarts = Arrays.copyOf(tokenStarts, size * 2);
+            tokenEnds = Arrays.copyOf(tokenEnds, size * 2);
+        }
+        tokenStarts[size] = tokenStart;
+        tokenEnds[size] = tokenEnd;
+        size++;
+    }
+
+    private void checkIndex(int index) {
+        if (index >= size) throw new IndexOutOfBoundsException("Token %d of %d".formatted(index, size));
+    }
+}
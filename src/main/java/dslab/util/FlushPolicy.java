@@ -0,0 +1,48 @@
+package dslab.util;
+
+/**
+ * Decides when the buffered responses of an {@link IOReadWrite} are written to the socket.
+ *
+ * <p>The supported {@link Mode}s are:
+ * <ul>
+ *     <li>{@link Mode#IMMEDIATE} - every response is written at once.</li>
+ *     <li>{@link Mode#BATCH} - responses are written when the caller ends a batch with {@link IOReadWrite#flush()}.</li>
+ *     <li>{@link Mode#IDLE} - responses are written once no further request is waiting to be read,
+ *     or when the caller ends a batch.</li>
+ *     <li>{@link Mode#THRESHOLD} - responses are written once {@code maxBufferedBytes} are pending or the oldest pending
+ *     response is {@code maxDelayMs} old, or when the caller ends a batch.</li>
+ * </ul>
+ * In every mode, responses are also written whenever the output buffer is full.
+ *
+ * @param mode             the flush mode
+ * @param maxBufferedBytes the number of pending bytes that trigger a flush in {@link Mode#THRESHOLD} mode
+ * @param maxDelayMs       the time after which pending bytes are flushed in {@link Mode#THRESHOLD} mode
+ */
+public record FlushPolicy(
+        Mode mode,
+        int maxBufferedBytes,
+        long maxDelayMs
+) {
+    public static final FlushPolicy IMMEDIATE = new FlushPolicy(Mode.IMMEDIATE, 0, 0);
+    public static final FlushPolicy BATCH = new FlushPolicy(Mode.BATCH, 0, 0);
+    public static final FlushPolicy IDLE = new FlushPolicy(Mode.IDLE, 0, 0);
+
+    public static FlushPolicy threshold(int maxBufferedBytes, long maxDelayMs) {
+        return new FlushPolicy(Mode.THRESHOLD, maxBufferedBytes, maxDelayMs);
+    }
+
+    public enum Mode {
+        IMMEDIATE,
+        BATCH,
+        IDLE,
+        THRESHOLD;
+
+        public static Mode fromString(String mode) {
+            try {
+                return Mode.valueOf(mode.toUpperCase());
+            } catch (IllegalArgumentException | NullPointerException e) {
+                return IDLE;
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package dslab.util;
+
+/**
+ * Size limits for the requests received on a connection.
+ *
+ * <p>A line or frame larger than {@code maxFrameBytes} is discarded as it arrives and answered with
+ * {@link #errorResponse()}, so a single client cannot grow the heap without bound. The only exception is the payload
+ * of a {@link BinaryFrame#PUBLISH} frame of up to {@code maxSpooledBytes}, which is streamed to a spool file instead
+ * of being held in memory.</p>
+ *
+ * @param maxFrameBytes   the maximum size of a request line or a frame held in memory
+ * @param maxSpooledBytes the maximum payload size of a publish frame spooled to disk, {@code 0} to disable spooling
+ */
+public record FrameLimits(
+        int maxFrameBytes,
+        long maxSpooledBytes
+) {
+    public static final FrameLimits UNLIMITED = new FrameLimits(Integer.MAX_VALUE, 0);
+
+    /**
+     * @return whether a publish payload of the given size, too large to be held in memory, may be spooled
+     */
+    public boolean maySpool(long payloadLength) {
+        return payloadLength <= maxSpooledBytes;
+    }
+
+    public String errorResponse() {
+        return "error frame too large, max %d bytes".formatted(maxFrameBytes);
+    }
+}
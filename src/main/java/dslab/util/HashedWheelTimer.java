@@ -0,0 +1,255 @@
+package dslab.util;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timing wheel that runs a large number of short tasks, such as connection timeouts, on a single thread.
+ *
+ * <p>The wheel consists of {@code wheelSize} buckets, each covering one tick. A task is placed in the bucket of the
+ * tick it expires in, together with the number of full rotations left until then. Every tick, the worker thread
+ * advances to the next bucket and runs the tasks whose rotations are used up. Scheduling and cancelling both take
+ * constant time: they only enqueue the task, and the worker links it into or unlinks it from its bucket on the next
+ * tick. Tasks expire up to one tick late, which is fine for timeouts measured in seconds.</p>
+ *
+ * <p>Tasks run on the worker thread and must therefore be short and never block, e.g. close a socket or hand
+ * the actual work to another executor. A single {@link #shared()} instance serves the whole process.</p>
+ *
+ * <p>Usage example:
+ * <pre>{@code
+ * HashedWheelTimer.Timeout timeout = HashedWheelTimer.shared().schedule(socket::close, 30, TimeUnit.SECONDS);
+ * int read = inputStream.read(buffer);
+ * timeout.cancel();
+ * }</pre>
+ */
+public final class HashedWheelTimer implements Closeable {
+    private static final Logger LOG = Logger.getLogger(HashedWheelTimer.class.getName());
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    // periodic timeouts that expired in the current tick, only accessed by the worker thread
+    private final List<Timeout> rescheduled = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long tick;
+
+    /**
+     * @param name      the name of the worker thread
+     * @param tick      the duration of a tick, i.e. the precision of the timer
+     * @param unit      the unit of {@code tick}
+     * @param wheelSize the number of buckets, rounded up to a power of two
+     */
+    public HashedWheelTimer(String name, long tick, TimeUnit unit, int wheelSize) {
+        if (tick <= 0) throw new IllegalArgumentException("Tick must be positive");
+        if (wheelSize <= 0 || wheelSize > 1 << 20) throw new IllegalArgumentException("Invalid wheel size " + wheelSize);
+        this.tickNanos = unit.toNanos(tick);
+        int buckets = 1;
+        while (buckets < wheelSize) buckets <<= 1;
+        this.wheel = new Bucket[buckets];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheel.length - 1;
+        this.worker = Thread.ofPlatform().name(name).daemon().start(this::run);
+    }
+
+    /**
+     * @return the timer shared by all listeners of this process, with a tick of 10 ms
+     */
+    public static HashedWheelTimer shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Runs the task once after the given delay.
+     *
+     * @return a handle to cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return enqueue(new Timeout(this, task, deadline(unit.toNanos(delay)), 0));
+    }
+
+    /**
+     * Runs the task repeatedly, first after one period and then once per period, until it is cancelled.
+     *
+     * @return a handle to cancel the task
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long period, TimeUnit unit) {
+        long periodNanos = unit.toNanos(period);
+        if (periodNanos <= 0) throw new IllegalArgumentException("Period must be positive");
+        return enqueue(new Timeout(this, task, deadline(periodNanos), periodNanos));
+    }
+
+    /**
+     * Stops the worker thread. Pending tasks are discarded.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    private Timeout enqueue(Timeout timeout) {
+        if (!running) throw new IllegalStateException("Timer has been closed");
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    private long deadline(long delayNanos) {
+        return System.nanoTime() - startNanos + Math.max(0, delayNanos);
+    }
+
+    private void run() {
+        while (running) {
+            waitForNextTick();
+            if (!running) break;
+            Timeout timeout;
+            while ((timeout = cancelled.poll()) != null) {
+                if (timeout.bucket != null) timeout.bucket.remove(timeout);
+            }
+            while ((timeout = scheduled.poll()) != null) {
+                if (!timeout.isCancelled()) place(timeout, tick);
+            }
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * Links the timeout into the bucket of its expiry tick, but not before {@code earliestTick}, the first tick whose
+     * bucket has not been expired yet.
+     */
+    private void place(Timeout timeout, long earliestTick) {
+        long expiryTick = Math.max(timeout.deadlineNanos / tickNanos, earliestTick);
+        timeout.remainingRounds = (expiryTick - earliestTick) / wheel.length;
+        wheel[(int) (expiryTick & mask)].add(timeout);
+    }
+
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds <= 0) {
+                bucket.remove(timeout);
+                timeout.run();
+                if (timeout.periodNanos > 0 && !timeout.isCancelled()) rescheduled.add(timeout);
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+        // placed after the bucket has been walked, as the next run may fall into the same bucket
+        for (Timeout periodic : rescheduled) {
+            periodic.deadlineNanos += periodic.periodNanos;
+            place(periodic, tick + 1);
+        }
+        rescheduled.clear();
+    }
+
+    private void waitForNextTick() {
+        long deadline = startNanos + (tick + 1) * tickNanos;
+        long sleepNanos;
+        while (running && (sleepNanos = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, sleepNanos);
+        }
+    }
+
+    /**
+     * A handle to a scheduled task.
+     */
+    public static final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long periodNanos;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private long deadlineNanos;
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadlineNanos, long periodNanos) {
+            this.timer = timer;
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+            this.periodNanos = periodNanos;
+        }
+
+        /**
+         * Cancels the task unless it has already run. A periodic task is not run again.
+         *
+         * @return {@code true} if the task was cancelled by this call
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+            timer.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        private void run() {
+            if (periodNanos == 0 && !state.compareAndSet(PENDING, EXPIRED)) return;
+            if (periodNanos > 0 && isCancelled()) return;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Timer task failed", e);
+            }
+        }
+    }
+
+    /**
+     * A doubly linked list of the timeouts expiring in one tick, only accessed by the worker thread.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.previous = tail;
+            timeout.next = null;
+            if (tail == null) head = timeout;
+            else tail.next = timeout;
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) return;
+            if (timeout.previous == null) head = timeout.next;
+            else timeout.previous.next = timeout.next;
+            if (timeout.next == null) tail = timeout.previous;
+            else timeout.next.previous = timeout.previous;
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+    }
+
+    private static final class Shared {
+        private static final HashedWheelTimer INSTANCE = new HashedWheelTimer("wheel-timer", 10, TimeUnit.MILLISECONDS, 512);
+    }
+}
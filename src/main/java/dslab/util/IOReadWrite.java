@@ -1,14 +1,24 @@
 package dslab.util;
 
+import dslab.entity.Message;
 import lombok.Getter;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,57 +28,284 @@ import java.util.logging.Logger;
  *
  * <p>This class simplifies socket communication by:
  * <ul>
- *     <li>Handling incoming client requests with blocking read operations.</li>
- *     <li>Sending responses with automatic line-based management.</li>
+ *     <li>Handling incoming client requests with blocking read operations, bounded by {@link ReadTimeouts}
+ *     and {@link FrameLimits}.</li>
+ *     <li>Sending responses with automatic line-based management, buffered according to a {@link FlushPolicy}.</li>
+ *     <li>Switching to the length-prefixed {@link BinaryFrame} format on request.</li>
  *     <li>Managing resources efficiently with the {@link Closeable} interface.</li>
  * </ul>
  *
+ * <p>Responses may be written from several threads at once, e.g. by the connection thread and a subscription
+ * dispatching messages. With a buffering policy, a burst of responses is written with a single system call.</p>
+ *
  * <p>Usage example:
  * <pre>{@code
- * try (IOReadWrite io = new IOReadWrite(socket)) {
+ * try (IOReadWrite io = new IOReadWrite(socket, FlushPolicy.IDLE)) {
  *     String request = io.readRequest();
+ *     CommandLine command = new CommandLine();
+ *     io.readCommand(command);
  *     io.writeSocketResponses("Response message");
  * } catch (IOException e) {
  *     //handle exception if needed
  * }
  * }</pre>
  */
-@Getter
-public class IOReadWrite implements Closeable {
+public class IOReadWrite implements ClientConnection, Closeable {
 
     private static final Logger LOG = Logger.getLogger(IOReadWrite.class.getName());
-    private final PrintWriter printWriter;
-    private final BufferedReader bufferedReader;
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] NO_ROUTING_KEY = new byte[0];
+    @Getter
     private final Socket socket;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+    private final FlushPolicy flushPolicy;
+    private final ReadTimeouts readTimeouts;
+    private final FrameLimits frameLimits;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final byte[] readBuffer = new byte[BUFFER_SIZE];
+    private final byte[] frameHeader = new byte[BinaryFrame.HEADER_LENGTH];
+    private byte[] lineBuffer = new byte[256];
+    private int readPosition;
+    private int readLimit;
+    private long pendingBytes;
+    private boolean delayedFlushScheduled;
+    private volatile boolean binary;
+    private volatile boolean writeFailed;
+    private volatile boolean timedOut;
+    private volatile long lastActivityNanos = System.nanoTime();
+    private volatile long readSequence;
+    private HashedWheelTimer.Timeout readTimeout;
+    private long requestStartNanos;
 
     public IOReadWrite(Socket socket) throws IOException {
+        this(socket, FlushPolicy.IMMEDIATE);
+    }
+
+    public IOReadWrite(Socket socket, FlushPolicy flushPolicy) throws IOException {
+        this(socket, flushPolicy, ReadTimeouts.NONE);
+    }
+
+    public IOReadWrite(Socket socket, FlushPolicy flushPolicy, ReadTimeouts readTimeouts) throws IOException {
+        this(socket, flushPolicy, readTimeouts, FrameLimits.UNLIMITED);
+    }
+
+    public IOReadWrite(Socket socket, FlushPolicy flushPolicy, ReadTimeouts readTimeouts, FrameLimits frameLimits)
+            throws IOException {
         this.socket = socket;
-        this.printWriter = new PrintWriter(socket.getOutputStream(), true);
-        this.bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        this.flushPolicy = flushPolicy;
+        this.readTimeouts = readTimeouts;
+        this.frameLimits = frameLimits;
+        this.outputStream = new BufferedOutputStream(socket.getOutputStream(),
+                Math.max(BUFFER_SIZE, flushPolicy.maxBufferedBytes()));
+        this.inputStream = socket.getInputStream();
     }
+
     public IOReadWrite(String host, int port) throws IOException {
-        this.socket = new Socket(host, port);
-        this.printWriter = new PrintWriter(socket.getOutputStream(), true);
-        this.bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        this(new Socket(host, port));
     }
 
+    public IOReadWrite(String host, int port, FlushPolicy flushPolicy) throws IOException {
+        this(new Socket(host, port), flushPolicy);
+    }
+
+    /**
+     * Reads the next request line. In {@link FlushPolicy.Mode#IDLE} mode, pending responses are flushed first
+     * if the read would block.
+     *
+     * @return the request line without line terminator, or {@code null} if the connection was closed by the peer
+     */
     public String readRequest() throws IOException {
         try {
-            return bufferedReader.readLine();
+            flushIfIdle();
+            int length = readLine();
+            return length < 0 ? null : new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IOException("Error reading from the socket", e);
+        }
+    }
+
+    /**
+     * Reads the next request line into the given {@link CommandLine} without creating any strings.
+     * The command line refers to the internal line buffer and is valid until the next read.
+     * In {@link FlushPolicy.Mode#IDLE} mode, pending responses are flushed first if the read would block.
+     *
+     * @return {@code false} if the connection was closed by the peer
+     */
+    public boolean readCommand(CommandLine command) throws IOException {
+        try {
+            flushIfIdle();
+            int length = readLine();
+            if (length < 0) return false;
+            command.parse(lineBuffer, 0, length);
+            return true;
         } catch (IOException e) {
             throw new IOException("Error reading from the socket", e);
         }
     }
 
+    /**
+     * Reads the next {@link BinaryFrame}. In {@link FlushPolicy.Mode#IDLE} mode, pending responses are flushed
+     * first if the read would block. Frames exceeding the {@link FrameLimits} are skipped and answered with an error,
+     * and large publish payloads are streamed to a spool file.
+     *
+     * @return the frame, or {@code null} if the connection was closed by the peer between two frames
+     */
+    public BinaryFrame readFrame() throws IOException {
+        try {
+            flushIfIdle();
+            while (true) {
+                if (!readFully(frameHeader, 0, frameHeader.length, false)) return null;
+                byte opcode = frameHeader[0];
+                int routingKeyLength = BinaryFrame.routingKeyLength(frameHeader, 0);
+                int payloadLength = BinaryFrame.payloadLength(frameHeader, 0);
+                long frameLength = (long) BinaryFrame.HEADER_LENGTH + routingKeyLength + payloadLength;
+
+                boolean inMemory = frameLength <= frameLimits.maxFrameBytes();
+                boolean spooled = !inMemory && opcode == BinaryFrame.PUBLISH && frameLimits.maySpool(payloadLength)
+                        && BinaryFrame.HEADER_LENGTH + routingKeyLength <= frameLimits.maxFrameBytes();
+                if (!inMemory && !spooled) {
+                    skip(routingKeyLength + (long) payloadLength);
+                    rejectOversizedRequest();
+                    continue;
+                }
+
+                byte[] routingKey = new byte[routingKeyLength];
+                readFully(routingKey, 0, routingKey.length, true);
+                Message payload;
+                if (spooled) {
+                    payload = spool(payloadLength);
+                } else {
+                    byte[] bytes = new byte[payloadLength];
+                    readFully(bytes, 0, bytes.length, true);
+                    payload = new Message(bytes);
+                }
+                return new BinaryFrame(opcode, new String(routingKey, StandardCharsets.UTF_8), payload);
+            }
+        } catch (IOException e) {
+            throw new IOException("Error reading from the socket", e);
+        }
+    }
+
+    /**
+     * Tells whether another request can be read without blocking, i.e. the client has pipelined more requests.
+     *
+     * @return {@code true} if buffered or already received input is available
+     */
+    public boolean hasPendingInput() throws IOException {
+        return readPosition < readLimit || inputStream.available() > 0;
+    }
+
+    /**
+     * Switches this connection to {@link BinaryFrame}s. Responses and messages written afterward are sent as
+     * {@link BinaryFrame#RESPONSE} and {@link BinaryFrame#DELIVER} frames.
+     */
+    @Override
+    public void switchToBinary() {
+        writeLock.lock();
+        try {
+            binary = true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
+    /**
+     * @return {@code true} if requests have to be read with {@link #readFrame()}
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    @Override
     public void writeSocketResponse(String response) {
-        printWriter.println(response);
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        writeLock.lock();
+        try {
+            afterWrite(binary
+                    ? BinaryFrame.write(outputStream, BinaryFrame.RESPONSE, NO_ROUTING_KEY, bytes)
+                    : writeLine(bytes));
+        } catch (IOException e) {
+            writeFailed = true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a message to a subscriber, either as its raw payload followed by a line terminator, or as a
+     * {@link BinaryFrame#DELIVER} frame.
+     */
+    @Override
+    public void writeMessage(Message message) {
+        writeLock.lock();
+        try {
+            afterWrite(binary
+                    ? BinaryFrame.write(outputStream, BinaryFrame.DELIVER, NO_ROUTING_KEY, message)
+                    : writeLine(message));
+        } catch (IOException e) {
+            writeFailed = true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void writeMessage(Message message, long deliveryTag) {
+        byte[] tag = Long.toString(deliveryTag).getBytes(StandardCharsets.US_ASCII);
+        writeLock.lock();
+        try {
+            if (binary) {
+                afterWrite(BinaryFrame.write(outputStream, BinaryFrame.DELIVER, tag, message));
+            } else {
+                outputStream.write(tag);
+                outputStream.write(' ');
+                afterWrite(tag.length + 1 + writeLine(message));
+            }
+        } catch (IOException e) {
+            writeFailed = true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        writeLock.lock();
+        try {
+            flushPending();
+        } catch (IOException e) {
+            writeFailed = true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return {@code true} if the socket has been closed or a previous write to it failed
+     */
+    @Override
+    public boolean isClosed() {
+        return writeFailed || socket.isClosed();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return socket.getLocalAddress();
     }
 
+    @Override
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
 
     public static Optional<IOReadWrite> createConnection(String host, int port) {
+        return createConnection(host, port, FlushPolicy.IMMEDIATE);
+    }
+
+    public static Optional<IOReadWrite> createConnection(String host, int port, FlushPolicy flushPolicy) {
         try {
-            return Optional.of(new IOReadWrite(host, port));
+            return Optional.of(new IOReadWrite(host, port, flushPolicy));
         } catch (IOException ignored) {
             return Optional.empty();
         }
@@ -76,18 +313,248 @@ public class IOReadWrite implements Closeable {
 
     @Override
     public void close() {
+        if (!socket.isClosed()) {
+            flush();
+        }
         try {
             socket.close();
         } catch (IOException e) {
             LOG.log(Level.WARNING, "Error closing the socket", e);
-        } finally {
-            try {
-                bufferedReader.close();
-            } catch (IOException e) {
-                LOG.log(Level.WARNING, "Error closing the BufferedReader", e);
+        }
+    }
+
+    private int writeLine(byte[] bytes) throws IOException {
+        outputStream.write(bytes);
+        outputStream.write('\n');
+        return bytes.length + 1;
+    }
+
+    private long writeLine(Message message) throws IOException {
+        message.writeTo(outputStream);
+        outputStream.write('\n');
+        return message.length() + 1;
+    }
+
+    private void afterWrite(long bytesWritten) throws IOException {
+        pendingBytes += bytesWritten;
+        switch (flushPolicy.mode()) {
+            case IMMEDIATE -> flushPending();
+            case THRESHOLD -> {
+                if (pendingBytes >= flushPolicy.maxBufferedBytes()) {
+                    flushPending();
+                } else if (!delayedFlushScheduled) {
+                    delayedFlushScheduled = true;
+                    HashedWheelTimer.shared().schedule(this::scheduleDelayedFlush, flushPolicy.maxDelayMs(),
+                            TimeUnit.MILLISECONDS);
+                }
             }
-            printWriter.close();
+            case BATCH, IDLE -> {}
+        }
+    }
+
+    /**
+     * Hands the delayed flush to a virtual thread, so that the timer never waits for the write lock or for a peer
+     * that does not read its responses.
+     */
+    private void scheduleDelayedFlush() {
+        Thread.ofVirtual().name("flush").start(this::flush);
+    }
+
+    private void flushPending() throws IOException {
+        delayedFlushScheduled = false;
+        if (pendingBytes == 0) return;
+        pendingBytes = 0;
+        outputStream.flush();
+        lastActivityNanos = System.nanoTime();
+    }
+
+    private void flushIfIdle() throws IOException {
+        if (flushPolicy.mode() == FlushPolicy.Mode.IDLE && !hasPendingInput()) {
+            flush();
         }
+    }
+
+    /**
+     * Reads the next line into {@link #lineBuffer}.
+     *
+     * @return the length of the line without line terminator, or {@code -1} at the end of the stream
+     */
+    private int readLine() throws IOException {
+        int length = 0;
+        boolean started = false;
+        boolean oversized = false;
+        while (true) {
+            if (readPosition == readLimit && !fillReadBuffer(started)) {
+                return length > 0 && !oversized ? length : -1;
+            }
+            if (!started) {
+                started = true;
+                requestStartNanos = System.nanoTime();
+            }
+            int end = readPosition;
+            while (end < readLimit && readBuffer[end] != '\n') end++;
 
+            int chunk = end - readPosition;
+            oversized |= length + chunk > frameLimits.maxFrameBytes();
+            if (!oversized) {
+                if (length + chunk > lineBuffer.length) {
+                    lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, length + chunk));
+                }
+                System.arraycopy(readBuffer, readPosition, lineBuffer, length, chunk);
+                length += chunk;
+            }
+
+            if (end < readLimit) {
+                readPosition = end + 1;
+                if (oversized) {
+                    rejectOversizedRequest();
+                    length = 0;
+                    started = false;
+                    oversized = false;
+                    continue;
+                }
+                return length > 0 && lineBuffer[length - 1] == '\r' ? length - 1 : length;
+            }
+            readPosition = readLimit;
+        }
+    }
+
+    /**
+     * Answers a request that exceeded the {@link FrameLimits} after it has been discarded. The response is flushed
+     * right away, since the next read may block.
+     */
+    private void rejectOversizedRequest() {
+        LOG.log(Level.FINE, "Discarded oversized request from {0}", socket.getRemoteSocketAddress());
+        writeSocketResponse(frameLimits.errorResponse());
+        flush();
+    }
+
+    /**
+     * Discards the next {@code length} bytes of the current request.
+     */
+    private void skip(long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            if (readPosition == readLimit && !fillReadBuffer(true)) {
+                throw new EOFException("Connection closed within a frame");
+            }
+            int chunk = (int) Math.min(remaining, readLimit - readPosition);
+            readPosition += chunk;
+            remaining -= chunk;
+        }
+    }
+
+    /**
+     * Streams the next {@code length} bytes of the current request to a spool file, one read buffer at a time.
+     *
+     * @return the spooled message, which owns the file
+     */
+    private Message spool(long length) throws IOException {
+        Path spoolFile = Files.createTempFile("smqp-", ".spool");
+        try (OutputStream out = Files.newOutputStream(spoolFile)) {
+            long remaining = length;
+            while (remaining > 0) {
+                if (readPosition == readLimit && !fillReadBuffer(true)) {
+                    throw new EOFException("Connection closed within a frame");
+                }
+                int chunk = (int) Math.min(remaining, readLimit - readPosition);
+                out.write(readBuffer, readPosition, chunk);
+                readPosition += chunk;
+                remaining -= chunk;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(spoolFile);
+            throw e;
+        }
+        return Message.spooled(spoolFile, length);
+    }
+
+    /**
+     * Reads exactly {@code length} bytes into the target.
+     *
+     * @param started whether these bytes continue a request that has already been started
+     * @return {@code false} if the stream ended before the first byte of a new request, {@code true} otherwise
+     * @throws EOFException if the stream ended within a request
+     */
+    private boolean readFully(byte[] target, int offset, int length, boolean started) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            if (readPosition == readLimit && !fillReadBuffer(started)) {
+                if (!started) return false;
+                throw new EOFException("Connection closed within a frame");
+            }
+            if (!started) {
+                started = true;
+                requestStartNanos = System.nanoTime();
+            }
+            int chunk = Math.min(remaining, readLimit - readPosition);
+            System.arraycopy(readBuffer, readPosition, target, offset + length - remaining, chunk);
+            readPosition += chunk;
+            remaining -= chunk;
+        }
+        return true;
+    }
+
+    /**
+     * Blocks until more bytes have been received. Between two requests, the read is bounded by the idle timeout,
+     * within a request by what is left of the request timeout.
+     *
+     * @param withinRequest whether the read continues a request that has already been started
+     * @return {@code false} at the end of the stream
+     */
+    private boolean fillReadBuffer(boolean withinRequest) throws IOException {
+        long sequence = readSequence;
+        readTimeout = withinRequest
+                ? scheduleRequestTimeout()
+                : scheduleIdleTimeout(sequence, readTimeouts.idleTimeoutNanos());
+        int read;
+        try {
+            read = inputStream.read(readBuffer, 0, readBuffer.length);
+        } catch (IOException e) {
+            if (timedOut) throw new SocketTimeoutException("Read timed out, connection closed");
+            throw e;
+        } finally {
+            readSequence = sequence + 1;
+            if (readTimeout != null) readTimeout.cancel();
+        }
+        if (read < 0) return false;
+        lastActivityNanos = System.nanoTime();
+        readPosition = 0;
+        readLimit = read;
+        return true;
+    }
+
+    private HashedWheelTimer.Timeout scheduleRequestTimeout() throws SocketTimeoutException {
+        if (readTimeouts.requestTimeoutMs() <= 0) return null;
+        long remainingNanos = readTimeouts.requestTimeoutNanos() - (System.nanoTime() - requestStartNanos);
+        if (remainingNanos <= 0) throw new SocketTimeoutException("Request not completed in time");
+        return HashedWheelTimer.shared().schedule(this::closeOnTimeout, remainingNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Schedules the idle check of the blocked read with the given sequence number. Writes, e.g. messages dispatched
+     * to a subscriber, count as activity, so the check re-arms itself for the remaining time instead of closing an
+     * active connection. Only the first check is cancelled when the read returns; re-armed checks notice that the
+     * read has completed by its sequence number.
+     */
+    private HashedWheelTimer.Timeout scheduleIdleTimeout(long sequence, long delayNanos) {
+        if (readTimeouts.idleTimeoutMs() <= 0) return null;
+        return HashedWheelTimer.shared().schedule(() -> {
+            if (readSequence != sequence) return;
+            long idleNanos = System.nanoTime() - lastActivityNanos;
+            if (idleNanos >= readTimeouts.idleTimeoutNanos()) {
+                closeOnTimeout();
+            } else {
+                scheduleIdleTimeout(sequence, readTimeouts.idleTimeoutNanos() - idleNanos);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void closeOnTimeout() {
+        timedOut = true;
+        LOG.log(Level.FINE, "Closing connection to {0} after read timeout", socket.getRemoteSocketAddress());
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
     }
 }
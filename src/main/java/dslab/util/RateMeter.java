@@ -0,0 +1,63 @@
+package dslab.util;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how often an event happens per second, e.g. accepted connections.
+ *
+ * <p>Events are counted with {@link #mark()}, which only increments a {@link LongAdder} and is therefore cheap on
+ * hot paths. Once per second, a task on the shared {@link HashedWheelTimer} moves the count into the rate of the
+ * last second and updates the peak. After a reconnect storm, the rate shows how long the burst lasted, and the
+ * peak shows how high it was.</p>
+ */
+public final class RateMeter implements Closeable {
+    private final LongAdder current = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong lastSecond = new AtomicLong();
+    private final AtomicLong peak = new AtomicLong();
+    private final HashedWheelTimer.Timeout ticker;
+
+    public RateMeter() {
+        this.ticker = HashedWheelTimer.shared().scheduleAtFixedRate(this::tick, 1, TimeUnit.SECONDS);
+    }
+
+    public void mark() {
+        current.increment();
+        total.increment();
+    }
+
+    /**
+     * @return the number of events in the last full second
+     */
+    public long rate() {
+        return lastSecond.get();
+    }
+
+    /**
+     * @return the highest number of events within one second so far
+     */
+    public long peakRate() {
+        return peak.get();
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    /**
+     * Stops updating the rates. The counters keep their last values.
+     */
+    @Override
+    public void close() {
+        ticker.cancel();
+    }
+
+    private void tick() {
+        long events = current.sumThenReset();
+        lastSecond.set(events);
+        peak.accumulateAndGet(events, Math::max);
+    }
+}
@@ -0,0 +1,29 @@
+package dslab.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read timeouts of a server side {@link IOReadWrite}, enforced with the shared {@link HashedWheelTimer}.
+ * A connection that exceeds one of them is closed. Both are disabled unless configured, since an idle timeout also
+ * closes subscribers of quiet queues that never write. Connections of the {@code nio} transport are not subject to
+ * them.
+ *
+ * @param idleTimeoutMs    the time a connection may wait for its next request without reading or writing anything,
+ *                         {@code 0} to disable
+ * @param requestTimeoutMs the time a client has to complete a request once it has started sending it,
+ *                         {@code 0} to disable
+ */
+public record ReadTimeouts(
+        long idleTimeoutMs,
+        long requestTimeoutMs
+) {
+    public static final ReadTimeouts NONE = new ReadTimeouts(0, 0);
+
+    long idleTimeoutNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+    }
+
+    long requestTimeoutNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(requestTimeoutMs);
+    }
+}
@@ -0,0 +1,60 @@
+package dslab.benchmark;
+
+import dslab.entity.Message;
+import dslab.entity.storage.FsyncPolicy;
+import dslab.entity.storage.LogSettings;
+import dslab.entity.storage.SegmentLog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long a {@link SegmentLog} takes to recover a deep backlog when a durable queue is opened.
+ *
+ * <p>The log is filled with small messages, closed, and opened again, which scans and verifies every record. This is
+ * not a JUnit test; run it on the test classpath with the number of messages and a scratch directory, for
+ * example:</p>
+ *
+ * <pre>java -cp target/classes:target/test-classes dslab.benchmark.DurableRecoveryBenchmark 10000000 /tmp/log</pre>
+ */
+public class DurableRecoveryBenchmark {
+    private static final Message MESSAGE = Message.of("benchmark-message-with-a-typical-payload");
+
+    public static void main(String[] args) throws IOException {
+        long messages = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000;
+        Path directory = args.length > 1 ? Path.of(args[1]) : Files.createTempDirectory("recovery-benchmark");
+        LogSettings settings = new LogSettings(directory, 64 * 1024 * 1024, FsyncPolicy.interval(1000));
+
+        long start = System.nanoTime();
+        try (SegmentLog log = SegmentLog.open(directory, settings)) {
+            for (long i = 0; i < messages; i++) {
+                log.append(MESSAGE);
+            }
+        }
+        long appended = System.nanoTime();
+
+        int segments;
+        long recovered;
+        try (SegmentLog log = SegmentLog.open(directory, settings)) {
+            recovered = log.size();
+            segments = log.segmentCount();
+        }
+        long opened = System.nanoTime();
+
+        System.out.printf("appended %d messages in %d ms%n", messages, (appended - start) / 1_000_000);
+        System.out.printf("recovered %d messages from %d segments in %d ms%n", recovered, segments,
+                (opened - appended) / 1_000_000);
+        delete(directory);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package dslab.benchmark;
+
+import dslab.entity.Message;
+import dslab.entity.OverflowPolicy;
+import dslab.entity.QueueOptions;
+import dslab.entity.storage.FsyncPolicy;
+import dslab.entity.storage.LazyMessageStore;
+import dslab.entity.storage.LogSettings;
+import dslab.entity.storage.MessageStore;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Measures the heap retained per stored message by every {@link MessageStore}, compared with a
+ * {@link LinkedBlockingQueue} holding the same messages, and the mean time to store a message.
+ *
+ * <p>Every store is filled with the same message instance, so only the overhead of the store itself is measured,
+ * and then drained again to see how much of the memory is handed back. The lazy store spills to a temporary
+ * directory. This is not a JUnit test; run it on the test
+ * classpath with a heap large enough for the deepest backlog, for example:</p>
+ *
+ * <pre>java -Xmx4g -cp target/classes:target/test-classes dslab.benchmark.QueueMemoryBenchmark 1000000 10000000</pre>
+ */
+public class QueueMemoryBenchmark {
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private static final Message MESSAGE = Message.of("benchmark");
+
+    public static void main(String[] args) throws IOException {
+        int[] depths = args.length == 0 ? new int[]{1_000_000, 10_000_000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            depths[i] = Integer.parseInt(args[i]);
+        }
+
+        Path spillDirectory = Files.createTempDirectory("queue-memory-benchmark");
+        System.out.printf("%-8s %12s %16s %16s %12s%n", "store", "depth", "bytes/message", "retained drained",
+                "ns/offer");
+        for (int depth : depths) {
+            measure("linked", depth, LinkedBlockingQueue::new, LinkedBlockingQueue::add, LinkedBlockingQueue::poll);
+            for (MessageStore.Type type : new MessageStore.Type[]{MessageStore.Type.DEQUE, MessageStore.Type.CHUNKED}) {
+                QueueOptions options = new QueueOptions(0, 0, OverflowPolicy.REJECT, type);
+                measure(type.toString(), depth, () -> MessageStore.create(options), MessageStore::offer,
+                        MessageStore::poll);
+            }
+            QueueOptions lazy = new QueueOptions(0, 0, OverflowPolicy.REJECT, MessageStore.Type.LAZY);
+            LogSettings settings = new LogSettings(spillDirectory, 64 * 1024 * 1024, FsyncPolicy.NEVER);
+            measure("lazy", depth, () -> new LazyMessageStore(lazy, spillDirectory.resolve("spill"), settings),
+                    MessageStore::offer, store -> {
+                        store.poll();
+                        if (store.isEmpty()) store.close();
+                    });
+        }
+        Files.deleteIfExists(spillDirectory);
+    }
+
+    private static <S> void measure(String name, int depth, Supplier<S> factory, Adder<S> add, Consumer<S> remove) {
+        long before = usedHeap();
+        S store = factory.get();
+        long start = System.nanoTime();
+        for (int i = 0; i < depth; i++) {
+            add.add(store, MESSAGE);
+        }
+        long offerNanos = System.nanoTime() - start;
+        long filled = usedHeap();
+        for (int i = 0; i < depth; i++) {
+            remove.accept(store);
+        }
+        long drained = usedHeap();
+
+        System.out.printf("%-8s %12d %16.2f %16d %12.1f%n", name, depth, (double) (filled - before) / depth,
+                drained - before, (double) offerNanos / depth);
+        // keeps the store reachable until every measurement is taken
+        Reference.reachabilityFence(store);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+
+    @FunctionalInterface
+    private interface Adder<S> {
+        void add(S store, Message message);
+    }
+}
@@ -0,0 +1,103 @@
+package dslab.benchmark;
+
+import dslab.entity.Queue;
+import dslab.entity.binding.TopicBindingStorage;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Consumer;
+
+/**
+ * Measures the heap allocated and the mean time per lookup of a {@link TopicBindingStorage}, once through
+ * {@link TopicBindingStorage#forEachQueue(String, Consumer)}, which should not allocate at all once warmed up, and
+ * once through {@link TopicBindingStorage#getQueuesByRoutingKey(String)}, which only allocates the returned list
+ * when the trie is walked. Both run against a storage walking the trie and one with a compiled automaton.
+ *
+ * <p>Two sets of bindings are measured. The event bus resembles the bindings of services: exact keys per service
+ * and event, {@code *} patterns per event and a few {@code #} patterns for auditing. The wildcard set binds a
+ * {@code #.<word>.#} pattern per word, where walking the trie fans out over every split point of the routing key for
+ * every pattern, while the automaton still takes one transition per word. The allocations are read from the
+ * allocation counter of the thread, see {@link com.sun.management.ThreadMXBean#getCurrentThreadAllocatedBytes()}.
+ * This is not a JUnit test; run it on the test classpath, for example:</p>
+ *
+ * <pre>java -cp target/classes:target/test-classes dslab.benchmark.TopicMatchBenchmark 1000 10000000</pre>
+ */
+public class TopicMatchBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final String[] EVENTS = {"created", "updated", "deleted", "shipped", "cancelled"};
+    private static int matched;
+
+    public static void main(String[] args) {
+        int services = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+
+        System.out.printf("%-10s %10s %-9s %-22s %14s %12s%n", "bindings", "count", "matcher", "lookup",
+                "bytes/lookup", "ns/lookup");
+        for (boolean compiled : new boolean[]{false, true}) {
+            TopicBindingStorage eventBus = new TopicBindingStorage(compiled);
+            int bindings = bindEventBus(eventBus, services);
+            String[] keys = new String[1024];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = "service%d.%s".formatted(i % services, EVENTS[i % EVENTS.length]);
+            }
+            measureBoth("event-bus", bindings, compiled, eventBus, keys, lookups);
+        }
+        for (boolean compiled : new boolean[]{false, true}) {
+            TopicBindingStorage wildcards = new TopicBindingStorage(compiled);
+            int words = 64;
+            for (int i = 0; i < words; i++) {
+                wildcards.addBinding("#.w%d.#".formatted(i), new Queue("w" + i));
+            }
+            String[] keys = new String[1024];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = "w%d.x.w%d.y.w%d.z".formatted(i % words, i * 7 % words, i * 13 % words);
+            }
+            measureBoth("wildcards", words, compiled, wildcards, keys, lookups / 10);
+        }
+    }
+
+    private static int bindEventBus(TopicBindingStorage storage, int services) {
+        for (int i = 0; i < services; i++) {
+            for (String event : EVENTS) {
+                storage.addBinding("service%d.%s".formatted(i, event), new Queue("service%d-%s".formatted(i, event)));
+            }
+        }
+        for (String event : EVENTS) {
+            storage.addBinding("*." + event, new Queue("all-" + event));
+        }
+        Queue audit = new Queue("audit");
+        storage.addBinding("#", audit);
+        storage.addBinding("#.cancelled", audit);
+        return services * EVENTS.length + EVENTS.length + 2;
+    }
+
+    private static void measureBoth(String name, int bindings, boolean compiled, TopicBindingStorage storage,
+                                    String[] keys, int lookups) {
+        Consumer<Queue> count = queue -> matched++;
+        String matcher = compiled ? "compiled" : "trie";
+        measure(name, bindings, matcher, "forEachQueue", storage, keys, lookups,
+                key -> storage.forEachQueue(key, count));
+        measure(name, bindings, matcher, "getQueuesByRoutingKey", storage, keys, lookups,
+                key -> matched += storage.getQueuesByRoutingKey(key).size());
+    }
+
+    private static void measure(String name, int bindings, String matcher, String lookupName,
+                                TopicBindingStorage storage, String[] keys, int lookups, Consumer<String> lookup) {
+        // warms up the code, grows the scratch state of the thread and builds the states of the automaton
+        for (int i = 0; i < 100_000; i++) {
+            lookup.accept(keys[i & (keys.length - 1)]);
+        }
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            lookup.accept(keys[i & (keys.length - 1)]);
+        }
+        long nanos = System.nanoTime() - start;
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        System.out.printf("%-10s %10d %-9s %-22s %14.2f %12.1f%n", name, bindings, matcher, lookupName,
+                (double) allocated / lookups, (double) nanos / lookups);
+        // keeps the lookups from being optimized away
+        if (matched == 42 && storage.nodeCount() == 0) System.out.print("");
+    }
+}
@@ -0,0 +1,59 @@
+package dslab.broker;
+
+import dslab.config.ListenerConfig;
+import dslab.util.Constants;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class AcceptStormTest extends BaseBrokerTest {
+
+    private static final int CLIENTS = 500;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void simultaneous_connects_are_all_accepted(String transport) throws IOException {
+        startBroker(new ListenerConfig(transport, 2).withAccept(2048, 4));
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Socket> sockets = new ArrayList<>();
+            try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<String>> greetings = new ArrayList<>();
+                for (int i = 0; i < CLIENTS; i++) {
+                    greetings.add(clients.submit(() -> {
+                        start.await();
+                        Socket socket = new Socket(Constants.LOCALHOST, config.port());
+                        synchronized (sockets) {
+                            sockets.add(socket);
+                        }
+                        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+                    }));
+                }
+                start.countDown();
+                for (Future<String> greeting : greetings) {
+                    assertEquals("ok SMQP", greeting.get());
+                }
+            } finally {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,226 @@
+package dslab.broker;
+
+import dslab.entity.Message;
+import dslab.entity.Queue;
+import dslab.entity.Subscription;
+import dslab.util.ClientConnection;
+import dslab.util.Constants;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static dslab.util.CommandBuilder.bind;
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.publish;
+import static dslab.util.CommandBuilder.queue;
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AcknowledgementTest extends BaseBrokerTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void unacknowledged_messages_fill_the_window_and_nack_requeues(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            try (Socket subscriber = new Socket(Constants.LOCALHOST, config.port());
+                 Socket publisher = new Socket(Constants.LOCALHOST, config.port())) {
+                BufferedReader subscriberIn = subscribe(subscriber, "subscribe ack prefetch=2");
+                publishAll(publisher, "a", "b", "c", "d");
+
+                assertEquals("1 a", subscriberIn.readLine());
+                assertEquals("2 b", subscriberIn.readLine());
+                send(subscriber, "ack 1");
+                assertEquals("3 c", subscriberIn.readLine());
+                send(subscriber, "nack 2");
+                assertEquals("4 b", subscriberIn.readLine());
+                send(subscriber, "ack 4 multiple");
+                assertEquals("5 d", subscriberIn.readLine());
+            }
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void unacknowledged_messages_are_requeued_when_the_subscriber_leaves(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            try (Socket publisher = new Socket(Constants.LOCALHOST, config.port())) {
+                try (Socket first = new Socket(Constants.LOCALHOST, config.port())) {
+                    BufferedReader firstIn = subscribe(first, "subscribe ack");
+                    publishAll(publisher, "a", "b", "c");
+                    assertEquals("1 a", firstIn.readLine());
+                    assertEquals("2 b", firstIn.readLine());
+                    assertEquals("3 c", firstIn.readLine());
+                    send(first, "ack 2");
+                    send(first, "stop");
+                }
+
+                try (Socket second = new Socket(Constants.LOCALHOST, config.port())) {
+                    BufferedReader secondIn = subscribe(second, "subscribe");
+                    assertEquals("a", secondIn.readLine());
+                    assertEquals("c", secondIn.readLine());
+                }
+            }
+        });
+    }
+
+    @Test
+    void invalid_subscribe_options_are_rejected() throws IOException {
+        startBroker("thread");
+        TelnetClientHelper client = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+        assertEquals("ok SMQP", client.connectAndReadResponse());
+        assertEquals("ok", client.sendCommandAndReadResponse(queue("acks")));
+        assertEquals("error usage: subscribe [prefetch=<n>] [ack]", client.sendCommandAndReadResponse("subscribe acks"));
+        client.disconnect();
+    }
+
+    @Test
+    void out_of_order_acknowledgements_deliver_every_message_once() {
+        Queue queue = new Queue("acks");
+        TaggingConnection connection = new TaggingConnection();
+        Subscription subscription = queue.subscribe(connection, 128, true);
+        int count = 20_000;
+
+        assertTimeoutPreemptively(ofSeconds(10), () -> {
+            Thread thread = Thread.ofVirtual().start(subscription);
+            for (int i = 0; i < count; i++) {
+                queue.publishMessage(Message.of(Integer.toString(i)));
+            }
+
+            Random random = new Random(7);
+            BitSet received = new BitSet(count);
+            List<Long> unacknowledged = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                long[] delivery = connection.deliveries.take();
+                assertFalse(received.get((int) delivery[1]), "delivered twice: " + delivery[1]);
+                received.set((int) delivery[1]);
+                unacknowledged.add(delivery[0]);
+                if (unacknowledged.size() >= 64 || i == count - 1) {
+                    while (!unacknowledged.isEmpty()) {
+                        subscription.ack(unacknowledged.remove(random.nextInt(unacknowledged.size())), false);
+                    }
+                }
+            }
+            assertEquals(count, received.cardinality());
+            assertEquals(0, queue.stats().length());
+            thread.interrupt();
+            thread.join();
+            assertTrue(connection.deliveries.isEmpty());
+        });
+    }
+
+    @Test
+    void messages_requeued_while_the_store_is_empty_reach_the_remaining_subscriber() {
+        Queue queue = new Queue("acks");
+        TaggingConnection leaving = new TaggingConnection();
+        TaggingConnection staying = new TaggingConnection();
+        Subscription leavingSubscription = queue.subscribe(leaving, 8, true);
+        Subscription stayingSubscription = queue.subscribe(staying, 8, true);
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            Thread leavingThread = Thread.ofVirtual().start(leavingSubscription);
+            Thread stayingThread = Thread.ofVirtual().start(stayingSubscription);
+            queue.publishMessage(Message.of("0"));
+            queue.publishMessage(Message.of("1"));
+            long requeued = leaving.deliveries.take()[1];
+            long kept = staying.deliveries.take()[1];
+            assertEquals(1, requeued + kept);
+
+            // the dispatcher waits for the store to fill up when the unacknowledged message is requeued
+            leavingThread.interrupt();
+            leavingThread.join();
+            assertEquals(requeued, staying.deliveries.take()[1]);
+            stayingThread.interrupt();
+            stayingThread.join();
+        });
+    }
+
+    private static BufferedReader subscribe(Socket socket, String subscribe) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        assertEquals("ok SMQP", in.readLine());
+        send(socket, exchange("direct", "acks"), queue("acks"), bind("key"), subscribe);
+        for (int i = 0; i < 4; i++) {
+            assertEquals("ok", in.readLine());
+        }
+        return in;
+    }
+
+    private static void publishAll(Socket socket, String... messages) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        send(socket, exchange("direct", "acks"));
+        for (String message : messages) {
+            send(socket, publish("key", message));
+        }
+        for (int i = 0; i <= messages.length; i++) {
+            in.readLine();
+        }
+    }
+
+    private static void send(Socket socket, String... lines) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * Records every delivery as a pair of its tag and its message, which is a number.
+     */
+    private static final class TaggingConnection implements ClientConnection {
+        private final BlockingQueue<long[]> deliveries = new LinkedBlockingQueue<>();
+
+        @Override
+        public void writeSocketResponse(String response) {}
+
+        @Override
+        public void writeMessage(Message message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void writeMessage(Message message, long deliveryTag) {
+            deliveries.add(new long[]{deliveryTag, Long.parseLong(message.getText())});
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void switchToBinary() {}
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public InetAddress getLocalAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        @Override
+        public int getLocalPort() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package dslab.broker;
+
+import dslab.ComponentFactory;
+import dslab.config.BrokerConfig;
+import dslab.config.ListenerConfig;
+import dslab.config.QueueConfig;
+import dslab.config.RoutingConfig;
+import dslab.util.BinaryFrame;
+import dslab.util.ConfigFactory;
+import dslab.util.Constants;
+import dslab.util.Util;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.AfterEach;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Base class of the broker tests that start a single broker with the listener, queue and routing settings they
+ * exercise. Each test starts the broker itself with one of the {@code startBroker} methods, and the broker is shut
+ * down after every test.
+ */
+public abstract class BaseBrokerTest {
+
+    protected IBroker broker;
+    protected Thread brokerThread;
+    protected BrokerConfig config;
+
+    @AfterEach
+    void afterEach() throws InterruptedException {
+        stopBroker();
+    }
+
+    protected void startBroker(String transport) throws IOException {
+        startBroker(new ListenerConfig(transport, 1));
+    }
+
+    protected void startBroker(ListenerConfig listener) throws IOException {
+        startBroker(listener, QueueConfig.defaults());
+    }
+
+    protected void startBroker(ListenerConfig listener, QueueConfig queue) throws IOException {
+        startBroker(listener, queue, RoutingConfig.defaults());
+    }
+
+    protected void startBroker(ListenerConfig listener, QueueConfig queue, RoutingConfig routing) throws IOException {
+        config = ConfigFactory.createBrokerConfigA2(listener).withQueue(queue).withRouting(routing);
+        broker = ComponentFactory.createBroker(config);
+        brokerThread = new Thread(broker);
+        brokerThread.start();
+        TelnetClientHelper waitForConnHelper = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+        waitForConnHelper.waitForInitConnection();
+        waitForConnHelper.disconnect();
+    }
+
+    /**
+     * Shuts the broker down and waits until its port is closed, so that it can be started again.
+     */
+    protected void stopBroker() throws InterruptedException {
+        if (broker != null) broker.shutdown();
+        if (brokerThread != null) brokerThread.join();
+        if (config != null) Util.waitForTcpPortsToClose(config.port());
+        broker = null;
+        brokerThread = null;
+    }
+
+    /**
+     * @return a client connected to the broker, past the greeting
+     */
+    protected TelnetClientHelper connect() throws IOException {
+        TelnetClientHelper client = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+        assertEquals("ok SMQP", client.connectAndReadResponse());
+        return client;
+    }
+
+    /**
+     * Reads the greeting and switches the connection to binary framing.
+     */
+    protected static DataInputStream switchToBinary(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        assertEquals("ok SMQP", readLine(in));
+        socket.getOutputStream().write("binary\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals("ok binary", readLine(in));
+        return new DataInputStream(in);
+    }
+
+    /**
+     * Reads a line byte by byte, so that no frame bytes are consumed by a read-ahead buffer.
+     */
+    protected static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            line.append((char) b);
+        }
+        return line.toString();
+    }
+
+    protected static void writeFrame(OutputStream out, byte opcode, String routingKey, byte[] payload)
+            throws IOException {
+        BinaryFrame.write(out, opcode, routingKey.getBytes(StandardCharsets.UTF_8), payload);
+        out.flush();
+    }
+
+    protected static void assertResponse(DataInputStream in, String expected) throws IOException {
+        assertEquals(BinaryFrame.RESPONSE, in.readByte());
+        byte[] routingKey = new byte[in.readUnsignedShort()];
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(routingKey);
+        in.readFully(payload);
+        assertEquals(expected, new String(payload, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,55 @@
+package dslab.broker;
+
+import dslab.entity.Message;
+import dslab.entity.OverflowPolicy;
+import dslab.entity.QueueOptions;
+import dslab.entity.storage.MessageStore;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChunkedStoreTest {
+
+    @Test
+    void messages_keep_their_order_across_chunk_boundaries() {
+        MessageStore store = chunked(0, 0);
+        int count = 5_000;
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < count; i++) {
+                assertTrue(store.offer(Message.of(Integer.toString(i))));
+            }
+            assertEquals(count, store.size());
+            for (int i = 0; i < count / 2; i++) {
+                assertEquals(Integer.toString(i), store.poll().getText());
+            }
+            for (int i = 0; i < count / 2; i++) {
+                assertTrue(store.offer(Message.of(Integer.toString(count + i))));
+            }
+            for (int i = count / 2; i < count + count / 2; i++) {
+                assertEquals(Integer.toString(i), store.poll().getText());
+            }
+            assertNull(store.poll());
+            assertEquals(0, store.bytes());
+        }
+    }
+
+    @Test
+    void store_is_bounded_by_the_options() {
+        MessageStore store = chunked(2, 7);
+        assertTrue(store.offer(Message.of("one")));
+        assertFalse(store.offer(Message.of("three")));
+        assertTrue(store.offer(Message.of("two")));
+        assertFalse(store.offer(Message.of("x")));
+        assertEquals(6, store.bytes());
+        assertEquals("one", store.poll().getText());
+        assertTrue(store.offer(Message.of("x")));
+    }
+
+    private static MessageStore chunked(int maxLength, long maxBytes) {
+        return MessageStore.create(new QueueOptions(maxLength, maxBytes, OverflowPolicy.REJECT, MessageStore.Type.CHUNKED));
+    }
+}
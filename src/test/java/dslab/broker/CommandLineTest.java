@@ -0,0 +1,124 @@
+package dslab.broker;
+
+import dslab.util.CommandLine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CommandLineTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "publish key payload",
+            " publish key",
+            "publish  key",
+            "publish key   ",
+            "  publish   key  payload  with spaces ",
+            "exit"
+    })
+    void tokens_follow_split_on_a_single_space(String line) {
+        assertArrayEquals(line.split(" "), CommandLine.of(line).toArray());
+    }
+
+    @Test
+    void leading_and_doubled_spaces_produce_empty_tokens() {
+        CommandLine command = CommandLine.of(" publish  key ");
+
+        assertEquals(4, command.size());
+        assertEquals("", command.get(0));
+        assertEquals("publish", command.get(1));
+        assertEquals("", command.get(2));
+        assertEquals("key", command.get(3));
+    }
+
+    @Test
+    void empty_line_has_a_single_empty_token() {
+        CommandLine command = CommandLine.of("");
+
+        assertEquals(1, command.size());
+        assertEquals("", command.get(0));
+        assertTrue(command.isLine(""));
+    }
+
+    @Test
+    void view_is_reused_for_the_next_line() {
+        CommandLine command = CommandLine.of("one two three four five six seven eight nine ten");
+        assertEquals(10, command.size());
+        assertEquals("ten", command.get(9));
+
+        byte[] buffer = "xxping".getBytes(StandardCharsets.UTF_8);
+        command.parse(buffer, 2, 4);
+
+        assertEquals(1, command.size());
+        assertTrue(command.isLine("ping"));
+        assertEquals("ping", command.toString());
+    }
+
+    @Test
+    void keywords_are_compared_in_place() {
+        CommandLine command = CommandLine.of("queue orders  ");
+
+        assertTrue(command.is(0, "queue"));
+        assertFalse(command.is(0, "queues"));
+        assertFalse(command.is(0, "queu"));
+        assertFalse(command.is(2, "orders"));
+        assertEquals("queue", command.opcode(new String[]{"exchange", "queue"}));
+        assertEquals("", command.opcode(new String[]{"exchange", "bind"}));
+        assertTrue(command.isLine("queue orders"));
+        assertFalse(command.isLine("queue"));
+    }
+
+    @Test
+    void copy_from_keeps_the_spaces_of_the_rest_of_the_line() {
+        CommandLine command = CommandLine.of("publish key hello  big   world   ");
+
+        assertEquals("hello  big   world", new String(command.copyFrom(2), StandardCharsets.UTF_8));
+        assertEquals("world", new String(command.copyFrom(command.size() - 1), StandardCharsets.UTF_8));
+        assertThrows(IndexOutOfBoundsException.class, () -> command.copyFrom(command.size()));
+    }
+
+    @Test
+    void get_decodes_utf8() {
+        CommandLine command = CommandLine.of("publish schlüssel grüße");
+
+        assertEquals("schlüssel", command.get(1));
+        assertEquals("grüße", new String(command.copyFrom(2), StandardCharsets.UTF_8));
+        assertThrows(IndexOutOfBoundsException.class, () -> command.get(3));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"0", "7", "-7", "+7", "007", "2147483647", "-2147483648"})
+    void get_int_matches_integer_parse_int(String token) {
+        assertEquals(Integer.parseInt(token), CommandLine.of("x " + token).getInt(1));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"2147483648", "-2147483649", "99999999999999999999", "-", "+", "", "1a", "--1", "1-"})
+    void get_int_rejects_invalid_and_overflowing_tokens(String token) {
+        CommandLine command = CommandLine.of("x " + token + " y");
+
+        assertThrows(NumberFormatException.class, () -> command.getInt(1));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"0", "42", "0042", "9223372036854775807"})
+    void get_long_matches_long_parse_long(String token) {
+        assertEquals(Long.parseLong(token), CommandLine.of("ack " + token).getLong(1));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"9223372036854775808", "18446744073709551616", "-1", "+1", "", "12x"})
+    void get_long_rejects_negative_invalid_and_overflowing_tokens(String token) {
+        CommandLine command = CommandLine.of("ack " + token + " y");
+
+        assertThrows(NumberFormatException.class, () -> command.getLong(1));
+    }
+}
@@ -0,0 +1,56 @@
+package dslab.broker;
+
+import dslab.config.ListenerConfig;
+import dslab.util.Constants;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static dslab.util.CommandBuilder.EXIT;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ConnectionLimitTest extends BaseBrokerTest {
+
+    private static final int MAX_CONNECTIONS = 2;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void connections_beyond_limit_are_rejected_until_one_is_closed(String transport) throws IOException {
+        startBroker(new ListenerConfig(transport, 1).withMaxConnections(MAX_CONNECTIONS));
+
+        TelnetClientHelper first = awaitAdmission();
+        TelnetClientHelper second = awaitAdmission();
+
+        TelnetClientHelper rejected = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+        assertEquals("error too many connections", rejected.connectAndReadResponse());
+        assertNull(rejected.readResponse());
+        rejected.disconnect();
+
+        assertEquals("ok bye", first.sendCommandAndReadResponse(EXIT));
+        first.disconnect();
+        TelnetClientHelper third = awaitAdmission();
+
+        second.disconnect();
+        third.disconnect();
+    }
+
+    /**
+     * Connects until the broker admits the connection, since closed connections are released asynchronously.
+     */
+    private TelnetClientHelper awaitAdmission() {
+        return await()
+                .atMost(2, TimeUnit.SECONDS)
+                .pollInterval(10, TimeUnit.MILLISECONDS)
+                .until(() -> {
+                    TelnetClientHelper client = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+                    if ("ok SMQP".equals(client.connectAndReadResponse())) return client;
+                    client.disconnect();
+                    return null;
+                }, client -> client != null);
+    }
+}
@@ -0,0 +1,221 @@
+package dslab.broker;
+
+import dslab.entity.DispatchPolicy;
+import dslab.entity.Message;
+import dslab.entity.OverflowPolicy;
+import dslab.entity.Queue;
+import dslab.entity.QueueOptions;
+import dslab.entity.storage.MessageStore;
+import dslab.util.ClientConnection;
+import dslab.util.Constants;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static dslab.util.CommandBuilder.queue;
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DispatchTest extends BaseBrokerTest {
+
+    private final List<Thread> subscriptions = new ArrayList<>();
+
+    @AfterEach
+    void stopSubscriptions() throws InterruptedException {
+        subscriptions.forEach(Thread::interrupt);
+        for (Thread subscription : subscriptions) subscription.join();
+    }
+
+    @Test
+    void round_robin_spreads_messages_evenly_in_order() {
+        Queue queue = dispatchingQueue(DispatchPolicy.ROUND_ROBIN);
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            List<RecordingConnection> connections = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                connections.add(subscribe(queue, new RecordingConnection(), 8));
+            }
+            publish(queue, 0, 30);
+
+            for (RecordingConnection connection : connections) {
+                List<Integer> received = connection.receive(10);
+                for (int i = 1; i < received.size(); i++) {
+                    assertEquals(received.get(i - 1) + 3, received.get(i));
+                }
+            }
+        });
+    }
+
+    @Test
+    void full_prefetch_window_diverts_messages_to_other_subscribers() {
+        Queue queue = dispatchingQueue(DispatchPolicy.ROUND_ROBIN);
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            RecordingConnection stalled = subscribe(queue, new RecordingConnection(new CountDownLatch(1)), 2);
+            RecordingConnection fast = subscribe(queue, new RecordingConnection(), 2);
+            publish(queue, 0, 20);
+
+            assertEquals(18, fast.receive(18).size());
+            assertNull(fast.messages.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(0, queue.stats().length());
+            stalled.gate.countDown();
+            assertEquals(List.of(0, 2), stalled.receive(2));
+        });
+    }
+
+    @Test
+    void least_outstanding_favours_the_subscriber_that_keeps_up() {
+        Queue queue = dispatchingQueue(DispatchPolicy.LEAST_OUTSTANDING);
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            RecordingConnection stalled = subscribe(queue, new RecordingConnection(new CountDownLatch(1)), 20);
+            RecordingConnection fast = subscribe(queue, new RecordingConnection(), 20);
+
+            // round-robin would hand every other message to the stalled subscriber
+            int receivedByFast = 0;
+            for (int i = 0; i < 20; i++) {
+                publish(queue, i, i + 1);
+                if (fast.messages.poll(100, TimeUnit.MILLISECONDS) != null) receivedByFast++;
+            }
+            int handedToStalled = 20 - receivedByFast - fast.drain();
+            assertTrue(handedToStalled <= 2, "stalled subscriber received " + handedToStalled);
+            stalled.gate.countDown();
+        });
+    }
+
+    @Test
+    void messages_not_written_to_a_leaving_subscriber_go_to_the_next_one() {
+        Queue queue = dispatchingQueue(DispatchPolicy.ROUND_ROBIN);
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            subscribe(queue, new RecordingConnection(new CountDownLatch(1)), 3);
+            publish(queue, 0, 4);
+            Thread.sleep(100);
+            assertEquals(1, queue.stats().length());
+
+            // the message stuck in the write is lost with the subscriber, the two waiting ones are not
+            subscriptions.getFirst().interrupt();
+            subscriptions.getFirst().join();
+            RecordingConnection next = subscribe(queue, new RecordingConnection(), 8);
+            assertEquals(List.of(1, 2, 3), next.receive(3));
+        });
+    }
+
+    @Test
+    void subscribe_accepts_a_prefetch_count() throws IOException {
+        startBroker("thread");
+
+        TelnetClientHelper client = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+        assertEquals("ok SMQP", client.connectAndReadResponse());
+        assertEquals("error invalid dispatch policy random", client.sendCommandAndReadResponse(queue("q dispatch=random")));
+        assertEquals("ok", client.sendCommandAndReadResponse(queue("q dispatch=least-outstanding prefetch=4")));
+        assertEquals("error invalid value for prefetch", client.sendCommandAndReadResponse("subscribe prefetch=0"));
+        assertEquals("error usage: subscribe [prefetch=<n>] [ack]", client.sendCommandAndReadResponse("subscribe 5"));
+        assertEquals("ok", client.sendCommandAndReadResponse("subscribe prefetch=5"));
+        client.disconnect();
+    }
+
+    private static Queue dispatchingQueue(DispatchPolicy policy) {
+        return new Queue("dispatch", new QueueOptions(0, 0, OverflowPolicy.REJECT, MessageStore.Type.DEQUE, policy, 8));
+    }
+
+    private static void publish(Queue queue, int from, int to) {
+        for (int i = from; i < to; i++) {
+            queue.publishMessage(Message.of(Integer.toString(i)));
+        }
+    }
+
+    private RecordingConnection subscribe(Queue queue, RecordingConnection connection, int prefetch)
+            throws InterruptedException {
+        subscriptions.add(Thread.ofVirtual().start(() -> queue.startMessageDispatch(connection, prefetch)));
+        assertEquals("ok", connection.responses.poll(1, TimeUnit.SECONDS));
+        return connection;
+    }
+
+    /**
+     * Records the messages written to it. Writes wait for the gate, if any, to simulate a subscriber that does not
+     * keep up.
+     */
+    private static final class RecordingConnection implements ClientConnection {
+        private final BlockingQueue<String> responses = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Integer> messages = new LinkedBlockingQueue<>();
+        private final CountDownLatch gate;
+
+        private RecordingConnection() {
+            this(new CountDownLatch(0));
+        }
+
+        private RecordingConnection(CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        private List<Integer> receive(int count) throws InterruptedException {
+            List<Integer> received = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                received.add(messages.take());
+            }
+            return received;
+        }
+
+        private int drain() throws InterruptedException {
+            int drained = 0;
+            while (messages.poll(100, TimeUnit.MILLISECONDS) != null) {
+                drained++;
+            }
+            return drained;
+        }
+
+        @Override
+        public void writeSocketResponse(String response) {
+            responses.add(response);
+        }
+
+        @Override
+        public void writeMessage(Message message) {
+            try {
+                gate.await();
+                messages.add(Integer.parseInt(message.getText()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void writeMessage(Message message, long deliveryTag) {
+            writeMessage(message);
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void switchToBinary() {}
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public InetAddress getLocalAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        @Override
+        public int getLocalPort() {
+            return 0;
+        }
+    }
+}
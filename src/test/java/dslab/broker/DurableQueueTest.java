@@ -0,0 +1,157 @@
+package dslab.broker;
+
+import dslab.config.ListenerConfig;
+import dslab.config.QueueConfig;
+import dslab.entity.Message;
+import dslab.entity.storage.FsyncPolicy;
+import dslab.entity.storage.LogSettings;
+import dslab.entity.storage.SegmentLog;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.publish;
+import static dslab.util.CommandBuilder.queue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class DurableQueueTest extends BaseBrokerTest {
+
+    @TempDir
+    private Path dataDir;
+
+    @Test
+    void durable_queue_keeps_its_messages_across_a_restart() throws IOException, InterruptedException {
+        startBroker();
+        TelnetClientHelper publisher = connect();
+        assertEquals("ok", publisher.sendCommandAndReadResponse(exchange("default", "default")));
+        assertEquals("ok", publisher.sendCommandAndReadResponse(queue("orders.eu store=durable max-length=10")));
+        for (String message : new String[]{"one", "two", "three"}) {
+            assertEquals("ok", publisher.sendCommandAndReadResponse(publish("orders.eu", message)));
+        }
+        publisher.disconnect();
+        stopBroker();
+
+        startBroker();
+        TelnetClientHelper subscriber = connect();
+        assertEquals("error queue already exists with different options",
+                subscriber.sendCommandAndReadResponse(queue("orders.eu store=deque")));
+        assertEquals("ok", subscriber.sendCommandAndReadResponse(queue("orders.eu")));
+        assertEquals("ok", subscriber.sendCommandAndReadResponse("subscribe"));
+        assertEquals("one", subscriber.readResponse());
+        assertEquals("two", subscriber.readResponse());
+        assertEquals("three", subscriber.readResponse());
+        subscriber.disconnect();
+    }
+
+    @Test
+    void consumed_segments_are_deleted() throws IOException {
+        LogSettings settings = new LogSettings(dataDir, 160, FsyncPolicy.interval(100));
+        try (SegmentLog log = SegmentLog.open(dataDir, settings)) {
+            append(log, 0, 20);
+            // 6 records of 26 bytes fit into a segment
+            assertEquals(4, log.segmentCount());
+
+            assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12), read(log, 13));
+            assertEquals(2, log.segmentCount());
+            assertEquals(2, segmentFiles().size());
+        }
+
+        try (SegmentLog log = SegmentLog.open(dataDir, settings)) {
+            assertEquals(7, log.size());
+            assertEquals(14, log.bytes());
+            assertEquals(List.of(13, 14, 15, 16, 17, 18, 19), read(log, 7));
+            assertNull(log.read());
+        }
+    }
+
+    @Test
+    void torn_record_at_the_end_of_the_log_is_discarded() throws IOException {
+        LogSettings settings = new LogSettings(dataDir, 1024, FsyncPolicy.ALWAYS);
+        try (SegmentLog log = SegmentLog.open(dataDir, settings)) {
+            append(log, 0, 3);
+        }
+
+        // corrupt the payload of the last record, as if the machine crashed while it was written
+        try (FileChannel segment = FileChannel.open(segmentFiles().getFirst(), StandardOpenOption.WRITE)) {
+            segment.write(ByteBuffer.wrap(new byte[]{'x'}), 2 * 26 + 24);
+        }
+
+        try (SegmentLog log = SegmentLog.open(dataDir, settings)) {
+            assertEquals(2, log.size());
+            append(log, 3, 4);
+            assertEquals(List.of(0, 1, 3), read(log, 3));
+        }
+    }
+
+    @Test
+    void empty_messages_are_recovered() throws IOException {
+        LogSettings settings = new LogSettings(dataDir, 1024, FsyncPolicy.ALWAYS);
+        try (SegmentLog log = SegmentLog.open(dataDir, settings)) {
+            append(log, 0, 1);
+            log.append(Message.of(""));
+            append(log, 1, 2);
+            log.append(Message.of(""));
+        }
+
+        try (SegmentLog log = SegmentLog.open(dataDir, settings)) {
+            assertEquals(4, log.size());
+            assertEquals(4, log.bytes());
+            append(log, 2, 3);
+            assertEquals(List.of("00", "", "01", "", "02"),
+                    Stream.generate(log::read).limit(5).map(Message::getText).toList());
+            assertNull(log.read());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"always", "messages", "interval"})
+    void every_fsync_mode_recovers_the_log(String mode) throws IOException {
+        QueueConfig queueConfig = new QueueConfig(0, 0, "reject", "durable", "round-robin", 64, dataDir.toString(), 128,
+                mode, 5, 10, 16, 0);
+        LogSettings settings = queueConfig.logSettings("broker");
+        assertEquals(FsyncPolicy.Mode.fromString(mode), settings.fsync().mode());
+        assertEquals(dataDir.resolve("broker"), settings.directory());
+
+        try (SegmentLog log = SegmentLog.open(settings.directory(), settings)) {
+            append(log, 0, 50);
+            read(log, 10);
+        }
+        try (SegmentLog log = SegmentLog.open(settings.directory(), settings)) {
+            assertEquals(40, log.size());
+            assertEquals(10, read(log, 1).getFirst());
+        }
+    }
+
+    private static void append(SegmentLog log, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            log.append(Message.of("%02d".formatted(i)));
+        }
+    }
+
+    private static List<Integer> read(SegmentLog log, int count) {
+        return Stream.generate(log::read).limit(count).map(message -> Integer.parseInt(message.getText())).toList();
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dataDir)) {
+            return files.filter(file -> file.toString().endsWith(".segment")).sorted().toList();
+        }
+    }
+
+    private void startBroker() throws IOException {
+        startBroker(new ListenerConfig("thread", 1), QueueConfig.defaults().withDataDir(dataDir.toString()));
+    }
+}
@@ -0,0 +1,139 @@
+package dslab.broker;
+
+import dslab.util.FlushPolicy;
+import dslab.util.IOReadWrite;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static java.time.Duration.ofSeconds;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FlushPolicyTest {
+
+    @Test
+    void immediate_mode_writes_every_response() throws IOException {
+        RecordingSocket socket = new RecordingSocket();
+        try (IOReadWrite io = new IOReadWrite(socket, FlushPolicy.IMMEDIATE)) {
+            writeBurst(io);
+            assertEquals(List.of("one\n", "two\n", "three\n"), socket.writes);
+        }
+    }
+
+    @Test
+    void batch_mode_writes_a_burst_at_once_when_the_batch_ends() throws IOException {
+        RecordingSocket socket = new RecordingSocket();
+        try (IOReadWrite io = new IOReadWrite(socket, FlushPolicy.BATCH)) {
+            writeBurst(io);
+            assertTrue(socket.writes.isEmpty());
+
+            io.flush();
+            assertEquals(List.of("one\ntwo\nthree\n"), socket.writes);
+        }
+    }
+
+    @Test
+    void threshold_mode_writes_a_burst_at_once_after_the_max_delay() throws IOException {
+        RecordingSocket socket = new RecordingSocket();
+        try (IOReadWrite io = new IOReadWrite(socket, FlushPolicy.threshold(1024, 50))) {
+            writeBurst(io);
+            assertTrue(socket.writes.isEmpty());
+
+            await().atMost(ofSeconds(2)).until(() -> !socket.writes.isEmpty());
+            assertEquals(List.of("one\ntwo\nthree\n"), socket.writes);
+        }
+    }
+
+    @Test
+    void threshold_mode_writes_once_enough_bytes_are_pending() throws IOException {
+        RecordingSocket socket = new RecordingSocket();
+        try (IOReadWrite io = new IOReadWrite(socket, FlushPolicy.threshold(8, 60_000))) {
+            io.writeSocketResponse("one");
+            assertTrue(socket.writes.isEmpty());
+
+            io.writeSocketResponse("two");
+            io.writeSocketResponse("three");
+            assertEquals(List.of("one\ntwo\n"), socket.writes);
+        }
+    }
+
+    @Test
+    void delayed_flush_of_a_stalled_peer_does_not_hold_up_other_connections() throws IOException {
+        CountDownLatch unblock = new CountDownLatch(1);
+        RecordingSocket stalled = new RecordingSocket(unblock);
+        RecordingSocket socket = new RecordingSocket();
+        try (IOReadWrite stalledIo = new IOReadWrite(stalled, FlushPolicy.threshold(1024, 20));
+             IOReadWrite io = new IOReadWrite(socket, FlushPolicy.threshold(1024, 50))) {
+            try {
+                stalledIo.writeSocketResponse("stuck");
+                await().atMost(ofSeconds(2)).until(() -> stalled.writeStarted);
+
+                io.writeSocketResponse("delivered");
+                await().atMost(ofSeconds(2)).until(() -> !socket.writes.isEmpty());
+                assertEquals(List.of("delivered\n"), socket.writes);
+            } finally {
+                unblock.countDown();
+            }
+        }
+    }
+
+    private static void writeBurst(IOReadWrite io) {
+        io.writeSocketResponse("one");
+        io.writeSocketResponse("two");
+        io.writeSocketResponse("three");
+    }
+
+    /**
+     * A socket that records every write to its output stream, optionally blocking the writes like a peer that does
+     * not read its responses.
+     */
+    private static final class RecordingSocket extends Socket {
+        private final List<String> writes = new CopyOnWriteArrayList<>();
+        private final CountDownLatch unblock;
+        private volatile boolean writeStarted;
+
+        private RecordingSocket() {
+            this(new CountDownLatch(0));
+        }
+
+        private RecordingSocket(CountDownLatch unblock) {
+            this.unblock = unblock;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    writeStarted = true;
+                    try {
+                        unblock.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e);
+                    }
+                    writes.add(new String(b, off, len, StandardCharsets.UTF_8));
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return InputStream.nullInputStream();
+        }
+    }
+}
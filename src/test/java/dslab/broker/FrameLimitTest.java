@@ -0,0 +1,166 @@
+package dslab.broker;
+
+import dslab.config.ListenerConfig;
+import dslab.util.BinaryFrame;
+import dslab.util.Constants;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static dslab.util.CommandBuilder.bind;
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.queue;
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class FrameLimitTest extends BaseBrokerTest {
+
+    private static final int MAX_FRAME_BYTES = 1024;
+    private static final long MAX_SPOOLED_BYTES = 1 << 20;
+    private static final String FRAME_TOO_LARGE = "error frame too large, max %d bytes".formatted(MAX_FRAME_BYTES);
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void oversized_line_is_rejected_and_connection_stays_usable(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            try (Socket socket = new Socket(Constants.LOCALHOST, config.port())) {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                assertEquals("ok SMQP", readLine(in));
+
+                out.write(("publish key " + "x".repeat(64 * 1024) + "\n").getBytes(StandardCharsets.UTF_8));
+                out.write((exchange("direct", "limits") + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                assertEquals(FRAME_TOO_LARGE, readLine(in));
+                assertEquals("ok", readLine(in));
+            }
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void oversized_command_frame_is_rejected(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            try (Socket socket = new Socket(Constants.LOCALHOST, config.port())) {
+                DataInputStream in = switchToBinary(socket);
+                OutputStream out = socket.getOutputStream();
+                writeFrame(out, BinaryFrame.COMMAND, "", new byte[MAX_FRAME_BYTES]);
+                writeFrame(out, BinaryFrame.COMMAND, "", exchange("direct", "limits").getBytes(StandardCharsets.UTF_8));
+                assertResponse(in, FRAME_TOO_LARGE);
+                assertResponse(in, "ok");
+            }
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void large_publish_payload_is_spooled_and_delivered_unchanged(String transport) throws IOException {
+        startBroker(transport);
+        byte[] payload = new byte[200 * 1024];
+        new Random(42).nextBytes(payload);
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            try (Socket subscriber = new Socket(Constants.LOCALHOST, config.port());
+                 Socket publisher = new Socket(Constants.LOCALHOST, config.port())) {
+                DataInputStream subscriberIn = switchToBinary(subscriber);
+                OutputStream subscriberOut = subscriber.getOutputStream();
+                for (String command : new String[]{exchange("direct", "large"), queue("large"), bind("key"), "subscribe"}) {
+                    writeFrame(subscriberOut, BinaryFrame.COMMAND, "", command.getBytes(StandardCharsets.UTF_8));
+                    assertResponse(subscriberIn, "ok");
+                }
+
+                DataInputStream publisherIn = switchToBinary(publisher);
+                OutputStream publisherOut = publisher.getOutputStream();
+                writeFrame(publisherOut, BinaryFrame.COMMAND, "", exchange("direct", "large").getBytes(StandardCharsets.UTF_8));
+                writeFrame(publisherOut, BinaryFrame.PUBLISH, "key", payload);
+                writeFrame(publisherOut, BinaryFrame.PUBLISH, "key", Arrays.copyOf(payload, 16));
+                assertResponse(publisherIn, "ok");
+                assertResponse(publisherIn, "ok");
+                assertResponse(publisherIn, "ok");
+
+                assertArrayEquals(payload, readDelivery(subscriberIn));
+                assertArrayEquals(Arrays.copyOf(payload, 16), readDelivery(subscriberIn));
+            }
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void spooled_payload_is_delivered_to_text_subscriber_in_order(String transport) throws IOException {
+        startBroker(transport);
+        String large = "y".repeat(300 * 1024);
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            try (Socket subscriber = new Socket(Constants.LOCALHOST, config.port());
+                 Socket publisher = new Socket(Constants.LOCALHOST, config.port())) {
+                InputStream subscriberIn = subscriber.getInputStream();
+                OutputStream subscriberOut = subscriber.getOutputStream();
+                assertEquals("ok SMQP", readLine(subscriberIn));
+                for (String command : new String[]{exchange("direct", "large"), queue("large"), bind("key"), "subscribe"}) {
+                    subscriberOut.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+                    assertEquals("ok", readLine(subscriberIn));
+                }
+
+                DataInputStream publisherIn = switchToBinary(publisher);
+                OutputStream publisherOut = publisher.getOutputStream();
+                writeFrame(publisherOut, BinaryFrame.COMMAND, "", exchange("direct", "large").getBytes(StandardCharsets.UTF_8));
+                writeFrame(publisherOut, BinaryFrame.PUBLISH, "key", "small".getBytes(StandardCharsets.UTF_8));
+                writeFrame(publisherOut, BinaryFrame.PUBLISH, "key", large.getBytes(StandardCharsets.UTF_8));
+                writeFrame(publisherOut, BinaryFrame.PUBLISH, "key", "after".getBytes(StandardCharsets.UTF_8));
+                for (int i = 0; i < 4; i++) {
+                    assertResponse(publisherIn, "ok");
+                }
+
+                assertEquals("small", readLine(subscriberIn));
+                assertEquals(large, readLine(subscriberIn));
+                assertEquals("after", readLine(subscriberIn));
+            }
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void publish_payload_beyond_spool_limit_is_rejected(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            try (Socket socket = new Socket(Constants.LOCALHOST, config.port())) {
+                DataInputStream in = switchToBinary(socket);
+                OutputStream out = socket.getOutputStream();
+                writeFrame(out, BinaryFrame.COMMAND, "", exchange("direct", "limits").getBytes(StandardCharsets.UTF_8));
+                writeFrame(out, BinaryFrame.PUBLISH, "key", new byte[(int) MAX_SPOOLED_BYTES + 1]);
+                writeFrame(out, BinaryFrame.PUBLISH, "key", new byte[1]);
+                assertResponse(in, "ok");
+                assertResponse(in, FRAME_TOO_LARGE);
+                assertResponse(in, "ok");
+            }
+        });
+    }
+
+    @Override
+    protected void startBroker(String transport) throws IOException {
+        startBroker(new ListenerConfig(transport, 1).withFrameLimits(MAX_FRAME_BYTES, MAX_SPOOLED_BYTES));
+    }
+
+    private static byte[] readDelivery(DataInputStream in) throws IOException {
+        assertEquals(BinaryFrame.DELIVER, in.readByte());
+        assertEquals(0, in.readUnsignedShort());
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        return payload;
+    }
+}
@@ -0,0 +1,99 @@
+package dslab.broker;
+
+import dslab.entity.Message;
+import dslab.entity.OverflowPolicy;
+import dslab.entity.Queue;
+import dslab.entity.QueueFactory;
+import dslab.entity.QueueOptions;
+import dslab.entity.storage.FsyncPolicy;
+import dslab.entity.storage.LazyMessageStore;
+import dslab.entity.storage.LogSettings;
+import dslab.entity.storage.MessageStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LazyStoreTest {
+
+    @TempDir
+    private Path dataDir;
+
+    @Test
+    void backlog_beyond_the_window_is_spilled_and_paged_back_in_order() {
+        LazyMessageStore store = lazy(0, 0, 8);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(store.offer(Message.of(Integer.toString(i))));
+        }
+        assertEquals(100, store.size());
+        assertEquals(92, store.spilled());
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Integer.toString(i), store.poll().getText());
+        }
+        // messages published while messages are spilled queue up behind them
+        for (int i = 100; i < 110; i++) {
+            assertTrue(store.offer(Message.of(Integer.toString(i))));
+        }
+        for (int i = 50; i < 110; i++) {
+            assertEquals(Integer.toString(i), store.poll().getText());
+        }
+        assertNull(store.poll());
+        assertEquals(0, store.spilled());
+        assertEquals(0, store.bytes());
+
+        assertTrue(store.offer(Message.of("on heap")));
+        assertEquals(0, store.spilled());
+        store.close();
+    }
+
+    @Test
+    void limits_count_spilled_messages() {
+        LazyMessageStore store = lazy(4, 0, 2);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(store.offer(Message.of("m" + i)));
+        }
+        assertFalse(store.offer(Message.of("m4")));
+        assertEquals(8, store.bytes());
+        assertEquals("m0", store.poll().getText());
+        assertTrue(store.offer(Message.of("m4")));
+        store.close();
+    }
+
+    @Test
+    void factory_discards_the_spill_of_a_previous_run() throws IOException {
+        LogSettings settings = new LogSettings(dataDir, 1024, FsyncPolicy.NEVER, 2);
+        QueueFactory factory = new QueueFactory(QueueOptions.UNBOUNDED, settings);
+        QueueOptions options = new QueueOptions(0, 0, OverflowPolicy.REJECT, MessageStore.Type.LAZY);
+
+        Queue crashed = factory.create("lazy.queue", options);
+        for (int i = 0; i < 10; i++) {
+            crashed.publishMessage(Message.of(Integer.toString(i)));
+        }
+        Path spillDirectory = dataDir.resolve(".lazy").resolve("lazy%2Equeue");
+        assertTrue(Files.isDirectory(spillDirectory));
+
+        Queue restarted = factory.create("lazy.queue", options);
+        assertEquals(0, restarted.stats().length());
+        restarted.publishMessage(Message.of("fresh"));
+        restarted.publishMessage(Message.of("again"));
+        restarted.publishMessage(Message.of("spilled"));
+        assertEquals(3, restarted.stats().length());
+
+        restarted.close();
+        assertFalse(Files.exists(spillDirectory));
+        assertFalse(restarted.publishMessage(Message.of("closed")));
+    }
+
+    private LazyMessageStore lazy(int maxLength, long maxBytes, int window) {
+        return new LazyMessageStore(new QueueOptions(maxLength, maxBytes, OverflowPolicy.REJECT, MessageStore.Type.LAZY),
+                dataDir.resolve("spill"), new LogSettings(dataDir, 256, FsyncPolicy.NEVER, window));
+    }
+}
@@ -0,0 +1,201 @@
+package dslab.broker;
+
+import dslab.entity.Exchange;
+import dslab.entity.Message;
+import dslab.entity.PayloadArena;
+import dslab.entity.Queue;
+import dslab.entity.QueueFactory;
+import dslab.entity.QueueOptions;
+import dslab.entity.storage.FsyncPolicy;
+import dslab.entity.storage.LogSettings;
+import dslab.entity.storage.SegmentLog;
+import dslab.util.Constants;
+import dslab.util.ExchangeType;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.queue;
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MessageTtlTest extends BaseBrokerTest {
+
+    @TempDir
+    private Path dataDir;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"deque", "ring", "chunked", "lazy", "durable"})
+    void queue_ttl_expires_messages_without_subscribers(String store) {
+        Queue queue = factory(Map.of()).create("expiring", QueueOptions.UNBOUNDED.withAll("ttl=50 store=" + store));
+        for (int i = 0; i < 10; i++) {
+            queue.publishMessage(Message.of("m" + i));
+        }
+        awaitCount(10, () -> queue.stats().expired());
+        assertEquals(0, queue.stats().length());
+        assertEquals(0, queue.stats().bytes());
+        queue.close();
+    }
+
+    @Test
+    void message_ttl_expires_only_that_message() {
+        Queue queue = new Queue("mixed");
+        queue.publishMessage(Message.of("short").expireAfter(20));
+        queue.publishMessage(Message.of("forever"));
+
+        awaitCount(1, () -> queue.stats().expired());
+        assertEquals(1, queue.stats().length());
+        queue.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "priority=2"})
+    void message_ttl_expires_behind_messages_that_do_not_expire(String options) {
+        Queue queue = factory(Map.of()).create("backlog", QueueOptions.UNBOUNDED.withAll(options));
+        assertTrue(queue.supportsMessageTtl());
+        queue.publishMessage(Message.of("forever"));
+        queue.publishMessage(Message.of("short").expireAfter(20));
+        queue.publishMessage(Message.of("long").expireAfter(60_000));
+
+        awaitCount(1, () -> queue.stats().expired());
+        assertEquals(2, queue.stats().length());
+        assertEquals("foreverlong".length(), queue.stats().bytes());
+        queue.close();
+    }
+
+    @Test
+    void message_ttl_is_rejected_by_queues_that_cannot_remove_it_early() throws IOException {
+        startBroker("thread");
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            TelnetClientHelper client = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+            assertEquals("ok SMQP", client.connectAndReadResponse());
+            assertEquals("ok", client.sendCommandAndReadResponse(exchange("fanout", "ttl")));
+            assertEquals("ok", client.sendCommandAndReadResponse(queue("listed")));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind any"));
+            assertEquals("ok", client.sendCommandAndReadResponse(queue("ringed store=ring")));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind any"));
+            assertEquals("error queue ringed does not support message ttl with store=ring",
+                    client.sendCommandAndReadResponse("publish ttl=60000 -- any m"));
+            assertEquals("error queue ringed does not support message ttl with store=ring",
+                    client.sendCommandAndReadResponse("mpublish ttl=60000 -- any 1\nm"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish any kept"));
+            assertEquals("ok", client.sendCommandAndReadResponse("subscribe"));
+            assertEquals("kept", client.readResponse());
+            client.disconnect();
+        });
+    }
+
+    @Test
+    void expired_messages_are_dead_lettered_through_the_exchange_bindings() {
+        Map<String, Exchange> exchanges = new ConcurrentHashMap<>();
+        Exchange deadLetters = new Exchange(ExchangeType.DIRECT, "dlx");
+        exchanges.put("dlx", deadLetters);
+        QueueFactory factory = factory(exchanges);
+
+        Queue parked = factory.create("parked", QueueOptions.UNBOUNDED);
+        deadLetters.getBindingStorage().addBinding("expiring", parked);
+        Queue expiring = factory.create("expiring", QueueOptions.UNBOUNDED.withAll("ttl=30 dead-letter-exchange=dlx"));
+        Queue renamed = factory.create("renamed",
+                QueueOptions.UNBOUNDED.withAll("ttl=30 dead-letter-exchange=dlx dead-letter-routing-key=expiring"));
+        expiring.publishMessage(Message.of("first"));
+        renamed.publishMessage(Message.of("second"));
+        expiring.publishMessage(Message.of("third").expireAfter(5));
+
+        awaitCount(3, () -> parked.stats().enqueued());
+        assertEquals(2, expiring.stats().deadLettered());
+        assertEquals(1, renamed.stats().deadLettered());
+        // dead-lettered copies do not expire again
+        assertEquals(0, parked.stats().expired());
+        assertEquals(3, parked.stats().length());
+    }
+
+    @Test
+    void log_keeps_publish_time_and_expiry() throws IOException {
+        LogSettings settings = new LogSettings(dataDir, 4096, FsyncPolicy.NEVER);
+        Message published = Message.of("kept").expireAfter(60_000);
+        try (SegmentLog log = SegmentLog.open(dataDir.resolve("log"), settings)) {
+            log.append(published);
+        }
+        try (SegmentLog log = SegmentLog.open(dataDir.resolve("log"), settings)) {
+            assertNull(log.readIf(message -> message.expiresAt() < published.timestamp()));
+            Message recovered = log.read();
+            assertEquals("kept", recovered.getText());
+            assertEquals(published.timestamp(), recovered.timestamp());
+            assertEquals(published.expiresAt(), recovered.expiresAt());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void subscriber_never_receives_expired_messages(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            TelnetClientHelper client = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+            assertEquals("ok SMQP", client.connectAndReadResponse());
+            assertEquals("ok", client.sendCommandAndReadResponse(exchange("direct", "ttl")));
+            assertEquals("ok", client.sendCommandAndReadResponse(queue("ttl-queue")));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind key"));
+            assertEquals("error invalid value for ttl", client.sendCommandAndReadResponse("publish ttl=soon -- key m"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish ttl=20 -- key expired"));
+            Thread.sleep(100);
+            assertEquals("ok", client.sendCommandAndReadResponse("publish ttl=60000 -- key alive"));
+            assertEquals("ok", client.sendCommandAndReadResponse("subscribe"));
+            assertEquals("alive", client.readResponse());
+            client.disconnect();
+        });
+    }
+
+    @Test
+    void properties_only_count_when_ended_by_a_marker() throws IOException {
+        startBroker("thread");
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            TelnetClientHelper client = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+            assertEquals("ok SMQP", client.connectAndReadResponse());
+            assertEquals("ok", client.sendCommandAndReadResponse(exchange("direct", "ttl")));
+            assertEquals("ok", client.sendCommandAndReadResponse(queue("prefixed")));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind ttl=soon"));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind key"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish ttl=soon key words"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish ttl=60000 -- ttl=soon marked"));
+            assertEquals("error usage: publish [[ttl=<ms>] [priority=<n>] --] <routing-key> <message>",
+                    client.sendCommandAndReadResponse("publish ttl=60000 -- key"));
+            assertEquals("ok", client.sendCommandAndReadResponse("mpublish ttl=20 -- key 1\nexpired"));
+            Thread.sleep(100);
+            assertEquals("ok", client.sendCommandAndReadResponse("publish key last"));
+            assertEquals("ok", client.sendCommandAndReadResponse("subscribe"));
+            assertEquals("key words", client.readResponse());
+            assertEquals("marked", client.readResponse());
+            assertEquals("last", client.readResponse());
+            client.disconnect();
+        });
+    }
+
+    private QueueFactory factory(Map<String, Exchange> exchanges) {
+        return new QueueFactory(QueueOptions.UNBOUNDED, new LogSettings(dataDir, 4096, FsyncPolicy.NEVER),
+                PayloadArena.DISABLED, exchanges::get);
+    }
+
+    private static void awaitCount(long expected, LongSupplier count) {
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            while (count.getAsLong() < expected) {
+                Thread.sleep(10);
+            }
+        });
+        assertEquals(expected, count.getAsLong());
+    }
+}
@@ -0,0 +1,130 @@
+package dslab.broker;
+
+import dslab.ComponentFactory;
+import dslab.monitoring.IMonitoringServer;
+import dslab.util.ConfigFactory;
+import dslab.util.Constants;
+import dslab.util.Util;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static dslab.util.CommandBuilder.bind;
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.queue;
+import static dslab.util.monitoring.MonitoringUtil.waitForMonitoringServerToUpdateDatabase;
+import static java.time.Duration.ofSeconds;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class MultiPublishTest extends BaseBrokerTest {
+
+    private IMonitoringServer monitoringServer;
+    private Thread monitoringServerThread;
+
+    @AfterEach
+    void stopMonitoringServer() throws InterruptedException {
+        if (monitoringServer != null) monitoringServer.shutdown();
+        if (monitoringServerThread != null) monitoringServerThread.join();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void batch_is_acknowledged_once_and_delivered_in_order(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            try (Socket subscriber = new Socket(Constants.LOCALHOST, config.port());
+                 Socket publisher = new Socket(Constants.LOCALHOST, config.port())) {
+                BufferedReader subscriberIn = reader(subscriber);
+                assertEquals("ok SMQP", subscriberIn.readLine());
+                send(subscriber, exchange("topic", "batch"), queue("batch"), bind("key.#"), "subscribe");
+                for (int i = 0; i < 4; i++) {
+                    assertEquals("ok", subscriberIn.readLine());
+                }
+
+                BufferedReader publisherIn = reader(publisher);
+                assertEquals("ok SMQP", publisherIn.readLine());
+                send(publisher, exchange("topic", "batch"),
+                        "mpublish key.a 3", "first", "exit", "third",
+                        "mpublish 3", "key.b fourth", "other fifth", "key.a sixth message",
+                        "publish key.c seventh");
+                assertEquals("ok", publisherIn.readLine());
+                assertEquals("ok", publisherIn.readLine());
+                assertEquals("ok", publisherIn.readLine());
+                assertEquals("ok", publisherIn.readLine());
+
+                for (String expected : new String[]{"first", "exit", "third", "fourth", "sixth message", "seventh"}) {
+                    assertEquals(expected, subscriberIn.readLine());
+                }
+            }
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void invalid_batches_are_rejected(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            try (Socket socket = new Socket(Constants.LOCALHOST, config.port())) {
+                BufferedReader in = reader(socket);
+                assertEquals("ok SMQP", in.readLine());
+                send(socket, "mpublish key 0", "mpublish key many", "mpublish 2", "key.a one", "missing-message",
+                        "mpublish key 1", "no exchange");
+                assertEquals("error batch size must be between 1 and 1000", in.readLine());
+                assertEquals("error usage: mpublish [[ttl=<ms>] [priority=<n>] --] [<routing-key>] <count>",
+                        in.readLine());
+                assertEquals("error usage: mpublish <count> requires lines of <routing-key> <message>", in.readLine());
+                assertEquals("error no exchange declared", in.readLine());
+            }
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void batch_is_reported_as_one_record_per_routing_key(String transport) throws IOException {
+        monitoringServer = ComponentFactory.createMonitoringServer(ConfigFactory.createMonitoringServerConfig());
+        monitoringServerThread = new Thread(monitoringServer);
+        monitoringServerThread.start();
+        await()
+                .atMost(1, TimeUnit.SECONDS)
+                .pollInterval(10, TimeUnit.MILLISECONDS)
+                .until(() -> Util.isUdpPortListening(Constants.LOCALHOST, Constants.MONITORING_PORT));
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            try (Socket socket = new Socket(Constants.LOCALHOST, config.port())) {
+                BufferedReader in = reader(socket);
+                assertEquals("ok SMQP", in.readLine());
+                send(socket, exchange("direct", "batch"), "mpublish 4", "key.a 1", "key.b 2", "key.a 3", "key.a 4");
+                assertEquals("ok", in.readLine());
+                assertEquals("ok", in.readLine());
+            }
+        });
+
+        waitForMonitoringServerToUpdateDatabase(monitoringServer, 4);
+        assertEquals(4, monitoringServer.receivedMessages());
+        assertThat(monitoringServer.getStatistics()).contains("key.a 3", "key.b 1");
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static void send(Socket socket, String... lines) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
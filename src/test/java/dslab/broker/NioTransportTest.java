@@ -0,0 +1,147 @@
+package dslab.broker;
+
+import dslab.config.ListenerConfig;
+import dslab.thread.ChannelHandler;
+import dslab.thread.NioListenerThread;
+import dslab.util.CommandLine;
+import dslab.util.Constants;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static dslab.util.CommandBuilder.EXIT;
+import static dslab.util.CommandBuilder.exchange;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class NioTransportTest extends BaseBrokerTest {
+
+    @BeforeEach
+    @Timeout(value = 1500, unit = TimeUnit.MILLISECONDS, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void beforeEach() throws IOException {
+        startBroker(new ListenerConfig("nio", 2));
+    }
+
+    @Test
+    @Timeout(value = 1500, unit = TimeUnit.MILLISECONDS, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void nio_transport_routes_messages_successfully() throws IOException {
+        TelnetClientHelper subscriber = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+        TelnetClientHelper publisher = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+        assertEquals("ok SMQP", subscriber.connectAndReadResponse());
+        assertEquals("ok SMQP", publisher.connectAndReadResponse());
+
+        subscriber.subscribe("nio-exchange", "topic", "nio-queue", "nio.#");
+        assertEquals("ok", publisher.sendCommandAndReadResponse(exchange("topic", "nio-exchange")));
+        publisher.publish("nio.a.b", "VERIFICATION-MESSAGE-1");
+        assertEquals("VERIFICATION-MESSAGE-1", subscriber.readResponse());
+        publisher.publish("nio.c", "VERIFICATION-MESSAGE-2");
+        assertEquals("VERIFICATION-MESSAGE-2", subscriber.readResponse());
+
+        assertEquals("ok bye", publisher.sendCommandAndReadResponse(EXIT));
+        subscriber.disconnect();
+    }
+
+    @Test
+    @Timeout(value = 3000, unit = TimeUnit.MILLISECONDS, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void nio_transport_serves_many_connections_successfully() throws IOException {
+        List<TelnetClientHelper> clients = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            TelnetClientHelper client = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+            assertEquals("ok SMQP", client.connectAndReadResponse());
+            clients.add(client);
+        }
+        for (TelnetClientHelper client : clients) {
+            assertEquals("ok", client.sendCommandAndReadResponse(exchange("fanout", "nio-fanout")));
+            client.disconnect();
+        }
+    }
+
+    @Test
+    @Timeout(value = 3000, unit = TimeUnit.MILLISECONDS, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void failing_handler_only_closes_its_own_connection() throws Exception {
+        ServerSocketChannel serverSocketChannel = ServerSocketChannel.open().bind(new InetSocketAddress(0));
+        NioListenerThread listener = NioListenerThread.builder()
+                .componentId("Failing")
+                .serverSocketChannel(serverSocketChannel)
+                .eventLoops(1)
+                .channelHandler(connection -> new ChannelHandler() {
+                    @Override
+                    public void onOpen() {
+                        connection.writeSocketResponse("ok echo");
+                    }
+
+                    @Override
+                    public void onLine(CommandLine line) {
+                        if (line.isLine("fail")) throw new IllegalStateException("handler failed");
+                        connection.writeSocketResponse(line.toString());
+                    }
+                })
+                .build();
+        listener.start();
+        try {
+            int port = serverSocketChannel.socket().getLocalPort();
+            TelnetClientHelper failing = new TelnetClientHelper(Constants.LOCALHOST, port);
+            TelnetClientHelper other = new TelnetClientHelper(Constants.LOCALHOST, port);
+            assertEquals("ok echo", failing.connectAndReadResponse());
+            assertEquals("ok echo", other.connectAndReadResponse());
+
+            assertNull(failing.sendCommandAndReadResponse("fail"));
+            // the event loop survived and still serves the other connection
+            assertEquals("still served", other.sendCommandAndReadResponse("still served"));
+            TelnetClientHelper late = new TelnetClientHelper(Constants.LOCALHOST, port);
+            assertEquals("ok echo", late.connectAndReadResponse());
+            other.disconnect();
+            late.disconnect();
+        } finally {
+            listener.shutdown();
+            listener.join();
+        }
+    }
+
+    @Test
+    @Timeout(value = 5000, unit = TimeUnit.MILLISECONDS, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void buffers_shrink_once_a_large_line_has_been_echoed() throws Exception {
+        ServerSocketChannel serverSocketChannel = ServerSocketChannel.open().bind(new InetSocketAddress(0));
+        NioListenerThread listener = NioListenerThread.builder()
+                .componentId("Echo")
+                .serverSocketChannel(serverSocketChannel)
+                .eventLoops(1)
+                .channelHandler(connection -> new ChannelHandler() {
+                    @Override
+                    public void onOpen() {
+                        connection.writeSocketResponse("ok echo");
+                    }
+
+                    @Override
+                    public void onLine(CommandLine line) {
+                        connection.writeSocketResponse(line.isLine("buffers")
+                                ? String.valueOf(connection.bufferCapacity())
+                                : line.toString());
+                    }
+                })
+                .build();
+        listener.start();
+        try {
+            TelnetClientHelper client = new TelnetClientHelper(Constants.LOCALHOST,
+                    serverSocketChannel.socket().getLocalPort());
+            assertEquals("ok echo", client.connectAndReadResponse());
+            String initial = client.sendCommandAndReadResponse("buffers");
+
+            String large = "x".repeat(1024 * 1024);
+            assertEquals(large, client.sendCommandAndReadResponse(large));
+            assertEquals(initial, client.sendCommandAndReadResponse("buffers"));
+            client.disconnect();
+        } finally {
+            listener.shutdown();
+            listener.join();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package dslab.broker;
+
+import dslab.config.ListenerConfig;
+import dslab.config.QueueConfig;
+import dslab.entity.Message;
+import dslab.entity.PayloadArena;
+import dslab.entity.Queue;
+import dslab.entity.QueueOptions;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static dslab.util.CommandBuilder.bind;
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.publish;
+import static dslab.util.CommandBuilder.queue;
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PayloadArenaTest extends BaseBrokerTest {
+
+    @Test
+    void slot_is_freed_once_the_last_queue_releases_the_payload() throws IOException {
+        PayloadArena arena = new PayloadArena(PayloadArena.PAGE_BYTES);
+        Message published = Message.of("x".repeat(1000));
+        Message stored = published.toArena(arena);
+        assertTrue(stored.isOffHeap());
+        assertEquals(1024, arena.usedBytes());
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(new Queue("fanout-" + i, QueueOptions.UNBOUNDED).publishMessage(stored));
+        }
+        stored.release();
+        assertEquals(1024, arena.usedBytes());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stored.writeTo(out);
+        assertArrayEquals(published.getPayload(), out.toByteArray());
+        ByteBuffer copy = ByteBuffer.allocate(1000);
+        stored.copyTo(copy);
+        assertArrayEquals(published.getPayload(), copy.array());
+
+        // what the subscriptions of the three queues do after writing the message
+        stored.release();
+        stored.release();
+        assertEquals(1024, arena.usedBytes());
+        stored.release();
+        assertEquals(0, arena.usedBytes());
+        assertEquals(PayloadArena.PAGE_BYTES, arena.reservedBytes());
+    }
+
+    @Test
+    void payloads_outside_the_size_classes_or_capacity_stay_on_the_heap() {
+        PayloadArena arena = new PayloadArena(PayloadArena.PAGE_BYTES);
+        Message small = Message.of("x".repeat(PayloadArena.MIN_SLOT_BYTES - 1));
+        Message huge = new Message(new byte[PayloadArena.PAGE_BYTES + 1]);
+        assertSame(small, small.toArena(arena));
+        assertSame(huge, huge.toArena(arena));
+        Message medium = Message.of("x".repeat(300));
+        assertSame(medium, medium.toArena(PayloadArena.DISABLED));
+
+        // a page of 512 byte slots, after which the arena is full
+        List<Message> copies = new ArrayList<>();
+        for (int i = 0; i < PayloadArena.PAGE_BYTES / 512; i++) {
+            Message copy = Message.of("y".repeat(257)).toArena(arena);
+            assertTrue(copy.isOffHeap());
+            copies.add(copy);
+        }
+        Message overflow = Message.of("y".repeat(257));
+        assertFalse(overflow.toArena(arena).isOffHeap());
+        assertEquals(PayloadArena.PAGE_BYTES, arena.usedBytes());
+
+        copies.getFirst().release();
+        assertTrue(overflow.toArena(arena).isOffHeap());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void off_heap_payloads_reach_every_fanout_subscriber(String transport) throws IOException {
+        startBroker(new ListenerConfig(transport, 1), QueueConfig.defaults().withArenaBytes(PayloadArena.PAGE_BYTES));
+
+        String payload = "large payload ".repeat(200);
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            List<TelnetClientHelper> subscribers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                TelnetClientHelper subscriber = connect();
+                assertEquals("ok", subscriber.sendCommandAndReadResponse(exchange("fanout", "wide")));
+                assertEquals("ok", subscriber.sendCommandAndReadResponse(queue("wide-" + i)));
+                assertEquals("ok", subscriber.sendCommandAndReadResponse(bind("none")));
+                subscribers.add(subscriber);
+            }
+            TelnetClientHelper publisher = connect();
+            assertEquals("ok", publisher.sendCommandAndReadResponse(exchange("fanout", "wide")));
+            for (int i = 0; i < 3; i++) {
+                assertEquals("ok", publisher.sendCommandAndReadResponse(publish("any", payload + i)));
+            }
+
+            for (TelnetClientHelper subscriber : subscribers) {
+                assertEquals("ok", subscriber.sendCommandAndReadResponse("subscribe"));
+                for (int i = 0; i < 3; i++) {
+                    assertEquals(payload + i, subscriber.readResponse());
+                }
+                subscriber.disconnect();
+            }
+            publisher.disconnect();
+        });
+    }
+}
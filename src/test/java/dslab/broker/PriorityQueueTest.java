@@ -0,0 +1,106 @@
+package dslab.broker;
+
+import dslab.entity.Message;
+import dslab.entity.OverflowPolicy;
+import dslab.entity.QueueOptions;
+import dslab.entity.storage.MessageStore;
+import dslab.entity.storage.PriorityMessageStore;
+import dslab.util.Constants;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.queue;
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PriorityQueueTest extends BaseBrokerTest {
+
+    @Test
+    void higher_priorities_are_taken_first_and_levels_stay_fifo() throws InterruptedException {
+        MessageStore store = MessageStore.create(QueueOptions.UNBOUNDED.with("priority=4"));
+        assertInstanceOf(PriorityMessageStore.class, store);
+        store.offer(message("bulk-1", 0));
+        store.offer(message("bulk-2", 0));
+        store.offer(message("urgent-1", 3));
+        store.offer(message("normal", 1));
+        store.offer(message("urgent-2", 3));
+        // priorities above the highest level are capped
+        store.offer(message("capped", 9));
+
+        assertEquals(6, store.size());
+        assertEquals("urgent-1", store.take().getText());
+        assertEquals("urgent-2", store.poll().getText());
+        assertEquals("capped", store.poll().getText());
+        assertEquals("normal", store.poll().getText());
+        assertEquals("bulk-1", store.poll().getText());
+        assertEquals("bulk-2", store.take().getText());
+        assertNull(store.poll());
+        assertEquals(0, store.bytes());
+    }
+
+    @Test
+    void limits_apply_to_all_levels_and_conditional_polls_look_at_every_level() {
+        MessageStore store = MessageStore.create(
+                new QueueOptions(2, 0, OverflowPolicy.REJECT, MessageStore.Type.DEQUE).with("priority=2"));
+        assertTrue(store.offer(message("low", 0)));
+        assertTrue(store.offer(message("high", 1)));
+        assertFalse(store.offer(message("rejected", 1)));
+
+        assertEquals("low", store.pollIf(message -> message.priority() == 0).getText());
+        assertNull(store.pollIf(message -> message.priority() == 0));
+        assertEquals(1, store.size());
+        assertTrue(store.offer(message("accepted", 1)));
+    }
+
+    @Test
+    void priority_levels_require_an_in_memory_deque() {
+        QueueOptions ring = QueueOptions.UNBOUNDED.withAll("store=ring priority=2");
+        assertThrows(IllegalArgumentException.class, () -> MessageStore.create(ring));
+        assertThrows(IllegalArgumentException.class, () -> QueueOptions.UNBOUNDED.with("priority=65"));
+        assertEquals(QueueOptions.UNBOUNDED.with("priority=8"),
+                QueueOptions.UNBOUNDED.withAll(QueueOptions.UNBOUNDED.with("priority=8").format()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void urgent_messages_overtake_the_backlog(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            TelnetClientHelper client = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+            assertEquals("ok SMQP", client.connectAndReadResponse());
+            assertEquals("ok", client.sendCommandAndReadResponse(exchange("direct", "control")));
+            assertEquals("error priority levels require store=deque",
+                    client.sendCommandAndReadResponse(queue("durable-control store=durable priority=2")));
+            assertEquals("ok", client.sendCommandAndReadResponse(queue("commands priority=10")));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind cmd"));
+            assertEquals("error invalid value for priority",
+                    client.sendCommandAndReadResponse("publish priority=64 -- cmd x"));
+            for (int i = 0; i < 3; i++) {
+                assertEquals("ok", client.sendCommandAndReadResponse("publish cmd bulk " + i));
+            }
+            assertEquals("ok", client.sendCommandAndReadResponse("publish ttl=60000 priority=9 -- cmd shutdown now"));
+            assertEquals("ok", client.sendCommandAndReadResponse("subscribe"));
+            assertEquals("shutdown now", client.readResponse());
+            for (int i = 0; i < 3; i++) {
+                assertEquals("bulk " + i, client.readResponse());
+            }
+            client.disconnect();
+        });
+    }
+
+    private static Message message(String text, int priority) {
+        return Message.of(text).prioritize(priority);
+    }
+}
@@ -0,0 +1,209 @@
+package dslab.broker;
+
+import dslab.entity.Message;
+import dslab.entity.PayloadArena;
+import dslab.entity.Queue;
+import dslab.entity.QueueFactory;
+import dslab.entity.QueueOptions;
+import dslab.entity.binding.DirectBindingStorage;
+import dslab.entity.binding.FanoutBindingStorage;
+import dslab.entity.binding.TopicBindingStorage;
+import dslab.entity.storage.FsyncPolicy;
+import dslab.entity.storage.LogSettings;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.queue;
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class QueueLifecycleTest extends BaseBrokerTest {
+
+    @TempDir
+    private Path dataDir;
+
+    @Test
+    void removing_topic_bindings_prunes_the_nodes_left_empty() {
+        TopicBindingStorage storage = new TopicBindingStorage();
+        Queue first = new Queue("first");
+        Queue second = new Queue("second");
+        storage.addBinding("orders.eu.*", first);
+        storage.addBinding("orders.eu.created", second);
+        storage.addBinding("orders.#", first);
+        assertEquals(5, storage.nodeCount());
+
+        assertFalse(storage.removeBinding("orders.us.*", first));
+        assertFalse(storage.removeBinding("orders.eu.created", first));
+        assertTrue(storage.removeBinding("orders.eu.*", first));
+        assertEquals(4, storage.nodeCount());
+        assertEquals(Set.of(first, second), Set.copyOf(storage.getQueuesByRoutingKey("orders.eu.created")));
+
+        storage.removeQueue(first);
+        assertEquals(3, storage.nodeCount());
+        storage.removeQueue(second);
+        assertEquals(0, storage.nodeCount());
+        assertTrue(storage.getQueuesByRoutingKey("orders.eu.created").isEmpty());
+    }
+
+    @Test
+    void removing_direct_and_fanout_bindings_only_removes_that_queue() {
+        Queue first = new Queue("same");
+        // equal by name, but a different queue
+        Queue second = new Queue("same");
+
+        DirectBindingStorage direct = new DirectBindingStorage();
+        direct.addBinding("key", first);
+        direct.addBinding("key", second);
+        direct.addBinding("other", first);
+        assertTrue(direct.removeBinding("key", first));
+        assertFalse(direct.removeBinding("key", first));
+        assertEquals(1, direct.getQueuesByRoutingKey("key").size());
+        direct.removeQueue(first);
+        assertTrue(direct.getQueuesByRoutingKey("other").isEmpty());
+
+        FanoutBindingStorage fanout = new FanoutBindingStorage();
+        fanout.addBinding("any", first);
+        fanout.addBinding("any", second);
+        fanout.removeQueue(second);
+        assertEquals(1, fanout.getQueuesByRoutingKey("x").size());
+        assertTrue(fanout.removeBinding("none", first));
+        assertTrue(fanout.getQueuesByRoutingKey("x").isEmpty());
+    }
+
+    @Test
+    void deleting_a_durable_queue_drops_its_log() {
+        List<Queue> removed = new ArrayList<>();
+        QueueFactory factory = new QueueFactory(QueueOptions.UNBOUNDED,
+                new LogSettings(dataDir, 4096, FsyncPolicy.NEVER), PayloadArena.DISABLED, name -> null, removed::add);
+        Queue queue = factory.create("orders", QueueOptions.UNBOUNDED.with("store=durable"));
+        for (int i = 0; i < 3; i++) {
+            queue.publishMessage(Message.of("order " + i));
+        }
+        assertTrue(Files.isDirectory(dataDir.resolve("orders")));
+
+        queue.delete();
+        queue.delete();
+        assertTrue(queue.isDeleted());
+        assertEquals(List.of(queue), removed);
+        assertFalse(Files.exists(dataDir.resolve("orders")));
+        assertTrue(factory.recover().isEmpty());
+        // dropped instead of being stored in a queue nobody can reach anymore
+        assertTrue(queue.publishMessage(Message.of("late")));
+    }
+
+    @Test
+    void deleting_a_queue_releases_its_messages() {
+        PayloadArena arena = new PayloadArena(PayloadArena.PAGE_BYTES);
+        Queue queue = new Queue("arena");
+        for (int i = 0; i < 4; i++) {
+            Message stored = Message.of("x".repeat(500)).toArena(arena);
+            queue.publishMessage(stored);
+            stored.release();
+        }
+        assertEquals(4 * 512, arena.usedBytes());
+
+        queue.delete();
+        assertEquals(0, queue.stats().length());
+        assertEquals(0, arena.usedBytes());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void unbound_and_deleted_queues_receive_no_messages(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            TelnetClientHelper client = connect();
+            assertEquals("ok", client.sendCommandAndReadResponse(exchange("topic", "events")));
+            assertEquals("ok", client.sendCommandAndReadResponse(queue("audit")));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind events.*"));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind events.login"));
+            assertEquals("ok", client.sendCommandAndReadResponse("unbind events.*"));
+            assertEquals("error queue audit is not bound with events.*",
+                    client.sendCommandAndReadResponse("unbind events.*"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish events.logout ignored"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish events.login kept"));
+
+            assertEquals("ok", client.sendCommandAndReadResponse("queue.delete audit"));
+            assertEquals("error queue audit does not exist", client.sendCommandAndReadResponse("queue.delete audit"));
+            assertEquals("error no queue declared", client.sendCommandAndReadResponse("subscribe"));
+
+            // declared anew, without the bindings or messages of the deleted queue
+            assertEquals("ok", client.sendCommandAndReadResponse(queue("audit")));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish events.login dropped"));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind events.login"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish events.login fresh"));
+            assertEquals("ok", client.sendCommandAndReadResponse("subscribe"));
+            assertEquals("fresh", client.readResponse());
+            client.disconnect();
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void auto_delete_queue_is_deleted_after_its_last_subscriber(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            TelnetClientHelper client = connect();
+            assertEquals("ok", client.sendCommandAndReadResponse(exchange("direct", "replies")));
+            assertEquals("ok", client.sendCommandAndReadResponse(queue("reply-to auto-delete")));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind reply"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish reply answer"));
+            assertEquals("ok", client.sendCommandAndReadResponse("subscribe"));
+            assertEquals("answer", client.readResponse());
+            client.disconnect();
+
+            TelnetClientHelper other = connect();
+            awaitRedeclared(other, "reply-to");
+            other.disconnect();
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void exclusive_queue_belongs_to_its_connection(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            TelnetClientHelper owner = connect();
+            TelnetClientHelper other = connect();
+            assertEquals("error exclusive queues cannot be durable",
+                    owner.sendCommandAndReadResponse(queue("private store=durable exclusive")));
+            assertEquals("ok", owner.sendCommandAndReadResponse(queue("private exclusive")));
+            assertEquals("ok", owner.sendCommandAndReadResponse(queue("private")));
+            assertEquals("error queue private is exclusive to another connection",
+                    other.sendCommandAndReadResponse(queue("private")));
+            assertEquals("error queue private is exclusive to another connection",
+                    other.sendCommandAndReadResponse("queue.delete private"));
+
+            owner.disconnect();
+            awaitRedeclared(other, "private");
+            other.disconnect();
+        });
+    }
+
+    /**
+     * Declares the queue with different options until that succeeds, which it only does once the queue of the same
+     * name has been deleted.
+     */
+    private static void awaitRedeclared(TelnetClientHelper client, String name) throws Exception {
+        while (!client.sendCommandAndReadResponse(queue(name + " max-length=5")).equals("ok")) {
+            Thread.sleep(10);
+        }
+    }
+}
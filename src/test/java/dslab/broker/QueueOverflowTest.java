@@ -0,0 +1,205 @@
+package dslab.broker;
+
+import dslab.config.ListenerConfig;
+import dslab.config.QueueConfig;
+import dslab.entity.Exchange;
+import dslab.entity.Message;
+import dslab.entity.OverflowPolicy;
+import dslab.entity.Queue;
+import dslab.entity.QueueFactory;
+import dslab.entity.QueueOptions;
+import dslab.entity.RoutingOptions;
+import dslab.entity.storage.FsyncPolicy;
+import dslab.entity.storage.LogSettings;
+import dslab.entity.storage.MessageStore;
+import dslab.protocol.SmqpProtocol;
+import dslab.util.CommandLine;
+import dslab.util.ExchangeType;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static dslab.util.CommandBuilder.bind;
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.publish;
+import static dslab.util.CommandBuilder.queue;
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class QueueOverflowTest extends BaseBrokerTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void full_queue_rejects_publish_with_error(String transport) throws IOException {
+        startBroker(transport, QueueConfig.defaults());
+        TelnetClientHelper publisher = connect();
+        declare(publisher, "limited max-length=2 overflow=reject");
+
+        assertEquals("ok", publisher.sendCommandAndReadResponse(publish("key", "one")));
+        assertEquals("ok", publisher.sendCommandAndReadResponse(publish("key", "two")));
+        assertEquals("error queue limited is full", publisher.sendCommandAndReadResponse(publish("key", "three")));
+        assertEquals("error queue full, rejected 2 of 2 deliveries",
+                publisher.sendCommandAndReadResponse("mpublish key 2\nfour\nfive"));
+
+        TelnetClientHelper subscriber = connect();
+        assertEquals("ok", subscriber.sendCommandAndReadResponse(queue("limited")));
+        assertEquals("ok", subscriber.sendCommandAndReadResponse("subscribe"));
+        assertEquals("one", subscriber.readResponse());
+        assertEquals("two", subscriber.readResponse());
+        publisher.disconnect();
+        subscriber.disconnect();
+    }
+
+    @ParameterizedTest
+    @CsvSource({"drop-head, deque", "drop-new, deque", "drop-head, ring", "drop-new, ring", "drop-head, chunked"})
+    void drop_policies_keep_newest_or_oldest_messages(String policy, String store) throws IOException {
+        startBroker("thread", new QueueConfig(2, 0, policy, store));
+        TelnetClientHelper publisher = connect();
+        declare(publisher, "dropping");
+
+        for (String message : new String[]{"one", "two", "three"}) {
+            assertEquals("ok", publisher.sendCommandAndReadResponse(publish("key", message)));
+        }
+
+        TelnetClientHelper subscriber = connect();
+        assertEquals("ok", subscriber.sendCommandAndReadResponse(queue("dropping")));
+        assertEquals("ok", subscriber.sendCommandAndReadResponse("subscribe"));
+        List<String> expected = policy.equals("drop-head") ? List.of("two", "three") : List.of("one", "two");
+        assertEquals(expected.get(0), subscriber.readResponse());
+        assertEquals(expected.get(1), subscriber.readResponse());
+        publisher.disconnect();
+        subscriber.disconnect();
+    }
+
+    @Test
+    void invalid_queue_options_are_rejected() throws IOException {
+        startBroker("thread", QueueConfig.defaults());
+        TelnetClientHelper client = connect();
+
+        assertEquals("error unknown queue option size", client.sendCommandAndReadResponse(queue("q size=1")));
+        assertEquals("error invalid value for max-length", client.sendCommandAndReadResponse(queue("q max-length=-1")));
+        assertEquals("error invalid overflow policy drop", client.sendCommandAndReadResponse(queue("q overflow=drop")));
+        assertEquals("error invalid store list", client.sendCommandAndReadResponse(queue("q store=list")));
+        assertEquals("ok", client.sendCommandAndReadResponse(queue("q max-bytes=100")));
+        assertEquals("ok", client.sendCommandAndReadResponse(queue("q")));
+        assertEquals("error queue already exists with different options",
+                client.sendCommandAndReadResponse(queue("q max-bytes=200")));
+        client.disconnect();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"deque", "ring", "chunked"})
+    void blocked_publisher_resumes_once_a_subscriber_takes_a_message(String store) throws IOException {
+        startBroker("thread", new QueueConfig(2, 0, "block", store));
+        TelnetClientHelper publisher = connect();
+        declare(publisher, "blocking");
+        assertEquals("ok", publisher.sendCommandAndReadResponse(publish("key", "zero")));
+        assertEquals("ok", publisher.sendCommandAndReadResponse(publish("key", "one")));
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            CompletableFuture<String> blocked = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return publisher.sendCommandAndReadResponse(publish("key", "two"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            Thread.sleep(200);
+            assertFalse(blocked.isDone());
+
+            TelnetClientHelper subscriber = connect();
+            assertEquals("ok", subscriber.sendCommandAndReadResponse(queue("blocking")));
+            assertEquals("ok", subscriber.sendCommandAndReadResponse("subscribe"));
+            assertEquals("zero", subscriber.readResponse());
+            assertEquals("one", subscriber.readResponse());
+            assertEquals("ok", blocked.get());
+            assertEquals("two", subscriber.readResponse());
+            subscriber.disconnect();
+        });
+        publisher.disconnect();
+    }
+
+    @Test
+    void nio_transport_refuses_blocking_queues() throws IOException {
+        startBroker("nio", QueueConfig.defaults());
+        TelnetClientHelper client = connect();
+
+        assertEquals("error overflow=block is not supported by the nio transport",
+                client.sendCommandAndReadResponse(queue("blocking max-length=2 overflow=block")));
+        assertEquals("ok", client.sendCommandAndReadResponse(queue("blocking max-length=2 overflow=reject")));
+        client.disconnect();
+    }
+
+    @Test
+    void overflow_outcomes_are_counted_per_policy() {
+        Queue rejecting = new Queue("rejecting", new QueueOptions(0, 4, OverflowPolicy.REJECT, MessageStore.Type.DEQUE));
+        Queue dropping = new Queue("dropping", new QueueOptions(1, 0, OverflowPolicy.DROP_HEAD, MessageStore.Type.DEQUE));
+        Queue ignoring = new Queue("ignoring", new QueueOptions(0, 4, OverflowPolicy.DROP_NEW, MessageStore.Type.DEQUE));
+
+        assertFalse(rejecting.publishMessage(Message.of("too long")));
+        dropping.publishMessage(Message.of("one"));
+        dropping.publishMessage(Message.of("two"));
+        ignoring.publishMessage(Message.of("too long"));
+
+        assertEquals(1, rejecting.stats().rejected());
+        assertEquals(0, rejecting.stats().length());
+        assertEquals(1, dropping.stats().droppedHead());
+        assertEquals(1, dropping.stats().length());
+        assertEquals(2, dropping.stats().enqueued());
+        assertEquals(1, ignoring.stats().droppedNew());
+    }
+
+    @Test
+    void only_stored_messages_are_reported_and_partial_delivery_is_named(@TempDir Path dataDir) {
+        List<String> reported = new ArrayList<>();
+        QueueFactory factory = new QueueFactory(QueueOptions.UNBOUNDED,
+                new LogSettings(dataDir, 4096, FsyncPolicy.NEVER));
+        ConcurrentHashMap<String, Exchange> exchanges = new ConcurrentHashMap<>();
+        exchanges.put("default", new Exchange(ExchangeType.DEFAULT, "default", RoutingOptions.DEFAULT));
+        SmqpProtocol protocol = new SmqpProtocol(exchanges, new ConcurrentHashMap<>(),
+                (routingKey, count) -> reported.add(routingKey + " " + count), factory, RoutingOptions.DEFAULT);
+        String[] declarations = {exchange("direct", "overflow"), queue("limited max-length=1 overflow=reject"),
+                bind("key"), bind("shared"), queue("open"), bind("shared")};
+        for (String command : declarations) {
+            assertEquals(Optional.of("ok"), protocol.processCommand(CommandLine.of(command)));
+        }
+
+        assertEquals(Optional.of("ok"), protocol.processCommand(CommandLine.of(publish("key", "one"))));
+        assertEquals(Optional.of("error queue limited is full"),
+                protocol.processCommand(CommandLine.of(publish("key", "two"))));
+        assertEquals(Optional.of("error queue limited is full, delivered to 1 of 2 queues"),
+                protocol.processCommand(CommandLine.of(publish("shared", "three"))));
+        assertEquals(Optional.empty(), protocol.processCommand(CommandLine.of("mpublish 3")));
+        assertEquals(Optional.empty(), protocol.processCommand(CommandLine.of("key four")));
+        assertEquals(Optional.empty(), protocol.processCommand(CommandLine.of("shared five")));
+        assertEquals(Optional.of("error queue full, rejected 2 of 3 deliveries"),
+                protocol.processCommand(CommandLine.of("nowhere six")));
+
+        assertEquals(List.of("key 1", "shared 1", "shared 1", "nowhere 1"), reported);
+        protocol.close();
+    }
+
+    private void startBroker(String transport, QueueConfig queueConfig) throws IOException {
+        startBroker(new ListenerConfig(transport, 1), queueConfig);
+    }
+
+    private static void declare(TelnetClientHelper client, String queueDeclaration) throws IOException {
+        assertEquals("ok", client.sendCommandAndReadResponse(exchange("direct", "overflow")));
+        assertEquals("ok", client.sendCommandAndReadResponse(queue(queueDeclaration)));
+        assertEquals("ok", client.sendCommandAndReadResponse(bind("key")));
+    }
+}
@@ -0,0 +1,108 @@
+package dslab.broker;
+
+import dslab.config.ListenerConfig;
+import dslab.util.Constants;
+import dslab.util.HashedWheelTimer;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static dslab.util.CommandBuilder.exchange;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReadTimeoutTest extends BaseBrokerTest {
+
+    private static final long IDLE_TIMEOUT_MS = 300;
+    private static final long REQUEST_TIMEOUT_MS = 300;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        startBroker(new ListenerConfig("thread", 0).withTimeouts(IDLE_TIMEOUT_MS, REQUEST_TIMEOUT_MS));
+    }
+
+    @Test
+    @Timeout(value = 2000, unit = TimeUnit.MILLISECONDS, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void idle_connection_is_closed() throws IOException {
+        try (Socket socket = new Socket(Constants.LOCALHOST, config.port())) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            assertEquals("ok SMQP", reader.readLine());
+            assertNull(reader.readLine());
+        }
+    }
+
+    @Test
+    @Timeout(value = 2000, unit = TimeUnit.MILLISECONDS, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void incomplete_request_is_closed_despite_trickling_bytes() throws IOException, InterruptedException {
+        try (Socket socket = new Socket(Constants.LOCALHOST, config.port())) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = socket.getOutputStream();
+            assertEquals("ok SMQP", reader.readLine());
+
+            long start = System.nanoTime();
+            try {
+                while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(3 * REQUEST_TIMEOUT_MS)) {
+                    out.write('x');
+                    out.flush();
+                    Thread.sleep(50);
+                }
+            } catch (IOException ignored) {
+                // the broker has closed the connection
+            }
+            assertNull(reader.readLine());
+        }
+    }
+
+    @Test
+    @Timeout(value = 3000, unit = TimeUnit.MILLISECONDS, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void subscriber_receiving_messages_is_not_idle() throws IOException, InterruptedException {
+        TelnetClientHelper subscriber = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+        TelnetClientHelper publisher = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+        assertEquals("ok SMQP", subscriber.connectAndReadResponse());
+        assertEquals("ok SMQP", publisher.connectAndReadResponse());
+
+        subscriber.subscribe("timeout-exchange", "fanout", "timeout-queue", "none");
+        assertEquals("ok", publisher.sendCommandAndReadResponse(exchange("fanout", "timeout-exchange")));
+        for (int i = 0; i < 10; i++) {
+            publisher.publish("none", "message-" + i);
+            assertEquals("message-" + i, subscriber.readResponse());
+            Thread.sleep(IDLE_TIMEOUT_MS / 3);
+        }
+
+        subscriber.disconnect();
+        publisher.disconnect();
+    }
+
+    @Test
+    @Timeout(value = 2000, unit = TimeUnit.MILLISECONDS, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void periodic_task_spanning_the_whole_wheel_keeps_its_period() throws InterruptedException {
+        long tickMs = 10;
+        int wheelSize = 4;
+        long periodMs = tickMs * wheelSize;
+        BlockingQueue<Long> runs = new LinkedBlockingQueue<>();
+        try (HashedWheelTimer timer = new HashedWheelTimer("periodic-test", tickMs, TimeUnit.MILLISECONDS, wheelSize)) {
+            Thread.sleep(tickMs + 3);
+            // every run falls into the bucket being expired, as the period is a full rotation of the wheel
+            timer.scheduleAtFixedRate(() -> runs.add(System.nanoTime()), periodMs, TimeUnit.MILLISECONDS);
+            long previous = runs.take();
+            for (int i = 0; i < 8; i++) {
+                long run = runs.take();
+                long gapMs = TimeUnit.NANOSECONDS.toMillis(run - previous);
+                assertTrue(gapMs >= periodMs / 2, "run after " + gapMs + " ms");
+                previous = run;
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package dslab.broker;
+
+import dslab.entity.Message;
+import dslab.entity.OverflowPolicy;
+import dslab.entity.QueueOptions;
+import dslab.entity.storage.MessageStore;
+import dslab.entity.storage.RingBufferMessageStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RingBufferStoreTest {
+
+    @Test
+    void ring_is_bounded_by_max_length_and_max_bytes() {
+        RingBufferMessageStore store = ring(2, 0);
+        assertTrue(store.offer(Message.of("one")));
+        assertTrue(store.offer(Message.of("two")));
+        assertFalse(store.offer(Message.of("three")));
+        assertEquals(2, store.size());
+        assertEquals(6, store.bytes());
+
+        assertEquals("one", store.poll().getText());
+        assertTrue(store.offer(Message.of("three")));
+        assertEquals("two", store.poll().getText());
+        assertEquals("three", store.poll().getText());
+        assertNull(store.poll());
+        assertEquals(0, store.bytes());
+
+        RingBufferMessageStore bytesLimited = ring(0, 8);
+        assertEquals(RingBufferMessageStore.DEFAULT_CAPACITY, bytesLimited.capacity());
+        assertTrue(bytesLimited.offer(Message.of("four")));
+        assertFalse(bytesLimited.offer(Message.of("fives")));
+        assertTrue(bytesLimited.offer(Message.of("four")));
+    }
+
+    @Test
+    void blocked_publisher_is_woken_when_space_frees_up() throws Exception {
+        RingBufferMessageStore store = ring(2, 0);
+        store.offer(Message.of("one"));
+        store.offer(Message.of("two"));
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+            Future<Boolean> waiting = executor.submit(() -> store.awaitSpace(5, TimeUnit.SECONDS.toNanos(2)));
+            Thread.sleep(100);
+            assertFalse(waiting.isDone());
+            store.poll();
+            assertTrue(waiting.get());
+            assertTrue(store.offer(Message.of("three")));
+            assertFalse(store.awaitSpace(5, TimeUnit.MILLISECONDS.toNanos(10)));
+            executor.shutdown();
+        });
+    }
+
+    @Test
+    void concurrent_publishers_and_subscribers_receive_each_message_once_in_publish_order() {
+        int publishers = 4;
+        int subscribers = 4;
+        int messagesPerPublisher = 20_000;
+        RingBufferMessageStore store = ring(64, 0);
+
+        assertTimeoutPreemptively(ofSeconds(20), () -> {
+            Set<String> received = ConcurrentHashMap.newKeySet();
+            List<List<String>> perSubscriber = new ArrayList<>();
+            CountDownLatch remaining = new CountDownLatch(publishers * messagesPerPublisher);
+            List<Thread> threads = new ArrayList<>();
+
+            for (int s = 0; s < subscribers; s++) {
+                List<String> taken = new ArrayList<>();
+                perSubscriber.add(taken);
+                threads.add(Thread.ofVirtual().start(() -> {
+                    try {
+                        while (true) {
+                            String text = store.take().getText();
+                            taken.add(text);
+                            received.add(text);
+                            remaining.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+            }
+            List<Thread> publisherThreads = new ArrayList<>();
+            for (int p = 0; p < publishers; p++) {
+                int publisher = p;
+                publisherThreads.add(Thread.ofVirtual().start(() -> {
+                    for (int i = 0; i < messagesPerPublisher; i++) {
+                        Message message = Message.of(publisher + ":" + i);
+                        try {
+                            while (!store.offer(message)) {
+                                store.awaitSpace(message.length(), TimeUnit.MILLISECONDS.toNanos(10));
+                            }
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }));
+            }
+
+            for (Thread thread : publisherThreads) thread.join();
+            assertTrue(remaining.await(15, TimeUnit.SECONDS));
+            threads.forEach(Thread::interrupt);
+            for (Thread thread : threads) thread.join();
+
+            assertEquals(publishers * messagesPerPublisher, received.size());
+            assertTrue(store.isEmpty());
+            for (List<String> taken : perSubscriber) {
+                assertInPublishOrder(taken);
+            }
+        });
+    }
+
+    /**
+     * Every subscriber takes messages in ring order, so the messages of one publisher it received are ascending.
+     */
+    private static void assertInPublishOrder(List<String> taken) {
+        int[] last = {-1, -1, -1, -1};
+        Set<String> seen = new HashSet<>();
+        for (String text : taken) {
+            assertTrue(seen.add(text));
+            String[] parts = text.split(":");
+            int publisher = Integer.parseInt(parts[0]);
+            int sequence = Integer.parseInt(parts[1]);
+            assertTrue(sequence > last[publisher], text + " after " + last[publisher]);
+            last[publisher] = sequence;
+        }
+    }
+
+    private static RingBufferMessageStore ring(int maxLength, long maxBytes) {
+        return (RingBufferMessageStore) MessageStore.create(
+                new QueueOptions(maxLength, maxBytes, OverflowPolicy.REJECT, MessageStore.Type.RING));
+    }
+}
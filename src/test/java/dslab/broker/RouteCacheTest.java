@@ -0,0 +1,134 @@
+package dslab.broker;
+
+import dslab.config.ListenerConfig;
+import dslab.config.QueueConfig;
+import dslab.config.RoutingConfig;
+import dslab.entity.Exchange;
+import dslab.entity.Queue;
+import dslab.entity.RoutingOptions;
+import dslab.entity.binding.CachingBindingStorage;
+import dslab.entity.binding.CachingBindingStorage.RouteCacheStats;
+import dslab.entity.binding.DirectBindingStorage;
+import dslab.entity.binding.TopicBindingStorage;
+import dslab.util.Constants;
+import dslab.util.ExchangeType;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.queue;
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RouteCacheTest extends BaseBrokerTest {
+
+    @Test
+    void repeated_routing_keys_are_answered_from_the_cache() {
+        CachingBindingStorage storage = new CachingBindingStorage(new TopicBindingStorage(), 16);
+        Queue orders = storage.addBinding("orders.*", new Queue("orders"));
+        Queue audit = storage.addBinding("#", new Queue("audit"));
+
+        List<Queue> first = storage.getQueuesByRoutingKey("orders.created");
+        assertEquals(Set.of(orders, audit), Set.copyOf(first));
+        for (int i = 0; i < 9; i++) {
+            assertSame(first, storage.getQueuesByRoutingKey("orders.created"));
+        }
+        List<Queue> visited = new ArrayList<>();
+        storage.forEachQueue("orders.created", visited::add);
+        assertEquals(first, visited);
+        assertThrows(UnsupportedOperationException.class, () -> first.add(orders));
+
+        RouteCacheStats stats = storage.stats();
+        assertEquals(10, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.size());
+        assertEquals(10 / 11.0, stats.hitRate(), 1e-9);
+    }
+
+    @Test
+    void binding_changes_invalidate_every_route() {
+        CachingBindingStorage storage = new CachingBindingStorage(new DirectBindingStorage(), 16);
+        Queue first = storage.addBinding("key", new Queue("first"));
+        assertEquals(List.of(first), storage.getQueuesByRoutingKey("key"));
+        assertTrue(storage.getQueuesByRoutingKey("other").isEmpty());
+        assertEquals(2, storage.stats().size());
+
+        Queue second = storage.addBinding("other", new Queue("second"));
+        assertEquals(0, storage.stats().size());
+        assertEquals(List.of(second), storage.getQueuesByRoutingKey("other"));
+
+        assertTrue(storage.removeBinding("key", first));
+        assertTrue(storage.getQueuesByRoutingKey("key").isEmpty());
+        // a binding that did not exist changes nothing
+        assertFalse(storage.removeBinding("key", first));
+        assertEquals(1, storage.stats().size());
+
+        storage.removeQueue(second);
+        assertTrue(storage.getQueuesByRoutingKey("other").isEmpty());
+        assertEquals(0, storage.stats().hits());
+    }
+
+    @Test
+    void cache_keeps_a_bounded_number_of_routes() {
+        CachingBindingStorage storage = new CachingBindingStorage(new DirectBindingStorage(), 6);
+        List<Queue> queues = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            queues.add(storage.addBinding("key" + i, new Queue("q" + i)));
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(List.of(queues.get(i)), storage.getQueuesByRoutingKey("key" + i));
+            }
+        }
+        RouteCacheStats stats = storage.stats();
+        assertEquals(8, stats.capacity());
+        assertTrue(stats.size() <= 8);
+        assertEquals(300, stats.hits() + stats.misses());
+    }
+
+    @Test
+    void exchanges_only_cache_routes_when_configured() {
+        assertNull(new Exchange(ExchangeType.TOPIC, "plain").routeCacheStats());
+
+        Exchange exchange = new Exchange(ExchangeType.FANOUT, "cached", new RoutingOptions(false, 4, false));
+        Queue queue = exchange.getBindingStorage().addBinding("any", new Queue("fanout"));
+        assertEquals(List.of(queue), exchange.getBindingStorage().getQueuesByRoutingKey("x"));
+        assertEquals(List.of(queue), exchange.getBindingStorage().getQueuesByRoutingKey("x"));
+        assertEquals(1, exchange.routeCacheStats().hits());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void broker_routes_through_cached_exchanges(String transport) throws Exception {
+        startBroker(new ListenerConfig(transport, 1), QueueConfig.defaults(), new RoutingConfig("trie", 64));
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            TelnetClientHelper client = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+            assertEquals("ok SMQP", client.connectAndReadResponse());
+            assertEquals("ok", client.sendCommandAndReadResponse(exchange("topic", "cached")));
+            assertEquals("ok", client.sendCommandAndReadResponse(queue("audit")));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish orders.created dropped"));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind orders.*"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish orders.created first"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish orders.created second"));
+            assertEquals("ok", client.sendCommandAndReadResponse("unbind orders.*"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish orders.created dropped"));
+            assertEquals("ok", client.sendCommandAndReadResponse("subscribe"));
+            assertEquals("first", client.readResponse());
+            assertEquals("second", client.readResponse());
+            client.disconnect();
+        });
+    }
+}
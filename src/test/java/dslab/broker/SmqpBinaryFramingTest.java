@@ -0,0 +1,71 @@
+package dslab.broker;
+
+import dslab.util.BinaryFrame;
+import dslab.util.Constants;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static dslab.util.CommandBuilder.bind;
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.queue;
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class SmqpBinaryFramingTest extends BaseBrokerTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void binary_payloads_are_delivered_unchanged(String transport) throws IOException {
+        startBroker(transport);
+        byte[] payload = {'a', '\n', 0, (byte) 0xFF, '\r', 'b'};
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            try (Socket subscriber = new Socket(Constants.LOCALHOST, config.port());
+                 Socket publisher = new Socket(Constants.LOCALHOST, config.port())) {
+                DataInputStream subscriberIn = switchToBinary(subscriber);
+                OutputStream subscriberOut = subscriber.getOutputStream();
+                for (String command : new String[]{exchange("direct", "binary"), queue("binary"), bind("key"), "subscribe"}) {
+                    writeFrame(subscriberOut, BinaryFrame.COMMAND, "", command.getBytes(StandardCharsets.UTF_8));
+                    assertResponse(subscriberIn, "ok");
+                }
+
+                DataInputStream publisherIn = switchToBinary(publisher);
+                OutputStream publisherOut = publisher.getOutputStream();
+                writeFrame(publisherOut, BinaryFrame.COMMAND, "", exchange("direct", "binary").getBytes(StandardCharsets.UTF_8));
+                writeFrame(publisherOut, BinaryFrame.PUBLISH, "key", payload);
+                writeFrame(publisherOut, BinaryFrame.PUBLISH, "other", payload);
+                assertResponse(publisherIn, "ok");
+                assertResponse(publisherIn, "ok");
+                assertResponse(publisherIn, "ok");
+
+                assertEquals(BinaryFrame.DELIVER, subscriberIn.readByte());
+                assertEquals(0, subscriberIn.readUnsignedShort());
+                byte[] delivered = new byte[subscriberIn.readInt()];
+                subscriberIn.readFully(delivered);
+                assertArrayEquals(payload, delivered);
+            }
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void unknown_opcode_is_rejected(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            try (Socket socket = new Socket(Constants.LOCALHOST, config.port())) {
+                DataInputStream in = switchToBinary(socket);
+                writeFrame(socket.getOutputStream(), (byte) 42, "", new byte[0]);
+                assertResponse(in, "error unknown opcode 42");
+            }
+        });
+    }
+}
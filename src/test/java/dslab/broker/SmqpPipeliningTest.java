@@ -0,0 +1,50 @@
+package dslab.broker;
+
+import dslab.util.Constants;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.publish;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static java.time.Duration.ofSeconds;
+
+public class SmqpPipeliningTest extends BaseBrokerTest {
+
+    private static final int PIPELINED_COMMANDS = 500;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void pipelined_commands_are_answered_in_order(String transport) throws IOException {
+        startBroker(transport);
+
+        assertTimeoutPreemptively(ofSeconds(3), () -> {
+            try (Socket socket = new Socket(Constants.LOCALHOST, config.port())) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream out = socket.getOutputStream();
+                assertEquals("ok SMQP", reader.readLine());
+
+                StringBuilder batch = new StringBuilder(exchange("fanout", "pipelined")).append('\n');
+                for (int i = 0; i < PIPELINED_COMMANDS; i++) {
+                    batch.append(publish("none", "message-" + i)).append('\n');
+                }
+                batch.append("unknown\n");
+                out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+
+                for (int i = 0; i <= PIPELINED_COMMANDS; i++) {
+                    assertEquals("ok", reader.readLine());
+                }
+                assertEquals("error usage: <command> <args>", reader.readLine());
+            }
+        });
+    }
+}
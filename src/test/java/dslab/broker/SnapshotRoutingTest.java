@@ -0,0 +1,192 @@
+package dslab.broker;
+
+import dslab.config.ListenerConfig;
+import dslab.config.QueueConfig;
+import dslab.config.RoutingConfig;
+import dslab.entity.Queue;
+import dslab.entity.binding.DirectBindingStorage;
+import dslab.entity.binding.FanoutBindingStorage;
+import dslab.entity.binding.SnapshotBindingStorage;
+import dslab.entity.binding.TopicBindingStorage;
+import dslab.util.Constants;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.queue;
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnapshotRoutingTest extends BaseBrokerTest {
+
+    @Test
+    void direct_and_fanout_snapshots_route_like_the_concurrent_storages() {
+        Queue first = new Queue("same");
+        // equal by name, but a different queue
+        Queue second = new Queue("same");
+
+        SnapshotBindingStorage direct = SnapshotBindingStorage.direct();
+        direct.addBinding("key", first);
+        direct.addBinding("key", second);
+        direct.addBinding("key", first);
+        direct.addBinding("other", first);
+        assertEquals(3, direct.getQueuesByRoutingKey("key").size());
+        assertTrue(direct.removeBinding("key", first));
+        assertFalse(direct.removeBinding("key", first));
+        assertEquals(1, direct.getQueuesByRoutingKey("key").size());
+        assertTrue(direct.getQueuesByRoutingKey("missing").isEmpty());
+        direct.removeQueue(first);
+        assertTrue(direct.getQueuesByRoutingKey("other").isEmpty());
+        assertEquals(1, direct.bindingCount());
+
+        SnapshotBindingStorage fanout = SnapshotBindingStorage.fanout();
+        fanout.addBinding("any", first);
+        fanout.addBinding("other", second);
+        assertEquals(2, fanout.getQueuesByRoutingKey("x").size());
+        // a fanout exchange ignores binding keys, like FanoutBindingStorage
+        assertTrue(fanout.removeBinding("none", first));
+        assertEquals(1, fanout.getQueuesByRoutingKey("x").size());
+        assertEquals(new FanoutBindingStorage().getQueuesByRoutingKey("x"),
+                SnapshotBindingStorage.fanout().getQueuesByRoutingKey("x"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void topic_snapshots_route_like_the_trie(boolean compiled) {
+        Random random = new Random(compiled ? 7 : 3);
+        TopicBindingStorage trie = new TopicBindingStorage();
+        SnapshotBindingStorage snapshot = SnapshotBindingStorage.topic(compiled);
+        List<String> keys = new ArrayList<>();
+        List<Queue> queues = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            if (i % 3 == 2) {
+                int index = random.nextInt(keys.size());
+                // trailing dots name the same binding key
+                String key = keys.get(index) + (random.nextBoolean() ? "." : "");
+                assertEquals(trie.removeBinding(key, queues.get(index)), snapshot.removeBinding(key, queues.get(index)));
+            } else {
+                String key = randomKey(random, true);
+                Queue queue = new Queue("q" + random.nextInt(20));
+                keys.add(key);
+                queues.add(queue);
+                trie.addBinding(key, queue);
+                snapshot.addBinding(key, queue);
+            }
+        }
+        for (int i = 0; i < 2000; i++) {
+            String routingKey = randomKey(random, false);
+            assertEquals(Set.copyOf(trie.getQueuesByRoutingKey(routingKey)),
+                    Set.copyOf(snapshot.getQueuesByRoutingKey(routingKey)), routingKey);
+        }
+    }
+
+    @Test
+    void routes_already_looked_up_are_not_changed_by_binds() {
+        SnapshotBindingStorage storage = SnapshotBindingStorage.direct();
+        Queue first = storage.addBinding("key", new Queue("first"));
+        List<Queue> routed = storage.getQueuesByRoutingKey("key");
+        Queue second = storage.addBinding("key", new Queue("second"));
+
+        assertEquals(List.of(first), routed);
+        assertEquals(List.of(first, second), storage.getQueuesByRoutingKey("key"));
+        assertThrows(UnsupportedOperationException.class, () -> routed.add(second));
+    }
+
+    @Test
+    void concurrent_binds_all_end_up_in_the_snapshot() throws Exception {
+        SnapshotBindingStorage storage = SnapshotBindingStorage.direct();
+        int threads = 8;
+        int binds = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < binds; i++) {
+                        Queue queue = storage.addBinding("t%d.%d".formatted(thread, i), new Queue("q"));
+                        // every bind is visible once it returns
+                        assertEquals(List.of(queue), storage.getQueuesByRoutingKey("t%d.%d".formatted(thread, i)));
+                        if (i % 2 == 1) assertTrue(storage.removeBinding("t%d.%d".formatted(thread, i), queue));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads * binds / 2, storage.bindingCount());
+    }
+
+    @Test
+    void many_bindings_are_added_at_once() {
+        SnapshotBindingStorage storage = SnapshotBindingStorage.direct();
+        Map<String, Queue> bindings = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            bindings.put("queue" + i, new Queue("queue" + i));
+        }
+        storage.addBindings(bindings);
+        assertEquals(1000, storage.bindingCount());
+        bindings.forEach((key, queue) -> assertEquals(List.of(queue), storage.getQueuesByRoutingKey(key)));
+
+        DirectBindingStorage concurrent = new DirectBindingStorage();
+        concurrent.addBindings(bindings);
+        assertEquals(List.of(bindings.get("queue7")), concurrent.getQueuesByRoutingKey("queue7"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void broker_routes_with_snapshot_tables(String transport) throws Exception {
+        startBroker(new ListenerConfig(transport, 1),
+                QueueConfig.defaults(), new RoutingConfig("trie", 16, "snapshot"));
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            TelnetClientHelper client = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+            assertEquals("ok SMQP", client.connectAndReadResponse());
+            assertEquals("ok", client.sendCommandAndReadResponse(exchange("topic", "snapshots")));
+            assertEquals("ok", client.sendCommandAndReadResponse(queue("audit")));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind orders.#"));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind *.created"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish orders.created once"));
+            assertEquals("ok", client.sendCommandAndReadResponse("unbind orders.#"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish orders.shipped dropped"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish users.created kept"));
+            assertEquals("ok", client.sendCommandAndReadResponse("subscribe"));
+            assertEquals("once", client.readResponse());
+            assertEquals("kept", client.readResponse());
+            client.disconnect();
+        });
+    }
+
+    /**
+     * @param patterns whether the key may contain wildcards
+     */
+    private static String randomKey(Random random, boolean patterns) {
+        StringBuilder key = new StringBuilder();
+        int length = random.nextInt(4);
+        for (int i = 0; i <= length; i++) {
+            if (i > 0) key.append('.');
+            int word = random.nextInt(patterns ? 6 : 4);
+            key.append(word == 4 ? "*" : word == 5 ? "#" : "w" + word);
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,165 @@
+package dslab.broker;
+
+import dslab.config.ListenerConfig;
+import dslab.config.QueueConfig;
+import dslab.config.RoutingConfig;
+import dslab.entity.Queue;
+import dslab.entity.binding.TopicBindingStorage;
+import dslab.util.Constants;
+import dslab.util.helper.TelnetClientHelper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static dslab.util.CommandBuilder.exchange;
+import static dslab.util.CommandBuilder.queue;
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TopicMatchTest extends BaseBrokerTest {
+
+    @Test
+    void overlapping_patterns_match_a_queue_once() {
+        TopicBindingStorage storage = new TopicBindingStorage();
+        Queue audit = new Queue("audit");
+        Queue eu = new Queue("eu");
+        storage.addBinding("orders.*", audit);
+        storage.addBinding("orders.#", audit);
+        storage.addBinding("#.created", audit);
+        storage.addBinding("orders.created", eu);
+        storage.addBinding("#.#", eu);
+
+        assertEquals(Set.of(audit, eu), Set.copyOf(storage.getQueuesByRoutingKey("orders.created")));
+        assertEquals(2, storage.getQueuesByRoutingKey("orders.created").size());
+        assertEquals(2, storage.getQueuesByRoutingKey("orders.created.late").size());
+        assertEquals(List.of(eu), storage.getQueuesByRoutingKey("payments"));
+    }
+
+    @Test
+    void wildcards_match_words_not_characters() {
+        TopicBindingStorage storage = new TopicBindingStorage();
+        Queue star = storage.addBinding("a.*.c", new Queue("star"));
+        Queue hash = storage.addBinding("a.#.c", new Queue("hash"));
+        Queue exact = storage.addBinding("ab.c", new Queue("exact"));
+        Queue empty = storage.addBinding("a..c", new Queue("empty"));
+
+        assertEquals(Set.of(star, hash), Set.copyOf(storage.getQueuesByRoutingKey("a.b.c")));
+        assertEquals(List.of(hash), storage.getQueuesByRoutingKey("a.c"));
+        assertEquals(List.of(hash), storage.getQueuesByRoutingKey("a.b.b.c"));
+        assertEquals(List.of(exact), storage.getQueuesByRoutingKey("ab.c"));
+        assertEquals(Set.of(star, hash, empty), Set.copyOf(storage.getQueuesByRoutingKey("a..c")));
+        assertTrue(storage.getQueuesByRoutingKey("a.b.c.d").isEmpty());
+        assertTrue(storage.getQueuesByRoutingKey("").isEmpty());
+    }
+
+    @Test
+    void wide_fan_outs_and_nested_lookups_get_scratch_state_of_their_own() {
+        TopicBindingStorage storage = new TopicBindingStorage();
+        List<Queue> queues = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            queues.add(storage.addBinding(i % 2 == 0 ? "metrics.#" : "metrics.cpu." + i % 7, new Queue("q" + i)));
+        }
+        Queue other = storage.addBinding("logs.*", new Queue("other"));
+
+        assertEquals(Set.copyOf(queues.subList(0, 1000).stream().filter(q -> {
+            int i = Integer.parseInt(q.getName().substring(1));
+            return i % 2 == 0 || i % 7 == 3;
+        }).toList()), Set.copyOf(storage.getQueuesByRoutingKey("metrics.cpu.3")));
+
+        List<Queue> visited = new ArrayList<>();
+        storage.forEachQueue("logs.x", queue -> {
+            visited.add(queue);
+            // routes while the outer lookup still holds its matches
+            assertEquals(500, storage.getQueuesByRoutingKey("metrics.disk").size());
+        });
+        assertEquals(List.of(other), visited);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {4, 14})
+    void compiled_matcher_agrees_with_the_trie(int words) {
+        Random random = new Random(words);
+        TopicBindingStorage trie = new TopicBindingStorage();
+        TopicBindingStorage compiled = new TopicBindingStorage(true);
+        for (int i = 0; i < 200; i++) {
+            String key = randomKey(random, words, true);
+            Queue queue = new Queue("q" + random.nextInt(50));
+            trie.addBinding(key, queue);
+            compiled.addBinding(key, queue);
+        }
+        for (int i = 0; i < 5000; i++) {
+            String routingKey = randomKey(random, words, false);
+            assertEquals(Set.copyOf(trie.getQueuesByRoutingKey(routingKey)),
+                    Set.copyOf(compiled.getQueuesByRoutingKey(routingKey)), routingKey);
+        }
+        assertTrue(compiled.compiledStates() > 0);
+    }
+
+    @Test
+    void compiled_matcher_follows_binding_changes() {
+        TopicBindingStorage storage = new TopicBindingStorage(true);
+        Queue first = storage.addBinding("orders.#", new Queue("first"));
+        assertEquals(List.of(first), storage.getQueuesByRoutingKey("orders.eu.created"));
+        int states = storage.compiledStates();
+        assertEquals(states, storage.compiledStates());
+
+        Queue second = storage.addBinding("*.eu.*", new Queue("second"));
+        assertEquals(0, storage.compiledStates());
+        assertEquals(Set.of(first, second), Set.copyOf(storage.getQueuesByRoutingKey("orders.eu.created")));
+        // the same lookup again only follows transitions built already
+        states = storage.compiledStates();
+        storage.getQueuesByRoutingKey("orders.eu.created");
+        assertEquals(states, storage.compiledStates());
+
+        storage.removeQueue(first);
+        assertEquals(List.of(second), storage.getQueuesByRoutingKey("orders.eu.created"));
+        assertTrue(storage.removeBinding("*.eu.*", second));
+        assertTrue(storage.getQueuesByRoutingKey("orders.eu.created").isEmpty());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"thread", "nio"})
+    void broker_routes_through_compiled_topic_exchanges(String transport) throws IOException {
+        startBroker(new ListenerConfig(transport, 1), QueueConfig.defaults(), new RoutingConfig("compiled", 0));
+
+        assertTimeoutPreemptively(ofSeconds(5), () -> {
+            TelnetClientHelper client = new TelnetClientHelper(Constants.LOCALHOST, config.port());
+            assertEquals("ok SMQP", client.connectAndReadResponse());
+            assertEquals("ok", client.sendCommandAndReadResponse(exchange("topic", "compiled")));
+            assertEquals("ok", client.sendCommandAndReadResponse(queue("audit")));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind orders.#"));
+            assertEquals("ok", client.sendCommandAndReadResponse("bind #.created"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish payments.settled skipped"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish orders.eu.created once"));
+            assertEquals("ok", client.sendCommandAndReadResponse("unbind orders.#"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish orders.eu.shipped skipped"));
+            assertEquals("ok", client.sendCommandAndReadResponse("publish users.created twice"));
+            assertEquals("ok", client.sendCommandAndReadResponse("subscribe"));
+            assertEquals("once", client.readResponse());
+            assertEquals("twice", client.readResponse());
+            client.disconnect();
+        });
+    }
+
+    /**
+     * @param patterns whether the key may contain wildcards
+     */
+    private static String randomKey(Random random, int words, boolean patterns) {
+        StringBuilder key = new StringBuilder();
+        int length = random.nextInt(5);
+        for (int i = 0; i <= length; i++) {
+            if (i > 0) key.append('.');
+            int word = random.nextInt(patterns ? words + 2 : words);
+            key.append(word == words ? "*" : word == words + 1 ? "#" : "w" + word);
+        }
+        return key.toString();
+    }
+}
@@ -2,6 +2,7 @@ package dslab.util;
 
 import dslab.config.BrokerConfig;
 import dslab.config.DNSServerConfig;
+import dslab.config.ListenerConfig;
 import dslab.config.MonitoringServerConfig;
 
 public class ConfigFactory {
@@ -39,6 +40,10 @@ public class ConfigFactory {
         return createBrokerConfigsA2(1)[0];
     }
 
+    public static BrokerConfig createBrokerConfigA2(ListenerConfig listener) {
+        return createBrokerConfigA2().withListener(listener);
+    }
+
     public static BrokerConfig[] createBrokerConfigsA2(int numBrokers) {
         BrokerConfig[] configs = new BrokerConfig[numBrokers];
 